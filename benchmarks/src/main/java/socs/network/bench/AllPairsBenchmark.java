@@ -0,0 +1,83 @@
+package socs.network.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.LSA;
+import socs.network.message.RouterId;
+import socs.network.node.AllPairsShortestPaths;
+
+/**
+ * The time to compute and write out the whole all-pairs matrix of a
+ * generated network, on 1 to 8 threads, to see how it scales with cores. The
+ * output is thrown away as it is written, so what is measured is the
+ * shortest paths and the encoding, not the disk.
+ *
+ * @author kstricks
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class AllPairsBenchmark {
+
+	@Param({ "grid", "random" })
+	public String topology;
+
+	@Param({ "1000", "4000" })
+	public int size;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	@Param({ "binary", "csv" })
+	public String format;
+
+	private AllPairsShortestPaths allPairs;
+	private AllPairsShortestPaths.Format matrixFormat;
+
+	// takes whatever it is given and keeps none of it
+	private final OutputStream discard = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Map<RouterId, LSA> lsas = new HashMap<RouterId, LSA>();
+		for (LSA lsa : Topology.fromName(this.topology).generate(this.size, 42)) {
+			lsas.put(lsa.getOriginIp(), lsa);
+		}
+		this.allPairs = new AllPairsShortestPaths(lsas);
+		this.matrixFormat = AllPairsShortestPaths.Format.fromName(this.format);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		this.allPairs.write(this.discard, this.matrixFormat, this.threads);
+	}
+}
@@ -0,0 +1,32 @@
+package socs.network.bench;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Runs the benchmarks the same way org.openjdk.jmh.Main does, taking the same
+ * arguments, except that unless told otherwise the results are also written
+ * as JSON to jmh-result-yyyyMMdd-HHmmss.json, so runs from different builds
+ * can be compared.
+ *
+ * @author kstricks
+ *
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		List<String> options = new ArrayList<String>(Arrays.asList(args));
+		if (!options.contains("-rf")) {
+			options.add("-rf");
+			options.add("json");
+		}
+		if (!options.contains("-rff")) {
+			options.add("-rff");
+			options.add("jmh-result-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+		}
+		org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+	}
+}
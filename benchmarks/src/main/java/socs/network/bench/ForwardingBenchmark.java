@@ -0,0 +1,107 @@
+package socs.network.bench;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.RouterId;
+import socs.network.node.Router;
+import socs.network.sim.Simulation;
+import socs.network.sim.TopologyDescription;
+
+/**
+ * How many DATA packets a chain of routers forwards per second, end to end.
+ * The routers are real ones, run by a Simulation and converged before
+ * anything is measured; the first router sends a burst of packets to the
+ * last, and an operation is over once they have all been delivered, so the
+ * score is packets delivered per second rather than packets queued.
+ *
+ * The routers log at WARN, as logging every delivery would be most of what
+ * is measured.
+ *
+ * @author kstricks
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsocs.network.log.level=WARN")
+public class ForwardingBenchmark {
+
+	// packets sent per operation
+	private static final int BURST = 256;
+
+	@Param({ "2", "4", "8", "16" })
+	public int routers;
+
+	@Param({ "memory", "tcp" })
+	public String transport;
+
+	private Simulation simulation;
+	private Router first;
+	private Router last;
+	private RouterId destination;
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setUp() throws TimeoutException, InterruptedException {
+		TopologyDescription chain = new TopologyDescription();
+		for (int i = 0; i < this.routers; i++) {
+			chain.addRouter("10.0.0." + (i + 1));
+			if (i > 0) {
+				chain.addLink("10.0.0." + i, "10.0.0." + (i + 1), (short) 1);
+			}
+		}
+		HashMap<String, String> settings = new HashMap<String, String>();
+		settings.put("socs.network.router.transport", this.transport);
+		this.simulation = new Simulation(chain, settings);
+		this.simulation.launch(60000);
+		this.simulation.attach(60000);
+		this.simulation.start();
+		if (!this.simulation.awaitConvergence(60000)) {
+			throw new IllegalStateException("the chain didn't converge");
+		}
+
+		this.first = this.simulation.getRouter("10.0.0.1");
+		this.last = this.simulation.getRouter("10.0.0." + this.routers);
+		this.destination = this.last.getRd().getSimulatedIPAddress();
+		this.payload = new byte[64];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.simulation.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public void forward() {
+		long delivered = this.last.getMetrics().getDataDelivered() + BURST;
+		for (int i = 0; i < BURST; i++) {
+			if (!this.first.sendData(this.destination, this.payload)) {
+				throw new IllegalStateException("no route to " + this.destination);
+			}
+		}
+		while (this.last.getMetrics().getDataDelivered() < delivered) {
+			LockSupport.parkNanos(10000);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package socs.network.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.RouterId;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.RouterDescription;
+import socs.network.node.RoutingTable;
+import socs.network.node.ShortestPathTree;
+
+/**
+ * The link state database's hot paths, on a fully flooded database for each
+ * generated topology and size, as seen from router 0.
+ *
+ * The benchmarks that change the database reissue one router's LSA per
+ * operation, with the next sequence number and one link's weight changed, so
+ * that every operation is a real update. Building the new LSA is part of what
+ * is measured, but is small next to what it's measured with.
+ *
+ * @author kstricks
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkStateDatabaseBenchmark {
+
+	@Param({ "ring", "grid", "random", "scale_free" })
+	public String topology;
+
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	public int size;
+
+	private Vector<LSA> lsas;
+	private LinkStateDatabase lsd;
+	private Random random;
+
+	// the current sequence number of each router's LSA
+	private int[] seqNumbers;
+	// destinations to query, picked ahead of time
+	private RouterId[] destinations;
+	private List<RouterId> destinationList;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.lsas = Topology.fromName(this.topology).generate(this.size, 42);
+		this.lsd = new LinkStateDatabase(new RouterDescription("127.0.0.1", 0, Topology.ip(0)));
+		this.lsd.update(this.lsas);
+		// build the shortest-path tree up front, as a running router would
+		// have by the time anything changes
+		this.lsd.getShortestPath(Topology.ip(0));
+
+		this.random = new Random(7);
+		this.seqNumbers = new int[this.size];
+		for (int i = 0; i < this.size; i++) {
+			this.seqNumbers[i] = this.lsas.get(i).getLsaSeqNumber();
+		}
+		this.destinations = new RouterId[1024];
+		for (int i = 0; i < this.destinations.length; i++) {
+			this.destinations[i] = Topology.ip(this.random.nextInt(this.size));
+		}
+		this.destinationList = Arrays.asList(this.destinations);
+	}
+
+	/**
+	 * A path query when nothing has changed since the last one
+	 */
+	@Benchmark
+	public String getShortestPath() {
+		return this.lsd.getShortestPath(this.nextDestination());
+	}
+
+	/**
+	 * A path query after one LSA has changed: the tree is repaired and the
+	 * routing table rebuilt before the query is answered
+	 */
+	@Benchmark
+	public String getShortestPathAfterUpdate() {
+		this.lsd.update(this.reissueRandomLsa());
+		return this.lsd.getShortestPath(this.nextDestination());
+	}
+
+	/**
+	 * A bulk query for 1024 destinations after one LSA has changed: the tree
+	 * is repaired once for all of them, where separate queries interleaved
+	 * with updates would each pay for a repair
+	 */
+	@Benchmark
+	public List<RoutingTable.RouteEntry> getRoutesAfterUpdate() {
+		this.lsd.update(this.reissueRandomLsa());
+		return this.lsd.getRoutes(this.destinationList);
+	}
+
+	/**
+	 * Taking a new LSA into the database
+	 */
+	@Benchmark
+	public Vector<LSA> update() {
+		return this.lsd.update(this.reissueRandomLsa());
+	}
+
+	/**
+	 * Comparing the database against a full set of LSAs, none of which it is
+	 * missing, so every entry is checked
+	 */
+	@Benchmark
+	public boolean containsMore() {
+		return this.lsd.containsMore(this.lsas);
+	}
+
+	/**
+	 * Dijkstra's algorithm from scratch over the whole database, the way a
+	 * path query does it when too much has changed to repair the tree
+	 */
+	@Benchmark
+	public ShortestPathTree fullShortestPathTree() {
+		ShortestPathTree tree = new ShortestPathTree(Topology.ip(0));
+		tree.rebuild(this.lsd.getSnapshot().getLsas());
+		return tree;
+	}
+
+	private RouterId nextDestination() {
+		return this.destinations[this.next++ & (this.destinations.length - 1)];
+	}
+
+	/**
+	 * @return a new version of a random router's LSA, in an array ready to
+	 *         pass to update
+	 */
+	private Vector<LSA> reissueRandomLsa() {
+		int i = this.random.nextInt(this.size);
+		LSA old = this.lsd.getSnapshot().getLsas().get(Topology.ip(i));
+		// the first link is the router's link to itself
+		int changed = 1 + this.random.nextInt(Math.max(1, old.getLinkCount() - 1));
+		LinkDescription[] links = new LinkDescription[old.getLinkCount()];
+		for (int k = 0; k < links.length; k++) {
+			LinkDescription ld = old.getLink(k);
+			int distance = k == changed ? 1 + this.random.nextInt(10) : ld.getDistance();
+			links[k] = new LinkDescription(ld.getDestinationIp(), ld.getPortNum(), distance);
+		}
+		Vector<LSA> update = new Vector<LSA>(1);
+		update.add(new LSA(old.getOriginIp(), ++this.seqNumbers[i], links));
+		return update;
+	}
+}
@@ -0,0 +1,85 @@
+package socs.network.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+/**
+ * A way of putting an SOSPFPacket on the wire, as measured by
+ * PacketFormatBenchmark. To compare a new codec against the others, add it
+ * here and to the benchmark's codec parameter.
+ *
+ * @author kstricks
+ *
+ */
+public enum PacketFormat {
+
+	/**
+	 * ObjectOutputStream, as the router originally sent every packet, with a
+	 * fresh stream per packet as it had
+	 */
+	JAVA_SERIALIZATION {
+		@Override
+		public ByteBuffer encode(SOSPFPacket packet) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(packet);
+			out.close();
+			return ByteBuffer.wrap(bytes.toByteArray());
+		}
+
+		@Override
+		public SOSPFPacket decode(ByteBuffer encoded) throws IOException {
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(encoded.array(), encoded.position(), encoded.remaining()));
+			try {
+				return (SOSPFPacket) in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+	},
+
+	/**
+	 * The length-prefixed PacketCodec frames the router sends today
+	 */
+	BINARY {
+		@Override
+		public ByteBuffer encode(SOSPFPacket packet) throws IOException {
+			return WireFormat.encode(packet);
+		}
+
+		@Override
+		public SOSPFPacket decode(ByteBuffer encoded) throws IOException {
+			ByteBuffer body = encoded.duplicate();
+			body.position(body.position() + WireFormat.HEADER_LENGTH);
+			return WireFormat.decode(body);
+		}
+	};
+
+	/**
+	 * @return everything that goes on the wire for the packet, between the
+	 *         buffer's position and limit
+	 */
+	public abstract ByteBuffer encode(SOSPFPacket packet) throws IOException;
+
+	/**
+	 * @param encoded
+	 *            - what encode returned. left as it is
+	 */
+	public abstract SOSPFPacket decode(ByteBuffer encoded) throws IOException;
+
+	/**
+	 * @param name
+	 *            - e.g. "binary" or "java_serialization"
+	 */
+	public static PacketFormat fromName(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
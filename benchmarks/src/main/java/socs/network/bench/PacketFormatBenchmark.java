@@ -0,0 +1,93 @@
+package socs.network.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.LSA;
+import socs.network.message.MessageType;
+import socs.network.message.SOSPFPacket;
+
+/**
+ * The cost of putting an LSAUPDATE on the wire and taking it off again, for
+ * each PacketFormat, as the number of LSAs it carries grows. The LSAs are
+ * those of a random network of that many routers, so carrying lsaCount of
+ * them is what flooding a whole link state database of that size would take.
+ *
+ * Besides the time per encode and decode, encode reports the encoded size of
+ * the packet as the bytesPerPacket counter. Allocation rates come from JMH's
+ * gc profiler: run with -prof gc.
+ *
+ * @author kstricks
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketFormatBenchmark {
+
+	@Param({ "java_serialization", "binary" })
+	public String codec;
+
+	@Param({ "1", "10", "100", "1000", "10000" })
+	public int lsaCount;
+
+	private PacketFormat format;
+	private SOSPFPacket packet;
+	private ByteBuffer encoded;
+
+	/**
+	 * Reported alongside the time per encode
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Size {
+		// the same every operation; set rather than added to, so it reads
+		// the same however many operations an iteration runs
+		public long bytesPerPacket;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			this.bytesPerPacket = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.format = PacketFormat.fromName(this.codec);
+		Vector<LSA> lsas = Topology.RANDOM.generate(this.lsaCount, 42);
+		this.packet = new SOSPFPacket(MessageType.LSAUPDATE, "127.0.0.1", 3001, Topology.ip(0), lsas);
+		this.packet.setPrecedingNodeIP(Topology.ip(1));
+		this.encoded = this.format.encode(this.packet);
+	}
+
+	@Benchmark
+	public ByteBuffer encode(Size size) throws IOException {
+		ByteBuffer buf = this.format.encode(this.packet);
+		size.bytesPerPacket = buf.remaining();
+		return buf;
+	}
+
+	@Benchmark
+	public SOSPFPacket decode() throws IOException {
+		return this.format.decode(this.encoded);
+	}
+}
@@ -0,0 +1,73 @@
+package socs.network.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.util.PrefixTrie;
+
+/**
+ * Longest prefix match lookups per second in the forwarding table's prefix
+ * trie, over 1000 to a million random prefixes.
+ *
+ * The prefix lengths are spread roughly the way they are in real routing
+ * tables: mostly /24s, then /16 to /23, with a few shorter ones. Half the
+ * addresses looked up are inside a prefix that was put (though a longer one
+ * may also match them) and half are picked at random, most of which only
+ * match a short prefix or none at all.
+ *
+ * @author kstricks
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefixLookupBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int prefixes;
+
+	private PrefixTrie trie;
+
+	// addresses to look up, picked ahead of time
+	private int[] addresses;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(42);
+		this.trie = new PrefixTrie();
+		int[] put = new int[this.prefixes];
+		for (int i = 0; i < this.prefixes; i++) {
+			int r = random.nextInt(100);
+			int length = r < 60 ? 24 : r < 95 ? 16 + random.nextInt(8) : 8 + random.nextInt(8);
+			put[i] = random.nextInt();
+			this.trie.put(put[i], length, i);
+		}
+
+		this.addresses = new int[1 << 16];
+		for (int i = 0; i < this.addresses.length; i++) {
+			this.addresses[i] = i % 2 == 0 ? put[random.nextInt(this.prefixes)] : random.nextInt();
+		}
+	}
+
+	@Benchmark
+	public int lookup() {
+		return this.trie.lookup(this.addresses[this.next++ & (this.addresses.length - 1)]);
+	}
+}
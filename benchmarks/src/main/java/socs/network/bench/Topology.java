@@ -0,0 +1,189 @@
+package socs.network.bench;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.RouterId;
+
+/**
+ * Generators for the networks the benchmarks run over. Each one produces the
+ * LSAs a router would hold once the whole network had flooded: one per
+ * router, listing a link to each neighbor (links are symmetric, with the same
+ * weight both ways) plus the link to itself on port -1 that every router
+ * advertises. Router i has simulated ip ip(i), and router 0 is the one the
+ * benchmarks query from.
+ *
+ * @author kstricks
+ *
+ */
+public enum Topology {
+
+	/**
+	 * Every router linked to the next, and the last back to the first
+	 */
+	RING {
+		@Override
+		void connect(Links links, int size, Random random) {
+			for (int i = 0; i < size; i++) {
+				links.add(i, (i + 1) % size);
+			}
+		}
+	},
+
+	/**
+	 * Routers on a square grid, each linked to the ones above, below, left and
+	 * right of it. The last row is partly empty unless size is a square.
+	 */
+	GRID {
+		@Override
+		void connect(Links links, int size, Random random) {
+			int side = (int) Math.ceil(Math.sqrt(size));
+			for (int i = 0; i < size; i++) {
+				if ((i + 1) % side != 0 && i + 1 < size) {
+					links.add(i, i + 1);
+				}
+				if (i + side < size) {
+					links.add(i, i + side);
+				}
+			}
+		}
+	},
+
+	/**
+	 * A path through every router, so the network is connected, plus random
+	 * links between pairs of routers for an average of four links per router
+	 */
+	RANDOM {
+		@Override
+		void connect(Links links, int size, Random random) {
+			for (int i = 0; i + 1 < size; i++) {
+				links.add(i, i + 1);
+			}
+			for (int i = 0; i < size; i++) {
+				links.add(random.nextInt(size), random.nextInt(size));
+			}
+		}
+	},
+
+	/**
+	 * Preferential attachment (Barabasi-Albert): each new router links to two
+	 * existing ones, picked with probability proportional to how many links
+	 * they already have, giving a few very well connected hubs
+	 */
+	SCALE_FREE {
+		@Override
+		void connect(Links links, int size, Random random) {
+			// every link adds both its ends to this list, so picking from it
+			// uniformly picks routers in proportion to their degree
+			int[] ends = new int[4 * size];
+			int count = 0;
+			if (size > 1) {
+				links.add(0, 1);
+				ends[count++] = 0;
+				ends[count++] = 1;
+			}
+			for (int i = 2; i < size; i++) {
+				int picks = Math.min(2, i);
+				for (int k = 0; k < picks; k++) {
+					int j = ends[random.nextInt(count)];
+					if (links.add(i, j)) {
+						ends[count++] = i;
+						ends[count++] = j;
+					}
+				}
+			}
+		}
+	};
+
+	/**
+	 * Adds the topology's links between routers 0..size-1
+	 */
+	abstract void connect(Links links, int size, Random random);
+
+	/**
+	 * @param name
+	 *            - e.g. "ring" or "scale_free"
+	 */
+	public static Topology fromName(String name) {
+		return valueOf(name.toUpperCase());
+	}
+
+	/**
+	 * @param size
+	 *            - the number of routers
+	 * @param seed
+	 *            - for the random choices, so runs are comparable
+	 * @return an LSA for each router, router i's at index i
+	 */
+	public Vector<LSA> generate(int size, long seed) {
+		Random random = new Random(seed);
+		Links links = new Links(size, random);
+		this.connect(links, size, random);
+
+		Vector<LSA> lsas = new Vector<LSA>(size);
+		for (int i = 0; i < size; i++) {
+			LinkDescription[] lds = new LinkDescription[1 + links.of(i).size()];
+			lds[0] = new LinkDescription(ip(i), -1, 0);
+			int port = 0;
+			for (int[] link : links.of(i)) {
+				lds[port + 1] = new LinkDescription(ip(link[0]), port, link[1]);
+				port++;
+			}
+			// sequence number 1 replaces the LSA a router starts out with
+			lsas.add(new LSA(ip(i), 1, lds));
+		}
+		return lsas;
+	}
+
+	/**
+	 * @return the simulated ip of router i: 10.x.y.z, with i in the last
+	 *         three bytes
+	 */
+	public static RouterId ip(int i) {
+		return RouterId.of((10 << 24) | (i & 0xffffff));
+	}
+
+	/**
+	 * The links of the network being generated, without duplicates or links
+	 * from a router to itself
+	 */
+	static class Links {
+		private final ArrayList<ArrayList<int[]>> neighbors;
+		private final HashSet<Long> pairs = new HashSet<Long>();
+		private final Random random;
+
+		Links(int size, Random random) {
+			this.neighbors = new ArrayList<ArrayList<int[]>>(size);
+			for (int i = 0; i < size; i++) {
+				this.neighbors.add(new ArrayList<int[]>(4));
+			}
+			this.random = random;
+		}
+
+		/**
+		 * Links routers a and b, with a random weight from 1 to 10
+		 *
+		 * @return false if they were already linked, or are the same router
+		 */
+		boolean add(int a, int b) {
+			if (a == b || !this.pairs.add(((long) Math.min(a, b) << 32) | Math.max(a, b))) {
+				return false;
+			}
+			int weight = 1 + this.random.nextInt(10);
+			this.neighbors.get(a).add(new int[] { b, weight });
+			this.neighbors.get(b).add(new int[] { a, weight });
+			return true;
+		}
+
+		/**
+		 * @return router i's links, as {neighbor, weight}
+		 */
+		ArrayList<int[]> of(int i) {
+			return this.neighbors.get(i);
+		}
+	}
+}
@@ -1,17 +1,36 @@
-package socs.network;
-
-import socs.network.node.Router;
-import socs.network.util.Configuration;
-
-public class Main {
-
-	public static void main(String[] args) {
-		if (args.length != 1) {
-			System.out.println("usage: program conf_path");
-			System.exit(1);
-		}
-		// instantiate a router with the provided configuration file
-		Router r = new Router(new Configuration(args[0]));
-		r.terminal();
-	}
-}
+package socs.network;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+import socs.network.node.Router;
+import socs.network.util.Configuration;
+
+public class Main {
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("usage: program conf_path");
+			System.exit(1);
+		}
+		// log events are written out asynchronously, so flush whatever is
+		// still queued when the router quits
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+			}
+		}));
+		// instantiate a router with the provided configuration file
+		Router r;
+		try {
+			r = new Router(new Configuration(args[0]));
+		} catch (IllegalArgumentException e) {
+			// a setting the router can't run with
+			System.err.println("ERROR: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		r.terminal();
+	}
+}
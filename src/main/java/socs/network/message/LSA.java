@@ -1,33 +1,62 @@
 package socs.network.message;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Link state advertisement. This contains the link descriptions for the links
  * that the origin node (linkStateID) is sure of. i.e. the link descriptions to
  * itself and to its neighbors
- * 
+ *
+ * An LSA never changes once made: a router that changes its links originates
+ * a new LSA with the next sequence number (see withLink and withoutLink).
+ * That way one instance can be shared by link state databases, packets being
+ * sent and threads, without anyone copying it.
+ *
  * @author kstricks
  *
  */
 public class LSA implements Serializable {
 
-	private String originIp; // simulated IP address of the router where this
-								// LSA originated
-	private int lsaSeqNumber; // version of the LSA, to be
-								// compared with last LSA
-								// version received by the
-								// router from the sender
-								// (originIp)
+	private final RouterId originIp; // simulated IP address of the router where
+									// this LSA originated
+	private final int lsaSeqNumber; // version of the LSA, to be
+									// compared with last LSA
+									// version received by the
+									// router from the sender
+									// (originIp)
 
 	// the links from the origin router to its neighbors
-	private LinkedList<LinkDescription> links;
-	
-	public LSA(String originIp, int lsaSeqNumber) {
+	private final LinkDescription[] links;
+
+	// the networks behind the origin router, whose addresses are routed to it
+	private final Prefix[] prefixes;
+
+	private static final Prefix[] NO_PREFIXES = new Prefix[0];
+
+	/**
+	 * @param links
+	 *            - the links from the origin router. The LSA keeps the array
+	 *            rather than copying it, so it mustn't be changed afterwards.
+	 */
+	public LSA(RouterId originIp, int lsaSeqNumber, LinkDescription... links) {
+		this(originIp, lsaSeqNumber, links, NO_PREFIXES);
+	}
+
+	/**
+	 * @param links
+	 *            - the links from the origin router
+	 * @param prefixes
+	 *            - the prefixes the origin router advertises. Like links,
+	 *            the array is kept rather than copied.
+	 */
+	public LSA(RouterId originIp, int lsaSeqNumber, LinkDescription[] links, Prefix[] prefixes) {
 		this.originIp = originIp;
 		this.lsaSeqNumber = lsaSeqNumber;
-		this.links = new LinkedList<LinkDescription>();
+		this.links = links;
+		this.prefixes = prefixes;
 	}
 
 	@Override
@@ -37,35 +66,70 @@ public class LSA implements Serializable {
 		for (LinkDescription ld : links) {
 			sb.append(ld);
 		}
+		for (Prefix prefix : prefixes) {
+			sb.append(" ").append(prefix);
+		}
 		sb.append("\n");
 		return sb.toString();
 	}
-	
-	public void incrementLsaSeqNumber() {
-		lsaSeqNumber++;
-	}
 
-	public void addLink(LinkDescription ld) {
-		this.links.add(ld);
+	/**
+	 * @return the next version of this LSA, with the link added
+	 */
+	public LSA withLink(LinkDescription ld) {
+		LinkDescription[] next = Arrays.copyOf(this.links, this.links.length + 1);
+		next[this.links.length] = ld;
+		return new LSA(this.originIp, this.lsaSeqNumber + 1, next, this.prefixes);
 	}
 
-	public void removeLink(String remoteIp) {
-		int i;
-		boolean found = false;
-		for (i = 0; i < this.links.size(); i++) {
-			if (this.links.get(i).getDestinationIp().equals(remoteIp)) {
-				found = true;
-				break;
+	/**
+	 * @return the next version of this LSA, without the link to remoteIp (the
+	 *         links are the same if there wasn't one, but the sequence number
+	 *         still goes up)
+	 */
+	public LSA withoutLink(RouterId remoteIp) {
+		for (int i = 0; i < this.links.length; i++) {
+			if (this.links[i].getDestinationIp().equals(remoteIp)) {
+				LinkDescription[] next = new LinkDescription[this.links.length - 1];
+				System.arraycopy(this.links, 0, next, 0, i);
+				System.arraycopy(this.links, i + 1, next, i, next.length - i);
+				return new LSA(this.originIp, this.lsaSeqNumber + 1, next, this.prefixes);
 			}
 		}
+		return new LSA(this.originIp, this.lsaSeqNumber + 1, this.links, this.prefixes);
+	}
+
+	/**
+	 * @return the next version of this LSA, advertising prefix as well (the
+	 *         prefixes are the same if it already did, but the sequence
+	 *         number still goes up)
+	 */
+	public LSA withPrefix(Prefix prefix) {
+		if (Arrays.asList(this.prefixes).contains(prefix)) {
+			return new LSA(this.originIp, this.lsaSeqNumber + 1, this.links, this.prefixes);
+		}
+		Prefix[] next = Arrays.copyOf(this.prefixes, this.prefixes.length + 1);
+		next[this.prefixes.length] = prefix;
+		return new LSA(this.originIp, this.lsaSeqNumber + 1, this.links, next);
+	}
 
-		if (found) {
-			this.links.remove(i);
+	/**
+	 * @return the next version of this LSA, no longer advertising prefix
+	 */
+	public LSA withoutPrefix(Prefix prefix) {
+		for (int i = 0; i < this.prefixes.length; i++) {
+			if (this.prefixes[i].equals(prefix)) {
+				Prefix[] next = new Prefix[this.prefixes.length - 1];
+				System.arraycopy(this.prefixes, 0, next, 0, i);
+				System.arraycopy(this.prefixes, i + 1, next, i, next.length - i);
+				return new LSA(this.originIp, this.lsaSeqNumber + 1, this.links, next);
+			}
 		}
+		return new LSA(this.originIp, this.lsaSeqNumber + 1, this.links, this.prefixes);
 	}
 
 	// Setters and Getters
-	public String getOriginIp() {
+	public RouterId getOriginIp() {
 		return originIp;
 	}
 
@@ -73,8 +137,27 @@ public class LSA implements Serializable {
 		return lsaSeqNumber;
 	}
 
-	public LinkedList<LinkDescription> getLinks() {
-		return links;
+	/**
+	 * @return the links, which can't be changed
+	 */
+	public List<LinkDescription> getLinks() {
+		return Collections.unmodifiableList(Arrays.asList(this.links));
+	}
+
+	public int getLinkCount() {
+		return this.links.length;
+	}
+
+	public LinkDescription getLink(int i) {
+		return this.links[i];
+	}
+
+	public int getPrefixCount() {
+		return this.prefixes.length;
+	}
+
+	public Prefix getPrefix(int i) {
+		return this.prefixes[i];
 	}
 
 }
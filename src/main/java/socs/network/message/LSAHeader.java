@@ -0,0 +1,41 @@
+package socs.network.message;
+
+import java.io.Serializable;
+
+/**
+ * Identifies a version of an LSA without carrying its links. Routers exchange
+ * these in DBDESCRIPTION packets to work out which LSAs each of them is
+ * missing, so that only those need to be sent in full.
+ *
+ * @author kstricks
+ *
+ */
+public class LSAHeader implements Serializable {
+
+	private final RouterId originIp; // simulated IP address of the router where the
+								// LSA originated
+	private final int lsaSeqNumber; // version of the LSA
+
+	public LSAHeader(RouterId originIp, int lsaSeqNumber) {
+		this.originIp = originIp;
+		this.lsaSeqNumber = lsaSeqNumber;
+	}
+
+	public LSAHeader(LSA lsa) {
+		this(lsa.getOriginIp(), lsa.getLsaSeqNumber());
+	}
+
+	@Override
+	public String toString() {
+		return originIp + ":" + lsaSeqNumber;
+	}
+
+	// Getters
+	public RouterId getOriginIp() {
+		return originIp;
+	}
+
+	public int getLsaSeqNumber() {
+		return lsaSeqNumber;
+	}
+}
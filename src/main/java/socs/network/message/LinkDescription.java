@@ -10,17 +10,17 @@ import java.io.Serializable;
  */
 public class LinkDescription implements Serializable {
 
-	private String destinationIp; // the simulated IP address of the destination
+	private final RouterId destinationIp; // the simulated IP address of the destination
 									// node
-	private int portNum; // the port that can be used from the LSA origin node
+	private final int portNum; // the port that can be used from the LSA origin node
 							// to reach the node with
 							// address destinationIp (-1 if the destination node
 							// is the
 							// origin)
-	private int distance; // the distance to the node (0 if the destination node
+	private final int distance; // the distance to the node (0 if the destination node
 							// is the origin)
 
-	public LinkDescription(String linkID, int portNum, int distance) {
+	public LinkDescription(RouterId linkID, int portNum, int distance) {
 		this.destinationIp = linkID;
 		this.portNum = portNum;
 		this.distance = distance;
@@ -32,7 +32,7 @@ public class LinkDescription implements Serializable {
 	}
 
 	// Getters and Setters
-	public String getDestinationIp() {
+	public RouterId getDestinationIp() {
 		return destinationIp;
 	}
 
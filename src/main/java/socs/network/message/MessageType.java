@@ -1,5 +1,5 @@
 package socs.network.message;
 
 public enum MessageType {
-	HELLO, LSAUPDATE, LSAUPDATESENDBACK, ADDLINK, REMOVELINK, SUCCESS, ERROR
+	HELLO, LSAUPDATE, DBDESCRIPTION, ADDLINK, REMOVELINK, SUCCESS, ERROR, DATA
 }
\ No newline at end of file
@@ -0,0 +1,375 @@
+package socs.network.message;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+
+/**
+ * A compact binary encoding of SOSPFPacket, LSA and LinkDescription, used for
+ * the body of every frame (see WireFormat) in place of Java serialization.
+ *
+ * Layout of a packet (version 4):
+ *
+ * <pre>
+ * version        1 byte
+ * message type   1 byte (MessageType ordinal)
+ * flags          2 bytes (which optional fields follow)
+ * process port   varint
+ * weight         zigzag varint
+ * process IP     varint length + UTF-8 bytes          (if flagged)
+ * source IP      4 bytes                              (if flagged)
+ * destination IP 4 bytes                              (if flagged)
+ * preceding IP   4 bytes                              (if flagged)
+ * router ID      varint length + UTF-8 bytes          (if flagged)
+ * error message  varint length + UTF-8 bytes          (if flagged)
+ * LSAs           varint count, then each LSA          (if flagged)
+ * LSA headers    varint count, then each header       (if flagged)
+ * data           varint TTL, then varint length + bytes (if flagged)
+ * </pre>
+ *
+ * An LSA is its origin IP (4 bytes), its sequence number (zigzag varint), a
+ * varint count of link descriptions, each of which is a destination IP (4
+ * bytes), a port and a distance (both zigzag varints), and a varint count of
+ * prefixes, each an address (4 bytes) and a length (1 byte). An LSA header is
+ * just the origin IP and sequence number.
+ *
+ * Simulated IPs go as the 4 bytes of their RouterIds.
+ *
+ * @author kstricks
+ *
+ */
+public class PacketCodec {
+
+	// bump this whenever the layout changes
+	public static final byte VERSION = 4;
+
+	private static final int HAS_PROCESS_IP = 1;
+	private static final int HAS_SRC_IP = 1 << 1;
+	private static final int HAS_DST_IP = 1 << 2;
+	private static final int HAS_PRECEDING_IP = 1 << 3;
+	private static final int HAS_ROUTER_ID = 1 << 4;
+	private static final int HAS_ERROR_MSG = 1 << 5;
+	private static final int HAS_LSAS = 1 << 6;
+	private static final int HAS_LSA_HEADERS = 1 << 7;
+	private static final int HAS_DATA = 1 << 8;
+
+	private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+	private PacketCodec() {
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+	// ENCODING
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * @return the exact number of bytes encode(packet, ...) will write
+	 */
+	public static int encodedSize(SOSPFPacket packet) {
+		int size = 4;
+		size += varintSize(packet.getSrcProcessPort());
+		size += varintSize(zigzag(packet.getWeight()));
+		size += stringSize(packet.getSrcProcessIP());
+		size += packet.getSrcIP() == null ? 0 : 4;
+		size += packet.getDstIP() == null ? 0 : 4;
+		size += packet.getPrecedingNodeIP() == null ? 0 : 4;
+		size += stringSize(packet.getRouterID());
+		size += stringSize(packet.getErrorMsg());
+		if (packet.getLsaArray() != null) {
+			size += varintSize(packet.getLsaArray().size());
+			for (LSA lsa : packet.getLsaArray()) {
+				size += encodedSize(lsa);
+			}
+		}
+		if (packet.getLsaHeaders() != null) {
+			size += varintSize(packet.getLsaHeaders().size());
+			for (LSAHeader header : packet.getLsaHeaders()) {
+				size += encodedSize(header);
+			}
+		}
+		if (packet.getPayload() != null) {
+			size += varintSize(packet.getTtl());
+			size += varintSize(packet.getPayload().length) + packet.getPayload().length;
+		}
+		return size;
+	}
+
+	public static int encodedSize(LSA lsa) {
+		int size = 4 + varintSize(zigzag(lsa.getLsaSeqNumber())) + varintSize(lsa.getLinkCount());
+		for (int i = 0; i < lsa.getLinkCount(); i++) {
+			size += encodedSize(lsa.getLink(i));
+		}
+		size += varintSize(lsa.getPrefixCount()) + 5 * lsa.getPrefixCount();
+		return size;
+	}
+
+	public static int encodedSize(LSAHeader header) {
+		return 4 + varintSize(zigzag(header.getLsaSeqNumber()));
+	}
+
+	public static int encodedSize(LinkDescription ld) {
+		return 4 + varintSize(zigzag(ld.getPortNum())) + varintSize(zigzag(ld.getDistance()));
+	}
+
+	/**
+	 * Writes the packet into the buffer, which must have at least
+	 * encodedSize(packet) bytes remaining
+	 */
+	public static void encode(SOSPFPacket packet, ByteBuffer buf) {
+		int flags = 0;
+		flags |= packet.getSrcProcessIP() == null ? 0 : HAS_PROCESS_IP;
+		flags |= packet.getSrcIP() == null ? 0 : HAS_SRC_IP;
+		flags |= packet.getDstIP() == null ? 0 : HAS_DST_IP;
+		flags |= packet.getPrecedingNodeIP() == null ? 0 : HAS_PRECEDING_IP;
+		flags |= packet.getRouterID() == null ? 0 : HAS_ROUTER_ID;
+		flags |= packet.getErrorMsg() == null ? 0 : HAS_ERROR_MSG;
+		flags |= packet.getLsaArray() == null ? 0 : HAS_LSAS;
+		flags |= packet.getLsaHeaders() == null ? 0 : HAS_LSA_HEADERS;
+		flags |= packet.getPayload() == null ? 0 : HAS_DATA;
+
+		buf.put(VERSION);
+		buf.put((byte) packet.getMessageType().ordinal());
+		buf.putShort((short) flags);
+		putVarint(buf, packet.getSrcProcessPort());
+		putVarint(buf, zigzag(packet.getWeight()));
+		if (packet.getSrcProcessIP() != null) {
+			putString(buf, packet.getSrcProcessIP());
+		}
+		if (packet.getSrcIP() != null) {
+			buf.putInt(packet.getSrcIP().toInt());
+		}
+		if (packet.getDstIP() != null) {
+			buf.putInt(packet.getDstIP().toInt());
+		}
+		if (packet.getPrecedingNodeIP() != null) {
+			buf.putInt(packet.getPrecedingNodeIP().toInt());
+		}
+		if (packet.getRouterID() != null) {
+			putString(buf, packet.getRouterID());
+		}
+		if (packet.getErrorMsg() != null) {
+			putString(buf, packet.getErrorMsg());
+		}
+		if (packet.getLsaArray() != null) {
+			putVarint(buf, packet.getLsaArray().size());
+			for (LSA lsa : packet.getLsaArray()) {
+				encode(lsa, buf);
+			}
+		}
+		if (packet.getLsaHeaders() != null) {
+			putVarint(buf, packet.getLsaHeaders().size());
+			for (LSAHeader header : packet.getLsaHeaders()) {
+				encode(header, buf);
+			}
+		}
+		if (packet.getPayload() != null) {
+			putVarint(buf, packet.getTtl());
+			putVarint(buf, packet.getPayload().length);
+			buf.put(packet.getPayload());
+		}
+	}
+
+	public static void encode(LSA lsa, ByteBuffer buf) {
+		buf.putInt(lsa.getOriginIp().toInt());
+		putVarint(buf, zigzag(lsa.getLsaSeqNumber()));
+		putVarint(buf, lsa.getLinkCount());
+		for (int i = 0; i < lsa.getLinkCount(); i++) {
+			encode(lsa.getLink(i), buf);
+		}
+		putVarint(buf, lsa.getPrefixCount());
+		for (int i = 0; i < lsa.getPrefixCount(); i++) {
+			buf.putInt(lsa.getPrefix(i).getAddress());
+			buf.put((byte) lsa.getPrefix(i).getLength());
+		}
+	}
+
+	public static void encode(LSAHeader header, ByteBuffer buf) {
+		buf.putInt(header.getOriginIp().toInt());
+		putVarint(buf, zigzag(header.getLsaSeqNumber()));
+	}
+
+	public static void encode(LinkDescription ld, ByteBuffer buf) {
+		buf.putInt(ld.getDestinationIp().toInt());
+		putVarint(buf, zigzag(ld.getPortNum()));
+		putVarint(buf, zigzag(ld.getDistance()));
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+	// DECODING
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Reads one packet from the buffer
+	 *
+	 * @throws IOException
+	 *             if the buffer does not hold a valid packet
+	 */
+	public static SOSPFPacket decode(ByteBuffer buf) throws IOException {
+		try {
+			byte version = buf.get();
+			if (version != VERSION) {
+				throw new StreamCorruptedException("unsupported wire format version " + version);
+			}
+			int type = buf.get() & 0xff;
+			if (type >= MESSAGE_TYPES.length) {
+				throw new StreamCorruptedException("unknown message type " + type);
+			}
+			int flags = buf.getShort() & 0xffff;
+
+			SOSPFPacket packet = new SOSPFPacket();
+			packet.setMessageType(MESSAGE_TYPES[type]);
+			packet.setSrcProcessPort(getVarint(buf));
+			packet.setWeight(unzigzag(getVarint(buf)));
+			if ((flags & HAS_PROCESS_IP) != 0) {
+				packet.setSrcProcessIP(getString(buf));
+			}
+			if ((flags & HAS_SRC_IP) != 0) {
+				packet.setSrcIP(RouterId.of(buf.getInt()));
+			}
+			if ((flags & HAS_DST_IP) != 0) {
+				packet.setDstIP(RouterId.of(buf.getInt()));
+			}
+			if ((flags & HAS_PRECEDING_IP) != 0) {
+				packet.setPrecedingNodeIP(RouterId.of(buf.getInt()));
+			}
+			if ((flags & HAS_ROUTER_ID) != 0) {
+				packet.setRouterID(getString(buf));
+			}
+			if ((flags & HAS_ERROR_MSG) != 0) {
+				packet.setErrorMsg(getString(buf));
+			}
+			if ((flags & HAS_LSAS) != 0) {
+				int count = getLength(buf);
+				Vector<LSA> lsaArray = new Vector<LSA>(count);
+				for (int i = 0; i < count; i++) {
+					lsaArray.addElement(decodeLsa(buf));
+				}
+				packet.setLsaArray(lsaArray);
+			}
+			if ((flags & HAS_LSA_HEADERS) != 0) {
+				int count = getLength(buf);
+				Vector<LSAHeader> lsaHeaders = new Vector<LSAHeader>(count);
+				for (int i = 0; i < count; i++) {
+					lsaHeaders.addElement(decodeLsaHeader(buf));
+				}
+				packet.setLsaHeaders(lsaHeaders);
+			}
+			if ((flags & HAS_DATA) != 0) {
+				packet.setTtl(getVarint(buf));
+				byte[] payload = new byte[getLength(buf)];
+				buf.get(payload);
+				packet.setPayload(payload);
+			}
+			return packet;
+		} catch (BufferUnderflowException e) {
+			throw new StreamCorruptedException("truncated packet");
+		}
+	}
+
+	public static LSA decodeLsa(ByteBuffer buf) throws IOException {
+		RouterId originIp = RouterId.of(buf.getInt());
+		int lsaSeqNumber = unzigzag(getVarint(buf));
+		LinkDescription[] links = new LinkDescription[getLength(buf)];
+		for (int i = 0; i < links.length; i++) {
+			links[i] = decodeLinkDescription(buf);
+		}
+		Prefix[] prefixes = new Prefix[getLength(buf)];
+		for (int i = 0; i < prefixes.length; i++) {
+			int address = buf.getInt();
+			int length = buf.get() & 0xff;
+			if (length > 32) {
+				throw new StreamCorruptedException("invalid prefix length " + length);
+			}
+			prefixes[i] = new Prefix(address, length);
+		}
+		return new LSA(originIp, lsaSeqNumber, links, prefixes);
+	}
+
+	public static LSAHeader decodeLsaHeader(ByteBuffer buf) throws IOException {
+		return new LSAHeader(RouterId.of(buf.getInt()), unzigzag(getVarint(buf)));
+	}
+
+	public static LinkDescription decodeLinkDescription(ByteBuffer buf) throws IOException {
+		RouterId destinationIp = RouterId.of(buf.getInt());
+		int portNum = unzigzag(getVarint(buf));
+		int distance = unzigzag(getVarint(buf));
+		return new LinkDescription(destinationIp, portNum, distance);
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+	// PRIMITIVES
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+
+	private static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static int varintSize(int n) {
+		int size = 1;
+		while ((n & ~0x7f) != 0) {
+			n >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static void putVarint(ByteBuffer buf, int n) {
+		while ((n & ~0x7f) != 0) {
+			buf.put((byte) ((n & 0x7f) | 0x80));
+			n >>>= 7;
+		}
+		buf.put((byte) n);
+	}
+
+	private static int getVarint(ByteBuffer buf) throws IOException {
+		int n = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buf.get();
+			n |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return n;
+			}
+		}
+		throw new StreamCorruptedException("malformed varint");
+	}
+
+	/**
+	 * Reads a count or length, making sure it could possibly fit in what is
+	 * left of the buffer so a corrupted frame cannot make us allocate
+	 * something huge
+	 */
+	private static int getLength(ByteBuffer buf) throws IOException {
+		int length = getVarint(buf);
+		if (length < 0 || length > buf.remaining()) {
+			throw new StreamCorruptedException("invalid length " + length);
+		}
+		return length;
+	}
+
+	private static int stringSize(String s) {
+		if (s == null) {
+			return 0;
+		}
+		int length = s.getBytes(StandardCharsets.UTF_8).length;
+		return varintSize(length) + length;
+	}
+
+	private static void putString(ByteBuffer buf, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		putVarint(buf, bytes.length);
+		buf.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buf) throws IOException {
+		byte[] bytes = new byte[getLength(buf)];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,107 @@
+package socs.network.message;
+
+import java.io.Serializable;
+
+/**
+ * A block of simulated IP addresses, written as an address and a prefix
+ * length, e.g. "10.1.0.0/16": every address whose first 16 bits are those of
+ * 10.1.0.0. A router advertises the prefixes of the networks behind it in its
+ * LSA, and DATA packets for any address in them are routed to it.
+ *
+ * The address is kept with the bits past the length cleared, so two prefixes
+ * for the same block are always equal.
+ *
+ * @author kstricks
+ *
+ */
+public final class Prefix implements Serializable {
+
+	private final int address;
+	private final int length;
+
+	/**
+	 * @param address
+	 *            - an IPv4 address, most significant byte first. the bits
+	 *            past length are ignored
+	 * @param length
+	 *            - how many of the address's leading bits the prefix fixes, 0
+	 *            to 32
+	 * @throws IllegalArgumentException
+	 *             if length is out of range
+	 */
+	public Prefix(int address, int length) {
+		if (length < 0 || length > 32) {
+			throw new IllegalArgumentException("prefix length must be 0 to 32, not " + length);
+		}
+		this.address = address & mask(length);
+		this.length = length;
+	}
+
+	/**
+	 * @param prefix
+	 *            - a dotted-quad IPv4 address and a length, e.g.
+	 *            "10.1.0.0/16". an address on its own is a /32
+	 * @return the prefix
+	 * @throws IllegalArgumentException
+	 *             if prefix isn't in that form
+	 */
+	public static Prefix parse(String prefix) {
+		int slash = prefix.indexOf('/');
+		if (slash < 0) {
+			return new Prefix(RouterId.parse(prefix).toInt(), 32);
+		}
+		int length;
+		try {
+			length = Integer.parseInt(prefix.substring(slash + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("not an IPv4 prefix: " + prefix);
+		}
+		return new Prefix(RouterId.parse(prefix.substring(0, slash)).toInt(), length);
+	}
+
+	/**
+	 * @return the mask with the leading length bits set
+	 */
+	public static int mask(int length) {
+		return length == 0 ? 0 : -1 << (32 - length);
+	}
+
+	/**
+	 * @return true if address is in this block
+	 */
+	public boolean contains(int address) {
+		return (address & mask(this.length)) == this.address;
+	}
+
+	/**
+	 * @return the first address of the block, most significant byte first
+	 */
+	public int getAddress() {
+		return address;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Prefix)) {
+			return false;
+		}
+		Prefix other = (Prefix) obj;
+		return other.address == this.address && other.length == this.length;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.address * 31 + this.length;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(18).append(this.address >>> 24).append('.').append((this.address >>> 16) & 0xff)
+				.append('.').append((this.address >>> 8) & 0xff).append('.').append(this.address & 0xff).append('/')
+				.append(this.length).toString();
+	}
+}
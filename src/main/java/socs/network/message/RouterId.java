@@ -0,0 +1,105 @@
+package socs.network.message;
+
+import java.io.Serializable;
+
+/**
+ * A router's simulated IP address, held as the 32-bit int it stands for.
+ * Simulated IPs are parsed into these once, where they come in (config files,
+ * the terminal, the wire), so that comparing and hashing them everywhere else
+ * is integer work rather than string work.
+ *
+ * Ids aren't interned, since comparing two is already a single int compare,
+ * and a table of every address ever parsed would only grow. Compare them with
+ * equals, never ==.
+ *
+ * @author kstricks
+ *
+ */
+public final class RouterId implements Serializable, Comparable<RouterId> {
+
+	private final int address;
+	// the address in dotted-quad form, made the first time it is printed.
+	// ids come off the wire by the thousand and are mostly never printed
+	private transient String text;
+
+	private RouterId(int address) {
+		this.address = address;
+	}
+
+	/**
+	 * @param address
+	 *            - an IPv4 address, most significant byte first
+	 * @return the id for it
+	 */
+	public static RouterId of(int address) {
+		return new RouterId(address);
+	}
+
+	/**
+	 * @param ip
+	 *            - a dotted-quad IPv4 address, e.g. "192.168.1.1"
+	 * @return the id for it
+	 * @throws IllegalArgumentException
+	 *             if ip isn't a dotted-quad IPv4 address
+	 */
+	public static RouterId parse(String ip) {
+		int value = 0, octet = 0, dots = 0, digits = 0;
+		for (int i = 0; i < ip.length(); i++) {
+			char c = ip.charAt(i);
+			if (c == '.') {
+				if (digits == 0 || ++dots > 3) {
+					throw new IllegalArgumentException("not an IPv4 address: " + ip);
+				}
+				value = (value << 8) | octet;
+				octet = 0;
+				digits = 0;
+			} else if (c >= '0' && c <= '9' && digits < 3) {
+				octet = octet * 10 + (c - '0');
+				digits++;
+				if (octet > 255) {
+					throw new IllegalArgumentException("not an IPv4 address: " + ip);
+				}
+			} else {
+				throw new IllegalArgumentException("not an IPv4 address: " + ip);
+			}
+		}
+		if (dots != 3 || digits == 0) {
+			throw new IllegalArgumentException("not an IPv4 address: " + ip);
+		}
+		return of((value << 8) | octet);
+	}
+
+	/**
+	 * @return the address, most significant byte first
+	 */
+	public int toInt() {
+		return address;
+	}
+
+	@Override
+	public int compareTo(RouterId other) {
+		return Integer.compareUnsigned(this.address, other.address);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return this == obj || (obj instanceof RouterId && ((RouterId) obj).address == this.address);
+	}
+
+	@Override
+	public int hashCode() {
+		return address;
+	}
+
+	@Override
+	public String toString() {
+		// racing threads at worst each make an equal string
+		String text = this.text;
+		if (text == null) {
+			text = new StringBuilder(15).append(address >>> 24).append('.').append((address >>> 16) & 0xff)
+					.append('.').append((address >>> 8) & 0xff).append('.').append(address & 0xff).toString();
+			this.text = text;
+		}
+		return text;
+	}
+}
@@ -16,27 +16,33 @@ public class SOSPFPacket implements Serializable {
 	private int srcProcessPort;
 
 	// simulated IP address
-	private String srcIP; // the original source of the packet
-	private String dstIP; // the eventual destination of the packet
+	private RouterId srcIP; // the original source of the packet
+	private RouterId dstIP; // the eventual destination of the packet
 
 	// common header
 	private MessageType messageType;
 	private String routerID;
 
 	// the node immediately prior to the receiving node in the chain (for LSAUPDATE)
-	private String precedingNodeIP;
+	private RouterId precedingNodeIP;
 
-	// used by LSAUPDATE
+	// used by LSAUPDATE, and by the response to a DBDESCRIPTION
 	private Vector<LSA> lsaArray;
-	private boolean sendBack; // a boolean that specifies whether the next node
-								// in the chain should send data back to the
-								// sending node
+
+	// used by DBDESCRIPTION: a summary of the sender's LSD in a request, and
+	// the LSAs the responder would like sent to it in a response
+	private Vector<LSAHeader> lsaHeaders;
 
 	private String errorMsg;
 	
 	// for ADDLINK
 	private int weight;
 
+	// for DATA: how many more routers may forward the packet, and what it
+	// carries
+	private int ttl;
+	private byte[] payload;
+
 	/**
 	 * Many overloaded constructors for instantiating packets for various
 	 * purposes
@@ -51,7 +57,7 @@ public class SOSPFPacket implements Serializable {
 		this.errorMsg = errMsg;
 	}
 
-	public SOSPFPacket(MessageType mt, String srcProcessIP, int srcProcessPort, String srcIP) {
+	public SOSPFPacket(MessageType mt, String srcProcessIP, int srcProcessPort, RouterId srcIP) {
 		this.messageType = mt;
 		this.srcProcessIP = srcProcessIP;
 		this.srcProcessPort = srcProcessPort;
@@ -59,18 +65,16 @@ public class SOSPFPacket implements Serializable {
 		this.precedingNodeIP = srcIP;
 	}
 	
-	public SOSPFPacket(MessageType mt, String srcProcessIP, int srcProcessPort, String srcIP, Vector<LSA> lsaArray,
-			boolean sendBack) {
+	public SOSPFPacket(MessageType mt, String srcProcessIP, int srcProcessPort, RouterId srcIP, Vector<LSA> lsaArray) {
 		this.messageType = mt;
 		this.srcProcessIP = srcProcessIP;
 		this.srcProcessPort = srcProcessPort;
 		this.srcIP = srcIP;
 		this.precedingNodeIP = srcIP;
 		this.lsaArray = lsaArray;
-		this.sendBack = sendBack;
 	}
 
-	public SOSPFPacket(MessageType mt, String srcProcessIP, int srcProcessPort, String srcIP, int weight) {
+	public SOSPFPacket(MessageType mt, String srcProcessIP, int srcProcessPort, RouterId srcIP, int weight) {
 		this.messageType = mt;
 		this.srcProcessIP = srcProcessIP;
 		this.srcProcessPort = srcProcessPort;
@@ -79,12 +83,36 @@ public class SOSPFPacket implements Serializable {
 		this.weight = weight;
 	}
 
+	/**
+	 * A copy of another packet. The LSAs, headers and payload never change,
+	 * so the copy shares them, but it has vectors of its own.
+	 */
+	public SOSPFPacket(SOSPFPacket packet) {
+		this.srcProcessIP = packet.srcProcessIP;
+		this.srcProcessPort = packet.srcProcessPort;
+		this.srcIP = packet.srcIP;
+		this.dstIP = packet.dstIP;
+		this.messageType = packet.messageType;
+		this.routerID = packet.routerID;
+		this.precedingNodeIP = packet.precedingNodeIP;
+		this.lsaArray = packet.lsaArray == null ? null : new Vector<LSA>(packet.lsaArray);
+		this.lsaHeaders = packet.lsaHeaders == null ? null : new Vector<LSAHeader>(packet.lsaHeaders);
+		this.errorMsg = packet.errorMsg;
+		this.weight = packet.weight;
+		this.ttl = packet.ttl;
+		this.payload = packet.payload;
+	}
+
 	// getters and setters
 
 	public String getSrcProcessIP() {
 		return srcProcessIP;
 	}
 
+	public void setSrcProcessIP(String srcProcessIP) {
+		this.srcProcessIP = srcProcessIP;
+	}
+
 	public int getSrcProcessPort() {
 		return srcProcessPort;
 	}
@@ -93,19 +121,19 @@ public class SOSPFPacket implements Serializable {
 		this.srcProcessPort = srcProcessPort;
 	}
 
-	public String getSrcIP() {
+	public RouterId getSrcIP() {
 		return srcIP;
 	}
 
-	public void setSrcIP(String srcIP) {
+	public void setSrcIP(RouterId srcIP) {
 		this.srcIP = srcIP;
 	}
 
-	public String getDstIP() {
+	public RouterId getDstIP() {
 		return dstIP;
 	}
 
-	public void setDstIP(String dstIP) {
+	public void setDstIP(RouterId dstIP) {
 		this.dstIP = dstIP;
 	}
 
@@ -125,11 +153,11 @@ public class SOSPFPacket implements Serializable {
 		this.routerID = routerID;
 	}
 
-	public String getPrecedingNodeIP() {
+	public RouterId getPrecedingNodeIP() {
 		return precedingNodeIP;
 	}
 
-	public void setPrecedingNodeIP(String precedingNodeIP) {
+	public void setPrecedingNodeIP(RouterId precedingNodeIP) {
 		this.precedingNodeIP = precedingNodeIP;
 	}
 
@@ -153,11 +181,31 @@ public class SOSPFPacket implements Serializable {
 		return weight;
 	}
 
-	public boolean getSendBack() {
-		return this.sendBack;
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public void setPayload(byte[] payload) {
+		this.payload = payload;
+	}
+
+	public Vector<LSAHeader> getLsaHeaders() {
+		return lsaHeaders;
 	}
 
-	public void setSendBack(boolean sendBack) {
-		this.sendBack = sendBack;
+	public void setLsaHeaders(Vector<LSAHeader> lsaHeaders) {
+		this.lsaHeaders = lsaHeaders;
 	}
 }
@@ -0,0 +1,128 @@
+package socs.network.message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * How SOSPFPackets travel between routers. Every packet is sent as one frame:
+ * a 4-byte big-endian length followed by that many bytes of packet, encoded
+ * by PacketCodec. Framing lets a reader that does not block (the selector
+ * server) tell where one packet ends and the next begins, and lets both server
+ * modes share one format.
+ *
+ * @author kstricks
+ *
+ */
+public class WireFormat {
+
+	// the number of bytes in a frame header
+	public static final int HEADER_LENGTH = 4;
+
+	// refuse to read frames larger than this, as they can only come from a
+	// corrupted stream
+	public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	private WireFormat() {
+	}
+
+	/**
+	 * Encodes a packet into a complete frame, header included
+	 *
+	 * @param packet
+	 * @return a buffer positioned at the start of the frame
+	 * @throws IOException
+	 */
+	public static ByteBuffer encode(SOSPFPacket packet) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(frameLength(packet));
+		frame.putInt(frame.capacity() - HEADER_LENGTH);
+		PacketCodec.encode(packet, frame);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * @return the number of bytes the packet takes up as a frame, header
+	 *         included
+	 */
+	public static int frameLength(SOSPFPacket packet) {
+		return HEADER_LENGTH + PacketCodec.encodedSize(packet);
+	}
+
+	/**
+	 * Decodes the body of a frame (everything after the header)
+	 *
+	 * @param body
+	 *            - a buffer holding exactly one frame body between its position
+	 *            and limit
+	 * @return the packet
+	 * @throws IOException
+	 */
+	public static SOSPFPacket decode(ByteBuffer body) throws IOException {
+		SOSPFPacket packet = PacketCodec.decode(body);
+		if (body.hasRemaining()) {
+			throw new StreamCorruptedException("trailing bytes after packet");
+		}
+		return packet;
+	}
+
+	/**
+	 * Validates the length read from a frame header
+	 *
+	 * @param length
+	 * @return the length
+	 * @throws StreamCorruptedException
+	 *             if no valid frame could have that length
+	 */
+	public static int checkLength(int length) throws StreamCorruptedException {
+		if (length < 0 || length > MAX_FRAME_LENGTH) {
+			throw new StreamCorruptedException("invalid frame length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Writes a packet as one frame to a blocking stream
+	 *
+	 * @return the number of bytes written, header included
+	 */
+	public static int write(DataOutputStream out, SOSPFPacket packet) throws IOException {
+		ByteBuffer frame = encode(packet);
+		int length = frame.remaining();
+		out.write(frame.array(), frame.arrayOffset() + frame.position(), length);
+		out.flush();
+		return length;
+	}
+
+	/**
+	 * Reads one frame from a blocking stream
+	 *
+	 * @return the packet, or null if the stream ended cleanly before a new
+	 *         frame began
+	 */
+	public static SOSPFPacket read(DataInputStream in) throws IOException {
+		ByteBuffer body = readFrame(in);
+		return body == null ? null : decode(body);
+	}
+
+	/**
+	 * Reads one frame from a blocking stream, without decoding it
+	 *
+	 * @return the frame body, or null if the stream ended cleanly before a new
+	 *         frame began
+	 */
+	public static ByteBuffer readFrame(DataInputStream in) throws IOException {
+		int length;
+		try {
+			length = checkLength(in.readInt());
+		} catch (EOFException e) {
+			return null;
+		}
+		byte[] body = new byte[length];
+		in.readFully(body);
+		return ByteBuffer.wrap(body);
+	}
+}
@@ -0,0 +1,81 @@
+package socs.network.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, cheap enough to record into on every message.
+ * Durations go into buckets by powers of two (in nanoseconds), so recording
+ * is a few atomic increments with no locking and no allocation, and
+ * percentiles are accurate to within a factor of two, which is plenty for
+ * telling a 50us exchange from a 5ms one.
+ *
+ * @author kstricks
+ *
+ */
+public class Histogram {
+
+	// bucket i holds durations of less than 2^i ns, and at least 2^(i-1)
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 *            - a duration, e.g. the difference of two System.nanoTime()s
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+		this.count.incrementAndGet();
+		this.totalNanos.addAndGet(nanos);
+		long max = this.maxNanos.get();
+		while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+			max = this.maxNanos.get();
+		}
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return the count, mean, max and a few percentiles, in microseconds. the
+	 *         fields are read one at a time while recording carries on, so
+	 *         they may disagree slightly with each other
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] counts = new long[this.buckets.length()];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = this.buckets.get(i);
+			total += counts[i];
+		}
+		long nanos = this.totalNanos.get();
+		return new HistogramSnapshot(total, total == 0 ? 0 : nanos / total / 1000.0,
+				percentile(counts, total, 0.5), percentile(counts, total, 0.9), percentile(counts, total, 0.99),
+				this.maxNanos.get() / 1000.0);
+	}
+
+	/**
+	 * @return the upper bound of the bucket the percentile falls in, in
+	 *         microseconds
+	 */
+	private static double percentile(long[] counts, long total, double fraction) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return (i == 0 ? 0 : Math.pow(2, i)) / 1000.0;
+			}
+		}
+		return Math.pow(2, counts.length - 1) / 1000.0;
+	}
+}
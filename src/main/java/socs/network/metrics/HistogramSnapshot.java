@@ -0,0 +1,58 @@
+package socs.network.metrics;
+
+/**
+ * What a Histogram held at some moment, in microseconds. Shows up over JMX as
+ * a composite value with one item per getter.
+ *
+ * @author kstricks
+ *
+ */
+public class HistogramSnapshot {
+
+	private final long count;
+	private final double meanMicros;
+	private final double p50Micros;
+	private final double p90Micros;
+	private final double p99Micros;
+	private final double maxMicros;
+
+	public HistogramSnapshot(long count, double meanMicros, double p50Micros, double p90Micros, double p99Micros,
+			double maxMicros) {
+		this.count = count;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p90Micros = p90Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	public double getP50Micros() {
+		return p50Micros;
+	}
+
+	public double getP90Micros() {
+		return p90Micros;
+	}
+
+	public double getP99Micros() {
+		return p99Micros;
+	}
+
+	public double getMaxMicros() {
+		return maxMicros;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1fus p50<%.1fus p90<%.1fus p99<%.1fus max=%.1fus", count, meanMicros,
+				p50Micros, p90Micros, p99Micros, maxMicros);
+	}
+}
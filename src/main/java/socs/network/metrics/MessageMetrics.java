@@ -0,0 +1,68 @@
+package socs.network.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the traffic of one type of protocol message, in both directions, at
+ * one router
+ *
+ * @author kstricks
+ *
+ */
+public class MessageMetrics implements MessageMetricsMXBean {
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final Histogram roundTrip = new Histogram();
+
+	public void recordSent(int bytes) {
+		this.sent.incrementAndGet();
+		this.bytesSent.addAndGet(bytes);
+	}
+
+	public void recordReceived(int bytes) {
+		this.received.incrementAndGet();
+		this.bytesReceived.addAndGet(bytes);
+	}
+
+	public void recordFailure() {
+		this.failures.incrementAndGet();
+	}
+
+	public void recordRoundTrip(long nanos) {
+		this.roundTrip.record(nanos);
+	}
+
+	@Override
+	public long getSent() {
+		return this.sent.get();
+	}
+
+	@Override
+	public long getReceived() {
+		return this.received.get();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return this.bytesSent.get();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return this.bytesReceived.get();
+	}
+
+	@Override
+	public long getFailures() {
+		return this.failures.get();
+	}
+
+	@Override
+	public HistogramSnapshot getRoundTrip() {
+		return this.roundTrip.snapshot();
+	}
+}
@@ -0,0 +1,30 @@
+package socs.network.metrics;
+
+/**
+ * The traffic of one type of protocol message, as seen over JMX
+ *
+ * @author kstricks
+ *
+ */
+public interface MessageMetricsMXBean {
+
+	long getSent();
+
+	long getReceived();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	/**
+	 * @return how many times sending or awaiting the response to a message of
+	 *         this type failed
+	 */
+	long getFailures();
+
+	/**
+	 * @return the time from sending a request of this type to receiving its
+	 *         response, for requests that get one
+	 */
+	HistogramSnapshot getRoundTrip();
+}
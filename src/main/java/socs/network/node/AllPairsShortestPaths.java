@@ -0,0 +1,368 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import socs.network.message.LSA;
+import socs.network.message.RouterId;
+import socs.network.util.IndexedMinHeap;
+
+/**
+ * Every router's shortest paths to every other, as one router's link state
+ * database sees the network: for each source and destination, the distance
+ * between them and the neighbor of the source the path leaves through. Where
+ * several paths are equally short, the next hop is the lowest ip among them,
+ * so the answer doesn't depend on the order anything was done in, even where
+ * links of weight 0 make routers equally far away.
+ *
+ * The LSAs are packed into a CompactGraph once, and then each source gets a
+ * Dijkstra run of its own, many at a time on a ForkJoinPool. The graph is
+ * only read, so the runs share it; everything a run writes to (distances,
+ * next hops, heap, output buffer) belongs to the worker thread it is on and
+ * is reused for every source that worker takes, so once the workers are warm
+ * nothing is allocated per source but the bytes of its output.
+ *
+ * The matrix for a large network is far too big to hold, so it is never
+ * held: sources are handed out a few rows at a time, each worker encodes the
+ * rows it computes, and the rows are written out in source order as soon as
+ * all the ones before them are. Only so many rows may be waiting to be
+ * written at once, so a slow output holds the workers up rather than filling
+ * memory.
+ *
+ * @author kstricks
+ *
+ */
+public class AllPairsShortestPaths {
+
+	/**
+	 * How the matrix is written out
+	 */
+	public enum Format {
+		/**
+		 * Big-endian ints: the magic number 0x41505350 ("APSP"), the number of
+		 * routers n, the simulated ip of each router (the order the rows and
+		 * columns are in), then n rows of n pairs of distance and next hop,
+		 * the next hop as the index of a router. Both are -1 where the
+		 * destination can't be reached, and a router's next hop to itself is
+		 * itself. Every row is the same size, so any one can be read without
+		 * reading the rest.
+		 */
+		BINARY,
+		/**
+		 * A header line, then source,destination,distance,next_hop for every
+		 * pair that can be reached, by source and then destination in the
+		 * order of the binary format
+		 */
+		CSV;
+
+		/**
+		 * @return the format with the given name, ignoring case
+		 * @throws IllegalArgumentException
+		 *             if there's none by that name
+		 */
+		public static Format fromName(String name) {
+			for (Format format : values()) {
+				if (format.name().equalsIgnoreCase(name)) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("unknown matrix format: " + name);
+		}
+	}
+
+	public static final int MAGIC = 0x41505350;
+
+	// the most rows handed to a worker at once, and about how many bytes of
+	// output they should make between them
+	private static final int MAX_ROWS_PER_TASK = 64;
+	private static final int TARGET_TASK_BYTES = 1 << 20;
+	// how many tasks may be handed out per worker ahead of the rows being
+	// written
+	private static final int TASKS_IN_FLIGHT_PER_WORKER = 4;
+
+	private final CompactGraph graph = new CompactGraph();
+	private final int size;
+	// each router's place among the others when sorted by ip, for breaking
+	// ties between next hops
+	private final int[] rank;
+	// each router's ip as it appears in a csv
+	private final byte[][] csvIps;
+
+	/**
+	 * @param lsas
+	 *            - every LSA in a link state database, e.g. a snapshot's
+	 */
+	public AllPairsShortestPaths(Map<RouterId, LSA> lsas) {
+		this.graph.load(lsas);
+		this.size = this.graph.size();
+
+		Integer[] byIp = new Integer[this.size];
+		for (int id = 0; id < this.size; id++) {
+			byIp[id] = id;
+		}
+		Arrays.sort(byIp, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return graph.ipOf(a).compareTo(graph.ipOf(b));
+			}
+		});
+		this.rank = new int[this.size];
+		for (int i = 0; i < this.size; i++) {
+			this.rank[byIp[i]] = i;
+		}
+
+		this.csvIps = new byte[this.size][];
+		for (int id = 0; id < this.size; id++) {
+			this.csvIps[id] = this.graph.ipOf(id).toString().getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	/**
+	 * @return the number of routers, which is the number of rows and of
+	 *         columns in the matrix
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the router whose row and column are at index id
+	 */
+	public RouterId ipOf(int id) {
+		return this.graph.ipOf(id);
+	}
+
+	/**
+	 * Computes the whole matrix and writes it out
+	 *
+	 * @param out
+	 *            - where to write it. it isn't closed
+	 * @param format
+	 * @param parallelism
+	 *            - how many sources to work on at once
+	 * @throws IOException
+	 *             if out does
+	 */
+	public void write(OutputStream out, final Format format, int parallelism) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1, not " + parallelism);
+		}
+		this.writeHeader(out, format);
+
+		// the scratch space of each worker, for this run only
+		final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+			@Override
+			protected Worker initialValue() {
+				return new Worker(size);
+			}
+		};
+		final int rowsPerTask = Math.max(1,
+				Math.min(MAX_ROWS_PER_TASK, TARGET_TASK_BYTES / Math.max(1, this.size * 8)));
+		int tasks = (this.size + rowsPerTask - 1) / rowsPerTask;
+		int window = parallelism * TASKS_IN_FLIGHT_PER_WORKER;
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<ForkJoinTask<byte[]>>();
+			int next = 0;
+			for (int task = 0; task < tasks; task++) {
+				while (next < tasks && next < task + window) {
+					final int first = next * rowsPerTask;
+					final int last = Math.min(this.size, first + rowsPerTask);
+					inFlight.add(pool.submit(new Callable<byte[]>() {
+						@Override
+						public byte[] call() {
+							Worker worker = workers.get();
+							worker.used = 0;
+							for (int source = first; source < last; source++) {
+								computeRow(source, worker);
+								encodeRow(source, worker, format);
+							}
+							return Arrays.copyOf(worker.out, worker.used);
+						}
+					}));
+					next++;
+				}
+				out.write(inFlight.poll().join());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes one source's row of the matrix. It sets up scratch space of
+	 * its own every time, so is for the odd row; write is for all of them.
+	 *
+	 * @param source
+	 *            - the index of the source router
+	 * @param distances
+	 *            - filled in with the distance to each router, or
+	 *            ShortestPathTree.UNREACHABLE
+	 * @param nextHops
+	 *            - filled in with the index of the next hop to each router,
+	 *            or -1 where it can't be reached
+	 */
+	public void computeRow(int source, int[] distances, int[] nextHops) {
+		Worker worker = new Worker(this.size);
+		this.computeRow(source, worker);
+		System.arraycopy(worker.distance, 0, distances, 0, this.size);
+		System.arraycopy(worker.nextHop, 0, nextHops, 0, this.size);
+	}
+
+	/**
+	 * Dijkstra's algorithm from source, into the worker's arrays
+	 */
+	private void computeRow(int source, Worker worker) {
+		int[] distance = worker.distance;
+		int[] nextHop = worker.nextHop;
+		IndexedMinHeap tentative = worker.tentative;
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		int[] start = this.graph.getStart();
+		int[] end = this.graph.getEnd();
+
+		Arrays.fill(distance, ShortestPathTree.UNREACHABLE);
+		Arrays.fill(nextHop, ShortestPathTree.NONE);
+		distance[source] = 0;
+		nextHop[source] = source;
+		tentative.offer(source, 0);
+		while (!tentative.isEmpty()) {
+			int u = tentative.poll();
+			int du = distance[u];
+			for (int i = start[u]; i < end[u]; i++) {
+				int v = targets[i];
+				int d = du + weights[i];
+				// leaving the source, the next hop is where the link goes;
+				// after that, it's wherever the path to u left through
+				int hop = u == source ? v : nextHop[u];
+				if (d < distance[v]) {
+					distance[v] = d;
+					nextHop[v] = hop;
+					tentative.offer(v, d);
+				} else if (d == distance[v] && v != source && this.rank[hop] < this.rank[nextHop[v]]) {
+					nextHop[v] = hop;
+					// over a link of weight 0, v may already have been taken
+					// off the heap and passed its old next hop on; put it back
+					// so the new one reaches everything after it. next hops
+					// only ever get lower, so this stops
+					tentative.offer(v, d);
+				}
+			}
+		}
+	}
+
+	private void writeHeader(OutputStream out, Format format) throws IOException {
+		if (format == Format.CSV) {
+			out.write("source,destination,distance,next_hop\n".getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+		Worker header = new Worker(0);
+		header.reserve(8 + 4 * this.size);
+		header.putInt(MAGIC);
+		header.putInt(this.size);
+		for (int id = 0; id < this.size; id++) {
+			header.putInt(this.graph.ipOf(id).toInt());
+		}
+		out.write(header.out, 0, header.used);
+	}
+
+	/**
+	 * Appends the row the worker just computed to its output, in the given
+	 * format
+	 */
+	private void encodeRow(int source, Worker worker, Format format) {
+		int[] distance = worker.distance;
+		int[] nextHop = worker.nextHop;
+		if (format == Format.BINARY) {
+			worker.reserve(8 * this.size);
+			for (int v = 0; v < this.size; v++) {
+				boolean reachable = distance[v] != ShortestPathTree.UNREACHABLE;
+				worker.putInt(reachable ? distance[v] : -1);
+				worker.putInt(reachable ? nextHop[v] : -1);
+			}
+			return;
+		}
+		byte[] sourceIp = this.csvIps[source];
+		for (int v = 0; v < this.size; v++) {
+			if (distance[v] == ShortestPathTree.UNREACHABLE) {
+				continue;
+			}
+			byte[] destinationIp = this.csvIps[v];
+			byte[] hopIp = this.csvIps[nextHop[v]];
+			// three ips, a distance of at most 10 digits and the separators
+			worker.reserve(sourceIp.length + destinationIp.length + hopIp.length + 14);
+			worker.put(sourceIp);
+			worker.out[worker.used++] = ',';
+			worker.put(destinationIp);
+			worker.out[worker.used++] = ',';
+			worker.putDecimal(distance[v]);
+			worker.out[worker.used++] = ',';
+			worker.put(hopIp);
+			worker.out[worker.used++] = '\n';
+		}
+	}
+
+	/**
+	 * The scratch space of one worker thread: a Dijkstra run's arrays and
+	 * heap, and the bytes encoded so far for the rows of its current task
+	 */
+	private static final class Worker {
+
+		private final int[] distance;
+		private final int[] nextHop;
+		private final IndexedMinHeap tentative;
+		private byte[] out = new byte[1024];
+		private int used;
+
+		private Worker(int size) {
+			this.distance = new int[size];
+			this.nextHop = new int[size];
+			this.tentative = new IndexedMinHeap(Math.max(size, 1));
+		}
+
+		/**
+		 * Makes room for count more bytes of output
+		 */
+		private void reserve(int count) {
+			if (this.used + count > this.out.length) {
+				this.out = Arrays.copyOf(this.out, Math.max(this.used + count, this.out.length * 2));
+			}
+		}
+
+		private void put(byte[] bytes) {
+			System.arraycopy(bytes, 0, this.out, this.used, bytes.length);
+			this.used += bytes.length;
+		}
+
+		private void putInt(int value) {
+			this.out[this.used++] = (byte) (value >>> 24);
+			this.out[this.used++] = (byte) (value >>> 16);
+			this.out[this.used++] = (byte) (value >>> 8);
+			this.out[this.used++] = (byte) value;
+		}
+
+		/**
+		 * Writes a non-negative int in decimal
+		 */
+		private void putDecimal(int value) {
+			int digits = 1;
+			for (int rest = value / 10; rest > 0; rest /= 10) {
+				digits++;
+			}
+			for (int i = this.used + digits - 1; i >= this.used; i--) {
+				this.out[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+			this.used += digits;
+		}
+	}
+}
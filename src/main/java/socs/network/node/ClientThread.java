@@ -1,42 +1,65 @@
 package socs.network.node;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
 import java.util.Vector;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import socs.network.exceptions.UnexpectedMessageException;
 import socs.network.message.LSA;
 import socs.network.message.MessageType;
 import socs.network.message.SOSPFPacket;
 
-public class ClientThread extends Thread {
+/**
+ * Sends one protocol message (or, for a handshake, one short conversation) to
+ * a neighbor. Despite the name, a ClientThread no longer runs on a thread of
+ * its own: the router queues it on its OutboundExecutor, which runs it in
+ * order with the other messages to the same neighbor. An LSAUPDATE waiting in
+ * a full queue takes in the LSAs of later ones, so they go out together.
+ *
+ * @author kstricks
+ *
+ */
+public class ClientThread implements OutboundExecutor.Coalescable {
+
+	private static final Logger log = LoggerFactory.getLogger(ClientThread.class);
 
 	private Router router;
 	private Protocol protocol;
 	private RouterDescription source;
 	private RouterDescription dest;
 
+	// the link the message goes over, and the connection to dest that is
+	// shared by all messages sent over it
+	private Link link;
+	private Session session;
+
 	// optional fields
 	private int linkPort;
 	private int weight;
 	private SOSPFPacket packet;
-	private boolean sendBack;
+	private Vector<LSA> lsaArray;
 	private boolean silentQuit;
 
-	public ClientThread(Router router, Protocol protocol, RouterDescription source, RouterDescription dest) {
+	public ClientThread(Router router, Protocol protocol, Link link) {
 		this.router = router;
 		this.protocol = protocol;
-		this.source = source;
-		this.dest = dest;
+		this.source = link.getRouter1();
+		this.dest = link.getRouter2();
+		this.link = link;
+		this.session = link.getSession();
 	}
 
 	// overloaded constructor for LSAUPDATEFORWARD
-	public ClientThread(SOSPFPacket packet, RouterDescription dest) {
+	public ClientThread(Router router, SOSPFPacket packet, Link link) {
+		this.router = router;
 		this.protocol = Protocol.LSAUPDATEFORWARD;
 		this.packet = packet;
-		this.dest = dest;
+		this.dest = link.getRouter2();
+		this.link = link;
+		this.session = link.getSession();
 	}
 
 	/**
@@ -46,7 +69,9 @@ public class ClientThread extends Thread {
 	public void run() {
 		switch (this.protocol) {
 		case HANDSHAKE:
-			handshake();
+			if (handshake()) {
+				exchangeDatabase();
+			}
 			break;
 		case ADDLINK:
 			sendAddLink();
@@ -60,8 +85,8 @@ public class ClientThread extends Thread {
 		case LSAUPDATEFORWARD:
 			forwardLsaUpdate();
 			break;
-		case LSAUPDATESENDBACK:
-			sendBackLsaUpdate();
+		case DATA:
+			sendData();
 			break;
 		default:
 			System.err.println("ERROR: client instantiated with an unexpected protocol. This should never happen.");
@@ -76,51 +101,50 @@ public class ClientThread extends Thread {
 
 	/**
 	 * Performs a handshake with a remote server
+	 *
+	 * @return true if the handshake was completed
 	 */
-	public void handshake() {
-		try (
-				// create a socket connection to the server (pass the server
-				// hostname and port)
-				// get the output stream of the socket so we can write to the
-				// server
-				// get the input stream of the socket so we can read from the
-				// server
-				Socket socket = new Socket(dest.getProcessIPAddress(), dest.getProcessPortNumber());
-				ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream is = new ObjectInputStream(socket.getInputStream());) {
+	public boolean handshake() {
+		// hold the session for the whole handshake so that no other message
+		// sent over the link can slip in between the HELLOs
+		session.lock();
+		try {
+			return this.handshakeOverSession();
+		} finally {
+			session.unlock();
+		}
+	}
 
+	private boolean handshakeOverSession() {
+		try {
 			SOSPFPacket inPacket, outPacket;
 
 			outPacket = new SOSPFPacket(MessageType.HELLO, source.getProcessIPAddress(), source.getProcessPortNumber(),
 					source.getSimulatedIPAddress());
 
-			// send hello to server
-			os.writeObject(outPacket);
-
-			// wait for server to send us hello back
-			inPacket = (SOSPFPacket) is.readObject();
+			// send hello to server and wait for it to send us hello back
+			inPacket = session.exchange(outPacket);
 
 			if (inPacket.getMessageType() != MessageType.HELLO) {
 				// this should never happen
 				throw new UnexpectedMessageException();
 			}
 
-			System.out.println("received hello from " + inPacket.getSrcIP() + ";\n");
+			log.info("received HELLO router={} neighbor={}", source.getSimulatedIPAddress(), inPacket.getSrcIP());
 
 			// set remote router to TWO_WAY
 			this.dest.setStatus(RouterStatus.TWO_WAY);
-			System.out.println("set " + inPacket.getSrcIP() + " state to TWO_WAY;\n");
+			log.info("set neighbor state router={} neighbor={} state=TWO_WAY", source.getSimulatedIPAddress(),
+					inPacket.getSrcIP());
 
 			// send HELLO back to server
-			os.writeObject(outPacket);
+			session.send(outPacket);
 
 			// assume it worked!!!
+			return true;
 		} catch (IOException e) {
-			System.err.println("Couldn't get I/O for the connection to " + dest.getProcessIPAddress());
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			System.err.println("Couldn't read packet as an SOSPFPacket. Should never get this error...");
-			System.exit(1);
+			this.connectionFailed(e);
+			return false;
 		}
 	}
 
@@ -128,36 +152,34 @@ public class ClientThread extends Thread {
 	 * Protocol for requesting that a remote server add a link to us
 	 */
 	public void sendAddLink() {
-		try (Socket socket = new Socket(dest.getProcessIPAddress(), dest.getProcessPortNumber());
-				ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream is = new ObjectInputStream(socket.getInputStream());) {
-
+		try {
 			SOSPFPacket inPacket, outPacket;
 
 			outPacket = new SOSPFPacket(MessageType.ADDLINK, source.getProcessIPAddress(),
 					source.getProcessPortNumber(), source.getSimulatedIPAddress(), weight);
 
-			// send ADDLINK request to destination router
-			os.writeObject(outPacket);
-
-			// await a response (SUCCESS or ERROR)
-			inPacket = (SOSPFPacket) is.readObject();
+			// send ADDLINK request to destination router and await a response
+			// (SUCCESS or ERROR)
+			inPacket = session.exchange(outPacket);
 
 			if (inPacket.getMessageType() == MessageType.ERROR) {
 				// something went wrong
-				System.err.println("Error. Server said: " + inPacket.getErrorMsg());
+				log.warn("ADDLINK refused router={} neighbor={} error=\"{}\"", source.getSimulatedIPAddress(),
+						dest.getSimulatedIPAddress(), inPacket.getErrorMsg());
 				// tell this router that it needs to remove the link it
 				// optimistically added
-				this.router.removeLinkAtPort(this.linkPort);
+				this.router.removeLink(this.linkPort, this.link);
 			} else {
-				System.out.println("Router at " + dest.getSimulatedIPAddress() + " successfully added link");
+				log.info("link added router={} neighbor={}", source.getSimulatedIPAddress(),
+						dest.getSimulatedIPAddress());
+				// if we're already up and running (i.e. this is a connect),
+				// bring the new link up straight away
+				if (this.router.isStarted() && this.handshake()) {
+					this.exchangeDatabase();
+				}
 			}
 		} catch (IOException e) {
-			System.err.println("Couldn't get I/O for the connection to " + dest.getProcessIPAddress());
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			System.err.println("Couldn't read packet as an SOSPFPacket. Should never get this error...");
-			System.exit(1);
+			this.connectionFailed(e);
 		}
 	}
 
@@ -165,141 +187,200 @@ public class ClientThread extends Thread {
 	 * Protocol for requesting that a remote server remove its link to us
 	 */
 	public void sendRemoveLink() {
-		try (Socket socket = new Socket(dest.getProcessIPAddress(), dest.getProcessPortNumber());
-				ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream is = new ObjectInputStream(socket.getInputStream());) {
-
+		try {
 			SOSPFPacket inPacket, outPacket;
 
 			outPacket = new SOSPFPacket(MessageType.REMOVELINK, source.getProcessIPAddress(),
 					source.getProcessPortNumber(), source.getSimulatedIPAddress());
-			os.writeObject(outPacket);
-
-			// await a response (SUCCESS or ERROR)
-			inPacket = (SOSPFPacket) is.readObject();
+			// send it and await a response (SUCCESS or ERROR)
+			inPacket = session.exchange(outPacket);
 
 			if (inPacket.getMessageType() == MessageType.ERROR) {
 				// something went wrong
-				System.err.println("ERROR: router at " + dest.getSimulatedIPAddress()
-						+ " failed to remove its link to us with error message: " + inPacket.getErrorMsg());
+				log.warn("REMOVELINK refused router={} neighbor={} error=\"{}\"", source.getSimulatedIPAddress(),
+						dest.getSimulatedIPAddress(), inPacket.getErrorMsg());
 			} else {
-				System.out.println("Router at " + dest.getSimulatedIPAddress() + " successfully removed link");
+				log.info("link removed router={} neighbor={}", source.getSimulatedIPAddress(),
+						dest.getSimulatedIPAddress());
 				// everything worked
 				if (!this.silentQuit) {
 					// remove our own link to the remote router
-					this.router.removeLinkAndUpdateNeighbors(this.linkPort);
+					this.router.removeLinkAndUpdateNeighbors(this.linkPort, this.link);
 				}
 			}
 		} catch (IOException e) {
-			System.err.println("Couldn't get I/O for the connection to " + dest.getProcessIPAddress());
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			System.err.println("Couldn't read packet as an SOSPFPacket. Should never get this error...");
-			System.exit(1);
+			this.connectionFailed(e);
 		}
 	}
 
 	/**
-	 * Protocol for communicating an LSAUPDATE to a remote server
+	 * Protocol for bringing our LSD and the remote server's up to date with
+	 * each other once a handshake is done. We send a DBDESCRIPTION summarizing
+	 * our LSD; the server answers with the LSAs we are missing and the headers
+	 * of the LSAs it is missing, which we then send it in an LSAUPDATE.
 	 */
-	public void sendLsaUpdate() {
-		try (Socket socket = new Socket(dest.getProcessIPAddress(), dest.getProcessPortNumber());
-				ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream is = new ObjectInputStream(socket.getInputStream());) {
-
+	public void exchangeDatabase() {
+		try {
 			SOSPFPacket inPacket, outPacket;
 
-			// create the LSA Vector to be passed in the packet using the
-			// HashMap in LinkStateDatabase of the router
-			Vector<LSA> lsaArray = new Vector<LSA>();
-			for (LSA lsa : this.router.getLsd().get_Store().values()) {
-				lsaArray.addElement(lsa);
+			outPacket = new SOSPFPacket(MessageType.DBDESCRIPTION, source.getProcessIPAddress(),
+					source.getProcessPortNumber(), source.getSimulatedIPAddress(), null);
+			outPacket.setLsaHeaders(this.router.summarizeDatabase());
+			// send it and await the server's description
+			inPacket = session.exchange(outPacket);
+
+			if (inPacket.getMessageType() != MessageType.DBDESCRIPTION) {
+				// this should never happen
+				throw new UnexpectedMessageException();
 			}
 
+			// take what we were missing and send the server what it is missing
+			Vector<LSA> wanted = this.router.performDatabaseExchange(dest.getSimulatedIPAddress(), inPacket);
+			if (!wanted.isEmpty()) {
+				this.lsaArray = wanted;
+				this.sendLsaUpdate();
+			}
+		} catch (IOException e) {
+			this.connectionFailed(e);
+		}
+	}
+
+	/**
+	 * Protocol for communicating an LSAUPDATE to a remote server
+	 */
+	public void sendLsaUpdate() {
+		try {
+			SOSPFPacket inPacket, outPacket;
+
 			// create the packet and send LSAUPDATE request to destination
 			// router
 			outPacket = new SOSPFPacket(MessageType.LSAUPDATE, source.getProcessIPAddress(),
-					source.getProcessPortNumber(), source.getSimulatedIPAddress(), lsaArray, this.sendBack);
-			os.writeObject(outPacket);
-
-			// await a response (SUCCESS or ERROR)
-			inPacket = (SOSPFPacket) is.readObject();
+					source.getProcessPortNumber(), source.getSimulatedIPAddress(), this.lsaArray);
+			// send it and await a response (SUCCESS or ERROR)
+			inPacket = session.exchange(outPacket);
 
 			if (inPacket.getMessageType() == MessageType.SUCCESS) {
-				System.out.println("Successfully sent LSAUPDATE to router " + dest.getSimulatedIPAddress());
+				log.debug("sent LSAUPDATE router={} neighbor={} lsas={}", source.getSimulatedIPAddress(),
+						dest.getSimulatedIPAddress(), this.lsaArray.size());
 			} else {
-				System.err.println("Error sending LSAUPDATE to router " + dest.getSimulatedIPAddress());
+				log.warn("LSAUPDATE refused router={} neighbor={} response={}", source.getSimulatedIPAddress(),
+						dest.getSimulatedIPAddress(), inPacket.getMessageType());
 			}
 		} catch (IOException e) {
-			System.err.println("Couldn't get I/O for the connection to " + dest.getProcessIPAddress());
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			System.err.println("Couldn't read packet as an SOSPFPacket. Should never get this error...");
-			System.exit(1);
+			this.connectionFailed(e);
 		}
 	}
 
 	public void forwardLsaUpdate() {
-		try (Socket socket = new Socket(dest.getProcessIPAddress(), dest.getProcessPortNumber());
-				ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream is = new ObjectInputStream(socket.getInputStream());) {
-
+		try {
 			SOSPFPacket inPacket;
 
-			// pass on the packet
-			os.writeObject(this.packet);
-
-			// await a response (SUCCESS or ERROR)
-			inPacket = (SOSPFPacket) is.readObject();
+			// pass on the packet and await a response (SUCCESS or ERROR)
+			inPacket = session.exchange(this.packet);
 
 			if (inPacket.getMessageType() == MessageType.SUCCESS) {
-				System.out.println("Successfully forwarded LSAUPDATE to router " + dest.getSimulatedIPAddress());
+				log.debug("forwarded LSAUPDATE router={} neighbor={} origin={} lsas={}",
+						this.router.getRd().getSimulatedIPAddress(), dest.getSimulatedIPAddress(),
+						this.packet.getSrcIP(), this.packet.getLsaArray().size());
 			} else {
-				System.err.println("Error forwarding LSAUPDATE to router " + dest.getSimulatedIPAddress());
+				log.warn("forwarded LSAUPDATE refused router={} neighbor={} response={}",
+						this.router.getRd().getSimulatedIPAddress(), dest.getSimulatedIPAddress(),
+						inPacket.getMessageType());
 			}
 		} catch (IOException e) {
-			System.err.println("Couldn't get I/O for the connection to " + dest.getProcessIPAddress());
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			System.err.println("Couldn't read packet as an SOSPFPacket. Should never get this error...");
-			System.exit(1);
+			this.connectionFailed(e);
 		}
 	}
 
-	public void sendBackLsaUpdate() {
-		try (Socket socket = new Socket(dest.getProcessIPAddress(), dest.getProcessPortNumber());
-				ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream is = new ObjectInputStream(socket.getInputStream());) {
+	/**
+	 * Passes a DATA packet on to the next router on its way. Like an IP
+	 * packet, it isn't answered, so it costs the link no round trip.
+	 */
+	public void sendData() {
+		try {
+			session.send(this.packet);
+			log.debug("forwarded DATA router={} neighbor={} source={} destination={}",
+					this.router.getRd().getSimulatedIPAddress(), dest.getSimulatedIPAddress(), this.packet.getSrcIP(),
+					this.packet.getDstIP());
+		} catch (IOException e) {
+			this.connectionFailed(e);
+		}
+	}
 
-			SOSPFPacket inPacket, outPacket;
+	/**
+	 * The neighbor couldn't be reached, so the link is taken down as failed,
+	 * unless our router is being stopped, in which case sessions are expected
+	 * to be torn down under us, or the link has been removed since the message
+	 * was queued, or is about to be as we quit
+	 */
+	private void connectionFailed(IOException e) {
+		if (this.router.isStopped()) {
+			return;
+		}
+		if (e instanceof ClosedChannelException) {
+			log.debug("dropped message for removed link router={} neighbor={}",
+					this.router.getRd().getSimulatedIPAddress(), dest.getSimulatedIPAddress());
+			return;
+		}
+		log.warn("link failed router={} neighbor={} address={}:{} error=\"{}\"",
+				this.router.getRd().getSimulatedIPAddress(), dest.getSimulatedIPAddress(),
+				dest.getProcessIPAddress(), dest.getProcessPortNumber(), e.toString());
+		if (!this.silentQuit) {
+			this.router.linkFailed(this.link);
+		}
+	}
 
-			// create the LSA Vector to be passed in the packet using the
-			// HashMap in LinkStateDatabase of the router
-			Vector<LSA> lsaArray = new Vector<LSA>();
-			for (LSA lsa : this.router.getLsd().get_Store().values()) {
-				lsaArray.addElement(lsa);
+	/**
+	 * Takes the LSAs of a later LSAUPDATE (sent or forwarded) to the same
+	 * neighbor into this one, which hasn't gone out yet. Of two LSAs from the
+	 * same origin, only the newer is kept.
+	 */
+	@Override
+	public boolean coalesce(Runnable later) {
+		if (!(later instanceof ClientThread)) {
+			return false;
+		}
+		ClientThread other = (ClientThread) later;
+		if (!this.carriesLsas() || !other.carriesLsas()) {
+			return false;
+		}
+		// the vectors may be shared with the messages to other neighbors, so
+		// make a new one
+		Vector<LSA> merged = new Vector<LSA>(this.getLsas());
+		for (LSA lsa : other.getLsas()) {
+			int i = 0;
+			while (i < merged.size() && !merged.get(i).getOriginIp().equals(lsa.getOriginIp())) {
+				i++;
+			}
+			if (i == merged.size()) {
+				merged.add(lsa);
+			} else if (lsa.getLsaSeqNumber() > merged.get(i).getLsaSeqNumber()) {
+				merged.set(i, lsa);
 			}
+		}
+		if (this.protocol == Protocol.LSAUPDATE) {
+			this.lsaArray = merged;
+		} else {
+			this.packet.setLsaArray(merged);
+		}
+		return true;
+	}
 
-			// create the packet and send LSAUPDATESENDBACK
-			outPacket = new SOSPFPacket(MessageType.LSAUPDATESENDBACK, source.getProcessIPAddress(),
-					source.getProcessPortNumber(), source.getSimulatedIPAddress(), lsaArray, false);
-			os.writeObject(outPacket);
+	/**
+	 * Only an LSAUPDATE can be dropped: a later one, or the database exchange
+	 * with the neighbor, carries the same LSAs
+	 */
+	@Override
+	public boolean isDroppable() {
+		return this.carriesLsas();
+	}
 
-			// await a response (SUCCESS or ERROR)
-			inPacket = (SOSPFPacket) is.readObject();
+	private boolean carriesLsas() {
+		return this.protocol == Protocol.LSAUPDATE || this.protocol == Protocol.LSAUPDATEFORWARD;
+	}
 
-			if (inPacket.getMessageType() == MessageType.SUCCESS) {
-				System.out.println("Successfully sent LSAUPDATESENDBACK to router " + dest.getSimulatedIPAddress());
-			} else {
-				System.err.println("Error sending LSAUPDATESENDBACK to router " + dest.getSimulatedIPAddress());
-			}
-		} catch (IOException e) {
-			System.err.println("Couldn't get I/O for the connection to " + dest.getProcessIPAddress());
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			System.err.println("Couldn't read packet as an SOSPFPacket. Should never get this error...");
-			System.exit(1);
-		}
+	private Vector<LSA> getLsas() {
+		return this.protocol == Protocol.LSAUPDATE ? this.lsaArray : this.packet.getLsaArray();
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////////////////
@@ -338,8 +419,12 @@ public class ClientThread extends Thread {
 		this.weight = weight;
 	}
 
-	public void setSendBack(boolean sendBack) {
-		this.sendBack = sendBack;
+	public void setLsaArray(Vector<LSA> lsaArray) {
+		this.lsaArray = lsaArray;
+	}
+
+	public void setPacket(SOSPFPacket packet) {
+		this.packet = packet;
 	}
 
 	public void setSilentQuit(boolean silentQuit) {
@@ -0,0 +1,307 @@
+package socs.network.node;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.RouterId;
+
+/**
+ * The link state database as a graph of ints, for running Dijkstra's
+ * algorithm on. Every router gets an int id the first time it's seen, and
+ * keeps it for as long as the graph lives, so arrays indexed by id stay valid
+ * as the graph changes.
+ *
+ * The links are stored in compressed sparse row form: the links out of router
+ * u are targets[start[u]] .. targets[end[u] - 1], with their distances at the
+ * same indices of weights. When a single LSA changes, its new row is appended
+ * to the end of the arrays and the router's start and end are pointed at it,
+ * leaving the old row behind as garbage until the next full load.
+ *
+ * The links into each router are stored the same way, but are only rebuilt by
+ * a full load. The routers whose rows have been replaced since then are
+ * marked stale, and their entries in the reverse rows should be ignored in
+ * favour of their current links.
+ *
+ * @author kstricks
+ *
+ */
+public class CompactGraph {
+
+	// simulated ip <=> id
+	private final HashMap<RouterId, Integer> ids = new HashMap<RouterId, Integer>();
+	private RouterId[] ips = new RouterId[16];
+	private int size;
+
+	// per router: whether we have its LSA, and where its row of links is
+	private boolean[] hasLsa = new boolean[16];
+	private int[] start = new int[16];
+	private int[] end = new int[16];
+
+	// the rows of links out of each router, one after the other. only the
+	// first edgeCount entries are in use, and some of those may be garbage
+	private int[] targets = new int[16];
+	private int[] weights = new int[16];
+	private int edgeCount;
+	// how many of the entries in use belong to current rows
+	private int liveEdgeCount;
+
+	// the links into each router, as of the last full load, which covered the
+	// routers with ids below loadedSize
+	private int[] reverseOffsets = new int[17];
+	private int[] sources = new int[16];
+	private int[] reverseWeights = new int[16];
+	private int loadedSize;
+
+	// the routers whose rows have been replaced since the last full load
+	private boolean[] stale = new boolean[16];
+	private int[] staleRouters = new int[16];
+	private int staleCount;
+
+	/**
+	 * Replaces every link in the graph with the ones in the LSAs, packing the
+	 * rows together again
+	 *
+	 * @param store
+	 *            - every LSA in the link state database
+	 */
+	public void load(Map<RouterId, LSA> store) {
+		// give every router an id first, so the arrays can be sized
+		int count = 0;
+		for (LSA lsa : store.values()) {
+			this.intern(lsa.getOriginIp());
+			for (int k = 0; k < lsa.getLinkCount(); k++) {
+				LinkDescription ld = lsa.getLink(k);
+				if (ld.getPortNum() != -1) {
+					this.intern(ld.getDestinationIp());
+					count++;
+				}
+			}
+		}
+
+		int n = this.size;
+		this.targets = ensureLength(this.targets, count);
+		this.weights = ensureLength(this.weights, count);
+		this.sources = ensureLength(this.sources, count);
+		this.reverseWeights = ensureLength(this.reverseWeights, count);
+		this.reverseOffsets = ensureLength(this.reverseOffsets, n + 1);
+		Arrays.fill(this.reverseOffsets, 0, n + 1, 0);
+		Arrays.fill(this.hasLsa, 0, n, false);
+		Arrays.fill(this.end, 0, n, 0);
+
+		// count the links out of and into each router...
+		for (LSA lsa : store.values()) {
+			int u = this.ids.get(lsa.getOriginIp());
+			this.hasLsa[u] = true;
+			for (int k = 0; k < lsa.getLinkCount(); k++) {
+				LinkDescription ld = lsa.getLink(k);
+				if (ld.getPortNum() != -1) {
+					this.end[u]++;
+					this.reverseOffsets[this.ids.get(ld.getDestinationIp()) + 1]++;
+				}
+			}
+		}
+		// ...turn the counts into where each row starts...
+		int offset = 0;
+		for (int u = 0; u < n; u++) {
+			this.start[u] = offset;
+			offset += this.end[u];
+			this.end[u] = this.start[u];
+			this.reverseOffsets[u + 1] += this.reverseOffsets[u];
+		}
+		// ...and fill the rows in, using end as the next free slot in each
+		for (LSA lsa : store.values()) {
+			int u = this.ids.get(lsa.getOriginIp());
+			for (int k = 0; k < lsa.getLinkCount(); k++) {
+				LinkDescription ld = lsa.getLink(k);
+				if (ld.getPortNum() != -1) {
+					int i = this.end[u]++;
+					this.targets[i] = this.ids.get(ld.getDestinationIp());
+					this.weights[i] = ld.getDistance();
+				}
+			}
+		}
+		this.edgeCount = count;
+		this.liveEdgeCount = count;
+
+		// the reverse rows, using the front of staleRouters as the next free
+		// slot in each (it is cleared below anyway)
+		this.staleRouters = ensureLength(this.staleRouters, n);
+		System.arraycopy(this.reverseOffsets, 0, this.staleRouters, 0, n);
+		for (int u = 0; u < n; u++) {
+			for (int i = this.start[u]; i < this.end[u]; i++) {
+				int j = this.staleRouters[this.targets[i]]++;
+				this.sources[j] = u;
+				this.reverseWeights[j] = this.weights[i];
+			}
+		}
+		this.loadedSize = n;
+		Arrays.fill(this.stale, 0, n, false);
+		this.staleCount = 0;
+	}
+
+	/**
+	 * Replaces the links out of a single router with the ones in its LSA
+	 *
+	 * @param lsa
+	 *            - the router's new LSA
+	 */
+	public void setLinks(LSA lsa) {
+		int u = this.intern(lsa.getOriginIp());
+		int count = 0;
+		for (int k = 0; k < lsa.getLinkCount(); k++) {
+			LinkDescription ld = lsa.getLink(k);
+			if (ld.getPortNum() != -1) {
+				count++;
+			}
+		}
+		if (this.edgeCount + count > this.targets.length) {
+			int length = Math.max(this.edgeCount + count, this.targets.length + (this.targets.length >> 1));
+			this.targets = Arrays.copyOf(this.targets, length);
+			this.weights = Arrays.copyOf(this.weights, length);
+		}
+
+		this.liveEdgeCount += count - (this.end[u] - this.start[u]);
+		this.start[u] = this.edgeCount;
+		for (int k = 0; k < lsa.getLinkCount(); k++) {
+			LinkDescription ld = lsa.getLink(k);
+			if (ld.getPortNum() != -1) {
+				this.targets[this.edgeCount] = this.intern(ld.getDestinationIp());
+				this.weights[this.edgeCount] = ld.getDistance();
+				this.edgeCount++;
+			}
+		}
+		this.end[u] = this.edgeCount;
+		this.hasLsa[u] = true;
+
+		if (!this.stale[u]) {
+			this.stale[u] = true;
+			this.staleRouters = ensureLength(this.staleRouters, this.staleCount + 1);
+			this.staleRouters[this.staleCount++] = u;
+		}
+	}
+
+	/**
+	 * @return true once enough rows have been replaced since the last full
+	 *         load that repairs will spend more time working around the stale
+	 *         reverse rows than a load would take
+	 */
+	public boolean isLoadDue() {
+		return this.staleCount > this.size / 8 || this.edgeCount > 2 * this.liveEdgeCount + 64;
+	}
+
+	/**
+	 * @return the router's id, giving it a new one if it doesn't have one yet
+	 */
+	public int intern(RouterId ip) {
+		Integer id = this.ids.get(ip);
+		if (id == null) {
+			id = this.size++;
+			this.ids.put(ip, id);
+			if (id == this.ips.length) {
+				int length = id * 2;
+				this.ips = Arrays.copyOf(this.ips, length);
+				this.hasLsa = Arrays.copyOf(this.hasLsa, length);
+				this.start = Arrays.copyOf(this.start, length);
+				this.end = Arrays.copyOf(this.end, length);
+				this.stale = Arrays.copyOf(this.stale, length);
+			}
+			this.ips[id] = ip;
+		}
+		return id;
+	}
+
+	/**
+	 * @return the router's id, or -1 if the graph has never seen it
+	 */
+	public int idOf(RouterId ip) {
+		Integer id = this.ids.get(ip);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the shortest of the links from u to v, or -1 if there is none
+	 */
+	public int distance(int u, int v) {
+		int best = -1;
+		for (int i = this.start[u]; i < this.end[u]; i++) {
+			if (this.targets[i] == v && (best < 0 || this.weights[i] < best)) {
+				best = this.weights[i];
+			}
+		}
+		return best;
+	}
+
+	private static int[] ensureLength(int[] a, int length) {
+		return a.length >= length ? a : new int[Math.max(length, a.length + (a.length >> 1))];
+	}
+
+	// Getters. the arrays are handed out as they are, for the hot loops in
+	// ShortestPathTree; they must not be modified, and are only valid until
+	// the graph next changes
+
+	/**
+	 * @return the number of routers with ids, which is one more than the
+	 *         highest id
+	 */
+	public int size() {
+		return size;
+	}
+
+	public RouterId ipOf(int id) {
+		return ips[id];
+	}
+
+	public boolean hasLsa(int id) {
+		return hasLsa[id];
+	}
+
+	public int[] getStart() {
+		return start;
+	}
+
+	public int[] getEnd() {
+		return end;
+	}
+
+	public int[] getTargets() {
+		return targets;
+	}
+
+	public int[] getWeights() {
+		return weights;
+	}
+
+	/**
+	 * @return the number of routers covered by the reverse rows
+	 */
+	public int getLoadedSize() {
+		return loadedSize;
+	}
+
+	public int[] getReverseOffsets() {
+		return reverseOffsets;
+	}
+
+	public int[] getSources() {
+		return sources;
+	}
+
+	public int[] getReverseWeights() {
+		return reverseWeights;
+	}
+
+	public boolean isStale(int id) {
+		return stale[id];
+	}
+
+	public int[] getStaleRouters() {
+		return staleRouters;
+	}
+
+	public int getStaleCount() {
+		return staleCount;
+	}
+}
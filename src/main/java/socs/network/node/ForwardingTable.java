@@ -0,0 +1,427 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.Prefix;
+import socs.network.message.RouterId;
+import socs.network.util.PrefixTrie;
+
+/**
+ * What the data plane forwards by: for every destination the router can
+ * reach, the port of the link its packets leave through. It is derived from
+ * a routing table (for the next hop) and the router's own LSA (for the port
+ * each neighbor is on), and like them is for one version of the link state
+ * database.
+ *
+ * Destinations are routers, found by their exact simulated ip, and the
+ * prefixes routers advertise, found by longest prefix match. A prefix
+ * advertised by several routers goes to the nearest of them.
+ *
+ * Where a destination has shortest paths through more than one neighbor, it
+ * has all of their ports, and each flow (the packets from one source to one
+ * destination) goes out one of them picked by a hash of the flow. A flow
+ * therefore keeps to one path and its packets stay in order, while the flows
+ * as a whole are spread over every path. The hash is seeded with the router's
+ * own ip, so that routers further along don't all split the flows they are
+ * given the same way the first one did.
+ *
+ * A table never changes once built; the link state database swaps in a new
+ * one when it recomputes its routes, made from the last one where only some
+ * routes changed. Forwarding a packet is then a single lookup in an
+ * open-addressed table of ints, with no locks and nothing allocated.
+ *
+ * @author kstricks
+ *
+ */
+public class ForwardingTable {
+
+	// what lookup returns for a destination we have no route to
+	public static final int NO_ROUTE = -1;
+	// what lookup returns for an address in one of our own prefixes
+	public static final int LOCAL = -2;
+	// a set of ports that hasn't been made yet, while the table is built
+	private static final int UNSET = -3;
+
+	/**
+	 * What a table was built with that the next one can start from. Only
+	 * the thread that builds the tables uses it, and only the latest table
+	 * has it.
+	 */
+	private static final class Workspace {
+		// neighbor => the port it's on
+		private final HashMap<RouterId, Integer> neighborPorts = new HashMap<RouterId, Integer>();
+		// the port sets made so far, of which the first used ints are in use,
+		// and the port set for each of the routing table's sets of next hops
+		// (UNSET until a route needs it). a set none of whose next hops has a
+		// port (which only the routes to ourselves have) is NO_ROUTE. sets
+		// are only ever added past the end, where no earlier table looks
+		private int[] portSets = new int[16];
+		private int used;
+		private int[] setOffsets = new int[0];
+		// the LSA each router's prefixes were last taken from, and the
+		// routers advertising each prefix
+		private final HashMap<RouterId, LSA> advertised = new HashMap<RouterId, LSA>();
+		private final HashMap<Prefix, ArrayList<RouterId>> advertisers = new HashMap<Prefix, ArrayList<RouterId>>();
+	}
+
+	private final long version;
+	private final RouterId self;
+	private final int seed;
+
+	// the sets of ports destinations can go out of, one after another: a
+	// set is its size followed by that many ports, and is known by the
+	// offset of its size. destinations with the same next hops share a set
+	private final int[] portSets;
+
+	// destination address => its set of ports, with linear probing. a slot
+	// is empty when its set is NO_ROUTE
+	private final int[] destinations;
+	private final int[] sets;
+	private final int mask;
+	private final int size;
+
+	// the advertised prefixes => set of ports (or LOCAL)
+	private final PrefixTrie prefixes;
+
+	private Workspace workspace;
+
+	/**
+	 * @param routes
+	 *            - the routes to forward along
+	 * @param lsas
+	 *            - the contents of the link state database the routes were
+	 *            computed from
+	 * @param self
+	 *            - the router the table is for
+	 */
+	public ForwardingTable(RoutingTable routes, Map<RouterId, LSA> lsas, RouterId self) {
+		this(routes, lsas, self, null, null);
+	}
+
+	/**
+	 * Makes the table for a new routing table from the one for the routing
+	 * table it was made from, if it was. The arrays are copied, which is
+	 * cheap next to finding a route, and only the destinations whose routes
+	 * changed are redone, along with the prefixes they advertise and the
+	 * prefixes of LSAs that changed. If our own LSA changed, the ports may
+	 * have too, and the table is built from scratch.
+	 *
+	 * @param routes
+	 *            - the routes to forward along
+	 * @param lsas
+	 *            - the contents of the link state database the routes were
+	 *            computed from
+	 * @param self
+	 *            - the router the table is for
+	 * @param previous
+	 *            - the table last made for the same router, or null. it is
+	 *            left as it was, but can't be made from again
+	 * @param changed
+	 *            - the origins of the LSAs that changed since previous was
+	 *            made
+	 */
+	public ForwardingTable(RoutingTable routes, Map<RouterId, LSA> lsas, RouterId self, ForwardingTable previous,
+			Collection<RouterId> changed) {
+		this.version = routes.getVersion();
+		this.self = self;
+		this.seed = self.toInt();
+
+		Workspace workspace = previous == null ? null : previous.workspace;
+		List<RouterId> changedDestinations = routes.getChangedDestinations();
+		if (workspace == null || changedDestinations == null || routes.getPreviousVersion() != previous.version
+				|| changed.contains(self) || routes.getRoutes().size() * 2 > previous.destinations.length) {
+			workspace = new Workspace();
+			LSA localLsa = lsas.get(self);
+			for (int i = 0; i < localLsa.getLinkCount(); i++) {
+				LinkDescription ld = localLsa.getLink(i);
+				if (ld.getPortNum() != -1) {
+					workspace.neighborPorts.put(ld.getDestinationIp(), ld.getPortNum());
+				}
+			}
+			// keep the table at most half full, so probes stay short
+			int capacity = Integer.highestOneBit(Math.max(routes.getRoutes().size(), 1) * 2 - 1) << 1;
+			this.destinations = new int[capacity];
+			this.sets = new int[capacity];
+			Arrays.fill(this.sets, NO_ROUTE);
+			changedDestinations = null;
+			changed = lsas.keySet();
+		} else {
+			previous.workspace = null;
+			if (changedDestinations.isEmpty()) {
+				this.destinations = previous.destinations;
+				this.sets = previous.sets;
+			} else {
+				this.destinations = previous.destinations.clone();
+				this.sets = previous.sets.clone();
+			}
+		}
+		this.mask = this.destinations.length - 1;
+		int oldSetCount = workspace.setOffsets.length;
+		if (oldSetCount < routes.getNextHopSetCount()) {
+			workspace.setOffsets = Arrays.copyOf(workspace.setOffsets, routes.getNextHopSetCount());
+			Arrays.fill(workspace.setOffsets, oldSetCount, workspace.setOffsets.length, UNSET);
+		}
+
+		// every destination goes out the ports of its next hops
+		int count = previous == null || changedDestinations == null ? 0 : previous.size;
+		Iterable<RouterId> redo = changedDestinations;
+		if (changedDestinations == null) {
+			ArrayList<RouterId> all = new ArrayList<RouterId>(routes.getRoutes().size());
+			for (RoutingTable.RouteEntry route : routes.getRoutes()) {
+				all.add(route.getDestinationIp());
+			}
+			redo = all;
+		}
+		for (RouterId destinationIp : redo) {
+			int address = destinationIp.toInt();
+			if (changedDestinations != null && this.remove(address)) {
+				count--;
+			}
+			RoutingTable.RouteEntry route = routes.get(destinationIp);
+			int set = route == null ? NO_ROUTE : this.portSetOf(route, workspace);
+			if (set != NO_ROUTE && !destinationIp.equals(self)) {
+				int slot = hash(address) & this.mask;
+				while (this.sets[slot] != NO_ROUTE) {
+					slot = (slot + 1) & this.mask;
+				}
+				this.destinations[slot] = address;
+				this.sets[slot] = set;
+				count++;
+			}
+		}
+		this.size = count;
+
+		// the prefixes whose advertisers changed, or whose advertisers' routes
+		// did, are sent to the nearest router advertising them again
+		HashSet<Prefix> affected = new HashSet<Prefix>();
+		for (RouterId originIp : changed) {
+			LSA old = workspace.advertised.get(originIp);
+			LSA lsa = lsas.get(originIp);
+			if (old != lsa) {
+				this.unindex(old, workspace, affected);
+				this.index(lsa, workspace, affected);
+			}
+		}
+		if (changedDestinations != null) {
+			for (RouterId destinationIp : changedDestinations) {
+				LSA lsa = workspace.advertised.get(destinationIp);
+				for (int i = 0; lsa != null && i < lsa.getPrefixCount(); i++) {
+					affected.add(lsa.getPrefix(i));
+				}
+			}
+		}
+		if (changedDestinations == null) {
+			this.prefixes = new PrefixTrie();
+		} else if (affected.isEmpty()) {
+			this.prefixes = previous.prefixes;
+		} else {
+			this.prefixes = new PrefixTrie(previous.prefixes);
+		}
+		for (Prefix prefix : affected) {
+			this.resolve(prefix, routes, workspace);
+		}
+
+		this.portSets = workspace.portSets;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * @return the port set for the route's next hops, made now if no route
+	 *         has needed it before, or NO_ROUTE if none of them has a port
+	 */
+	private int portSetOf(RoutingTable.RouteEntry route, Workspace workspace) {
+		int set = workspace.setOffsets[route.getNextHopSet()];
+		if (set != UNSET) {
+			return set;
+		}
+		int used = workspace.used;
+		if (workspace.portSets.length < used + 1 + route.getNextHopCount()) {
+			workspace.portSets = Arrays.copyOf(workspace.portSets,
+					Math.max(workspace.portSets.length * 2, used + 1 + route.getNextHopCount()));
+		}
+		int ports = 0;
+		for (int i = 0; i < route.getNextHopCount(); i++) {
+			Integer port = workspace.neighborPorts.get(route.getNextHopIp(i));
+			if (port != null) {
+				workspace.portSets[used + 1 + ports++] = port;
+			}
+		}
+		if (ports == 0) {
+			set = NO_ROUTE;
+		} else {
+			set = used;
+			workspace.portSets[used] = ports;
+			workspace.used += 1 + ports;
+		}
+		workspace.setOffsets[route.getNextHopSet()] = set;
+		return set;
+	}
+
+	/**
+	 * Takes a destination out of the open-addressed table, moving back any
+	 * that come after it in its run and could sit where it was, so that none
+	 * is left behind the gap where a lookup would stop
+	 *
+	 * @return true if it was in the table
+	 */
+	private boolean remove(int address) {
+		int slot = hash(address) & this.mask;
+		while (this.sets[slot] != NO_ROUTE && this.destinations[slot] != address) {
+			slot = (slot + 1) & this.mask;
+		}
+		if (this.sets[slot] == NO_ROUTE) {
+			return false;
+		}
+		int gap = slot;
+		for (int i = (gap + 1) & this.mask; this.sets[i] != NO_ROUTE; i = (i + 1) & this.mask) {
+			// how far past its own slot each is
+			int home = hash(this.destinations[i]) & this.mask;
+			if (((i - home) & this.mask) >= ((i - gap) & this.mask)) {
+				this.destinations[gap] = this.destinations[i];
+				this.sets[gap] = this.sets[i];
+				gap = i;
+			}
+		}
+		this.sets[gap] = NO_ROUTE;
+		return true;
+	}
+
+	/**
+	 * Adds the routers an LSA advertises its prefixes for to the index, and
+	 * the prefixes to those affected
+	 */
+	private void index(LSA lsa, Workspace workspace, HashSet<Prefix> affected) {
+		if (lsa == null) {
+			return;
+		}
+		workspace.advertised.put(lsa.getOriginIp(), lsa);
+		for (int i = 0; i < lsa.getPrefixCount(); i++) {
+			ArrayList<RouterId> routers = workspace.advertisers.get(lsa.getPrefix(i));
+			if (routers == null) {
+				routers = new ArrayList<RouterId>(1);
+				workspace.advertisers.put(lsa.getPrefix(i), routers);
+			}
+			routers.add(lsa.getOriginIp());
+			affected.add(lsa.getPrefix(i));
+		}
+	}
+
+	/**
+	 * Undoes index
+	 */
+	private void unindex(LSA lsa, Workspace workspace, HashSet<Prefix> affected) {
+		if (lsa == null) {
+			return;
+		}
+		workspace.advertised.remove(lsa.getOriginIp());
+		for (int i = 0; i < lsa.getPrefixCount(); i++) {
+			ArrayList<RouterId> routers = workspace.advertisers.get(lsa.getPrefix(i));
+			routers.remove(lsa.getOriginIp());
+			if (routers.isEmpty()) {
+				workspace.advertisers.remove(lsa.getPrefix(i));
+			}
+			affected.add(lsa.getPrefix(i));
+		}
+	}
+
+	/**
+	 * Sends a prefix to the nearest router advertising it that can be
+	 * reached, or the lowest ip among the nearest, so that every router
+	 * picks the same one
+	 */
+	private void resolve(Prefix prefix, RoutingTable routes, Workspace workspace) {
+		ArrayList<RouterId> routers = workspace.advertisers.get(prefix);
+		RoutingTable.RouteEntry best = null;
+		int bestSet = NO_ROUTE;
+		for (int i = 0; routers != null && i < routers.size(); i++) {
+			RoutingTable.RouteEntry route = routes.get(routers.get(i));
+			if (route == null) {
+				continue;
+			}
+			int set = route.getDestinationIp().equals(this.self) ? LOCAL : this.portSetOf(route, workspace);
+			if (set != NO_ROUTE && (best == null || route.getCost() < best.getCost() || (route.getCost() == best
+					.getCost() && route.getDestinationIp().compareTo(best.getDestinationIp()) < 0))) {
+				best = route;
+				bestSet = set;
+			}
+		}
+		if (best == null) {
+			this.prefixes.remove(prefix.getAddress(), prefix.getLength());
+		} else {
+			this.prefixes.put(prefix.getAddress(), prefix.getLength(), bestSet);
+		}
+	}
+
+	/**
+	 * @param source
+	 *            - where the packet came from, which with destination makes
+	 *            up its flow
+	 * @param destination
+	 *            - where the packet is going
+	 * @return the port to send the packet out of: one of the ports to the
+	 *         router with the destination's simulated ip if there is one,
+	 *         otherwise to the router advertising the longest prefix that
+	 *         contains it, always the same one for the same flow. LOCAL if
+	 *         that is the router the table is for, or NO_ROUTE if it can't be
+	 *         reached.
+	 */
+	public int lookup(RouterId source, RouterId destination) {
+		int address = destination.toInt();
+		int set = NO_ROUTE;
+		for (int slot = hash(address) & this.mask;; slot = (slot + 1) & this.mask) {
+			if (this.sets[slot] == NO_ROUTE || this.destinations[slot] == address) {
+				set = this.sets[slot];
+				break;
+			}
+		}
+		if (set == NO_ROUTE) {
+			set = this.prefixes.lookup(address);
+			if (set < 0) {
+				return set == LOCAL ? LOCAL : NO_ROUTE;
+			}
+		}
+		int count = this.portSets[set];
+		if (count == 1) {
+			return this.portSets[set + 1];
+		}
+		int h = hash(source.toInt() ^ hash(address ^ this.seed));
+		return this.portSets[set + 1 + (h >>> 1) % count];
+	}
+
+	/**
+	 * @return the number of routers there is a route to
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of prefixes there is a route to, our own included
+	 */
+	public int getPrefixCount() {
+		return this.prefixes.size();
+	}
+
+	/**
+	 * @return the version of the link state database the table was built
+	 *         from
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	private static int hash(int address) {
+		// addresses are often sequential, which would all land next to each
+		// other, so spread them out
+		int h = address * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
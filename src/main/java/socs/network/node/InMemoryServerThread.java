@@ -0,0 +1,186 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+/**
+ * A router's server on the InMemoryTransport. Clients' sessions put their
+ * requests on the server's queue, and a single thread takes them off in turn
+ * and handles them, putting any response on the queue of the session the
+ * request came from (much as the SelectorServerThread serves every connection
+ * from one thread). A request whose handler throws hangs up on the
+ * connection it came from; the server carries on with the others.
+ *
+ * @author kstricks
+ *
+ */
+public class InMemoryServerThread extends Thread implements Server {
+
+	private static final Logger log = LoggerFactory.getLogger(InMemoryServerThread.class);
+
+	// put on a connection's response queue when the server closes it
+	static final SOSPFPacket CLOSED = new SOSPFPacket();
+
+	private final InMemoryTransport transport;
+	private final Router router;
+	private final String address;
+
+	// requests from every connection, in the order they were sent
+	private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+
+	private final Set<Connection> connections = Collections
+			.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+
+	private volatile boolean listening;
+
+	public InMemoryServerThread(InMemoryTransport transport, Router router) {
+		super("Server");
+		this.transport = transport;
+		this.router = router;
+		this.address = InMemoryTransport.addressOf(router.getRd());
+		// like a socket's, the server thread doesn't keep the JVM up alone
+		this.setDaemon(true);
+	}
+
+	/**
+	 * A client session's connection to this server
+	 */
+	class Connection {
+		// the protocol state of the conversation with the client
+		private final RequestHandler handler = new RequestHandler(InMemoryServerThread.this.router);
+		// what the server sends back to the client
+		final LinkedBlockingQueue<SOSPFPacket> responses = new LinkedBlockingQueue<SOSPFPacket>();
+		// set once the server has hung up on the client
+		private volatile boolean hungUp;
+
+		/**
+		 * Queues a request for the server
+		 *
+		 * @throws IOException
+		 *             if the server or the connection has closed
+		 */
+		void send(SOSPFPacket request) throws IOException {
+			if (!InMemoryServerThread.this.listening || this.hungUp) {
+				throw new IOException("connection closed by " + InMemoryServerThread.this.address);
+			}
+			InMemoryServerThread.this.requests.add(new Request(this, request));
+		}
+
+		/**
+		 * Called by the client when it is done with the connection
+		 */
+		void close() {
+			InMemoryServerThread.this.connections.remove(this);
+		}
+	}
+
+	/**
+	 * A request waiting to be handled
+	 */
+	private static class Request {
+		private final Connection connection;
+		private final SOSPFPacket packet;
+
+		public Request(Connection connection, SOSPFPacket packet) {
+			this.connection = connection;
+			this.packet = packet;
+		}
+	}
+
+	/**
+	 * Opens a connection for a client
+	 *
+	 * @throws IOException
+	 *             if the server has closed
+	 */
+	Connection connect() throws IOException {
+		Connection c = new Connection();
+		this.connections.add(c);
+		if (!this.listening) {
+			this.connections.remove(c);
+			throw new IOException("connection refused by " + this.address);
+		}
+		return c;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (!this.transport.register(this.address, this)) {
+			System.err.println("Could not listen on port " + this.router.getRd().getProcessPortNumber());
+			System.exit(-1);
+		}
+		this.listening = true;
+		super.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (this.listening) {
+				Request request = this.requests.take();
+				if (request.connection == null) {
+					// woken up to close
+					break;
+				}
+				if (request.connection.hungUp) {
+					// left over from a connection we've hung up on
+					continue;
+				}
+				try {
+					this.handle(request);
+				} catch (RuntimeException e) {
+					log.error("request failed router={} message={}", this.router.getRd().getSimulatedIPAddress(),
+							request.packet.getMessageType(), e);
+					this.hangUp(request.connection);
+				}
+			}
+		} catch (InterruptedException e) {
+			// closing
+		}
+	}
+
+	/**
+	 * Handles a request and sends back the response, if any
+	 */
+	private void handle(Request request) {
+		SOSPFPacket packet = request.packet;
+		this.router.getMetrics().of(packet.getMessageType()).recordReceived(WireFormat.frameLength(packet));
+		SOSPFPacket response = request.connection.handler.handle(packet);
+		if (response != null) {
+			int bytes = WireFormat.frameLength(response);
+			request.connection.responses.add(InMemoryTransport.handOff(response));
+			this.router.getMetrics().of(response.getMessageType()).recordSent(bytes);
+		}
+	}
+
+	private void hangUp(Connection c) {
+		c.hungUp = true;
+		this.connections.remove(c);
+		c.responses.add(CLOSED);
+	}
+
+	@Override
+	public boolean isListening() {
+		return this.listening;
+	}
+
+	@Override
+	public void close() {
+		this.listening = false;
+		this.transport.unregister(this.address, this);
+		// wake the server thread, then anyone waiting on a response
+		this.requests.add(new Request(null, null));
+		for (Connection c : this.connections) {
+			this.hangUp(c);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package socs.network.node;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+/**
+ * A session on the InMemoryTransport: a connection to the remote router's
+ * InMemoryServerThread, in the same JVM.
+ *
+ * Like TcpSession's, close doesn't take the lock, but hangs up under whatever
+ * holds it, which then fails with a ClosedChannelException.
+ *
+ * @author kstricks
+ *
+ */
+public class InMemorySession implements Session {
+
+	private final InMemoryTransport transport;
+
+	// the router at the other end of the link
+	private final RouterDescription dest;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// where the messages sent and received are counted
+	private final RouterMetrics metrics;
+
+	// volatile so that close can reach the connection without the lock
+	private volatile InMemoryServerThread.Connection connection;
+
+	// set for good by close, after which no connection is made again
+	private volatile boolean closed;
+
+	public InMemorySession(InMemoryTransport transport, RouterDescription dest, RouterMetrics metrics) {
+		this.transport = transport;
+		this.dest = dest;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void open() throws IOException {
+		this.lock.lock();
+		try {
+			if (this.closed) {
+				throw new ClosedChannelException();
+			}
+			if (this.connection != null) {
+				return;
+			}
+			InMemoryServerThread server = this.transport.lookup(this.dest);
+			if (server == null) {
+				throw new ConnectException("no router listening at " + InMemoryTransport.addressOf(this.dest));
+			}
+			this.connection = server.connect();
+			// close may have come in while we were connecting, and missed it
+			if (this.closed) {
+				this.disconnect();
+				throw new ClosedChannelException();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public void send(SOSPFPacket packet) throws IOException {
+		this.lock.lock();
+		try {
+			this.open();
+			try {
+				int bytes = WireFormat.frameLength(packet);
+				this.connection.send(InMemoryTransport.handOff(packet));
+				this.metrics.of(packet.getMessageType()).recordSent(bytes);
+			} catch (IOException e) {
+				this.metrics.of(packet.getMessageType()).recordFailure();
+				this.disconnect();
+				throw e;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public SOSPFPacket receive() throws IOException {
+		this.lock.lock();
+		try {
+			this.open();
+			try {
+				SOSPFPacket packet = this.connection.responses.take();
+				if (packet == InMemoryServerThread.CLOSED) {
+					if (this.closed) {
+						throw new ClosedChannelException();
+					}
+					throw new EOFException("connection closed by " + dest.getSimulatedIPAddress());
+				}
+				this.metrics.of(packet.getMessageType()).recordReceived(WireFormat.frameLength(packet));
+				return packet;
+			} catch (InterruptedException e) {
+				// as a socket of a virtual thread would be, the connection is
+				// closed by the interrupt
+				Thread.currentThread().interrupt();
+				this.disconnect();
+				throw new InterruptedIOException("interrupted waiting for " + dest.getSimulatedIPAddress());
+			} catch (IOException e) {
+				this.disconnect();
+				throw e;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public SOSPFPacket exchange(SOSPFPacket packet) throws IOException {
+		this.lock.lock();
+		try {
+			long start = System.nanoTime();
+			this.send(packet);
+			SOSPFPacket response;
+			try {
+				response = this.receive();
+			} catch (IOException e) {
+				this.metrics.of(packet.getMessageType()).recordFailure();
+				throw e;
+			}
+			this.metrics.of(packet.getMessageType()).recordRoundTrip(System.nanoTime() - start);
+			return response;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		InMemoryServerThread.Connection connection = this.connection;
+		if (connection != null) {
+			connection.close();
+			// wake anyone waiting on a response
+			connection.responses.add(InMemoryServerThread.CLOSED);
+		}
+	}
+
+	/**
+	 * Hangs up after a failure, leaving the session to connect again for the
+	 * next message
+	 */
+	private void disconnect() {
+		this.lock.lock();
+		try {
+			if (this.connection != null) {
+				this.connection.close();
+			}
+			this.connection = null;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.connection != null;
+	}
+
+	@Override
+	public void lock() {
+		this.lock.lock();
+	}
+
+	@Override
+	public void unlock() {
+		this.lock.unlock();
+	}
+
+	@Override
+	public RouterDescription getDest() {
+		return dest;
+	}
+}
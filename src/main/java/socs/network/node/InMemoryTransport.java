@@ -0,0 +1,74 @@
+package socs.network.node;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * Hands protocol messages straight between routers in the same JVM, through
+ * queues rather than sockets, so that large simulations don't spend their
+ * time in the kernel's network stack. Routers find each other's servers by
+ * process ip and port, just as they would over TCP, so attach and connect
+ * work unchanged.
+ *
+ * Packets are handed over as objects, never encoded. LSAs don't change once
+ * made, so the receiving router can keep the very LSAs the sender put in the
+ * packet; each side just gets its own copy of the packet around them. Sizes
+ * are still counted as the frames the packets would make on a socket.
+ *
+ * @author kstricks
+ *
+ */
+public class InMemoryTransport implements Transport {
+
+	// the transport routers configured with socs.network.router.transport =
+	// "memory" share, so they can reach each other
+	private static final InMemoryTransport SHARED = new InMemoryTransport();
+
+	// "process ip:port" => the server listening there
+	private final ConcurrentHashMap<String, InMemoryServerThread> servers = new ConcurrentHashMap<String, InMemoryServerThread>();
+
+	public static InMemoryTransport getShared() {
+		return SHARED;
+	}
+
+	@Override
+	public Server newServer(Router router) {
+		return new InMemoryServerThread(this, router);
+	}
+
+	@Override
+	public Session newSession(RouterDescription dest, RouterMetrics metrics) {
+		return new InMemorySession(this, dest, metrics);
+	}
+
+	/**
+	 * @return false if another server is already listening at the address
+	 */
+	boolean register(String address, InMemoryServerThread server) {
+		return this.servers.putIfAbsent(address, server) == null;
+	}
+
+	void unregister(String address, InMemoryServerThread server) {
+		this.servers.remove(address, server);
+	}
+
+	/**
+	 * @return the server listening at the router's process ip and port, or
+	 *         null if there isn't one
+	 */
+	InMemoryServerThread lookup(RouterDescription rd) {
+		return this.servers.get(addressOf(rd));
+	}
+
+	static String addressOf(RouterDescription rd) {
+		return rd.getProcessIPAddress() + ":" + rd.getProcessPortNumber();
+	}
+
+	/**
+	 * @return the copy of the packet to hand to the other side
+	 */
+	static SOSPFPacket handOff(SOSPFPacket packet) {
+		return new SOSPFPacket(packet);
+	}
+}
@@ -13,10 +13,21 @@ public class Link {
 	private RouterDescription router2; // the remote router
 	private int weight; // the weight of the link (distance)
 
-	public Link(RouterDescription r1, RouterDescription r2, int weight) {
+	// the connection router1 uses to talk to router2
+	private Session session;
+
+	public Link(RouterDescription r1, RouterDescription r2, int weight, Session session) {
 		this.router1 = r1;
 		this.router2 = r2;
 		this.weight = weight;
+		this.session = session;
+	}
+
+	/**
+	 * Tear down the connection to the remote router
+	 */
+	public void close() {
+		this.session.close();
 	}
 	
 	// Setters and Getters
@@ -31,7 +42,11 @@ public class Link {
 	public int getWeight() {
 		return weight;
 	}
-	
+
+	public Session getSession() {
+		return session;
+	}
+
 
 	@Override
 	public int hashCode() {
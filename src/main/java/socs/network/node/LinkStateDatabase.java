@@ -1,28 +1,213 @@
 package socs.network.node;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.PriorityQueue;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import socs.network.message.LSA;
+import socs.network.message.LSAHeader;
 import socs.network.message.LinkDescription;
+import socs.network.message.Prefix;
+import socs.network.message.RouterId;
+import socs.network.metrics.Histogram;
+import socs.network.util.PersistentHashMap;
 
 /**
  * Each router contains one of these. When it needs to find a route to another
- * node in the network, it runs Dijkstra's alg over this
+ * node in the network, it runs Dijkstra's alg over this, keeping the
+ * resulting shortest-path tree around until the LSD changes
+ * 
+ * The contents are published as immutable Snapshots. Every change builds a new
+ * snapshot (sharing most of the old one) and swaps it in, one writer at a
+ * time, so readers just take the current snapshot and never wait on a lock or
+ * see an LSA change under them.
  * 
  * @author kstricks
  *
  */
 public class LinkStateDatabase {
 
-	// ip address of node from where the LSA update originated => LSA instance
-	private HashMap<String, LSA> _store = new HashMap<String, LSA>();
+	// the current contents. never modified, only replaced
+	private volatile Snapshot snapshot;
+
+	// held to change the LSD, so there is only ever one writer
+	private final Object writeLock = new Object();
 
 	private RouterDescription rd;
 
+	// once more than one in this many LSAs have changed between two path
+	// queries, we recompute the shortest-path tree from scratch rather than
+	// repair it
+	private static final int REBUILD_FRACTION = 8;
+
+	// the most equal-cost paths getEqualCostPaths lists
+	private static final int MAX_EQUAL_COST_PATHS = 32;
+
+	// held to compute the shortest-path tree, which is reused between runs
+	private final Object spfLock = new Object();
+	// the shortest-path tree from this router, as of the last path query
+	private ShortestPathTree spt;
+	// the origins of the LSAs that have changed since then. guarded by
+	// writeLock
+	private HashSet<RouterId> changed = new HashSet<RouterId>();
+
+	// the routes computed from the shortest-path tree, for the version of the
+	// LSD they were computed at
+	private volatile RoutingTable routingTable;
+	// the data plane's view of the same routes. swapped in just before the
+	// routing table, so it is never older than it
+	private volatile ForwardingTable forwardingTable;
+
+	// how long each shortest-path computation took
+	private final Histogram spfRuns = new Histogram();
+	// how long each change held the write lock
+	private final Histogram writeLockHolds = new Histogram();
+	// when the contents of the LSD last changed (0 if they never have)
+	private volatile long lastChangeMillis;
+
+	/**
+	 * The contents of the LSD as of one version. Everything in it stays as it
+	 * is, so it can be read from any thread for as long as it is needed.
+	 */
+	public static class Snapshot {
+
+		// bumped every time the contents of the LSD change
+		private final long version;
+
+		// ip address of node from where the LSA update originated => LSA
+		// instance
+		private final PersistentHashMap<RouterId, LSA> lsas;
+
+		private Snapshot(long version, PersistentHashMap<RouterId, LSA> lsas) {
+			this.version = version;
+			this.lsas = lsas;
+		}
+
+		/**
+		 * @param originIp
+		 *            - the simulated IP of the router the LSA is from
+		 * @return our version of its LSA, or null if we don't have one
+		 */
+		public LSA get(RouterId originIp) {
+			return this.lsas.get(originIp);
+		}
+
+		/**
+		 * @param originIp
+		 *            - the simulated IP of the router the LSA is from
+		 * @return the sequence number of our version of its LSA, or -1 if we
+		 *         don't have one
+		 */
+		public int getLsaSeqNumber(RouterId originIp) {
+			LSA lsa = this.lsas.get(originIp);
+			return lsa == null ? -1 : lsa.getLsaSeqNumber();
+		}
+
+		/**
+		 * Summarizes the LSD as the origin and version of every LSA in it, for
+		 * sending in a DBDESCRIPTION
+		 */
+		public Vector<LSAHeader> summarize() {
+			Vector<LSAHeader> summary = new Vector<LSAHeader>(this.lsas.size());
+			for (LSA lsa : this.lsas.values()) {
+				summary.addElement(new LSAHeader(lsa));
+			}
+			return summary;
+		}
+
+		/**
+		 * Given the summary of another router's LSD, finds the LSAs we have
+		 * that it doesn't, or that it only has an older version of
+		 * 
+		 * @param summary
+		 * @return the LSAs the other router is missing
+		 */
+		public Vector<LSA> newerThan(Vector<LSAHeader> summary) {
+			HashMap<RouterId, Integer> theirs = new HashMap<RouterId, Integer>();
+			for (LSAHeader header : summary) {
+				theirs.put(header.getOriginIp(), header.getLsaSeqNumber());
+			}
+			Vector<LSA> newer = new Vector<LSA>();
+			for (LSA lsa : this.lsas.values()) {
+				Integer seq = theirs.get(lsa.getOriginIp());
+				if (seq == null || seq < lsa.getLsaSeqNumber()) {
+					newer.addElement(lsa);
+				}
+			}
+			return newer;
+		}
+
+		/**
+		 * Given the summary of another router's LSD, finds the LSAs it has that
+		 * we don't, or that we only have an older version of
+		 * 
+		 * @param summary
+		 * @return the headers of the LSAs we are missing
+		 */
+		public Vector<LSAHeader> olderThan(Vector<LSAHeader> summary) {
+			Vector<LSAHeader> older = new Vector<LSAHeader>();
+			for (LSAHeader header : summary) {
+				if (this.getLsaSeqNumber(header.getOriginIp()) < header.getLsaSeqNumber()) {
+					older.addElement(header);
+				}
+			}
+			return older;
+		}
+
+		/**
+		 * @param headers
+		 * @return our version of each LSA named by the headers that we have
+		 */
+		public Vector<LSA> getLsas(Vector<LSAHeader> headers) {
+			Vector<LSA> lsas = new Vector<LSA>(headers.size());
+			for (LSAHeader header : headers) {
+				LSA lsa = this.lsas.get(header.getOriginIp());
+				if (lsa != null) {
+					lsas.addElement(lsa);
+				}
+			}
+			return lsas;
+		}
+
+		/**
+		 * Returns true if this snapshot contains more LSA entries than the
+		 * lsaArray
+		 */
+		public boolean containsMore(Vector<LSA> lsaArray) {
+			HashSet<RouterId> other = new HashSet<RouterId>();
+			for (LSA l : lsaArray) {
+				other.add(l.getOriginIp());
+			}
+			for (RouterId originIp : this.lsas.keySet()) {
+				if (!other.contains(originIp)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return every LSA, by origin. The map can't be changed.
+		 */
+		public Map<RouterId, LSA> getLsas() {
+			return lsas;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public int size() {
+			return this.lsas.size();
+		}
+	}
+
 	public LinkStateDatabase(RouterDescription routerDescription) {
 		rd = routerDescription;
 		initLinkStateDatabase();
@@ -32,234 +217,350 @@ public class LinkStateDatabase {
 	 * Initialize the LSD by adding an entry to the store for this router
 	 */
 	private void initLinkStateDatabase() {
-		LSA lsa = new LSA(rd.getSimulatedIPAddress(), 0);
 		// create a link description for this router to itself
 		LinkDescription ld = new LinkDescription(rd.getSimulatedIPAddress(), -1, 0);
-		lsa.addLink(ld);
-		_store.put(lsa.getOriginIp(), lsa);
+		LSA lsa = new LSA(rd.getSimulatedIPAddress(), 0, ld);
+		this.snapshot = new Snapshot(0, PersistentHashMap.<RouterId, LSA> empty().with(lsa.getOriginIp(), lsa));
+	}
+
+	/**
+	 * @return the current contents of the LSD
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
 	}
 
 	/**
-	 * Updates this LDS with the contents of the lsaArray. If there are no new
-	 * contents, then this returns false. Else it returns true.
+	 * Updates this LDS with the contents of the lsaArray. Only LSAs that are
+	 * newer than what we already have are taken.
 	 * 
 	 * @param lsaArray
-	 * @return
+	 * @return the LSAs that were taken, which is what needs to be flooded on to
+	 *         our neighbors (empty if the array held nothing new)
 	 */
-	public boolean update(Vector<LSA> lsaArray) {
-
-		boolean didUpdate = false;
-
-		// update this LSD with any LSAs in the array that we don't already have
-		for (LSA lsa : lsaArray) {
-			// if the HashMap already contains an LSA with same originating
-			// router
-			if (this._store.containsKey(lsa.getOriginIp())) {
-				// check if the lsaSeqNumber of the received LSA is greater than
-				// the current. if it is, replace the old LSA
-				if (this._store.get(lsa.getOriginIp()).getLsaSeqNumber() < lsa.getLsaSeqNumber()) {
-					this._store.replace(lsa.getOriginIp(), lsa);
-					didUpdate = true;
+	public Vector<LSA> update(Vector<LSA> lsaArray) {
+
+		Vector<LSA> accepted = new Vector<LSA>();
+
+		synchronized (this.writeLock) {
+			long start = System.nanoTime();
+			PersistentHashMap<RouterId, LSA> lsas = this.snapshot.lsas;
+
+			// take any LSAs in the array that we don't already have, or only
+			// have an older version of
+			for (LSA lsa : lsaArray) {
+				LSA ours = lsas.get(lsa.getOriginIp());
+				if (ours == null || ours.getLsaSeqNumber() < lsa.getLsaSeqNumber()) {
+					lsas = lsas.with(lsa.getOriginIp(), lsa);
+					accepted.addElement(lsa);
+					this.changed.add(lsa.getOriginIp());
 				}
-			} else { // otherwise add the new LSA
-				this._store.put(lsa.getOriginIp(), lsa);
-				didUpdate = true;
 			}
+
+			if (!accepted.isEmpty()) {
+				this.publish(lsas);
+			}
+			this.writeLockHolds.record(System.nanoTime() - start);
 		}
 
-		return didUpdate;
+		return accepted;
 	}
 
-	////////////////////////////////////////////////////////////////////////////
-	// Some inner helper classes for running Dijkstra's algorithm
-	////////////////////////////////////////////////////////////////////////////
+	/**
+	 * Summarizes this LSD as the origin and version of every LSA in it, for
+	 * sending in a DBDESCRIPTION
+	 */
+	public Vector<LSAHeader> summarize() {
+		return this.snapshot.summarize();
+	}
+
+	/**
+	 * @see Snapshot#newerThan(Vector)
+	 */
+	public Vector<LSA> newerThan(Vector<LSAHeader> summary) {
+		return this.snapshot.newerThan(summary);
+	}
+
+	/**
+	 * @see Snapshot#olderThan(Vector)
+	 */
+	public Vector<LSAHeader> olderThan(Vector<LSAHeader> summary) {
+		return this.snapshot.olderThan(summary);
+	}
+
+	/**
+	 * @see Snapshot#getLsas(Vector)
+	 */
+	public Vector<LSA> getLsas(Vector<LSAHeader> headers) {
+		return this.snapshot.getLsas(headers);
+	}
 
-	private class Edge {
-		private final String ip1, ip2;
-		private int weight;
+	/**
+	 * @param originIp
+	 *            - the simulated IP of the router the LSA is from
+	 * @return the sequence number of our version of its LSA, or -1 if we
+	 *         don't have one
+	 */
+	public int getLsaSeqNumber(RouterId originIp) {
+		return this.snapshot.getLsaSeqNumber(originIp);
+	}
 
-		public Edge(String ip1, String ip2, int weight) {
-			this.ip1 = ip1;
-			this.ip2 = ip2;
-			this.weight = weight;
+	/**
+	 * Add a link description to the LSA of the router this LSD belongs to,
+	 * incrementing the LSA's sequence number since it has changed
+	 * 
+	 * @param ld
+	 */
+	public void addLocalLink(LinkDescription ld) {
+		synchronized (this.writeLock) {
+			long start = System.nanoTime();
+			this.publishLocalLsa(this.getLocalLsa().withLink(ld));
+			this.writeLockHolds.record(System.nanoTime() - start);
 		}
+	}
 
-		public String getIp1() {
-			return this.ip1;
+	/**
+	 * Remove the link to remoteIp from the LSA of the router this LSD belongs
+	 * to, incrementing the LSA's sequence number since it has changed
+	 * 
+	 * @param remoteIp
+	 */
+	public void removeLocalLink(RouterId remoteIp) {
+		synchronized (this.writeLock) {
+			long start = System.nanoTime();
+			this.publishLocalLsa(this.getLocalLsa().withoutLink(remoteIp));
+			this.writeLockHolds.record(System.nanoTime() - start);
 		}
+	}
 
-		public String getIp2() {
-			return this.ip2;
+	/**
+	 * Advertise prefix in the LSA of the router this LSD belongs to,
+	 * incrementing the LSA's sequence number since it has changed
+	 * 
+	 * @param prefix
+	 */
+	public void addLocalPrefix(Prefix prefix) {
+		synchronized (this.writeLock) {
+			long start = System.nanoTime();
+			this.publishLocalLsa(this.getLocalLsa().withPrefix(prefix));
+			this.writeLockHolds.record(System.nanoTime() - start);
 		}
+	}
 
-		public int getWeight() {
-			return this.weight;
+	/**
+	 * Stop advertising prefix in the LSA of the router this LSD belongs to,
+	 * incrementing the LSA's sequence number since it has changed
+	 * 
+	 * @param prefix
+	 */
+	public void removeLocalPrefix(Prefix prefix) {
+		synchronized (this.writeLock) {
+			long start = System.nanoTime();
+			this.publishLocalLsa(this.getLocalLsa().withoutPrefix(prefix));
+			this.writeLockHolds.record(System.nanoTime() - start);
 		}
+	}
 
+	private LSA getLocalLsa() {
+		return this.snapshot.get(rd.getSimulatedIPAddress());
 	}
 
-	private class PathDescription implements Comparable<PathDescription> {
+	private void publishLocalLsa(LSA lsa) {
+		this.changed.add(lsa.getOriginIp());
+		this.publish(this.snapshot.lsas.with(lsa.getOriginIp(), lsa));
+	}
 
-		private final String destinationIp;
-		private int distance;
-		private LinkedList<Edge> path;
+	/**
+	 * Swaps in the next version of the LSD. Only called with the write lock
+	 * held.
+	 */
+	private void publish(PersistentHashMap<RouterId, LSA> lsas) {
+		this.snapshot = new Snapshot(this.snapshot.version + 1, lsas);
+		this.lastChangeMillis = System.currentTimeMillis();
+	}
 
-		public PathDescription(String destinationIp, int distance, LinkedList<Edge> path) {
-			this.destinationIp = destinationIp;
-			this.distance = distance;
-			this.path = path;
-		}
+	////////////////////////////////////////////////////////////////////////////
+	// Shortest paths
+	////////////////////////////////////////////////////////////////////////////
 
-		public String stringifyPath() {
-			StringBuffer buff = new StringBuffer();
-			
-			if (this.path.isEmpty()) {
-			    buff.append(this.destinationIp);
-			    buff.append(" -> (0) ");
-			    buff.append(this.destinationIp);
-			} else {
-				for (Edge e : this.path) {
-					buff.append(e.getIp1());
-					buff.append(" -> ");
-					buff.append("(" + e.getWeight() + ") ");
-				}
-				buff.append(this.destinationIp);
-			}
-			
-			return buff.toString();
-		}
+	/**
+	 * output the shortest path from this router to the destination with the
+	 * given IP address
+	 */
+	public String getShortestPath(RouterId destinationIP) {
+		RoutingTable table = this.getRoutingTable();
 
-		public String getDestinationIp() {
-			return this.destinationIp;
+		if (table.isMissingLsas()) {
+			return "No path found. The router you are looking for may not have yet been started.";
 		}
 
-		public int getDistance() {
-			return this.distance;
+		RoutingTable.RouteEntry route = table.get(destinationIP);
+		return route == null ? "No path found" : route.getPath();
+	}
+
+	/**
+	 * Looks up the routes to many destinations at once, all in the same
+	 * routing table, so the shortest paths are computed at most once however
+	 * many there are, and the answers agree with each other even if the LSD
+	 * changes part way through
+	 *
+	 * @param destinations
+	 * @return the route to each destination, in the same order, with null for
+	 *         those that can't be reached
+	 */
+	public List<RoutingTable.RouteEntry> getRoutes(Collection<RouterId> destinations) {
+		RoutingTable table = this.getRoutingTable();
+		ArrayList<RoutingTable.RouteEntry> routes = new ArrayList<RoutingTable.RouteEntry>(destinations.size());
+		for (RouterId destinationIp : destinations) {
+			routes.add(table.get(destinationIp));
 		}
+		return routes;
+	}
 
-		public LinkedList<Edge> getPath() {
-			return this.path;
+	/**
+	 * output the shortest paths from this router to many destinations, one
+	 * per line, all from the same routing table (see getRoutes). Each line is
+	 * written out as soon as it is found, and no path is kept once written,
+	 * so the answer for a large network is never built up in memory.
+	 * <p/>
+	 * format: destination ip (cost c): source ip -> (w) ip -> ... -> (w)
+	 * destination ip
+	 *
+	 * @param destinations
+	 *            - the destinations in the order to write them, or null for
+	 *            every router this one can reach, lowest ip first
+	 * @param out
+	 *            - where to write the paths
+	 * @return the number of destinations a path was found to
+	 * @throws IOException
+	 *             if out does
+	 */
+	public int writeShortestPaths(Collection<RouterId> destinations, Appendable out) throws IOException {
+		RoutingTable table = this.getRoutingTable();
+
+		if (table.isMissingLsas()) {
+			out.append("Some routers may not have yet been started, so some paths may be missing.\n");
 		}
 
-		@Override
-		public int compareTo(PathDescription o) {
-			if (this.distance < o.distance) {
-				return -1;
-			} else if (this.distance == o.distance) {
-				return 0;
+		if (destinations == null) {
+			ArrayList<RouterId> all = new ArrayList<RouterId>(table.getRoutes().size());
+			for (RoutingTable.RouteEntry route : table.getRoutes()) {
+				all.add(route.getDestinationIp());
+			}
+			Collections.sort(all);
+			destinations = all;
+		}
+		int found = 0;
+		for (RouterId destinationIp : destinations) {
+			RoutingTable.RouteEntry route = table.get(destinationIp);
+			out.append(destinationIp.toString());
+			if (route == null) {
+				out.append(": No path found\n");
+			} else {
+				out.append(" (cost ").append(Integer.toString(route.getCost())).append("): ");
+				route.appendPath(out);
+				out.append('\n');
+				found++;
 			}
-			return 1;
 		}
+		return found;
 	}
 
-	////////////////////////////////////////////////////////////////////////////
-	// Dijkstra's algorithm
-	////////////////////////////////////////////////////////////////////////////
-
 	/**
-	 * output the shortest path from this router to the destination with the
-	 * given IP address
+	 * output every shortest path from this router to the destination with the
+	 * given IP address, one per line, or the first MAX_EQUAL_COST_PATHS of
+	 * them and how many more there are
 	 */
-	public String getShortestPath(String destinationIP) {
-		// Let's build up something of the following form
-		// <String destinationIp, int distance, LinkedList<Edge> path>
-
-		ArrayList<PathDescription> confirmed = new ArrayList<PathDescription>();
-		PriorityQueue<PathDescription> tentative = new PriorityQueue<PathDescription>();
-
-		// start at the current node
-		PathDescription start = new PathDescription(this.rd.getSimulatedIPAddress(), 0, new LinkedList<Edge>());
-
-		// add start to tentative (due to loop design, even though we know it
-		// will be immediately added to start)
-		tentative.add(start);
-
-		// now, we loop until tentative is empty
-		PathDescription curr;
-		LSA lsa;
-		while (!tentative.isEmpty()) {
-			// dequeue from tentative
-			curr = tentative.remove();
-
-			// add curr to confirmed
-			confirmed.add(curr);
-
-			// get all the neighbors of curr (we can get them by accessing curr's LSA)
-			lsa = this._store.get(curr.getDestinationIp());
-			
-			if (lsa == null) {
-				return "No path found. The router you are looking for may not have yet been started.";
-			}
+	public String getEqualCostPaths(RouterId destinationIP) {
+		RoutingTable table = this.getRoutingTable();
 
-			// for each neighbor...
-			PathDescription tPath;
-			String neighborIP;
-			Edge e;
-			for (LinkDescription ld : lsa.getLinks()) {
-				// ignore link descriptions for curr back to itself
-				if (ld.getPortNum() != -1) {
-					neighborIP = ld.getDestinationIp();
-					// check that the neighbor is not already confirmed (if it
-					// is, then we've already found the shortest path to it)
-					if (!this.isConfirmed(confirmed, neighborIP)) {
-						tPath = this.getTentativePath(tentative, neighborIP);
-						if (tPath == null) {
-							// create a new Edge
-							e = new Edge(curr.getDestinationIp(), ld.getDestinationIp(), ld.getDistance());
-							// add a tentative PathDescription for the neighbor
-							tentative.add(new PathDescription(neighborIP, curr.getDistance() + ld.getDistance(),
-									this.append(curr.getPath(), e)));
-						} else {
-							// see if we've found a cheaper path to the neighbor, and if 
-							// so update the distance and path in the tentative PathDescription
-							if (tPath.getDistance() > (curr.getDistance() + ld.getDistance())) {
-								e = new Edge(curr.getDestinationIp(), ld.getDestinationIp(), ld.getDistance());
-								LinkedList<Edge> newPath = this.append(curr.getPath(), e);
-								// remove the old tentative path
-								tentative.remove(tPath);
-								// add a new, updated one
-								tentative.add(new PathDescription(neighborIP, curr.getDistance() + ld.getDistance(),
-										newPath));
-							}
-						}
-					}
-				}
-			}
+		if (table.isMissingLsas()) {
+			return "No path found. The router you are looking for may not have yet been started.";
 		}
 
-		// return the path to destinationIP as a string
-		for (PathDescription pd : confirmed) {
-			if (pd.getDestinationIp().equals(destinationIP)) {
-				return pd.stringifyPath();
-			}
+		RoutingTable.RouteEntry route = table.get(destinationIP);
+		if (route == null) {
+			return "No path found";
+		}
+		StringBuilder sb = new StringBuilder();
+		List<String> paths = table.getEqualCostPaths(destinationIP, MAX_EQUAL_COST_PATHS);
+		for (String path : paths) {
+			sb.append(path).append('\n');
 		}
-		return "No path found";
+		if (route.getPathCount() > paths.size()) {
+			// the count stops at Long.MAX_VALUE
+			long more = route.getPathCount() - paths.size();
+			sb.append("... and ").append(route.getPathCount() == Long.MAX_VALUE ? "many" : String.valueOf(more))
+					.append(" more of cost ").append(route.getCost()).append('\n');
+		}
+		return sb.substring(0, sb.length() - 1);
 	}
 
-	// helpers for Dijkstra's
-
-	private boolean isConfirmed(ArrayList<PathDescription> confirmed, String ip) {
-		for (PathDescription pd : confirmed) {
-			if (pd.getDestinationIp().equals(ip)) {
-				return true;
+	/**
+	 * @return the routing table for the current contents of the LSD. It is
+	 *         only recomputed after the LSD has changed, so path queries in
+	 *         between are just lookups. Recomputing it doesn't hold up writers.
+	 */
+	public RoutingTable getRoutingTable() {
+		RoutingTable table = this.routingTable;
+		if (table != null && table.getVersion() == this.snapshot.version) {
+			return table;
+		}
+		synchronized (this.spfLock) {
+			// take the snapshot and what changed up to it together, so the
+			// tree is repaired around exactly the right LSAs
+			Snapshot current;
+			HashSet<RouterId> changedSince;
+			synchronized (this.writeLock) {
+				current = this.snapshot;
+				changedSince = this.changed;
+				this.changed = new HashSet<RouterId>();
+			}
+			table = this.routingTable;
+			if (table == null || table.getVersion() != current.version) {
+				// both tables are made from the last ones, redoing only the
+				// routes the repair changed, unless the tree was rebuilt
+				table = new RoutingTable(current.version, this.getShortestPathTree(current, changedSince),
+						this.routingTable);
+				this.forwardingTable = new ForwardingTable(table, current.lsas, this.rd.getSimulatedIPAddress(),
+						this.forwardingTable, changedSince);
+				this.routingTable = table;
 			}
+			return table;
 		}
-		return false;
 	}
 
-	private PathDescription getTentativePath(PriorityQueue<PathDescription> tentative, String ip) {
-		for (PathDescription pd : tentative) {
-			if (pd.getDestinationIp().equals(ip)) {
-				return pd;
-			}
+	/**
+	 * @return the forwarding table for the current contents of the LSD. Like
+	 *         the routing table, it is only rebuilt after the LSD has changed,
+	 *         and in between looking it up takes no lock.
+	 */
+	public ForwardingTable getForwardingTable() {
+		ForwardingTable table = this.forwardingTable;
+		if (table != null && table.getVersion() == this.snapshot.version) {
+			return table;
 		}
-		return null;
+		this.getRoutingTable();
+		return this.forwardingTable;
 	}
 
-	private LinkedList<Edge> append(LinkedList<Edge> edges, Edge e) {
-		LinkedList<Edge> newEdges = (LinkedList<Edge>) edges.clone();
-		newEdges.add(e);
-		return newEdges;
+	/**
+	 * Brings the shortest-path tree up to date with the LSAs that have changed
+	 * since it was last used. If only a few have, the tree is repaired around
+	 * them; otherwise it is cheaper to start over.
+	 */
+	private ShortestPathTree getShortestPathTree(Snapshot current, HashSet<RouterId> changedSince) {
+		long start = System.nanoTime();
+		if (this.spt == null) {
+			this.spt = new ShortestPathTree(this.rd.getSimulatedIPAddress());
+			this.spt.rebuild(current.lsas);
+		} else if (changedSince.size() > current.size() / REBUILD_FRACTION) {
+			this.spt.rebuild(current.lsas);
+		} else {
+			this.spt.update(current.lsas, changedSince);
+		}
+		this.spfRuns.record(System.nanoTime() - start);
+		return this.spt;
 	}
 
 	// public methods
@@ -268,38 +569,39 @@ public class LinkStateDatabase {
 	 * Returns true if this LSD contains more LSA entries that in the lsaArray
 	 */
 	public boolean containsMore(Vector<LSA> lsaArray) {
-		HashMap<String, LSA> other = mapify(lsaArray);
-		for (String originIp : this._store.keySet()) {
-			if (!other.containsKey(originIp)) {
-				return true;
-			}
-		}
-		return false;
+		return this.snapshot.containsMore(lsaArray);
 	}
 
-	private HashMap<String, LSA> mapify(Vector<LSA> lsaArray) {
-		HashMap<String, LSA> map = new HashMap<String, LSA>();
-		for (LSA l : lsaArray) {
-			map.put(l.getOriginIp(), l);
-		}
-		return map;
+	// Getters and setters
+
+	public int size() {
+		return this.snapshot.size();
 	}
 
-	// Getters and setters
+	public Histogram getSpfRuns() {
+		return spfRuns;
+	}
+
+	public Histogram getWriteLockHolds() {
+		return writeLockHolds;
+	}
 
-	public HashMap<String, LSA> get_Store() {
-		return _store;
+	public long getLastChangeMillis() {
+		return lastChangeMillis;
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		for (LSA lsa : _store.values()) {
+		for (LSA lsa : this.snapshot.lsas.values()) {
 			sb.append(lsa.getOriginIp()).append("(" + lsa.getLsaSeqNumber() + ")").append(":\t");
 			for (LinkDescription ld : lsa.getLinks()) {
 				sb.append(ld.getDestinationIp()).append(",").append(ld.getPortNum()).append(",")
 						.append(ld.getDistance()).append("\t");
 			}
+			for (int i = 0; i < lsa.getPrefixCount(); i++) {
+				sb.append(lsa.getPrefix(i)).append("\t");
+			}
 			sb.append("\n");
 		}
 		return sb.toString();
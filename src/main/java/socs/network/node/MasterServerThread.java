@@ -2,43 +2,74 @@ package socs.network.node;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A router's server. It accepts connection requests from other Routers' clients
- * using a SocketServer and spins off ServerThreads to service the requests.
+ * using a SocketServer and spins off ServerThreads to service the requests, on
+ * threads from the given factory.
  * 
  * @author kstricks
  *
  */
-public class MasterServerThread extends Thread {
+public class MasterServerThread extends Thread implements Server {
 
 	private Router router; // the router that spawned this thread
 	private int portNumber;
+	private ThreadFactory handlerThreads; // makes the threads that ServerThreads
+											// run on
+	private volatile boolean listening = true;
+	private volatile ServerSocket serverSocket;
 	
-	public MasterServerThread(Router router, int portNumber) {
+	public MasterServerThread(Router router, int portNumber, ThreadFactory handlerThreads) {
 		super("Server");
 		this.portNumber = portNumber;
 		this.router = router;
+		this.handlerThreads = handlerThreads;
 	}
 	
 	@Override
 	public void run() {
-		boolean listening = true;
-
 		try (
 				// create a server socket to perpetually listen to the port
 				ServerSocket serverSocket = new ServerSocket(portNumber)) {
+			this.serverSocket = serverSocket;
+			if (!this.listening) {
+				// closed before we got going
+				return;
+			}
 
-			// listen forever
-			while (listening) {
+			// listen until closed
+			while (this.listening) {
 				// spin off a new thread with the Socket instance created to
 				// connect with the client, and start the thread
-				new ServerThread(router, serverSocket.accept()).start();
+				this.handlerThreads.newThread(new ServerThread(router, serverSocket.accept())).start();
 			}
 		} catch (IOException e) {
+			if (!this.listening) {
+				// closing the server socket is how accept gets interrupted
+				return;
+			}
 			System.err.println("Could not listen on port " + portNumber);
 			System.exit(-1);
 		}
 	}
 
+	@Override
+	public boolean isListening() {
+		return this.listening && this.serverSocket != null;
+	}
+
+	@Override
+	public void close() {
+		this.listening = false;
+		ServerSocket s = this.serverSocket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				// nothing left to do with it anyway
+			}
+		}
+	}
 }
@@ -0,0 +1,322 @@
+package socs.network.node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import socs.network.message.RouterId;
+
+/**
+ * Runs the protocol messages a router sends to its neighbors on an executor
+ * (by default a fixed pool of threads, see ThreadMode), rather than on a new
+ * thread per message.
+ *
+ * Each neighbor has its own queue, and at most one message from a queue is in
+ * flight at a time, so messages to the same neighbor go out in the order they
+ * were submitted while messages to different neighbors go out in parallel.
+ * After each message the queue goes to the back of the line for a thread, so
+ * one busy neighbor can't starve the others.
+ *
+ * A neighbor's queue holds a bounded number of messages. Once it is full, a
+ * message that can be coalesced (an LSAUPDATE) is folded into one of the same
+ * kind still waiting in the queue, or failing that dropped, since a later
+ * update or database exchange carries the same LSAs. Other messages (HELLO,
+ * ADDLINK, REMOVELINK, DATA) are never dropped: the same capacity again is
+ * kept for them alone, so a queue backed up with LSAUPDATEs never turns one
+ * away, and when even that is full the submitter waits for room. Flooding
+ * only ever submits LSAUPDATEs, so a server thread that the neighbor is
+ * itself waiting on (two routers flooding each other at once) never waits.
+ *
+ * @author kstricks
+ *
+ */
+public class OutboundExecutor {
+
+	private static final Logger log = LoggerFactory.getLogger(OutboundExecutor.class);
+
+	private final ExecutorService pool;
+	private final int queueCapacity;
+
+	// neighbor simulated ip => its queue
+	private final HashMap<RouterId, NeighborQueue> queues = new HashMap<RouterId, NeighborQueue>();
+
+	/**
+	 * @param pool
+	 *            - runs the messages. the number of messages in flight at once
+	 *            is bounded by the number of threads it has
+	 * @param queueCapacity
+	 *            - the most messages that can wait for each neighbor before
+	 *            LSAUPDATEs are coalesced or dropped. Other messages can
+	 *            wait up to twice as many before the submitter has to
+	 */
+	public OutboundExecutor(ExecutorService pool, int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("an outbound executor needs room for at least one message per neighbor");
+		}
+		this.pool = pool;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * A message that can take in a later message to the same neighbor while
+	 * it waits in the queue, so that the two go out as one
+	 */
+	public interface Coalescable extends Runnable {
+
+		/**
+		 * @param later
+		 *            - a message submitted after this one
+		 * @return true if this message now carries everything later would
+		 *         have, false if later has to go out on its own
+		 */
+		boolean coalesce(Runnable later);
+
+		/**
+		 * @return true if this message can be dropped when the queue is full
+		 *         and it can't be coalesced, because something later will
+		 *         carry what it does
+		 */
+		boolean isDroppable();
+	}
+
+	/**
+	 * Queues a message for a neighbor. If the neighbor's queue is full, a
+	 * droppable message is coalesced into one still waiting, or else
+	 * rejected; any other message waits for room.
+	 *
+	 * @param neighborIp
+	 *            - the simulated ip of the neighbor the message is for
+	 * @param message
+	 *            - sends the message
+	 * @return a future that completes once the message has been sent (for a
+	 *         coalesced message, once the one it was folded into has), that
+	 *         has failed with a RejectedExecutionException, or that was
+	 *         cancelled because the neighbor was removed or the executor shut
+	 *         down (or the submitter interrupted) while it waited
+	 */
+	public Future<?> submit(RouterId neighborIp, Runnable message) {
+		NeighborQueue queue;
+		synchronized (this.queues) {
+			queue = this.queues.get(neighborIp);
+			if (queue == null) {
+				queue = new NeighborQueue(neighborIp);
+				this.queues.put(neighborIp, queue);
+			}
+		}
+
+		Future<?> future = queue.add(message);
+		if (future == null) {
+			log.warn("outbound queue full, message rejected neighbor={} capacity={}", neighborIp,
+					this.queueCapacity);
+			CompletableFuture<Void> rejected = new CompletableFuture<Void>();
+			rejected.completeExceptionally(new RejectedExecutionException("outbound queue to " + neighborIp
+					+ " is full"));
+			return rejected;
+		}
+		return future;
+	}
+
+	/**
+	 * Forgets a neighbor the router no longer has a link to, cancelling the
+	 * messages still waiting for it. A message already being sent is left to
+	 * finish (or fail on its closed session).
+	 *
+	 * @param neighborIp
+	 */
+	public void remove(RouterId neighborIp) {
+		NeighborQueue queue;
+		synchronized (this.queues) {
+			queue = this.queues.remove(neighborIp);
+		}
+		if (queue != null) {
+			queue.cancel();
+		}
+	}
+
+	/**
+	 * Stops the pool's threads. messages still waiting in a queue are
+	 * dropped, and messages in flight are interrupted
+	 */
+	public void shutdown() {
+		this.pool.shutdownNow();
+		// the queues the pool dropped would never run again, leaving anyone
+		// waiting for room in them waiting forever
+		ArrayList<NeighborQueue> all;
+		synchronized (this.queues) {
+			all = new ArrayList<NeighborQueue>(this.queues.values());
+			this.queues.clear();
+		}
+		for (NeighborQueue queue : all) {
+			queue.cancel();
+		}
+	}
+
+	/**
+	 * A message waiting in a neighbor's queue
+	 */
+	private static class Entry {
+		private final Runnable message;
+		private final FutureTask<Void> future;
+
+		public Entry(final Runnable message) {
+			this.message = message;
+			this.future = new FutureTask<Void>(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						message.run();
+					} catch (RuntimeException e) {
+						// nobody may ever look at the future, so make sure
+						// this gets seen, as it would on a thread of its own
+						log.error("outbound message failed", e);
+						throw e;
+					}
+				}
+			}, null);
+		}
+	}
+
+	/**
+	 * The messages waiting to go to a single neighbor. Whenever it has
+	 * messages, the queue is either running one of them or waiting in the
+	 * pool to do so.
+	 */
+	private class NeighborQueue implements Runnable {
+
+		private final RouterId neighborIp;
+		// the messages waiting, not counting the one being sent
+		private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+		// true while the queue is in the pool or running
+		private boolean scheduled;
+		// set once the neighbor has been removed
+		private boolean cancelled;
+
+		public NeighborQueue(RouterId neighborIp) {
+			this.neighborIp = neighborIp;
+		}
+
+		/**
+		 * @return the future of the message, or of the waiting message it
+		 *         was coalesced into, or null if the queue is full and the
+		 *         message is one that can be dropped
+		 */
+		public Future<?> add(Runnable message) {
+			Entry entry;
+			synchronized (this) {
+				int capacity = OutboundExecutor.this.queueCapacity;
+				if (message instanceof Coalescable && ((Coalescable) message).isDroppable()
+						&& this.entries.size() >= capacity) {
+					// the newest waiting messages are the likeliest to be of
+					// the same kind
+					Iterator<Entry> waiting = this.entries.descendingIterator();
+					while (waiting.hasNext()) {
+						Entry earlier = waiting.next();
+						if (earlier.message instanceof Coalescable
+								&& ((Coalescable) earlier.message).coalesce(message)) {
+							return earlier.future;
+						}
+					}
+					return null;
+				}
+				// anything else can use the room kept for it, and once that's
+				// gone too waits for the queue to drain
+				while (!this.cancelled && this.entries.size() >= 2 * capacity) {
+					try {
+						this.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				if (this.cancelled || this.entries.size() >= 2 * capacity) {
+					entry = new Entry(message);
+					entry.future.cancel(false);
+					return entry.future;
+				}
+				entry = new Entry(message);
+				this.entries.add(entry);
+				if (this.scheduled) {
+					return entry.future;
+				}
+				this.scheduled = true;
+			}
+			this.schedule();
+			return entry.future;
+		}
+
+		/**
+		 * Cancels the waiting messages and takes no more
+		 */
+		public void cancel() {
+			synchronized (this) {
+				this.cancelled = true;
+				for (Entry entry : this.entries) {
+					entry.future.cancel(false);
+				}
+				this.entries.clear();
+				this.notifyAll();
+			}
+		}
+
+		/**
+		 * Gets in line for a thread, unless the executor has been shut down,
+		 * in which case the waiting messages are cancelled
+		 */
+		private void schedule() {
+			try {
+				OutboundExecutor.this.pool.execute(this);
+			} catch (RejectedExecutionException e) {
+				synchronized (this) {
+					this.cancelled = true;
+					for (Entry entry : this.entries) {
+						entry.future.cancel(false);
+					}
+					this.entries.clear();
+					this.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Sends the message at the front of the queue, then gets back in line
+		 * if there are more
+		 */
+		@Override
+		public void run() {
+			Entry entry;
+			synchronized (this) {
+				entry = this.entries.poll();
+				// there's room for whoever is waiting
+				this.notifyAll();
+			}
+			try {
+				if (entry != null) {
+					entry.future.run();
+				}
+			} finally {
+				boolean more;
+				synchronized (this) {
+					more = !this.entries.isEmpty();
+					this.scheduled = more;
+				}
+				if (more) {
+					this.schedule();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "outbound queue to " + neighborIp;
+		}
+	}
+}
@@ -7,5 +7,5 @@ package socs.network.node;
  *
  */
 public enum Protocol {
-	HANDSHAKE, ADDLINK, REMOVELINK, LSAUPDATE, LSAUPDATEFORWARD, LSAUPDATESENDBACK
+	HANDSHAKE, ADDLINK, REMOVELINK, LSAUPDATE, LSAUPDATEFORWARD, DATA
 }
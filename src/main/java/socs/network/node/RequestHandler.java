@@ -0,0 +1,197 @@
+package socs.network.node;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import socs.network.exceptions.DuplicateLinkException;
+import socs.network.exceptions.NoAvailablePortsException;
+import socs.network.exceptions.SelfLinkException;
+import socs.network.message.LinkDescription;
+import socs.network.message.MessageType;
+import socs.network.message.SOSPFPacket;
+
+/**
+ * The server side of the protocol. Both the blocking ServerThread and the
+ * SelectorServerThread decode packets off a connection and hand them to one
+ * of these, which performs the request on the router and says what (if
+ * anything) to send back.
+ *
+ * There is one handler per client connection, since the handshake spans
+ * several packets on the same connection.
+ *
+ * @author kstricks
+ *
+ */
+public class RequestHandler {
+
+	private static final Logger log = LoggerFactory.getLogger(RequestHandler.class);
+
+	private Router router;
+
+	// true once we've answered a client's first HELLO and are waiting for its
+	// second
+	private boolean awaitingHello;
+
+	public RequestHandler(Router router) {
+		this.router = router;
+	}
+
+	/**
+	 * Switch based on the message type of the packet received, and then follow
+	 * the according protocol
+	 *
+	 * @param inputPacket
+	 *            - the packet received from the client
+	 * @return the packet to send back to the client, or null if the client does
+	 *         not expect a response
+	 */
+	public SOSPFPacket handle(SOSPFPacket inputPacket) {
+		switch (inputPacket.getMessageType()) {
+		case HELLO:
+			return handshake(inputPacket);
+		case LSAUPDATE:
+			return processLsaUpdate(inputPacket);
+		case DBDESCRIPTION:
+			return processDatabaseDescription(inputPacket);
+		case ADDLINK:
+			return handleAddLink(inputPacket);
+		case REMOVELINK:
+			return handleRemoveLink(inputPacket);
+		case DATA:
+			return handleData(inputPacket);
+		default:
+			System.err.println("ERROR: server received an unexpected SOSPFPacket. This should never happen.");
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+	// PROTOCOLS
+	/////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * The server received a HELLO. The first one means the client has
+	 * initiated a handshake with us, and we answer it with our own HELLO. The
+	 * second one completes the handshake and needs no answer.
+	 *
+	 * @param inPacket
+	 */
+	private SOSPFPacket handshake(SOSPFPacket inPacket) {
+		log.info("received HELLO router={} neighbor={}", this.router.getRd().getSimulatedIPAddress(),
+				inPacket.getSrcIP());
+
+		if (!this.awaitingHello) {
+			// tell the router to update its link to the client that sent HELLO
+			// to reflect that that client has been initialized
+			this.router.updateLinkStatusFromSourceIp(inPacket.getSrcIP(), RouterStatus.INIT);
+			log.info("set neighbor state router={} neighbor={} state=INIT", this.router.getRd().getSimulatedIPAddress(),
+					inPacket.getSrcIP());
+			this.awaitingHello = true;
+
+			// send HELLO back to the client
+			return new SOSPFPacket(MessageType.HELLO, this.router.getRd().getProcessIPAddress(),
+					this.router.getRd().getProcessPortNumber(), this.router.getRd().getSimulatedIPAddress());
+		}
+
+		// this was the second HELLO, so tell the router to update the link
+		// status again, this time to TWO_WAY
+		this.router.updateLinkStatusFromSourceIp(inPacket.getSrcIP(), RouterStatus.TWO_WAY);
+		log.info("set neighbor state router={} neighbor={} state=TWO_WAY", this.router.getRd().getSimulatedIPAddress(),
+				inPacket.getSrcIP());
+		this.awaitingHello = false;
+
+		// the link is up, which the rest of the network may need to hear about
+		this.router.reactToCompletedHandshake(inPacket.getSrcIP());
+		return null;
+	}
+
+	/**
+	 * The server received an ADDLINK. This means the remote client has
+	 * requested we add a link to it.
+	 *
+	 * @param packet
+	 */
+	private SOSPFPacket handleAddLink(SOSPFPacket packet) {
+		try {
+			// need to get an available port and add the link all in one go
+			RouterDescription rd2 = new RouterDescription(packet.getSrcProcessIP(), packet.getSrcProcessPort(),
+					packet.getSrcIP());
+			Link l = new Link(router.getRd(), rd2, packet.getWeight(), router.getTransport().newSession(rd2, router.getMetrics()));
+			int port = this.router.addLink(l);
+			// create new LinkDescription and add it to the LinkStateDatabase
+			LinkDescription ld = new LinkDescription(rd2.getSimulatedIPAddress(), port, packet.getWeight());
+			this.router.addLinkDescriptionToLinkStateDatabase(ld);
+			// even though we've changed our LSD, we don't send out LSAUPDATEs
+			// yet: attaching a link should not trigger synchronization. once
+			// the router that requested we add this link shakes hands with us,
+			// we send out our LSA (see reactToCompletedHandshake), and the
+			// database exchange that follows brings it up to date.
+
+			// send back success message
+			return new SOSPFPacket();
+		} catch (NoAvailablePortsException ex) {
+			// send ERROR response packet
+			return new SOSPFPacket("No ports available!!!");
+		} catch (DuplicateLinkException ex) {
+			// send ERROR response packet
+			return new SOSPFPacket("You already have a link to this server!!!");
+		} catch (SelfLinkException ex) {
+			// send ERROR response packet
+			return new SOSPFPacket(
+					"The client tried forcing the server to add a link to itself... This should never happen!!!");
+		}
+	}
+
+	/**
+	 * A remote router connected to us has requested that we remove out link to
+	 * it. We need to remove the link from our ports array and also from our
+	 * link-state database. This means we also need to trigger an LSAUPDATE.
+	 *
+	 * @param packet
+	 */
+	private SOSPFPacket handleRemoveLink(SOSPFPacket packet) {
+		// remove the link
+		this.router.reactToRemoveLinkRequest(packet.getSrcIP());
+
+		// send back success message
+		return new SOSPFPacket();
+	}
+
+	/**
+	 * The server received an LSAUPDATE. This means the remote client is
+	 * propagating an LSAUPDATE to us, so we should update our Router's
+	 * LinkStateDatabase
+	 *
+	 * @param packet
+	 */
+	private SOSPFPacket processLsaUpdate(SOSPFPacket packet) {
+		// call the method in the router for updating LinkStateDatabase
+		this.router.performLsaUpdate(packet);
+
+		// send back a success message
+		return new SOSPFPacket();
+	}
+
+	/**
+	 * The server received a DATA packet, which is either for us or to be
+	 * forwarded on. Either way the sender doesn't wait for an answer.
+	 *
+	 * @param packet
+	 */
+	private SOSPFPacket handleData(SOSPFPacket packet) {
+		this.router.routeData(packet);
+		return null;
+	}
+
+	/**
+	 * The server received a DBDESCRIPTION. This means the remote client has
+	 * just shaken hands with us and wants to know which LSAs each of us is
+	 * missing.
+	 *
+	 * @param packet
+	 */
+	private SOSPFPacket processDatabaseDescription(SOSPFPacket packet) {
+		return this.router.describeDatabase(packet);
+	}
+}
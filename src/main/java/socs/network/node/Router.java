@@ -1,19 +1,39 @@
 package socs.network.node;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import socs.network.exceptions.DuplicateLinkException;
 import socs.network.exceptions.NoAvailablePortsException;
 import socs.network.exceptions.NoSuchLinkException;
 import socs.network.exceptions.SelfLinkException;
 import socs.network.message.LSA;
+import socs.network.message.LSAHeader;
 import socs.network.message.LinkDescription;
 import socs.network.message.MessageType;
+import socs.network.message.Prefix;
+import socs.network.message.RouterId;
 import socs.network.message.SOSPFPacket;
+import socs.network.metrics.MessageMetrics;
 import socs.network.util.Configuration;
+import socs.network.util.ThreadMode;
 
 /**
  * This is a "node" in the network. Has packet-forwarding capabilities.
@@ -23,8 +43,14 @@ import socs.network.util.Configuration;
  */
 public class Router {
 
-	// the server the router listens for connection requests with
-	private MasterServerThread server;
+	private static final Logger log = LoggerFactory.getLogger(Router.class);
+
+	// how messages get to and from other routers
+	private Transport transport;
+
+	// the server the router listens for connection requests with, made by
+	// the transport
+	private Server server;
 
 	// the router's understanding of the network
 	// this is what the router runs its shortest path alg over
@@ -33,21 +59,99 @@ public class Router {
 	// contains ip address, process port, etc. for this router
 	private RouterDescription rd;
 
-	// all routers have 4 ports
+	// the links to our neighbors, by port. there are
+	// socs.network.router.ports of them, 4 by default
 	private Link[] ports;
 
+	// the ports with no link on them (a set bit is a free port). guarded by
+	// this, like changes to ports
+	private BitSet freePorts;
+
+	// each neighbor's port, by its simulated ip and by its "process ip:port",
+	// so links are found without scanning the ports
+	private final ConcurrentHashMap<RouterId, Integer> portsByNeighbor = new ConcurrentHashMap<RouterId, Integer>();
+	private final ConcurrentHashMap<String, Integer> portsByEndpoint = new ConcurrentHashMap<String, Integer>();
+
+	// sends this router's protocol messages to its neighbors
+	private OutboundExecutor outbound;
+
+	// the LSAs we've recently been flooded, so copies of them can be dropped
+	private SeenLsaCache seenLsas;
+
+	// what the router measures about itself, also visible over JMX
+	private RouterMetrics metrics;
+
+	// set once the router has been stopped, after which a neighbor that can't
+	// be reached is expected rather than a failed link
+	private volatile boolean stopped;
+
+	// how many routers a DATA packet sent from here may pass through before
+	// it is dropped
+	private int dataTtl;
+
+	// how many sources allpairs works on at once
+	private int allPairsThreads;
+
 	public Router(Configuration config) {
-		this.ports = new Link[4];
+		int portCount = config.getInt("socs.network.router.ports", 4);
+		if (portCount < 1) {
+			throw new IllegalArgumentException("socs.network.router.ports must be at least 1, not " + portCount);
+		}
+		this.setPorts(new Link[portCount]);
 		// set this router's simulated IP address using the config file the
 		// program has been started with
 		this.rd = new RouterDescription(config.getString("socs.network.router.actual_ip"),
-				config.getInt("socs.network.router.port"), config.getString("socs.network.router.simulated_ip"));
+				config.getInt("socs.network.router.port"),
+				RouterId.parse(config.getString("socs.network.router.simulated_ip")));
 		// initialize the LSD
 
 		lsd = new LinkStateDatabase(rd);
 
+		ThreadMode threadMode = ThreadMode.fromName(config.getString("socs.network.router.threads", "platform"));
+
+		// by default there is a thread per port, so every neighbor can be sent
+		// to at once, up to a limit for routers with a great many ports
+		this.outbound = new OutboundExecutor(
+				threadMode.newExecutor("Client",
+						config.getInt("socs.network.router.outbound_threads", Math.min(this.ports.length, 16))),
+				config.getInt("socs.network.router.outbound_queue", 64));
+
+		this.metrics = new RouterMetrics(this);
+		this.metrics.register();
+
+		this.dataTtl = config.getInt("socs.network.router.data_ttl", 64);
+		this.allPairsThreads = Math.max(1,
+				config.getInt("socs.network.router.allpairs_threads", Runtime.getRuntime().availableProcessors()));
+
+		// the networks behind this router, which go out in its LSA
+		for (String prefix : config.getString("socs.network.router.prefixes", "").split("[,\\s]+")) {
+			if (!prefix.isEmpty()) {
+				this.lsd.addLocalPrefix(Prefix.parse(prefix));
+			}
+		}
+
+		this.seenLsas = new SeenLsaCache(config.getInt("socs.network.router.seen_lsa_capacity", 4096),
+				config.getInt("socs.network.router.seen_lsa_max_age", 60) * 1000L);
+
+		// the server and sessions talk over TCP, unless all the routers are in
+		// this JVM and can talk through memory
+		String transportName = config.getString("socs.network.router.transport", "tcp");
+		if (transportName.equals("tcp")) {
+			// a selector server hands packets to as many threads as there can
+			// be messages going out, so that a handler waiting for room in an
+			// outbound queue doesn't stop the event loop
+			this.transport = new TcpTransport(config.getString("socs.network.router.server", "blocking"), threadMode,
+					Math.max(0, config.getInt("socs.network.router.server_threads",
+							Math.min(this.ports.length, 16))));
+		} else if (transportName.equals("memory")) {
+			this.transport = InMemoryTransport.getShared();
+		} else {
+			throw new IllegalArgumentException("unknown transport '" + transportName
+					+ "'; socs.network.router.transport must be 'tcp' or 'memory'");
+		}
+
 		// start the server so that it is listening for connection requests
-		this.server = new MasterServerThread(this, rd.getProcessPortNumber());
+		this.server = this.transport.newServer(this);
 		this.server.start();
 	}
 
@@ -59,10 +163,128 @@ public class Router {
 	 * @param destinationIP
 	 *            the ip address of the destination simulated router
 	 */
-	private void processDetect(String destinationIP) {
+	private void processDetect(RouterId destinationIP) {
 		System.out.println(this.lsd.getShortestPath(destinationIP));
 	}
 
+	/**
+	 * output the shortest paths to many destination ips, from a single run of
+	 * the shortest-path computation, one per line as each is found
+	 * <p/>
+	 * format: destination ip (cost c): source ip address -> ip address -> ...
+	 * -> destination ip
+	 *
+	 * @param destinationIPs
+	 *            the ip addresses of the destination simulated routers, or
+	 *            null for every router that can be reached
+	 */
+	private void processDetectMany(Collection<RouterId> destinationIPs) {
+		// buffered, so that a large network isn't written out a few
+		// characters at a time, but not closed, as that would close stdout
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		try {
+			int found = this.lsd.writeShortestPaths(destinationIPs, out);
+			if (destinationIPs == null) {
+				out.write(found + " destinations\n");
+			}
+			out.flush();
+		} catch (IOException e) {
+			System.err.println("ERROR: couldn't write the paths: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * write every router's shortest path to every other, as this router's
+	 * link state database sees the network, to a file
+	 *
+	 * @param path
+	 *            - the file to write the matrix to
+	 * @param format
+	 *            - how to write it
+	 */
+	private void processAllPairs(String path, AllPairsShortestPaths.Format format) {
+		long start = System.nanoTime();
+		AllPairsShortestPaths allPairs = new AllPairsShortestPaths(this.lsd.getSnapshot().getLsas());
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+			allPairs.write(out, format, this.allPairsThreads);
+		} catch (IOException e) {
+			System.err.println("ERROR: couldn't write " + path + ": " + e.getMessage());
+			return;
+		}
+		System.out.println("Wrote the shortest paths between " + allPairs.size() + " routers to " + path + " in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * output every shortest path to the given destination ip, when there are
+	 * several of the same cost
+	 * <p/>
+	 * format: one path per line, as for detect
+	 *
+	 * @param destinationIP
+	 *            the ip address of the destination simulated router
+	 */
+	private void processDetectEqualCost(RouterId destinationIP) {
+		System.out.println(this.lsd.getEqualCostPaths(destinationIP));
+	}
+
+	/**
+	 * send a DATA packet carrying message to the given destination ip, hop by
+	 * hop along the routers' forwarding tables
+	 *
+	 * @param destinationIP
+	 *            the ip address of the destination simulated router
+	 * @param message
+	 *            - the text to send
+	 */
+	private void processSend(RouterId destinationIP, String message) {
+		if (destinationIP.equals(this.rd.getSimulatedIPAddress())) {
+			System.err.println("ERROR: " + destinationIP + " is this router");
+		} else if (this.sendData(destinationIP, message.getBytes(StandardCharsets.UTF_8))) {
+			System.out.println("Sent to " + destinationIP);
+		} else {
+			System.err.println("ERROR: no route to " + destinationIP);
+		}
+	}
+
+	/**
+	 * advertise the given prefix in this router's LSA, so that DATA packets
+	 * for addresses in it are routed here. Notice: once the router has
+	 * started, this triggers the synchronization of database
+	 *
+	 * @param prefix
+	 *            - e.g. 10.1.0.0/16
+	 */
+	private void processAdvertise(Prefix prefix) {
+		this.lsd.addLocalPrefix(prefix);
+		if (this.isStarted()) {
+			this.triggerLsaUpdate();
+		}
+	}
+
+	/**
+	 * stop advertising the given prefix. Notice: once the router has started,
+	 * this triggers the synchronization of database
+	 *
+	 * @param prefix
+	 *            - a prefix this router advertises
+	 */
+	private void processWithdraw(Prefix prefix) {
+		LSA lsa = this.lsd.getSnapshot().get(this.rd.getSimulatedIPAddress());
+		boolean advertised = false;
+		for (int i = 0; i < lsa.getPrefixCount(); i++) {
+			advertised |= lsa.getPrefix(i).equals(prefix);
+		}
+		if (!advertised) {
+			System.err.println("ERROR: " + prefix + " isn't advertised by this router");
+			return;
+		}
+		this.lsd.removeLocalPrefix(prefix);
+		if (this.isStarted()) {
+			this.triggerLsaUpdate();
+		}
+	}
+
 	/**
 	 * remove the link between this router and the remote router connected at
 	 * portNumber. Notice: this command should trigger the synchronization of
@@ -72,7 +294,9 @@ public class Router {
 	 *            - the port number which the link attaches at
 	 */
 	private void processDisconnect(short portNumber) {
-		if (this.ports[portNumber] != null) {
+		if (portNumber < 0 || portNumber >= this.ports.length) {
+			System.err.println("ERROR: there is no port " + portNumber + "; ports are 0 to " + (this.ports.length - 1));
+		} else if (this.ports[portNumber] != null) {
 			Link l = ports[portNumber];
 			// tell the router at port portNumber to remove its link to this router
 			this.sendRemoveLink(l, portNumber);
@@ -100,12 +324,12 @@ public class Router {
 	 * @param weight
 	 *            - the cost of transmitting through this link
 	 */
-	private void processAttach(String processIP, short processPort, String simulatedIP, short weight) {
+	private void processAttach(String processIP, int processPort, RouterId simulatedIP, short weight) {
 		try {
 			// create a router description for the router to connect to
 			RouterDescription rd2 = new RouterDescription(processIP, processPort, simulatedIP);
 			// create new Link object and add it to ports array
-			Link l = new Link(this.rd, rd2, weight);
+			Link l = new Link(this.rd, rd2, weight, this.transport.newSession(rd2, this.metrics));
 			int port = this.addLink(l);
 			// create new LinkDescription object for this link and add it to the
 			// LinkStateDatabase
@@ -125,28 +349,27 @@ public class Router {
 
 	/**
 	 * Start the router and begin the database synchronization process by
-	 * broadcasting HELLO and LSAUPDATE to neighbors
+	 * broadcasting HELLO, DBDESCRIPTION and LSAUPDATE to neighbors
 	 */
 	private void processStart() {
 
-		// shake hands with all routers in our ports array
+		// update this router's status to two-way first, so that whatever we
+		// learn in the database exchanges below gets flooded on to our other
+		// neighbors
+		this.rd.setStatus(RouterStatus.TWO_WAY);
+
+		// shake hands with all routers in our ports array. each handshake is
+		// followed by an exchange of database descriptions, which brings both
+		// ends of the link up to date with each other
 		for (int i = 0; i < this.ports.length; i++) {
 			if (!(this.ports[i] == null)) {
 				this.initiateHandshake(ports[i]);
 			}
 		}
 
-		// TODO Could be error here if handshakes are not done before LSA
-		// updates are sent out? Should be fine I think because the links will
-		// have already been established in processAttach, and that's really all
-		// we need.
-
-		// update this router's status to two-way
-		this.rd.setStatus(RouterStatus.TWO_WAY);
-
-		// send LSAUPDATE out to all neighbors
-		// should set sendBack to true
-		this.triggerLsaUpdate(true);
+		// our own LSA changed as links were attached, so send it out to all
+		// neighbors
+		this.triggerLsaUpdate();
 	}
 
 	/**
@@ -170,17 +393,21 @@ public class Router {
 	 * @param weight
 	 *            - the cost of transmitting through this link
 	 */
-	private void processConnect(String processIP, short processPort, String simulatedIP, short weight) {
+	private void processConnect(String processIP, int processPort, RouterId simulatedIP, short weight) {
 		if (!this.isStarted()) {
 			System.err.println(
 					"ERROR: This router is not yet started. You must start this router before using this command.");
 			return;
 		}
 
+		// since we've already been started up, the new neighbor will shake
+		// hands and exchange database descriptions with us once it has added
+		// its end of the link
 		this.processAttach(processIP, processPort, simulatedIP, weight);
 
-		// set sendBack to false, since we've already been started up
-		this.triggerLsaUpdate(true);
+		// our own LSA now includes the new link, so send it out to all
+		// neighbors
+		this.triggerLsaUpdate();
 	}
 
 	/**
@@ -197,41 +424,63 @@ public class Router {
 		}
 	}
 
+	/**
+	 * output counters describing what the router has been doing
+	 */
+	private void processStats() {
+		System.out.println("duplicate LSAs suppressed: " + this.seenLsas.getSuppressed());
+		System.out.println("LSAs in seen cache: " + this.seenLsas.size());
+		System.out.println("LSAs in database: " + this.metrics.getLsdSize());
+		System.out.println("ms since topology change: " + this.metrics.getMillisSinceTopologyChange());
+		System.out.println("SPF runs: " + this.metrics.getSpfRuns());
+		System.out.println("LSD write lock hold: " + this.metrics.getLsdWriteLockHold());
+		System.out.println("DATA delivered: " + this.metrics.getDataDelivered());
+		System.out.println("DATA dropped: " + this.metrics.getDataDropped());
+		System.out.println(String.format("%-14s %8s %8s %10s %10s %8s  %s", "message", "sent", "received",
+				"bytes out", "bytes in", "failures", "round trip"));
+		for (MessageType type : MessageType.values()) {
+			MessageMetrics m = this.metrics.of(type);
+			System.out.println(String.format("%-14s %8d %8d %10d %10d %8d  %s", type, m.getSent(), m.getReceived(),
+					m.getBytesSent(), m.getBytesReceived(), m.getFailures(), m.getRoundTrip()));
+		}
+	}
+
 	/**
 	 * disconnect with all neighbors and quit the program
 	 * 
 	 * NOTE: This DOES trigger synchronization of the link state database
 	 */
 	private void processQuit() {
-		ArrayList<ClientThread> threads = new ArrayList<ClientThread>();
+		ArrayList<Future<?>> removals = new ArrayList<Future<?>>();
 
 		// tell all the routers you're connected with to remove their links to
 		// you
 		for (int i = 0; i < this.ports.length; i++) {
 			if (this.ports[i] != null) {
-				ClientThread ct = new ClientThread(this, Protocol.REMOVELINK, this.ports[i].getRouter1(),
-						this.ports[i].getRouter2());
+				ClientThread ct = new ClientThread(this, Protocol.REMOVELINK, this.ports[i]);
 				ct.setLinkPort(i);
 				ct.setSilentQuit(true);
-				threads.add(ct);
+				removals.add(this.submit(this.ports[i], ct));
 			}
 		}
 
-		// start all the threads
-		for (ClientThread t : threads) {
-			t.start();
-		}
-
 		// upon successful removal of a link on a remote router, we remove the
-		// local link. we wait for all the client threads to terminate before
-		// doing so
-
-		for (ClientThread t : threads) {
+		// local link. we wait for all the removals to be sent before doing so
+		for (Future<?> f : removals) {
 			try {
-				t.join();
+				f.get();
 			} catch (InterruptedException e) {
 				System.err.println(
 						"WARNING: Main thread interrupted while waiting for client to terminate. May result in errors upon program termination.");
+			} catch (ExecutionException e) {
+				// the client has already reported what went wrong
+			}
+		}
+
+		// tear down our sessions to the routers we were connected with
+		for (int i = 0; i < this.ports.length; i++) {
+			if (this.ports[i] != null) {
+				this.ports[i].close();
 			}
 		}
 
@@ -267,6 +516,9 @@ public class Router {
 		int port = this.getAvailablePort();
 		// add it to ports
 		this.ports[port] = l;
+		this.freePorts.clear(port);
+		this.portsByNeighbor.put(l.getRouter2().getSimulatedIPAddress(), port);
+		this.portsByEndpoint.put(endpoint(l.getRouter2()), port);
 		return port;
 	}
 	
@@ -276,19 +528,14 @@ public class Router {
 	 * 
 	 * @param ld
 	 */
-	public synchronized void addLinkDescriptionToLinkStateDatabase(LinkDescription ld) {
-		// get the LSA for this router
-		LSA lsa = lsd.get_Store().get(rd.getSimulatedIPAddress());
-		// add the LinkDescription to the LSA and increment the lsaSeqNumber
-		// since we altered the LSA
-		lsa.addLink(ld);
-		lsa.incrementLsaSeqNumber();
+	public void addLinkDescriptionToLinkStateDatabase(LinkDescription ld) {
+		// add the LinkDescription to the LSA for this router, which increments
+		// the lsaSeqNumber since we altered the LSA
+		this.lsd.addLocalLink(ld);
 	}
 
-	public void removeLinkDescriptionFromLinkStateDatabase(String remoteIp) {
-		LSA lsa = lsd.get_Store().get(rd.getSimulatedIPAddress());
-		lsa.removeLink(remoteIp);
-		lsa.incrementLsaSeqNumber();
+	public void removeLinkDescriptionFromLinkStateDatabase(RouterId remoteIp) {
+		this.lsd.removeLocalLink(remoteIp);
 	}
 	
 	/**
@@ -299,84 +546,255 @@ public class Router {
 	 * @param packet
 	 *            - the SOSPFPacket received by the ServerThread
 	 */
-	public synchronized void performLsaUpdate(SOSPFPacket packet) {
-		
-		boolean didUpdate = this.lsd.update(packet.getLsaArray());
+	public void performLsaUpdate(SOSPFPacket packet) {
+		// the same LSA usually reaches us from several neighbors; drop the
+		// copies before they go anywhere near the LSD
+		Vector<LSA> unseen = this.seenLsas.filterUnseen(packet.getLsaArray());
+		if (unseen.isEmpty()) {
+			return;
+		}
+
+		// the LSD takes only what is newer than it has, one update at a time,
+		// so if the same LSA gets this far twice only one of us floods it
+		Vector<LSA> accepted = this.lsd.update(unseen);
+		this.seenLsas.markSeen(unseen);
+
+		if (!accepted.isEmpty() && this.isStarted()) {
+			// propagate the LSAs that were new to us to all neighbor routers
+			this.propagateLsaUpdate(packet, accepted);
+		}
+	}
 
-		if (didUpdate && this.isStarted()) {
-			// propagate the LSAUPDATE message to all neighbor routers
-			this.propagateLsaUpdate(packet);
+	/**
+	 * Summarizes this router's LinkStateDatabase for sending in a
+	 * DBDESCRIPTION
+	 */
+	public Vector<LSAHeader> summarizeDatabase() {
+		return this.lsd.summarize();
+	}
+
+	/**
+	 * Called by RequestHandler in response to receipt of a DBDESCRIPTION from
+	 * a neighbor that has just shaken hands with us. Compares the neighbor's
+	 * summary with our LinkStateDatabase.
+	 * 
+	 * @param packet
+	 *            - the DBDESCRIPTION received
+	 * @return the response, which carries the LSAs the neighbor is missing and
+	 *         the headers of the LSAs we are missing, which the neighbor should
+	 *         send us in an LSAUPDATE
+	 */
+	public SOSPFPacket describeDatabase(SOSPFPacket packet) {
+		// compare both ways against the same version of the LSD
+		LinkStateDatabase.Snapshot snapshot = this.lsd.getSnapshot();
+		SOSPFPacket response = new SOSPFPacket(MessageType.DBDESCRIPTION, this.rd.getProcessIPAddress(),
+				this.rd.getProcessPortNumber(), this.rd.getSimulatedIPAddress(),
+				snapshot.newerThan(packet.getLsaHeaders()));
+		response.setLsaHeaders(snapshot.olderThan(packet.getLsaHeaders()));
+		return response;
+	}
 
-			if (packet.getSendBack()) {
-				// if the sending router does not have information that this
-				// router does, then trigger an LSAUPDATE from this router back
-				// to the sending router
-				if (this.lsd.containsMore(packet.getLsaArray())) {
-					this.triggerTargettedLsaUpdate(packet.getPrecedingNodeIP());
+	/**
+	 * Called by ClientThread with a neighbor's response to our DBDESCRIPTION.
+	 * Updates the LinkStateDatabase with the LSAs the neighbor sent us, and
+	 * floods those that were new to us on to our other neighbors
+	 * 
+	 * @param neighborIp
+	 *            - the simulated IP of the neighbor that responded
+	 * @param response
+	 *            - the neighbor's response
+	 * @return the LSAs the neighbor asked us for
+	 */
+	public Vector<LSA> performDatabaseExchange(RouterId neighborIp, SOSPFPacket response) {
+		Vector<LSA> accepted = this.lsd.update(response.getLsaArray());
+		// we flood these on ourselves, so there's no need to take them again
+		// if they come back around
+		this.seenLsas.markSeen(accepted);
+
+		if (!accepted.isEmpty() && this.isStarted()) {
+			for (int i = 0; i < this.ports.length; i++) {
+				if (this.ports[i] != null
+						&& !this.ports[i].getRouter2().getSimulatedIPAddress().equals(neighborIp)) {
+					this.sendLsaUpdate(ports[i], accepted);
 				}
 			}
 		}
+
+		return this.lsd.getLsas(response.getLsaHeaders());
 	}
 
 	/**
-	 * Called by ServerThread in response to receipt of a LSAUPDATESENDBACK
-	 * packet. Updates the LinkStateDatabase with any new LSAs in the LSAUPDATE
+	 * Called by RequestHandler once a neighbor has completed a handshake with
+	 * us. Our LSA includes the link to the neighbor, so if we're up and
+	 * running we let the rest of the network know about it.
 	 * 
-	 * @param packet
-	 *            - the SOSPFPacket received by the ServerThread
+	 * @param sourceIp
+	 *            - the simulated IP of the neighbor
 	 */
-	public synchronized void performLsaUpdateSendBack(SOSPFPacket packet) {
-		this.lsd.update(packet.getLsaArray());
+	public void reactToCompletedHandshake(RouterId sourceIp) {
+		if (this.isStarted()) {
+			this.triggerLsaUpdate();
+		}
 	}
 
 	/**
-	 * Finds an available port by iterating through the ports array
+	 * Finds the lowest numbered free port
 	 * 
 	 * @return the index of an available port
 	 * @throws NoAvailablePortsException
 	 *             if no ports are available
 	 */
-	public int getAvailablePort() throws NoAvailablePortsException {
-		for (int i = 0; i < this.ports.length; i++) {
-			if (this.ports[i] == null) {
-				return i;
-			}
+	public synchronized int getAvailablePort() throws NoAvailablePortsException {
+		int port = this.freePorts.nextSetBit(0);
+		if (port < 0) {
+			throw new NoAvailablePortsException();
 		}
-		throw new NoAvailablePortsException();
+		return port;
 	}
 
-	public void updateLinkStatusFromSourceIp(String sourceIp, RouterStatus status) {
+	public void updateLinkStatusFromSourceIp(RouterId sourceIp, RouterStatus status) {
 		Link l = this.getLinkFromSourceIp(sourceIp);
 		l.getRouter2().setStatus(status);
 	}
 
 	public synchronized void removeLinkAtPort(int port) {
-		Link l = this.ports[port];
+		this.removeLink(port, this.ports[port]);
+	}
+
+	/**
+	 * Removes a link, if it is still at its port. The neighbor's REMOVELINK
+	 * may cross ours, or a session may fail after the link has gone, and by
+	 * then the port may even have been given to another link.
+	 *
+	 * @param port
+	 * @param l
+	 *            - the link to remove
+	 * @return false if the link had already gone
+	 */
+	public synchronized boolean removeLink(int port, Link l) {
+		if (l == null || port < 0 || this.ports[port] != l) {
+			return false;
+		}
 
 		// remove the link from the ports array
 		this.ports[port] = null;
+		this.freePorts.set(port);
+		this.portsByNeighbor.remove(l.getRouter2().getSimulatedIPAddress());
+		this.portsByEndpoint.remove(endpoint(l.getRouter2()));
+
+		// drop whatever is still waiting to go to the remote router, and tear
+		// down the session we had open to it
+		this.outbound.remove(l.getRouter2().getSimulatedIPAddress());
+		l.close();
 
 		// remove the link description from the link state database
 		this.removeLinkDescriptionFromLinkStateDatabase(l.getRouter2().getSimulatedIPAddress());
+		return true;
+	}
+
+	/**
+	 * Sends a DATA packet from this router
+	 *
+	 * @param destinationIp
+	 *            - the router to send it to
+	 * @param payload
+	 *            - what it carries, which mustn't be changed afterwards
+	 * @return false if there is no route to destinationIp, true if the packet
+	 *         is on its way
+	 */
+	public boolean sendData(RouterId destinationIp, byte[] payload) {
+		SOSPFPacket packet = new SOSPFPacket(MessageType.DATA, this.rd.getProcessIPAddress(),
+				this.rd.getProcessPortNumber(), this.rd.getSimulatedIPAddress());
+		packet.setDstIP(destinationIp);
+		packet.setTtl(this.dataTtl);
+		packet.setPayload(payload);
+		return this.routeData(packet);
+	}
+
+	/**
+	 * Delivers a DATA packet if it is for this router (or an address in one
+	 * of the prefixes it advertises), or otherwise sends it on through the
+	 * port the forwarding table gives for its destination. A packet that can't
+	 * go any further is dropped.
+	 *
+	 * @param packet
+	 *            - a packet that this router alone has hold of (as is every
+	 *            packet received), since it is changed on its way through
+	 * @return true if the packet was delivered or sent on, false if it was
+	 *         dropped
+	 */
+	public boolean routeData(SOSPFPacket packet) {
+		int port = packet.getDstIP().equals(this.rd.getSimulatedIPAddress()) ? ForwardingTable.LOCAL
+				: this.lsd.getForwardingTable().lookup(packet.getSrcIP(), packet.getDstIP());
+		if (port == ForwardingTable.LOCAL) {
+			this.metrics.recordDataDelivered();
+			log.info("delivered DATA router={} source={} destination={} bytes={} payload=\"{}\"",
+					this.rd.getSimulatedIPAddress(), packet.getSrcIP(), packet.getDstIP(), packet.getPayload().length,
+					new String(packet.getPayload(), StandardCharsets.UTF_8));
+			return true;
+		}
+		if (packet.getTtl() <= 0) {
+			this.metrics.recordDataDropped();
+			log.warn("dropped DATA router={} source={} destination={} reason=\"hop limit reached\"",
+					this.rd.getSimulatedIPAddress(), packet.getSrcIP(), packet.getDstIP());
+			return false;
+		}
+		Link l = port == ForwardingTable.NO_ROUTE ? null : this.ports[port];
+		if (l == null) {
+			this.metrics.recordDataDropped();
+			log.warn("dropped DATA router={} source={} destination={} reason=\"no route\"",
+					this.rd.getSimulatedIPAddress(), packet.getSrcIP(), packet.getDstIP());
+			return false;
+		}
+		packet.setPrecedingNodeIP(this.rd.getSimulatedIPAddress());
+		packet.setTtl(packet.getTtl() - 1);
+		ClientThread ct = new ClientThread(this, Protocol.DATA, l);
+		ct.setPacket(packet);
+		this.submit(l, ct);
+		return true;
 	}
 
-	public void reactToRemoveLinkRequest(String sourceIp) {
-		// find the port with a link to sourceIp
-		int portNumber = this.getPortTo(sourceIp);
-		
+	public void reactToRemoveLinkRequest(RouterId sourceIp) {
+		Link l;
+		int portNumber;
+		synchronized (this) {
+			// find the port with a link to sourceIp. there is none if our own
+			// REMOVELINK crossed this one and got there first
+			portNumber = this.getPortTo(sourceIp);
+			l = portNumber < 0 ? null : this.ports[portNumber];
+		}
+
 		// remove the link and notify neighbors with a LSAUPDATE
-		this.removeLinkAndUpdateNeighbors(portNumber);
+		this.removeLinkAndUpdateNeighbors(portNumber, l);
 	}
 
-	public void removeLinkAndUpdateNeighbors(int port) {
+	/**
+	 * Removes a link, if it is still at its port (see removeLink), and tells
+	 * the neighbors
+	 */
+	public void removeLinkAndUpdateNeighbors(int port, Link l) {
 		// remove the local link
-		this.removeLinkAtPort(port);
+		if (!this.removeLink(port, l)) {
+			return;
+		}
 
 		// send LSAUPDATE out to all neighbors, since now our LSD has changed
 		if (this.isStarted()) {
-			// sendBack is false
-			this.triggerLsaUpdate(false);
+			this.triggerLsaUpdate();
+		}
+	}
+
+	/**
+	 * Treats a link whose session failed as gone: the neighbor has stopped,
+	 * restarted or can't be reached, and the link is added again by attach or
+	 * connect once it is back
+	 */
+	public void linkFailed(Link l) {
+		int port;
+		synchronized (this) {
+			port = this.getPortTo(l.getRouter2().getSimulatedIPAddress());
 		}
+		this.removeLinkAndUpdateNeighbors(port, l);
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -392,15 +810,19 @@ public class Router {
 	 * Checks if a link is a duplicate of one already in existence
 	 * 
 	 * @param l
-	 * @return true if an equivalent link exists, false otherwise
+	 * @return true if we already have a link to the same simulated ip, or to
+	 *         the same process, false otherwise
 	 */
 	private boolean isDuplicateLink(Link l) {
-		for (Link l2 : this.ports) {
-			if (l.equals(l2)) {
-				return true;
-			}
-		}
-		return false;
+		return this.portsByNeighbor.containsKey(l.getRouter2().getSimulatedIPAddress())
+				|| this.portsByEndpoint.containsKey(endpoint(l.getRouter2()));
+	}
+
+	/**
+	 * @return the key for a router's process in portsByEndpoint
+	 */
+	private static String endpoint(RouterDescription rd) {
+		return rd.getProcessIPAddress() + ":" + rd.getProcessPortNumber();
 	}
 
 	/**
@@ -410,31 +832,27 @@ public class Router {
 	 * @param remoteIp
 	 * @return
 	 */
-	private Link getLinkFromSourceIp(String remoteIp) {
-		for (Link l : this.ports) {
-			if (l.getRouter2().getSimulatedIPAddress().equals(remoteIp)) {
-				return l;
-			}
+	private Link getLinkFromSourceIp(RouterId remoteIp) {
+		int port = this.getPortTo(remoteIp);
+		Link l = port < 0 ? null : this.ports[port];
+		if (l == null) {
+			// should never happen
+			throw new NoSuchLinkException();
 		}
-		// should never happen
-		throw new NoSuchLinkException();
+		return l;
 	}
 
-	private void triggerLsaUpdate(boolean sendBack) {
-		for (int i = 0; i < this.ports.length; i++) {
-			if (this.ports[i] != null) {
-				this.sendLsaUpdate(ports[i], sendBack);
-			}
-		}
-	}
-
-	private void triggerTargettedLsaUpdate(String target) {
+	/**
+	 * Send this router's own LSA out to all neighbors. Only the LSA that
+	 * changed needs to go out; the database exchange that follows every
+	 * handshake takes care of neighbors that are missing anything else.
+	 */
+	private void triggerLsaUpdate() {
+		Vector<LSA> lsaArray = new Vector<LSA>();
+		lsaArray.addElement(this.lsd.getSnapshot().get(this.rd.getSimulatedIPAddress()));
 		for (int i = 0; i < this.ports.length; i++) {
 			if (this.ports[i] != null) {
-				if (this.ports[i].getRouter2().getSimulatedIPAddress().equals(target)) {
-					this.sendBackLsaUpdate(ports[i]);
-					break;
-				}
+				this.sendLsaUpdate(ports[i], lsaArray);
 			}
 		}
 	}
@@ -443,50 +861,64 @@ public class Router {
 	 * Propagate the LSAUPDATE to all neighbors but the neighbor from which we
 	 * received the packet
 	 * 
-	 * @param precedingNodeIP
+	 * @param packet
+	 *            - the packet received
+	 * @param accepted
+	 *            - the LSAs in the packet that were new to us
 	 */
-	private void propagateLsaUpdate(SOSPFPacket packet) {
+	private void propagateLsaUpdate(SOSPFPacket packet, Vector<LSA> accepted) {
 		for (int i = 0; i < this.ports.length; i++) {
 			if (this.ports[i] != null
 					&& !ports[i].getRouter2().getSimulatedIPAddress().equals(packet.getPrecedingNodeIP())) {
-				this.forwardLsaUpdate(ports[i], packet);
+				this.forwardLsaUpdate(ports[i], packet, accepted);
 			}
 		}
 	}
 
-	private boolean isStarted() {
+	boolean isStarted() {
 		return this.rd.getStatus() == RouterStatus.TWO_WAY;
 	}
 
-	private int getPortTo(String ip) {
-		for (int i = 0; i < this.ports.length; i++) {
-			if (this.ports[i] != null) {
-				if (this.ports[i].getRouter2().getSimulatedIPAddress().equals(ip)) {
-					return i;
-				}
-			}
-		}
-		// will never reach this
-		return -1;
+	/**
+	 * @return the port of the link to ip, or -1 if we have no link to it
+	 */
+	private int getPortTo(RouterId ip) {
+		Integer port = this.portsByNeighbor.get(ip);
+		return port == null ? -1 : port;
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// CLIENT SPAWNERS
 	/////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+	/**
+	 * Queues a message to the router at the other end of the link. Messages
+	 * to the same neighbor are sent in the order they are queued.
+	 *
+	 * @param l
+	 * @param client
+	 *            - sends the message
+	 * @return a future that completes once the message has been sent
+	 */
+	private Future<?> submit(Link l, ClientThread client) {
+		return this.outbound.submit(l.getRouter2().getSimulatedIPAddress(), client);
+	}
+
 	public void initiateHandshake(Link l) {
-		new ClientThread(this, Protocol.HANDSHAKE, l.getRouter1(), l.getRouter2()).start();
+		this.submit(l, new ClientThread(this, Protocol.HANDSHAKE, l));
 	}
 
 	/**
 	 * For sending a new LSAUPDATE (initiated from this router)
 	 * 
 	 * @param l
+	 * @param lsaArray
+	 *            - the LSAs to send
 	 */
-	public void sendLsaUpdate(Link l, boolean sendBack) {
-		ClientThread ct = new ClientThread(this, Protocol.LSAUPDATE, l.getRouter1(), l.getRouter2());
-		ct.setSendBack(sendBack);
-		ct.start();
+	public void sendLsaUpdate(Link l, Vector<LSA> lsaArray) {
+		ClientThread ct = new ClientThread(this, Protocol.LSAUPDATE, l);
+		ct.setLsaArray(lsaArray);
+		this.submit(l, ct);
 	}
 
 	/**
@@ -494,42 +926,34 @@ public class Router {
 	 * 
 	 * @param packet
 	 *            - the packet received by this router
+	 * @param accepted
+	 *            - the LSAs in the packet that were new to us
 	 */
-	public void forwardLsaUpdate(Link l, SOSPFPacket packet) {
-		// it does not suffice to just pass on the packet we received, as it
-		// could be from a router that was just added to the already-established
-		// network. Instead, we need to pass on our entire link state database,
-		// which now includes the updates contained in the packet we received.
+	public void forwardLsaUpdate(Link l, SOSPFPacket packet, Vector<LSA> accepted) {
+		// only the LSAs that were new to us need to go any further; anything
+		// else the next router has either already seen or will get from the
+		// database exchange it does with each new neighbor
 
-		// copy our LSD into an array
-		Vector<LSA> lsaArray = new Vector<LSA>();
-		for (LSA lsa : this.lsd.get_Store().values()) {
-			lsaArray.addElement(lsa);
-		}
 		// create the new packet to forward along
 		SOSPFPacket copy = new SOSPFPacket(MessageType.LSAUPDATE, packet.getSrcProcessIP(),
-				packet.getSrcProcessPort(), packet.getSrcIP(), lsaArray, false);
+				packet.getSrcProcessPort(), packet.getSrcIP(), accepted);
 		// override preceding node IP with this node's IP
 		copy.setPrecedingNodeIP(this.rd.getSimulatedIPAddress());
 		// forward it using a ClientThread
-		new ClientThread(copy, l.getRouter2()).start();
-	}
-
-	public void sendBackLsaUpdate(Link l) {
-		new ClientThread(this, Protocol.LSAUPDATESENDBACK, l.getRouter1(), l.getRouter2()).start();
+		this.submit(l, new ClientThread(this, copy, l));
 	}
 
 	public void sendAddLink(Link l, int port, int weight) {
-		ClientThread ct = new ClientThread(this, Protocol.ADDLINK, l.getRouter1(), l.getRouter2());
+		ClientThread ct = new ClientThread(this, Protocol.ADDLINK, l);
 		ct.setLinkPort(port);
 		ct.setWeight(weight);
-		ct.start();
+		this.submit(l, ct);
 	}
 
 	public void sendRemoveLink(Link l, int port) {
-		ClientThread ct = new ClientThread(this, Protocol.REMOVELINK, l.getRouter1(), l.getRouter2());
+		ClientThread ct = new ClientThread(this, Protocol.REMOVELINK, l);
 		ct.setLinkPort(port);
-		ct.start();
+		this.submit(l, ct);
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -549,37 +973,7 @@ public class Router {
 			// read the first command
 			String command = br.readLine();
 			// process command and read another (indefinitely)
-			while (true) {
-				if (command.startsWith("detect ")) {
-					String[] cmdLine = command.split(" ");
-					processDetect(cmdLine[1]);
-				} else if (command.startsWith("disconnect ")) {
-					String[] cmdLine = command.split(" ");
-					processDisconnect(Short.parseShort(cmdLine[1]));
-				} else if (command.startsWith("quit")) {
-					processQuit();
-				} else if (command.startsWith("attach ")) {
-					if (!this.isStarted()) {
-						String[] cmdLine = command.split(" ");
-						processAttach(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]));
-					}
-					else {
-						System.err.println("ERROR: You cannot run 'attach' after a router has been started. Please use 'connect' instead.");
-					}
-				} else if (command.equals("start")) {
-					processStart();
-				} else if (command.startsWith("connect ")) {
-					String[] cmdLine = command.split(" ");
-					processConnect(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]));
-				} else if (command.equals("neighbors")) {
-					// output neighbors
-					processNeighbors();
-				} else if (command.equals("exit")) {
-					break;
-				} else {
-					// erroneous command
-					System.err.println("ERROR: unrecognized command");
-				}
+			while (this.execute(command)) {
 				System.out.print("(" + this.rd.getSimulatedIPAddress() + ") >> ");
 				command = br.readLine();
 			}
@@ -588,18 +982,148 @@ public class Router {
 		}
 	}
 
+	/**
+	 * Runs a single terminal command, so that routers can be driven without a
+	 * console (e.g. by the simulation harness)
+	 *
+	 * @param command
+	 *            - the command, exactly as it would be typed at the terminal
+	 * @return false if the command was "exit", true otherwise
+	 */
+	public boolean execute(String command) {
+		try {
+			if (command.startsWith("detect ")) {
+				String[] cmdLine = command.split(" ");
+				if (cmdLine[1].equals("-a")) {
+					if (cmdLine.length == 3) {
+						processDetectEqualCost(RouterId.parse(cmdLine[2]));
+					} else {
+						System.err.println("ERROR: usage: detect -a <ip>");
+					}
+				} else if (cmdLine.length == 2) {
+					processDetect(RouterId.parse(cmdLine[1]));
+				} else {
+					ArrayList<RouterId> destinations = new ArrayList<RouterId>(cmdLine.length - 1);
+					for (int i = 1; i < cmdLine.length; i++) {
+						destinations.add(RouterId.parse(cmdLine[i]));
+					}
+					processDetectMany(destinations);
+				}
+			} else if (command.equals("detectall")) {
+				processDetectMany(null);
+			} else if (command.startsWith("allpairs ")) {
+				String[] cmdLine = command.split(" ");
+				processAllPairs(cmdLine[1], cmdLine.length > 2 ? AllPairsShortestPaths.Format.fromName(cmdLine[2])
+						: AllPairsShortestPaths.Format.BINARY);
+			} else if (command.startsWith("send ")) {
+				String[] cmdLine = command.split(" ", 3);
+				processSend(RouterId.parse(cmdLine[1]), cmdLine.length > 2 ? cmdLine[2] : "");
+			} else if (command.startsWith("advertise ")) {
+				processAdvertise(Prefix.parse(command.split(" ")[1]));
+			} else if (command.startsWith("withdraw ")) {
+				processWithdraw(Prefix.parse(command.split(" ")[1]));
+			} else if (command.startsWith("disconnect ")) {
+				String[] cmdLine = command.split(" ");
+				processDisconnect(Short.parseShort(cmdLine[1]));
+			} else if (command.startsWith("quit")) {
+				processQuit();
+			} else if (command.startsWith("attach ")) {
+				if (!this.isStarted()) {
+					String[] cmdLine = command.split(" ");
+					processAttach(cmdLine[1], Integer.parseInt(cmdLine[2]), RouterId.parse(cmdLine[3]),
+							Short.parseShort(cmdLine[4]));
+				}
+				else {
+					System.err.println("ERROR: You cannot run 'attach' after a router has been started. Please use 'connect' instead.");
+				}
+			} else if (command.equals("start")) {
+				processStart();
+			} else if (command.startsWith("connect ")) {
+				String[] cmdLine = command.split(" ");
+				processConnect(cmdLine[1], Integer.parseInt(cmdLine[2]), RouterId.parse(cmdLine[3]),
+						Short.parseShort(cmdLine[4]));
+			} else if (command.equals("neighbors")) {
+				// output neighbors
+				processNeighbors();
+			} else if (command.equals("stats")) {
+				processStats();
+			} else if (command.equals("exit")) {
+				return false;
+			} else {
+				// erroneous command
+				System.err.println("ERROR: unrecognized command");
+			}
+		} catch (IllegalArgumentException e) {
+			// a malformed number or simulated ip
+			System.err.println("ERROR: " + e.getMessage());
+		}
+		return true;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// SHUTDOWN
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Stops the router sending messages, without closing any connections or
+	 * telling its neighbors it is going. Messages that haven't been sent yet
+	 * are dropped, and from now on a neighbor that can't be reached no longer
+	 * takes its link down.
+	 */
+	public void stop() {
+		this.stopped = true;
+		this.outbound.shutdown();
+	}
+
+	/**
+	 * Stops the router, closes its server and closes its sessions to its
+	 * neighbors. Unlike quit, this leaves the JVM running, for when several
+	 * routers share one. When they are shutting down together, stop them all
+	 * first, so that none of them mistakes another's closed connection for a
+	 * failure.
+	 */
+	public void shutdown() {
+		this.stop();
+		this.server.close();
+		this.metrics.unregister();
+		for (Link l : this.ports) {
+			if (l != null) {
+				l.close();
+			}
+		}
+	}
+
+	/**
+	 * @return true once stop or shutdown has been called
+	 */
+	public boolean isStopped() {
+		return this.stopped;
+	}
+
 	/////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// GETTERS AND SETTERS
 	/////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-	public MasterServerThread getServer() {
+	public RouterMetrics getMetrics() {
+		return metrics;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	public Server getServer() {
 		return server;
 	}
 
-	public void setServer(MasterServerThread server) {
+	public void setServer(Server server) {
 		this.server = server;
 	}
 
+	public SeenLsaCache getSeenLsas() {
+		return seenLsas;
+	}
+
 	public LinkStateDatabase getLsd() {
 		return lsd;
 	}
@@ -620,8 +1144,22 @@ public class Router {
 		return ports;
 	}
 
-	public void setPorts(Link[] ports) {
+	/**
+	 * Replaces the ports, and re-indexes the links on them
+	 */
+	public synchronized void setPorts(Link[] ports) {
 		this.ports = ports;
+		this.freePorts = new BitSet(ports.length);
+		this.portsByNeighbor.clear();
+		this.portsByEndpoint.clear();
+		for (int i = 0; i < ports.length; i++) {
+			if (ports[i] == null) {
+				this.freePorts.set(i);
+			} else {
+				this.portsByNeighbor.put(ports[i].getRouter2().getSimulatedIPAddress(), i);
+				this.portsByEndpoint.put(endpoint(ports[i].getRouter2()), i);
+			}
+		}
 	}
 
 }
@@ -1,16 +1,18 @@
 package socs.network.node;
 
+import socs.network.message.RouterId;
+
 public class RouterDescription {
 
 	// used for socket communication
 	private String processIPAddress; // actual IP address that the router is running on (127.0.0.1)
 	private int processPortNumber;   // actual port that the "server" is running on
 	// used to identify the router in the simulated network space
-	private String simulatedIPAddress; // what will be used in the network topology
+	private RouterId simulatedIPAddress; // what will be used in the network topology
 	// status of the router
 	private RouterStatus status;
 
-	public RouterDescription(String processIPAddress, int processPortNumber, String simulatedIPAddress) {
+	public RouterDescription(String processIPAddress, int processPortNumber, RouterId simulatedIPAddress) {
 		this.processIPAddress = processIPAddress;
 		this.processPortNumber = processPortNumber;
 		this.simulatedIPAddress = simulatedIPAddress;
@@ -35,11 +37,11 @@ public class RouterDescription {
 		this.processPortNumber = processPortNumber;
 	}
 
-	public String getSimulatedIPAddress() {
+	public RouterId getSimulatedIPAddress() {
 		return simulatedIPAddress;
 	}
 
-	public void setSimulatedIPAddress(String simulatedIPAddress) {
+	public void setSimulatedIPAddress(RouterId simulatedIPAddress) {
 		this.simulatedIPAddress = simulatedIPAddress;
 	}
 
@@ -0,0 +1,157 @@
+package socs.network.node;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import socs.network.message.MessageType;
+import socs.network.metrics.HistogramSnapshot;
+import socs.network.metrics.MessageMetrics;
+
+/**
+ * Everything a router measures about itself. Sessions and servers count the
+ * messages that go through them, and the router and its link state database
+ * time their expensive steps. register makes the whole lot visible over JMX
+ * (e.g. in jconsole) under the socs.network domain, one MBean for the router
+ * and one for each message type:
+ *
+ * <pre>
+ * socs.network:type=Router,name=192.168.1.1
+ * socs.network:type=Messages,router=192.168.1.1,message=LSAUPDATE
+ * </pre>
+ *
+ * @author kstricks
+ *
+ */
+public class RouterMetrics implements RouterMetricsMXBean {
+
+	private static final Logger log = LoggerFactory.getLogger(RouterMetrics.class);
+
+	private final Router router;
+
+	private final EnumMap<MessageType, MessageMetrics> messages = new EnumMap<MessageType, MessageMetrics>(
+			MessageType.class);
+
+	private final AtomicLong dataDelivered = new AtomicLong();
+	private final AtomicLong dataDropped = new AtomicLong();
+
+	public RouterMetrics(Router router) {
+		this.router = router;
+		for (MessageType type : MessageType.values()) {
+			this.messages.put(type, new MessageMetrics());
+		}
+	}
+
+	/**
+	 * @return the traffic of the given type of message
+	 */
+	public MessageMetrics of(MessageType type) {
+		return this.messages.get(type);
+	}
+
+	public void recordDataDelivered() {
+		this.dataDelivered.incrementAndGet();
+	}
+
+	public void recordDataDropped() {
+		this.dataDropped.incrementAndGet();
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// JMX
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Registers the router's MBeans with the platform MBean server. A router
+	 * whose names are already taken (say, another with the same simulated ip
+	 * in the same JVM) goes without, with a warning.
+	 */
+	public void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(this, this.routerName());
+			for (Map.Entry<MessageType, MessageMetrics> entry : this.messages.entrySet()) {
+				server.registerMBean(entry.getValue(), this.messagesName(entry.getKey()));
+			}
+		} catch (JMException e) {
+			log.warn("could not register metrics over JMX router={} error=\"{}\"",
+					this.router.getRd().getSimulatedIPAddress(), e.toString());
+		}
+	}
+
+	/**
+	 * Removes whichever of the router's MBeans are registered
+	 */
+	public void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(this.routerName())) {
+				server.unregisterMBean(this.routerName());
+			}
+			for (MessageType type : this.messages.keySet()) {
+				if (server.isRegistered(this.messagesName(type))) {
+					server.unregisterMBean(this.messagesName(type));
+				}
+			}
+		} catch (JMException e) {
+			// nothing more to do for them
+		}
+	}
+
+	private ObjectName routerName() throws JMException {
+		return new ObjectName("socs.network:type=Router,name=" + this.router.getRd().getSimulatedIPAddress());
+	}
+
+	private ObjectName messagesName(MessageType type) throws JMException {
+		return new ObjectName("socs.network:type=Messages,router=" + this.router.getRd().getSimulatedIPAddress()
+				+ ",message=" + type);
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// ATTRIBUTES
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+	@Override
+	public int getLsdSize() {
+		return this.router.getLsd().size();
+	}
+
+	@Override
+	public HistogramSnapshot getSpfRuns() {
+		return this.router.getLsd().getSpfRuns().snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getLsdWriteLockHold() {
+		return this.router.getLsd().getWriteLockHolds().snapshot();
+	}
+
+	@Override
+	public long getMillisSinceTopologyChange() {
+		long changed = this.router.getLsd().getLastChangeMillis();
+		return changed == 0 ? -1 : System.currentTimeMillis() - changed;
+	}
+
+	@Override
+	public long getDuplicateLsasSuppressed() {
+		return this.router.getSeenLsas().getSuppressed();
+	}
+
+	@Override
+	public long getDataDelivered() {
+		return this.dataDelivered.get();
+	}
+
+	@Override
+	public long getDataDropped() {
+		return this.dataDropped.get();
+	}
+}
@@ -0,0 +1,49 @@
+package socs.network.node;
+
+import socs.network.metrics.HistogramSnapshot;
+
+/**
+ * A router's view of how the protocol is doing, as seen over JMX. The traffic
+ * of each type of message has an MBean of its own (see MessageMetricsMXBean).
+ *
+ * @author kstricks
+ *
+ */
+public interface RouterMetricsMXBean {
+
+	/**
+	 * @return the number of LSAs in the link state database
+	 */
+	int getLsdSize();
+
+	/**
+	 * @return how long each run of the shortest path algorithm took, whether
+	 *         it repaired the tree or rebuilt it
+	 */
+	HistogramSnapshot getSpfRuns();
+
+	/**
+	 * @return how long each change to the link state database held its write
+	 *         lock (readers never wait on it)
+	 */
+	HistogramSnapshot getLsdWriteLockHold();
+
+	/**
+	 * @return how long ago the link state database last changed, or -1 if it
+	 *         never has
+	 */
+	long getMillisSinceTopologyChange();
+
+	long getDuplicateLsasSuppressed();
+
+	/**
+	 * @return how many DATA packets addressed to this router have arrived
+	 */
+	long getDataDelivered();
+
+	/**
+	 * @return how many DATA packets this router has dropped, for want of a
+	 *         route or because they had been forwarded too many times
+	 */
+	long getDataDropped();
+}
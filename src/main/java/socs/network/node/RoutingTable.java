@@ -0,0 +1,833 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import socs.network.message.RouterId;
+import socs.network.util.IndexedMinHeap;
+import socs.network.util.PersistentHashMap;
+
+/**
+ * A router's routes to every destination it can reach, as of one version of
+ * its link state database. Built from the shortest-path tree and then only
+ * read, so looking up a route is a single hash lookup. The routes are kept
+ * in a persistent map, so when the tree has only been repaired, the table
+ * for the next version is the last one with just the routes that changed
+ * made again, and shares the rest.
+ *
+ * Where there are several shortest paths to a destination, the route keeps
+ * the tree's one as its path, but knows every neighbor that one of them
+ * leaves through, and how many there are in all; getEqualCostPaths lists
+ * them.
+ *
+ * @author kstricks
+ *
+ */
+public class RoutingTable {
+
+	/**
+	 * The route to a single destination
+	 */
+	public static class RouteEntry {
+
+		private final RouterId destinationIp;
+		private final RouterId nextHopIp; // the neighbor the route leaves through
+										// (the destination itself for the router
+										// the table belongs to)
+		private final int cost; // the total distance along the route
+		private final RouteEntry previous; // the route to the router before the
+											// destination, or null for the router
+											// the table belongs to
+
+		// set once the table has found every shortest path: the routers
+		// right before the destination on them, lowest ip first, the
+		// neighbors they leave through, lowest ip first (shared with every
+		// other route that leaves through the same ones, and numbered
+		// nextHopSet), and how many paths there are (Long.MAX_VALUE if more
+		// than that)
+		private RouterId[] predecessors;
+		private RouterId[] nextHopIps;
+		private int nextHopSet;
+		private long pathCount;
+		// true if the destination is on or after a ring of links of weight 0,
+		// so that it just keeps the tree's path
+		private boolean unordered;
+
+		// the route as a string, built the first time it's asked for
+		private volatile String path;
+
+		private RouteEntry(RouterId destinationIp, RouterId nextHopIp, int cost, RouteEntry previous) {
+			this.destinationIp = destinationIp;
+			this.nextHopIp = nextHopIp;
+			this.cost = cost;
+			this.previous = previous;
+		}
+
+		/**
+		 * Copies another route, for giving it new next hops
+		 */
+		private RouteEntry(RouteEntry other) {
+			this(other.destinationIp, other.nextHopIp, other.cost, other.previous);
+			this.path = other.path;
+			this.setNextHops(other);
+		}
+
+		private void setNextHops(RouteEntry other) {
+			this.predecessors = other.predecessors;
+			this.nextHopIps = other.nextHopIps;
+			this.nextHopSet = other.nextHopSet;
+			this.pathCount = other.pathCount;
+			this.unordered = other.unordered;
+		}
+
+		/**
+		 * @return the route in the format source ip -> (w) ip -> ... -> (w)
+		 *         destination ip
+		 */
+		public String getPath() {
+			String p = this.path;
+			if (p == null) {
+				StringBuilder sb = new StringBuilder();
+				try {
+					this.appendPath(sb);
+				} catch (IOException e) {
+					// a StringBuilder never throws
+					throw new IllegalStateException(e);
+				}
+				p = sb.toString();
+				this.path = p;
+			}
+			return p;
+		}
+
+		/**
+		 * Writes out the route as getPath would return it, without keeping
+		 * the string, so that writing out the routes to a great many
+		 * destinations doesn't hold all of them in memory at once
+		 *
+		 * @param out
+		 *            - where to write it
+		 * @throws IOException
+		 *             if out does
+		 */
+		public void appendPath(Appendable out) throws IOException {
+			if (this.path != null) {
+				out.append(this.path);
+				return;
+			}
+			if (this.previous == null) {
+				out.append(this.destinationIp.toString()).append(" -> (0) ").append(this.destinationIp.toString());
+				return;
+			}
+			// walk back to the nearest route whose path is already built, or
+			// to the root, then write the hops out forwards. paths can be far
+			// too long to do this recursively
+			ArrayDeque<RouteEntry> hops = new ArrayDeque<RouteEntry>();
+			RouteEntry start = this;
+			while (start.previous != null && (start == this || start.path == null)) {
+				hops.push(start);
+				start = start.previous;
+			}
+			out.append(start.previous == null ? start.destinationIp.toString() : start.path);
+			for (RouteEntry hop : hops) {
+				out.append(" -> (").append(Integer.toString(hop.cost - hop.previous.cost)).append(") ")
+						.append(hop.destinationIp.toString());
+			}
+		}
+
+		public RouterId getDestinationIp() {
+			return destinationIp;
+		}
+
+		public RouterId getNextHopIp() {
+			return nextHopIp;
+		}
+
+		/**
+		 * @return how many neighbors the shortest paths to the destination
+		 *         leave through, at least 1
+		 */
+		public int getNextHopCount() {
+			return this.nextHopIps.length;
+		}
+
+		/**
+		 * @return one of the neighbors the shortest paths leave through,
+		 *         lowest ip first; getNextHopIp() is one of them
+		 */
+		public RouterId getNextHopIp(int i) {
+			return this.nextHopIps[i];
+		}
+
+		/**
+		 * @return the number of the route's set of next hops, below
+		 *         getNextHopSetCount. two routes in the same table have the
+		 *         same number exactly when they have the same next hops
+		 */
+		public int getNextHopSet() {
+			return nextHopSet;
+		}
+
+		/**
+		 * @return the number of shortest paths to the destination, or
+		 *         Long.MAX_VALUE if there are at least that many
+		 */
+		public long getPathCount() {
+			return pathCount;
+		}
+
+		public int getCost() {
+			return cost;
+		}
+	}
+
+	// the set of next hops of a router whose predecessors don't all share
+	// one, while the table is built
+	private static final int NO_SET = -1;
+
+	/**
+	 * What a table was built with that the next one, built from the same
+	 * tree once it has been repaired, can start from. Only the thread that
+	 * builds the tables uses it, and only the latest table has it.
+	 */
+	private static final class Workspace {
+		// the route to each router by its id in the tree (null if it can't
+		// be reached)
+		private RouteEntry[] entries;
+		// the neighbors that shortest paths leave through, lowest ip first,
+		// so that the one at i is bit i of a set of next hops
+		private RouterId[] firstHops;
+		private HashMap<RouterId, Integer> bitOf;
+		private int words;
+		// the distinct sets of next hops, by number, as bits and as ips, and
+		// the number of each set of bits. numbers are never reused, so that a
+		// route that keeps its next hops keeps its set
+		private final HashMap<LongBuffer, Integer> setNumbers = new HashMap<LongBuffer, Integer>();
+		private final ArrayList<long[]> setBits = new ArrayList<long[]>();
+		private final ArrayList<RouterId[]> nextHopSets = new ArrayList<RouterId[]>();
+		// how many sets there were after the last build from scratch
+		private int builtSetCount;
+		// the tree's change count when the table was made, so that the next
+		// one can tell whether it has missed a repair
+		private long treeChanges;
+
+		// for redoing the next hops that changed in distance order: the
+		// routers still to do, the ones at the distance being done, what is
+		// left of each one's predecessors among them, and the order they are
+		// done in. batchOf holds the batch number a router was last put in
+		private final IndexedMinHeap heap = new IndexedMinHeap(16);
+		private int[] batch = new int[0];
+		private int[] order = new int[0];
+		private int[] pending = new int[0];
+		private int[] batchOf = new int[0];
+		private int batchNumber;
+	}
+
+	private final long version;
+	private final PersistentHashMap<RouterId, RouteEntry> routes;
+	private final boolean missingLsas;
+	private final int nextHopSetCount;
+
+	// the version of the table this one was made from by redoing only the
+	// routes that changed, and the destinations of those routes, including
+	// ones that can no longer be reached (-1 and null if it was built from
+	// scratch)
+	private final long previousVersion;
+	private final List<RouterId> changed;
+
+	private Workspace workspace;
+
+	/**
+	 * Builds the table from a shortest-path tree
+	 *
+	 * @param version
+	 *            - the version of the link state database the tree was built
+	 *            from
+	 * @param tree
+	 */
+	public RoutingTable(long version, ShortestPathTree tree) {
+		this(version, tree, null);
+	}
+
+	/**
+	 * Makes the table for a new version of the link state database from the
+	 * one for the last version, if the tree has been repaired once since
+	 * rather than rebuilt. Only the routes to routers whose paths changed are
+	 * made again, along with those whose shortest paths now leave through
+	 * different neighbors or are different in number; every other route is
+	 * shared with the previous table, and the next hops are only looked at
+	 * again where the repair could have changed them. Where that would redo
+	 * most of the table anyway, because the tree was rebuilt or the root's
+	 * own shortest links changed, it is built from scratch instead.
+	 *
+	 * @param version
+	 *            - the version of the link state database the tree is now
+	 *            for
+	 * @param tree
+	 * @param previous
+	 *            - the table last made from the same tree, or null. it is
+	 *            left as it was, but can't be made from again
+	 */
+	public RoutingTable(long version, ShortestPathTree tree, RoutingTable previous) {
+		this.version = version;
+		this.missingLsas = tree.isMissingLsas();
+
+		Workspace workspace = previous == null ? null : previous.workspace;
+		RouterId[] firstHops = this.findFirstHops(tree);
+		if (workspace == null || tree.isRebuilt() || tree.getChangeCount() != workspace.treeChanges + 1
+				|| !Arrays.equals(firstHops, workspace.firstHops)
+				|| workspace.nextHopSets.size() > 2 * workspace.builtSetCount + 64) {
+			workspace = this.newWorkspace(tree, firstHops);
+			this.previousVersion = -1;
+			this.changed = null;
+			this.routes = this.buildRoutes(tree, workspace);
+		} else {
+			previous.workspace = null;
+			this.previousVersion = previous.version;
+			this.changed = new ArrayList<RouterId>();
+			this.routes = this.patchRoutes(tree, workspace, previous.routes, this.changed);
+		}
+		workspace.treeChanges = tree.getChangeCount();
+		this.nextHopSetCount = workspace.nextHopSets.size();
+		this.workspace = workspace;
+	}
+
+	/**
+	 * @return the root's first hops, lowest ip first
+	 */
+	private RouterId[] findFirstHops(ShortestPathTree tree) {
+		int[] ids = tree.findFirstHops();
+		RouterId[] firstHops = new RouterId[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			firstHops[i] = tree.ipOf(ids[i]);
+		}
+		Arrays.sort(firstHops);
+		return firstHops;
+	}
+
+	private Workspace newWorkspace(ShortestPathTree tree, RouterId[] firstHops) {
+		Workspace workspace = new Workspace();
+		workspace.entries = new RouteEntry[tree.size()];
+		workspace.firstHops = firstHops;
+		workspace.bitOf = new HashMap<RouterId, Integer>();
+		for (int i = 0; i < firstHops.length; i++) {
+			workspace.bitOf.put(firstHops[i], i);
+		}
+		workspace.words = (firstHops.length + 63) >>> 6;
+		return workspace;
+	}
+
+	/**
+	 * Builds every route from scratch
+	 */
+	private PersistentHashMap<RouterId, RouteEntry> buildRoutes(ShortestPathTree tree, Workspace workspace) {
+		// walk the tree from the root down, so that the route to a router's
+		// parent is always built before the route to the router
+		int n = tree.size();
+		RouteEntry[] entries = workspace.entries;
+		int[] queue = new int[n];
+		int head = 0;
+		int tail = 0;
+
+		int rootId = tree.getRootId();
+		RouterId root = tree.getRoot();
+		entries[rootId] = new RouteEntry(root, root, 0, null);
+		PersistentHashMap<RouterId, RouteEntry> routes = PersistentHashMap.<RouterId, RouteEntry> empty()
+				.with(root, entries[rootId]);
+		queue[tail++] = rootId;
+		while (head < tail) {
+			int p = queue[head++];
+			RouteEntry parent = entries[p];
+			for (int c = tree.getFirstChild(p); c != ShortestPathTree.NONE; c = tree.getNextSibling(c)) {
+				RouterId child = tree.ipOf(c);
+				RouterId nextHop = parent.previous == null ? child : parent.nextHopIp;
+				entries[c] = new RouteEntry(child, nextHop, tree.getDistance(c), parent);
+				routes = routes.with(child, entries[c]);
+				queue[tail++] = c;
+			}
+		}
+
+		this.findNextHops(tree, workspace);
+		workspace.builtSetCount = workspace.nextHopSets.size();
+		return routes;
+	}
+
+	/**
+	 * Finds the next hops and number of shortest paths of every route
+	 */
+	private void findNextHops(ShortestPathTree tree, Workspace workspace) {
+		int n = tree.size();
+		RouteEntry[] entries = workspace.entries;
+		int rootId = tree.getRootId();
+
+		// the tree's paths are among the shortest, so the rest are found from
+		// the same distances
+		tree.findEqualCostPaths();
+		int[] offsets = tree.getPredecessorOffsets();
+		int[] predecessors = tree.getPredecessors();
+		int[] order = tree.getEqualCostOrder();
+		int ordered = tree.getEqualCostOrderCount();
+
+		// the neighbors that shortest paths leave through each have a bit, and
+		// the next hops to a router are then the bits of its predecessors'
+		// next hops put together (or its own bit, for a neighbor). a router
+		// comes after its predecessors in order, so theirs are always done
+		// first. most routes share their next hops with many others, so a
+		// router whose predecessors all have the same set has it too without
+		// its bits being put together. the empty set stands for the root's
+		// route to itself
+		int[] setOf = new int[n];
+		long[] pathCounts = new long[n];
+		long[] bits = new long[workspace.words];
+		setOf[rootId] = this.numberNextHopSet(bits, workspace, tree.getRoot());
+		pathCounts[rootId] = 1;
+		for (int i = 1; i < ordered; i++) {
+			int v = order[i];
+			int set = NO_SET;
+			for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+				int u = predecessors[j];
+				int predecessorSet = u == rootId ? NO_SET : setOf[u];
+				set = j == offsets[v] || predecessorSet == set ? predecessorSet : NO_SET;
+				pathCounts[v] = pathCounts[v] + pathCounts[u] < 0 ? Long.MAX_VALUE : pathCounts[v] + pathCounts[u];
+			}
+			if (set == NO_SET) {
+				Arrays.fill(bits, 0);
+				for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+					int u = predecessors[j];
+					if (u == rootId) {
+						int bit = workspace.bitOf.get(entries[v].destinationIp);
+						bits[bit >>> 6] |= 1L << bit;
+					} else {
+						long[] predecessorBits = workspace.setBits.get(setOf[u]);
+						for (int k = 0; k < bits.length; k++) {
+							bits[k] |= predecessorBits[k];
+						}
+					}
+				}
+				set = this.numberNextHopSet(bits, workspace, tree.getRoot());
+			}
+			setOf[v] = set;
+		}
+
+		// the routers on a ring of links of weight 0 were left out of order,
+		// so they just keep the tree's path
+		boolean[] unordered = new boolean[n];
+		for (int v = 0; v < n; v++) {
+			if (entries[v] != null && pathCounts[v] == 0) {
+				int bit = workspace.bitOf.get(entries[v].nextHopIp);
+				Arrays.fill(bits, 0);
+				bits[bit >>> 6] |= 1L << bit;
+				setOf[v] = this.numberNextHopSet(bits, workspace, tree.getRoot());
+				pathCounts[v] = 1;
+				unordered[v] = true;
+			}
+		}
+
+		for (int v = 0; v < n; v++) {
+			RouteEntry entry = entries[v];
+			if (entry == null) {
+				continue;
+			}
+			RouterId[] routers = new RouterId[offsets[v + 1] - offsets[v]];
+			for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+				routers[j - offsets[v]] = tree.ipOf(predecessors[j]);
+			}
+			Arrays.sort(routers);
+			entry.predecessors = routers;
+			entry.nextHopSet = setOf[v];
+			entry.nextHopIps = workspace.nextHopSets.get(setOf[v]);
+			entry.pathCount = pathCounts[v];
+			entry.unordered = unordered[v];
+		}
+	}
+
+	/**
+	 * Redoes the routes to the routers the tree lists as rerouted or moved
+	 * out of reach, then the next hops of the routes whose predecessors
+	 * changed and of every route the change reaches from them
+	 */
+	private PersistentHashMap<RouterId, RouteEntry> patchRoutes(ShortestPathTree tree, Workspace workspace,
+			PersistentHashMap<RouterId, RouteEntry> routes, List<RouterId> changed) {
+		if (workspace.entries.length < tree.size()) {
+			workspace.entries = Arrays.copyOf(workspace.entries,
+					Math.max(tree.size(), workspace.entries.length + (workspace.entries.length >> 1)));
+		}
+		RouteEntry[] entries = workspace.entries;
+
+		int[] moved = tree.getMoved();
+		for (int i = 0; i < tree.getMovedCount(); i++) {
+			int v = moved[i];
+			if (tree.getDistance(v) == ShortestPathTree.UNREACHABLE && entries[v] != null) {
+				routes = routes.without(entries[v].destinationIp);
+				changed.add(entries[v].destinationIp);
+				entries[v] = null;
+			}
+		}
+
+		// a rerouted router comes after its parent, so the parent's route is
+		// always up to date by the time it's needed. the new route keeps the
+		// old one's next hops until they are found again
+		int[] rerouted = tree.getRerouted();
+		for (int i = 0; i < tree.getReroutedCount(); i++) {
+			int c = rerouted[i];
+			RouteEntry parent = entries[tree.getParent(c)];
+			RouterId child = tree.ipOf(c);
+			RouterId nextHop = parent.previous == null ? child : parent.nextHopIp;
+			RouteEntry entry = new RouteEntry(child, nextHop, tree.getDistance(c), parent);
+			if (entries[c] != null) {
+				entry.setNextHops(entries[c]);
+			}
+			entries[c] = entry;
+			routes = routes.with(child, entry);
+			changed.add(child);
+		}
+
+		return this.patchNextHops(tree, workspace, routes, changed);
+	}
+
+	/**
+	 * Finds the next hops and number of shortest paths again for the routers
+	 * the tree lists as dirty, whose predecessors may have changed, and then
+	 * for the routers after any whose next hops or number of paths did
+	 * change, nearest first, as the full pass would have found them. The
+	 * routers at one distance can have links of weight 0 between them, so
+	 * they are done together, each after its predecessors among them, and
+	 * the ones left over are on or after a ring of them
+	 */
+	private PersistentHashMap<RouterId, RouteEntry> patchNextHops(ShortestPathTree tree, Workspace workspace,
+			PersistentHashMap<RouterId, RouteEntry> routes, List<RouterId> changed) {
+		int n = tree.size();
+		RouteEntry[] entries = workspace.entries;
+		IndexedMinHeap heap = workspace.heap;
+		heap.ensureCapacity(n);
+		if (workspace.batch.length < n) {
+			int length = Math.max(n, workspace.batch.length + (workspace.batch.length >> 1));
+			workspace.batch = new int[length];
+			workspace.order = new int[length];
+			workspace.pending = new int[length];
+			workspace.batchOf = Arrays.copyOf(workspace.batchOf, length);
+		}
+		int[] batch = workspace.batch;
+		int[] order = workspace.order;
+		int[] pending = workspace.pending;
+		int[] batchOf = workspace.batchOf;
+		int[] row = tree.getRow();
+
+		int[] dirty = tree.getDirty();
+		for (int i = 0; i < tree.getDirtyCount(); i++) {
+			int v = dirty[i];
+			if (tree.getDistance(v) != ShortestPathTree.UNREACHABLE) {
+				heap.offer(v, tree.getDistance(v));
+			}
+		}
+		// the routers on or after a ring keep the tree's first hop, which may
+		// be new for the ones rerouted
+		int[] rerouted = tree.getRerouted();
+		for (int i = 0; i < tree.getReroutedCount(); i++) {
+			int v = rerouted[i];
+			if (entries[v].unordered) {
+				heap.offer(v, tree.getDistance(v));
+			}
+		}
+
+		long[] bits = new long[workspace.words];
+		while (!heap.isEmpty()) {
+			// take every router at the nearest distance, and every router a
+			// link of weight 0 from one of them is a shortest link to
+			int distance = heap.peekKey();
+			int batchNumber = ++workspace.batchNumber;
+			int size = 0;
+			while (!heap.isEmpty() && heap.peekKey() == distance) {
+				int v = heap.poll();
+				batchOf[v] = batchNumber;
+				batch[size++] = v;
+			}
+			for (int i = 0; i < size; i++) {
+				int count = tree.findSuccessors(batch[i]);
+				row = tree.getRow();
+				for (int j = 0; j < count; j++) {
+					int w = row[j];
+					if (tree.getDistance(w) == distance && batchOf[w] != batchNumber) {
+						batchOf[w] = batchNumber;
+						batch[size++] = w;
+					}
+				}
+			}
+
+			// a router waits for its predecessors in the batch, and for good
+			// on one outside it that is on or after a ring
+			int tail = 0;
+			for (int i = 0; i < size; i++) {
+				int v = batch[i];
+				int count = tree.findPredecessors(v);
+				row = tree.getRow();
+				pending[v] = 0;
+				boolean stuck = false;
+				for (int j = 0; j < count; j++) {
+					int u = row[j];
+					if (batchOf[u] == batchNumber) {
+						pending[v]++;
+					} else if (entries[u].unordered) {
+						stuck = true;
+					}
+				}
+				if (stuck) {
+					pending[v]++;
+				}
+				if (pending[v] == 0) {
+					order[tail++] = v;
+				}
+			}
+			for (int head = 0; head < tail; head++) {
+				int v = order[head];
+				routes = this.redoNextHops(v, true, tree, workspace, routes, changed, bits);
+				int count = tree.findSuccessors(v);
+				row = tree.getRow();
+				for (int j = 0; j < count; j++) {
+					int w = row[j];
+					if (batchOf[w] == batchNumber && --pending[w] == 0) {
+						order[tail++] = w;
+					}
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				if (pending[batch[i]] > 0) {
+					routes = this.redoNextHops(batch[i], false, tree, workspace, routes, changed, bits);
+				}
+			}
+		}
+		return routes;
+	}
+
+	/**
+	 * Finds the next hops and number of shortest paths of one router again,
+	 * and if they are different, makes its route anew and puts the routers
+	 * after it further away in the heap to be done too
+	 *
+	 * @param ordered
+	 *            - false if the router is on or after a ring of links of
+	 *            weight 0
+	 * @param bits
+	 *            - room for a set of next hops
+	 */
+	private PersistentHashMap<RouterId, RouteEntry> redoNextHops(int v, boolean ordered, ShortestPathTree tree,
+			Workspace workspace, PersistentHashMap<RouterId, RouteEntry> routes, List<RouterId> changed, long[] bits) {
+		RouteEntry[] entries = workspace.entries;
+		RouteEntry entry = entries[v];
+		int rootId = tree.getRootId();
+		int count = tree.findPredecessors(v);
+		int[] row = tree.getRow();
+		RouterId[] routers = new RouterId[count];
+		for (int j = 0; j < count; j++) {
+			routers[j] = tree.ipOf(row[j]);
+		}
+		Arrays.sort(routers);
+
+		int set;
+		long pathCount;
+		if (v == rootId) {
+			Arrays.fill(bits, 0);
+			set = this.numberNextHopSet(bits, workspace, tree.getRoot());
+			pathCount = 1;
+		} else if (ordered) {
+			// as in findNextHops
+			set = NO_SET;
+			pathCount = 0;
+			for (int j = 0; j < count; j++) {
+				int u = row[j];
+				int predecessorSet = u == rootId ? NO_SET : entries[u].nextHopSet;
+				set = j == 0 || predecessorSet == set ? predecessorSet : NO_SET;
+				pathCount = pathCount + entries[u].pathCount < 0 ? Long.MAX_VALUE : pathCount + entries[u].pathCount;
+			}
+			if (set == NO_SET) {
+				Arrays.fill(bits, 0);
+				for (int j = 0; j < count; j++) {
+					int u = row[j];
+					if (u == rootId) {
+						int bit = workspace.bitOf.get(entry.destinationIp);
+						bits[bit >>> 6] |= 1L << bit;
+					} else {
+						long[] predecessorBits = workspace.setBits.get(entries[u].nextHopSet);
+						for (int k = 0; k < bits.length; k++) {
+							bits[k] |= predecessorBits[k];
+						}
+					}
+				}
+				set = this.numberNextHopSet(bits, workspace, tree.getRoot());
+			}
+		} else {
+			int bit = workspace.bitOf.get(entry.nextHopIp);
+			Arrays.fill(bits, 0);
+			bits[bit >>> 6] |= 1L << bit;
+			set = this.numberNextHopSet(bits, workspace, tree.getRoot());
+			pathCount = 1;
+		}
+
+		boolean different = entry.nextHopSet != set || entry.pathCount != pathCount || entry.unordered == ordered;
+		if (!different && Arrays.equals(entry.predecessors, routers)) {
+			return routes;
+		}
+		if (!tree.isRerouted(v)) {
+			entry = new RouteEntry(entry);
+			entries[v] = entry;
+			routes = routes.with(entry.destinationIp, entry);
+			changed.add(entry.destinationIp);
+		}
+		entry.predecessors = routers;
+		entry.nextHopSet = set;
+		entry.nextHopIps = workspace.nextHopSets.get(set);
+		entry.pathCount = pathCount;
+		entry.unordered = !ordered;
+
+		if (different) {
+			int distance = tree.getDistance(v);
+			count = tree.findSuccessors(v);
+			row = tree.getRow();
+			for (int j = 0; j < count; j++) {
+				if (tree.getDistance(row[j]) > distance) {
+					workspace.heap.offer(row[j], tree.getDistance(row[j]));
+				}
+			}
+		}
+		return routes;
+	}
+
+	/**
+	 * @param bits
+	 *            - the next hops, as bits numbering the first hops. copied if
+	 *            the set is new
+	 * @return the number of the set of next hops, made now if no route has
+	 *         had it before
+	 */
+	private int numberNextHopSet(long[] bits, Workspace workspace, RouterId root) {
+		Integer number = workspace.setNumbers.get(LongBuffer.wrap(bits));
+		if (number == null) {
+			number = workspace.nextHopSets.size();
+			long[] copy = bits.clone();
+			workspace.setNumbers.put(LongBuffer.wrap(copy), number);
+			workspace.setBits.add(copy);
+			int count = 0;
+			for (long word : copy) {
+				count += Long.bitCount(word);
+			}
+			RouterId[] set = count == 0 ? new RouterId[] { root } : new RouterId[count];
+			count = 0;
+			for (int k = 0; k < copy.length; k++) {
+				for (long word = copy[k]; word != 0; word &= word - 1) {
+					set[count++] = workspace.firstHops[k * 64 + Long.numberOfTrailingZeros(word)];
+				}
+			}
+			workspace.nextHopSets.add(set);
+		}
+		return number;
+	}
+
+	/**
+	 * @return the route to the destination, or null if it can't be reached
+	 */
+	public RouteEntry get(RouterId destinationIp) {
+		return this.routes.get(destinationIp);
+	}
+
+	/**
+	 * Lists the shortest paths to a destination, every one of them if there
+	 * are few enough. They are found by walking back along the rows of
+	 * predecessors, so each costs only its own length.
+	 *
+	 * @param destinationIp
+	 * @param limit
+	 *            - the most paths to list
+	 * @return the paths in the format of RouteEntry.getPath, or an empty list
+	 *         if the destination can't be reached
+	 */
+	public List<String> getEqualCostPaths(RouterId destinationIp, int limit) {
+		ArrayList<String> paths = new ArrayList<String>();
+		RouteEntry destination = this.routes.get(destinationIp);
+		if (destination == null || limit <= 0) {
+			return paths;
+		}
+		if (destination.previous == null || destination.pathCount == 1) {
+			paths.add(destination.getPath());
+			return paths;
+		}
+
+		// a depth-first walk back from the destination, with the route at
+		// each depth and the next of its predecessors to try. it never goes
+		// deeper than there are routes, which only a ring of links of weight
+		// 0 could make it try
+		RouteEntry[] path = new RouteEntry[this.routes.size()];
+		int[] next = new int[this.routes.size()];
+		int depth = 0;
+		path[0] = destination;
+		next[0] = 0;
+		while (depth >= 0 && paths.size() < limit) {
+			RouteEntry v = path[depth];
+			if (v.previous == null) {
+				StringBuilder sb = new StringBuilder(v.destinationIp.toString());
+				for (int i = depth - 1; i >= 0; i--) {
+					RouteEntry hop = path[i];
+					sb.append(" -> (").append(hop.cost - path[i + 1].cost).append(") ").append(hop.destinationIp);
+				}
+				paths.add(sb.toString());
+				depth--;
+			} else if (next[depth] == v.predecessors.length || depth + 1 == path.length) {
+				depth--;
+			} else {
+				RouteEntry u = this.routes.get(v.predecessors[next[depth]++]);
+				depth++;
+				path[depth] = u;
+				next[depth] = 0;
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * @return how many distinct sets of next hops the routes have between
+	 *         them
+	 */
+	public int getNextHopSetCount() {
+		return nextHopSetCount;
+	}
+
+	public Collection<RouteEntry> getRoutes() {
+		return Collections.unmodifiableCollection(this.routes.values());
+	}
+
+	/**
+	 * @return true if some router we can reach had not sent us its LSA yet, so
+	 *         the table may be missing part of the network
+	 */
+	public boolean isMissingLsas() {
+		return missingLsas;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the version of the table this one was made from, or -1 if it
+	 *         was built from scratch
+	 */
+	public long getPreviousVersion() {
+		return previousVersion;
+	}
+
+	/**
+	 * @return the destinations whose routes differ from the ones in the table
+	 *         for getPreviousVersion, or null if the table was built from
+	 *         scratch. a destination that can't be reached any more has no
+	 *         route in this table
+	 */
+	public List<RouterId> getChangedDestinations() {
+		return changed == null ? null : Collections.unmodifiableList(changed);
+	}
+}
@@ -0,0 +1,141 @@
+package socs.network.node;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+import socs.network.message.LSA;
+import socs.network.message.RouterId;
+
+/**
+ * Remembers which LSAs (by origin and sequence number) a router has recently
+ * received in a flood, so that copies of them arriving from other neighbors
+ * can be dropped straight away, without taking the link state database's lock
+ * or being flooded any further.
+ *
+ * The cache holds at most a fixed number of LSAs, forgetting the oldest first,
+ * and forgets any LSA it has held for longer than a maximum age. Forgetting an
+ * LSA is always safe: the worst that happens is that a later copy of it goes
+ * through the link state database, which rejects it as already known.
+ *
+ * @author kstricks
+ *
+ */
+public class SeenLsaCache {
+
+	private final int capacity;
+	private final long maxAgeMillis;
+
+	// LSA => when it was first seen, oldest first
+	private final LinkedHashMap<Key, Long> seen = new LinkedHashMap<Key, Long>();
+
+	private final AtomicLong suppressed = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            - the most LSAs to remember at once
+	 * @param maxAgeMillis
+	 *            - how long to remember each LSA for
+	 */
+	public SeenLsaCache(int capacity, long maxAgeMillis) {
+		this.capacity = capacity;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * An LSA's identity: the router it came from and its version
+	 */
+	private static class Key {
+		private final RouterId originIp;
+		private final int lsaSeqNumber;
+
+		public Key(RouterId originIp, int lsaSeqNumber) {
+			this.originIp = originIp;
+			this.lsaSeqNumber = lsaSeqNumber;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.originIp.hashCode() + this.lsaSeqNumber;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.lsaSeqNumber == other.lsaSeqNumber && this.originIp.equals(other.originIp);
+		}
+	}
+
+	/**
+	 * Drops the LSAs that have been seen recently, counting each one as a
+	 * suppressed duplicate
+	 *
+	 * @param lsaArray
+	 *            - the LSAs in a flooded LSAUPDATE
+	 * @return the LSAs that haven't been seen recently. the array itself if
+	 *         that's all of them
+	 */
+	public synchronized Vector<LSA> filterUnseen(Vector<LSA> lsaArray) {
+		this.expire(System.currentTimeMillis());
+		Vector<LSA> unseen = null;
+		for (int i = 0; i < lsaArray.size(); i++) {
+			LSA lsa = lsaArray.get(i);
+			if (this.seen.containsKey(new Key(lsa.getOriginIp(), lsa.getLsaSeqNumber()))) {
+				this.suppressed.incrementAndGet();
+				if (unseen == null) {
+					// first duplicate, so copy over everything before it
+					unseen = new Vector<LSA>(lsaArray.subList(0, i));
+				}
+			} else if (unseen != null) {
+				unseen.add(lsa);
+			}
+		}
+		return unseen == null ? lsaArray : unseen;
+	}
+
+	/**
+	 * Remembers the LSAs, so that further copies of them are suppressed
+	 */
+	public synchronized void markSeen(Vector<LSA> lsaArray) {
+		long now = System.currentTimeMillis();
+		for (LSA lsa : lsaArray) {
+			Key key = new Key(lsa.getOriginIp(), lsa.getLsaSeqNumber());
+			if (!this.seen.containsKey(key)) {
+				this.seen.put(key, now);
+			}
+		}
+		// forget the oldest LSAs if there are too many
+		Iterator<Key> oldest = this.seen.keySet().iterator();
+		while (this.seen.size() > this.capacity) {
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * Forgets the LSAs that have been remembered for too long. they are kept
+	 * oldest first, so this stops at the first that hasn't
+	 */
+	private void expire(long now) {
+		Iterator<Map.Entry<Key, Long>> oldest = this.seen.entrySet().iterator();
+		while (oldest.hasNext() && now - oldest.next().getValue() > this.maxAgeMillis) {
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * @return how many duplicate LSAs have been dropped
+	 */
+	public long getSuppressed() {
+		return this.suppressed.get();
+	}
+
+	public synchronized int size() {
+		return this.seen.size();
+	}
+}
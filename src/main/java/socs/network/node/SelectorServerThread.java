@@ -0,0 +1,338 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+/**
+ * A non-blocking alternative to MasterServerThread. A single event-loop thread
+ * accepts connections and services all of them through a Selector, so a burst
+ * of incoming LSAUPDATEs does not turn into a burst of threads. Packets are
+ * decoded off each connection and dispatched to that connection's
+ * RequestHandler, exactly as in blocking mode.
+ *
+ * Handlers run on a pool of worker threads, or on the event loop itself if the
+ * server isn't given one. A handler can wait: on the router's own locks, and
+ * for room in an outbound queue when it sends a HELLO or forwards DATA to a
+ * neighbor that is backed up (see OutboundExecutor). On the event loop that
+ * holds up every connection, and if the neighbor is in turn waiting on this
+ * router, the two never recover; so handling on the loop is only for routers
+ * with little traffic, where it saves handing every packet between threads.
+ * Either way a connection's packets are handled one at a time and in order,
+ * and the event loop writes the responses. A handler that throws loses its own
+ * connection, and no other.
+ *
+ * @author kstricks
+ *
+ */
+public class SelectorServerThread extends Thread implements Server {
+
+	private static final Logger log = LoggerFactory.getLogger(SelectorServerThread.class);
+
+	// the size of the buffer each connection reads into; it grows if a single
+	// frame does not fit
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+	private Router router; // the router that spawned this thread
+	private int portNumber;
+	private volatile boolean listening = true;
+	private volatile Selector selector;
+	private volatile boolean bound;
+
+	// the threads the connections' packets are handled on, or null to
+	// handle them on the event loop
+	private final ExecutorService handlers;
+
+	// connections whose handlers have responses for the event loop to write,
+	// or have failed and are for it to close
+	private final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * @param router
+	 * @param portNumber
+	 * @param handlers
+	 *            - the threads to handle packets on, which the server shuts
+	 *            down when it is closed, or null to handle them on the event
+	 *            loop
+	 */
+	public SelectorServerThread(Router router, int portNumber, ExecutorService handlers) {
+		super("Server");
+		this.portNumber = portNumber;
+		this.router = router;
+		this.handlers = handlers;
+	}
+
+	/**
+	 * Everything the event loop needs to know about one client connection.
+	 * Run, it handles the packets waiting on the connection, in order.
+	 */
+	private class Connection implements Runnable {
+		private final SelectionKey key;
+		private final SocketChannel channel;
+		private final RequestHandler handler;
+		private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		// frames waiting to go out, in order. only the event loop touches it
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+
+		// guarded by the connection: the packets waiting to be handled, and
+		// whether a worker has been given the connection to handle them
+		private final ArrayDeque<SOSPFPacket> pending = new ArrayDeque<SOSPFPacket>();
+		private boolean scheduled;
+		// the responses the handler has made, for the event loop to write
+		private final ConcurrentLinkedQueue<ByteBuffer> responses = new ConcurrentLinkedQueue<ByteBuffer>();
+		// set once the handler has thrown, so the event loop closes the
+		// connection
+		private volatile boolean failed;
+
+		public Connection(SelectionKey key, SocketChannel channel) {
+			this.key = key;
+			this.channel = channel;
+			this.handler = new RequestHandler(router);
+		}
+
+		/**
+		 * Queues a packet for the handler, giving the connection to a worker
+		 * unless one already has it
+		 */
+		private void dispatch(SOSPFPacket packet) {
+			synchronized (this) {
+				this.pending.add(packet);
+				if (this.scheduled) {
+					return;
+				}
+				this.scheduled = true;
+			}
+			if (handlers == null) {
+				this.run();
+			} else {
+				handlers.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				SOSPFPacket packet;
+				synchronized (this) {
+					packet = this.pending.poll();
+					if (packet == null || this.failed) {
+						this.scheduled = false;
+						return;
+					}
+				}
+				try {
+					SOSPFPacket response = this.handler.handle(packet);
+					if (response != null) {
+						ByteBuffer frame = WireFormat.encode(response);
+						router.getMetrics().of(response.getMessageType()).recordSent(frame.remaining());
+						this.responses.add(frame);
+					}
+				} catch (IOException | RuntimeException e) {
+					log.error("request failed router={} message={} client={}", router.getRd().getSimulatedIPAddress(),
+							packet.getMessageType(), this.channel.socket().getRemoteSocketAddress(), e);
+					this.failed = true;
+				}
+				// hand the response (or the failure) to the event loop, waking
+				// it unless this is it
+				ready.add(this);
+				Selector s = selector;
+				if (s != null && handlers != null) {
+					s.wakeup();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try (Selector selector = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			this.selector = selector;
+			serverChannel.bind(new InetSocketAddress(portNumber));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			this.bound = true;
+
+			// listen until closed
+			while (this.listening) {
+				selector.select();
+				this.writeResponses();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable()) {
+							this.accept(selector, serverChannel);
+						} else {
+							if (key.isReadable()) {
+								this.read(key);
+							}
+							if (key.isValid() && key.isWritable()) {
+								this.write(key);
+							}
+						}
+					} catch (IOException e) {
+						// the connection is broken; drop it and carry on serving
+						// the others
+						this.close(key);
+					} catch (RuntimeException e) {
+						// a bug, but only this connection need suffer for it
+						log.error("connection failed router={}", this.router.getRd().getSimulatedIPAddress(), e);
+						this.close(key);
+					}
+				}
+				this.writeResponses();
+			}
+
+			// closed, so hang up on every client still connected
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					this.close(key);
+				}
+			}
+		} catch (IOException e) {
+			if (!this.listening) {
+				return;
+			}
+			System.err.println("Could not listen on port " + portNumber);
+			System.exit(-1);
+		} finally {
+			if (this.handlers != null) {
+				this.handlers.shutdownNow();
+			}
+		}
+	}
+
+	@Override
+	public boolean isListening() {
+		return this.listening && this.bound;
+	}
+
+	@Override
+	public void close() {
+		this.listening = false;
+		Selector s = this.selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+
+	private void accept(Selector selector, ServerSocketChannel serverChannel) throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(key, channel));
+	}
+
+	/**
+	 * Writes out the responses the handlers have made since the last time,
+	 * and closes the connections whose handlers have failed
+	 */
+	private void writeResponses() {
+		Connection c;
+		while ((c = this.ready.poll()) != null) {
+			if (!c.key.isValid()) {
+				continue;
+			}
+			if (c.failed) {
+				this.close(c.key);
+				continue;
+			}
+			ByteBuffer frame;
+			while ((frame = c.responses.poll()) != null) {
+				c.out.add(frame);
+			}
+			try {
+				this.write(c.key);
+			} catch (IOException e) {
+				this.close(c.key);
+			}
+		}
+	}
+
+	/**
+	 * Reads whatever the client has sent us and dispatches every complete
+	 * frame in it to the connection's handler
+	 */
+	private void read(SelectionKey key) throws IOException {
+		Connection c = (Connection) key.attachment();
+		if (c.channel.read(c.in) < 0) {
+			// the client tore down its session
+			this.close(key);
+			return;
+		}
+
+		c.in.flip();
+		while (c.in.remaining() >= WireFormat.HEADER_LENGTH) {
+			int length = WireFormat.checkLength(c.in.getInt(c.in.position()));
+			if (c.in.remaining() < WireFormat.HEADER_LENGTH + length) {
+				break;
+			}
+			// slice out the frame body and step past it
+			ByteBuffer body = c.in.duplicate();
+			body.position(c.in.position() + WireFormat.HEADER_LENGTH);
+			body.limit(body.position() + length);
+			c.in.position(body.limit());
+
+			SOSPFPacket packet = WireFormat.decode(body);
+			this.router.getMetrics().of(packet.getMessageType()).recordReceived(WireFormat.HEADER_LENGTH + length);
+			c.dispatch(packet);
+		}
+		c.in.compact();
+
+		// make sure the next frame fits
+		if (c.in.position() >= WireFormat.HEADER_LENGTH) {
+			int needed = WireFormat.HEADER_LENGTH + WireFormat.checkLength(c.in.getInt(0));
+			if (needed > c.in.capacity()) {
+				ByteBuffer bigger = ByteBuffer.allocate(needed);
+				c.in.flip();
+				bigger.put(c.in);
+				c.in = bigger;
+			}
+		}
+	}
+
+	/**
+	 * Writes as much of the pending output as the socket will take, and only
+	 * asks to be told about writability while there is output left over
+	 */
+	private void write(SelectionKey key) throws IOException {
+		Connection c = (Connection) key.attachment();
+		while (!c.out.isEmpty()) {
+			ByteBuffer frame = c.out.peek();
+			c.channel.write(frame);
+			if (frame.hasRemaining()) {
+				break;
+			}
+			c.out.remove();
+		}
+		key.interestOps(c.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// nothing left to do with it anyway
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package socs.network.node;
+
+/**
+ * What a router listens for connection requests with: a MasterServerThread or
+ * a SelectorServerThread, depending on the configured server mode.
+ *
+ * @author kstricks
+ *
+ */
+public interface Server {
+
+	/**
+	 * Starts listening, on a thread of the server's own
+	 */
+	void start();
+
+	/**
+	 * @return true once the server is accepting connections, and until it is
+	 *         closed
+	 */
+	boolean isListening();
+
+	/**
+	 * Stops listening and lets the server's thread finish. Connections that
+	 * are still open are closed by the selector server, and left to the
+	 * clients at the other end to close by the blocking one.
+	 */
+	void close();
+}
@@ -1,199 +1,111 @@
 package socs.network.node;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import socs.network.exceptions.DuplicateLinkException;
-import socs.network.exceptions.NoAvailablePortsException;
-import socs.network.exceptions.SelfLinkException;
-import socs.network.exceptions.UnexpectedMessageException;
-import socs.network.message.LinkDescription;
-import socs.network.message.MessageType;
 import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+/**
+ * Services a single client connection in blocking mode. The protocol itself
+ * lives in RequestHandler. MasterServerThread runs each one on a thread of its
+ * own, which may be a virtual thread (see ThreadMode).
+ *
+ * @author kstricks
+ *
+ */
+public class ServerThread implements Runnable {
 
-public class ServerThread extends Thread {
+	private static final Logger log = LoggerFactory.getLogger(ServerThread.class);
 
 	private Router router;
 	private Socket socket = null;
+	private RequestHandler handler;
 
 	// instantiated with a Socket connection to a client
 	public ServerThread(Router router, Socket socket) {
-		super("ServerThread");
-		this.socket = socket;
 		this.router = router;
+		this.socket = socket;
+		this.handler = new RequestHandler(router);
+		try {
+			this.socket.setTcpNoDelay(true);
+		} catch (SocketException e) {
+			// not fatal, we'll just be a little slower
+		}
 	}
 
 	/**
-	 * Switch based on the message type of the packet received, and then follow
-	 * the according protocol
+	 * Serve the connection until the client closes it. The client keeps its
+	 * end of the connection open for as long as the link exists, so we handle
+	 * packets one after another, writing back whatever response the handler
+	 * gives us
 	 */
 	@Override
 	public void run() {
 
 		try (
 				// get the output of the socket to talk to the client
-				ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream is = new ObjectInputStream(socket.getInputStream());) {
-
-			SOSPFPacket inputPacket;
-			// in this protocol, the client speaks first, so we just begin listening
-			inputPacket = (SOSPFPacket) is.readObject();
-			// message received, process it
-			switch (inputPacket.getMessageType()) {
-			case HELLO:
-				handshake(inputPacket, is, os);
-				break;
-			case LSAUPDATE:
-				processLsaUpdate(inputPacket, os);
-				break;
-			case LSAUPDATESENDBACK:
-				processLsaUpdateSendBack(inputPacket, os);
-				break;
-			case ADDLINK:
-				handleAddLink(inputPacket, os);
-				break;
-			case REMOVELINK:
-				handleRemoveLink(inputPacket, os);
-				break;
-			default:
-				System.err.println("ERROR: server received an unexpected SOSPFPacket. This should never happen.");
-				System.exit(1);
+				DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));) {
+
+			SOSPFPacket inputPacket, responsePacket;
+			// in this protocol, the client speaks first, so we just begin
+			// listening
+			while ((inputPacket = this.readPacket(is)) != null) {
+				// message received, process it
+				responsePacket = this.handler.handle(inputPacket);
+				if (responsePacket != null) {
+					int bytes = WireFormat.write(os, responsePacket);
+					this.router.getMetrics().of(responsePacket.getMessageType()).recordSent(bytes);
+				}
 			}
-
+		} catch (IOException e) {
+			log.warn("connection failed router={} client={}", this.router.getRd().getSimulatedIPAddress(),
+					this.socket.getRemoteSocketAddress(), e);
+		} catch (RuntimeException e) {
+			// a bug, but only this connection need suffer for it. nothing else
+			// would report it, since nobody joins this thread
+			log.error("connection failed router={} client={}", this.router.getRd().getSimulatedIPAddress(),
+					this.socket.getRemoteSocketAddress(), e);
+		} finally {
 			// IMPORTANT: as we did not create the socket connection to the
 			// client within a try with resources statement, we are responsible
 			// for closing the socket ourselves upon finishing communication
-			socket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException ex) {
-			ex.printStackTrace();
-		}
-	}
-
-	/////////////////////////////////////////////////////////////////////////////////////////////////
-	// PROTOCOLS
-	/////////////////////////////////////////////////////////////////////////////////////////////////
-
-	/**
-	 * The server received request to connect followed by a HELLO. This means it
-	 * has initiated a handshake with us.
-	 * 
-	 * @param inPacket
-	 */
-	private void handshake(SOSPFPacket inPacket, ObjectInputStream is, ObjectOutputStream os)
-			throws IOException, ClassNotFoundException {
-		System.out.println("received hello from " + inPacket.getSrcIP() + ";\n");
-		// tell the router to update its link to the client that sent HELLO to
-		// reflect that that client has been initialized
-		this.router.updateLinkStatusFromSourceIp(inPacket.getSrcIP(), RouterStatus.INIT);
-		System.out.println("set " + inPacket.getSrcIP() + " state to INIT;\n");
-		
-		// send HELLO back to the client
-		os.writeObject(new SOSPFPacket(MessageType.HELLO, this.router.getRd().getProcessIPAddress(),
-				this.router.getRd().getProcessPortNumber(), this.router.getRd().getSimulatedIPAddress()));
-		
-		// wait for a second HELLO
-		inPacket = (SOSPFPacket) is.readObject();
-
-		if (inPacket.getMessageType() != MessageType.HELLO) {
-			// this should never happen
-			throw new UnexpectedMessageException();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.debug("close failed router={}", this.router.getRd().getSimulatedIPAddress(), e);
+			}
 		}
-
-		System.out.println("received hello from " + inPacket.getSrcIP() + ";\n");
-
-		// tell the router to update the link status again, this time to TWO_WAY
-		this.router.updateLinkStatusFromSourceIp(inPacket.getSrcIP(), RouterStatus.TWO_WAY);
-		System.out.println("set " + inPacket.getSrcIP() + " state to TWO_WAY;\n");
 	}
 
 	/**
-	 * The server received a request to connect followed by an ADDLINK. This
-	 * means the remote client has requested we add a link to it.
-	 * 
-	 * @param packet
-	 * @param os
-	 * @throws IOException
+	 * Reads the next packet from the client
+	 *
+	 * @return the packet, or null if the client has closed the connection
 	 */
-	private void handleAddLink(SOSPFPacket packet, ObjectOutputStream os) throws IOException {
+	private SOSPFPacket readPacket(DataInputStream is) throws IOException {
 		try {
-			// need to get an available port and add the link all in one go
-			RouterDescription rd2 = new RouterDescription(packet.getSrcProcessIP(), packet.getSrcProcessPort(),
-					packet.getSrcIP());
-			Link l = new Link(router.getRd(), rd2, packet.getWeight());
-			int port = this.router.addLink(l);
-			// create new LinkDescription and add it to the LinkStateDatabase
-			LinkDescription ld = new LinkDescription(rd2.getSimulatedIPAddress(), port, packet.getWeight());
-			this.router.addLinkDescriptionToLinkStateDatabase(ld);
-			// even though we've changed our LSD, given the nature of
-			// Router.forwardLsaUpdate(Link, SOSPFPacket), we know that we don't
-			// have to send out LSAUPDATEs ourself since we can and should just
-			// wait for the LSAUPDATE from the router that requested we add this
-			// link. that's why it suffices to just add the link description to
-			// the LSD as above. we need not do anything else.
-			
-			// send back success message
-			SOSPFPacket responsePacket = new SOSPFPacket();
-			os.writeObject(responsePacket);
-		} catch (NoAvailablePortsException ex) {
-			// send ERROR response packet
-			SOSPFPacket errPacket = new SOSPFPacket("No ports available!!!");
-			os.writeObject(errPacket);
-		} catch (DuplicateLinkException ex) {
-			// send ERROR response packet
-			SOSPFPacket errPacket = new SOSPFPacket("You already have a link to this server!!!");
-			os.writeObject(errPacket);
-		} catch (SelfLinkException ex) {
-			// send ERROR response packet
-			SOSPFPacket errPacket = new SOSPFPacket(
-					"The client tried forcing the server to add a link to itself... This should never happen!!!");
-			os.writeObject(errPacket);
+			ByteBuffer body = WireFormat.readFrame(is);
+			if (body == null) {
+				return null;
+			}
+			int bytes = WireFormat.HEADER_LENGTH + body.remaining();
+			SOSPFPacket packet = WireFormat.decode(body);
+			this.router.getMetrics().of(packet.getMessageType()).recordReceived(bytes);
+			return packet;
+		} catch (SocketException e) {
+			// the client tore down its session
+			return null;
 		}
 	}
-
-	/**
-	 * A remote router connected to us has requested that we remove out link to
-	 * it. We need to remove the link from our ports array and also from our
-	 * link-state database. This means we also need to trigger an LSAUPDATE.
-	 * 
-	 * @param packet
-	 * @param os
-	 * @throws IOException
-	 */
-	private void handleRemoveLink(SOSPFPacket packet, ObjectOutputStream os) throws IOException {
-		// remove the link
-		this.router.reactToRemoveLinkRequest(packet.getSrcIP());
-
-		// send back success message
-		SOSPFPacket responsePacket = new SOSPFPacket();
-		os.writeObject(responsePacket);
-	}
-
-	/**
-	 * The server received a request to connect followed by an LSAUPDATE. This
-	 * means the remote client is propagating an LSAUPDATE to us, so we should
-	 * update our Router's LinkStateDatabase
-	 * 
-	 * @param in
-	 * @param out
-	 * @throws IOException
-	 */
-	private void processLsaUpdate(SOSPFPacket packet, ObjectOutputStream os) throws IOException {
-		// call the method in the router for updating LinkStateDatabase
-		this.router.performLsaUpdate(packet);
-		
-		// send back a success message
-		SOSPFPacket responsePacket = new SOSPFPacket();
-		os.writeObject(responsePacket);
-	}
-
-	private void processLsaUpdateSendBack(SOSPFPacket packet, ObjectOutputStream os) throws IOException {
-		this.router.performLsaUpdateSendBack(packet);
-
-		SOSPFPacket responsePacket = new SOSPFPacket();
-		os.writeObject(responsePacket);
-	}
 }
@@ -0,0 +1,78 @@
+package socs.network.node;
+
+import java.io.IOException;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * A long-lived connection from the router that owns a Link to the router at
+ * the other end of it. Rather than opening a new connection for every message,
+ * all protocol messages sent over a link share the one session, which is
+ * opened by the first message sent (the ADDLINK of attach/connect) and closed
+ * when the link is removed. Sessions are made by the router's Transport.
+ *
+ * Requests on a session are serialized: a client that needs several messages
+ * to go out back to back (e.g. the HELLO handshake) can hold the session's
+ * lock for the duration of the exchange.
+ *
+ * @author kstricks
+ *
+ */
+public interface Session {
+
+	/**
+	 * Opens the connection to the remote router if it is not already open. A
+	 * connection lost to a failure is opened again by the next message.
+	 *
+	 * @throws IOException
+	 *             if the remote router cannot be reached, or the session has
+	 *             been closed
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Sends a packet without waiting for a response
+	 *
+	 * @param packet
+	 * @throws IOException
+	 */
+	void send(SOSPFPacket packet) throws IOException;
+
+	/**
+	 * Blocks until the remote router sends us a packet
+	 *
+	 * @return the packet received
+	 * @throws IOException
+	 */
+	SOSPFPacket receive() throws IOException;
+
+	/**
+	 * Sends a request and waits for the remote router's response
+	 *
+	 * @param packet
+	 *            - the request
+	 * @return the response
+	 * @throws IOException
+	 */
+	SOSPFPacket exchange(SOSPFPacket packet) throws IOException;
+
+	/**
+	 * Closes the connection for good, when the link is removed. Any message
+	 * sent or received over this session afterwards fails with a
+	 * ClosedChannelException rather than opening a new connection.
+	 */
+	void close();
+
+	boolean isOpen();
+
+	/**
+	 * Holds the session for a conversation of several messages, so no other
+	 * message sent over the link can slip in between them. Must be followed
+	 * by unlock, in a finally block.
+	 */
+	void lock();
+
+	void unlock();
+
+	RouterDescription getDest();
+}
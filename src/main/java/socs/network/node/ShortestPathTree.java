@@ -0,0 +1,894 @@
+package socs.network.node;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import socs.network.message.LSA;
+import socs.network.message.RouterId;
+import socs.network.util.IndexedMinHeap;
+
+/**
+ * The shortest-path tree rooted at a router, kept between queries. When some
+ * LSAs change, only the part of the tree that the changes can affect is
+ * recomputed: the subtrees hanging off links that were removed or got more
+ * expensive are torn down and regrown from the rest of the tree, and cheaper
+ * or new links are relaxed from where they start. Everything else keeps its
+ * distance and parent, and the routers that didn't are listed afterwards, so
+ * that what is built from the tree can be patched rather than rebuilt.
+ *
+ * The tree runs on a CompactGraph, so routers are ints and the tree is a set
+ * of int arrays indexed by router id: a distance, a parent, and the children
+ * of each router as a linked list threaded through firstChild and
+ * nextSibling/previousSibling. Once the arrays are big enough for the
+ * network, building or repairing the tree allocates nothing.
+ *
+ * @author kstricks
+ *
+ */
+public class ShortestPathTree {
+
+	// the distance to a router that can't be reached
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+	// the parent, child or sibling of a router that has none
+	public static final int NONE = -1;
+
+	// the bits of marks
+	private static final byte MOVED = 1;
+	private static final byte REROUTED = 2;
+	private static final byte MISSING = 4;
+	private static final byte DIRTY = 8;
+
+	private final RouterId root;
+	private final CompactGraph graph = new CompactGraph();
+	private final int rootId;
+
+	// the tree itself, indexed by router id. every router reachable from the
+	// root has a distance and (apart from the root) a parent
+	private int[] distance = new int[0];
+	private int[] parent = new int[0];
+	private int[] firstChild = new int[0];
+	private int[] nextSibling = new int[0];
+	private int[] previousSibling = new int[0];
+	// how many router ids the arrays above have been set up for
+	private int capacity;
+
+	private final IndexedMinHeap tentative = new IndexedMinHeap(16);
+	// the routers torn out of the tree during a repair
+	private int[] orphans = new int[0];
+
+	// every shortest path, not just the one in the tree, as found by
+	// findEqualCostPaths: the routers right before v on any of its shortest
+	// paths are predecessors[predecessorOffsets[v]] up to
+	// predecessors[predecessorOffsets[v + 1]], and equalCostOrder lists the
+	// reachable routers so that each comes after all of its predecessors
+	private int[] predecessorOffsets = new int[1];
+	private int[] predecessors = new int[0];
+	private int[] equalCostOrder = new int[0];
+	private int equalCostOrderCount;
+	// scratch space for findEqualCostPaths
+	private int[] pending = new int[0];
+	private int[] cursor = new int[0];
+
+	// what the last rebuild or update did: whether it started over, and if
+	// not, the routers whose distance or parent changed (moved), those and
+	// everything now below them, whose paths from the root all changed
+	// (rerouted, each after its parent), and the routers whose predecessors
+	// may have changed, as they or a router with a link to them moved, or
+	// the link itself changed (dirty). marks has MOVED, REROUTED and DIRTY
+	// set for the routers on each list, and MISSING for the ones counted in
+	// missingCount: those we can reach but have no LSA for
+	private long changeCount;
+	private boolean rebuilt;
+	private int[] moved = new int[0];
+	private int movedCount;
+	private int[] rerouted = new int[0];
+	private int reroutedCount;
+	private int[] dirty = new int[0];
+	private int dirtyCount;
+	private byte[] marks = new byte[0];
+	private int missingCount;
+
+	// the links of the stale routers (see CompactGraph) by the router they
+	// go to, as a list for each threaded through staleLinkNext, for
+	// findPredecessors to use in place of their reverse rows. made the first
+	// time it's needed after each change, when staleLinkCount is -1
+	private int[] staleLinksTo = new int[0];
+	private int[] staleLinkNext = new int[0];
+	private int[] staleLinkSource = new int[0];
+	private int[] staleLinkTarget = new int[0];
+	private int[] staleLinkWeight = new int[0];
+	private int staleLinkCount = -1;
+	// what findPredecessors and findSuccessors found
+	private int[] row = new int[16];
+
+	public ShortestPathTree(RouterId root) {
+		this.root = root;
+		this.rootId = this.graph.intern(root);
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Building and repairing the tree
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Throws away the current tree and runs Dijkstra's algorithm from scratch
+	 *
+	 * @param store
+	 *            - every LSA in the link state database
+	 */
+	public void rebuild(Map<RouterId, LSA> store) {
+		this.graph.load(store);
+		this.ensureCapacity();
+		int n = this.graph.size();
+		Arrays.fill(this.distance, 0, n, UNREACHABLE);
+		Arrays.fill(this.parent, 0, n, NONE);
+		Arrays.fill(this.firstChild, 0, n, NONE);
+
+		this.distance[this.rootId] = 0;
+		this.tentative.offer(this.rootId, 0);
+		this.grow();
+
+		// everything may have changed, so nothing is listed
+		this.clearChanges();
+		this.rebuilt = true;
+		this.changeCount++;
+		this.missingCount = 0;
+		for (int v = 0; v < n; v++) {
+			this.marks[v] &= ~MISSING;
+			this.countMissingLsa(v);
+		}
+	}
+
+	/**
+	 * Repairs the tree after the LSAs of some routers have changed
+	 *
+	 * @param store
+	 *            - every LSA in the link state database
+	 * @param changed
+	 *            - the origins of the LSAs that changed since the tree was
+	 *            last built or repaired
+	 */
+	public void update(Map<RouterId, LSA> store, Collection<RouterId> changed) {
+		this.clearChanges();
+		for (RouterId originIp : changed) {
+			// the routers the old links went to lose a predecessor
+			int u = this.graph.idOf(originIp);
+			if (u != -1) {
+				this.markLinkTargetsDirty(u);
+			}
+			this.graph.setLinks(store.get(originIp));
+		}
+		if (this.graph.isLoadDue()) {
+			this.graph.load(store);
+		}
+		this.ensureCapacity();
+
+		// tear down the subtrees hanging off tree links that were removed or
+		// got more expensive. the tree link from u to child c is as long as
+		// the difference in their distances
+		int orphanCount = 0;
+		for (RouterId originIp : changed) {
+			int u = this.graph.idOf(originIp);
+			if (this.distance[u] == UNREACHABLE) {
+				// the origin isn't reachable, so nothing that leaves it can be
+				// on a shortest path
+				continue;
+			}
+			int c = this.firstChild[u];
+			while (c != NONE) {
+				int next = this.nextSibling[c];
+				int d = this.graph.distance(u, c);
+				if (d < 0 || this.distance[u] + d > this.distance[c]) {
+					orphanCount = this.detachSubtree(c, orphanCount);
+				}
+				c = next;
+			}
+		}
+
+		// the orphans can be reached again through whichever of their links
+		// come from routers still in the tree. the reverse rows only know the
+		// links of routers that haven't changed since the graph was loaded...
+		int[] reverseOffsets = this.graph.getReverseOffsets();
+		int[] sources = this.graph.getSources();
+		int[] reverseWeights = this.graph.getReverseWeights();
+		int loadedSize = this.graph.getLoadedSize();
+		for (int i = 0; i < orphanCount; i++) {
+			int orphan = this.orphans[i];
+			if (orphan < loadedSize) {
+				for (int j = reverseOffsets[orphan]; j < reverseOffsets[orphan + 1]; j++) {
+					if (!this.graph.isStale(sources[j])) {
+						this.relax(sources[j], orphan, reverseWeights[j]);
+					}
+				}
+			}
+		}
+		// ...so the links of the ones that have are all tried
+		int[] staleRouters = this.graph.getStaleRouters();
+		for (int i = 0; i < this.graph.getStaleCount(); i++) {
+			this.relaxLinksOf(staleRouters[i]);
+		}
+
+		// links that are new or got cheaper may give shorter paths
+		for (RouterId originIp : changed) {
+			this.relaxLinksOf(this.graph.idOf(originIp));
+		}
+
+		this.grow();
+
+		this.findRerouted();
+		for (int i = 0; i < this.movedCount; i++) {
+			this.countMissingLsa(this.moved[i]);
+		}
+		for (RouterId originIp : changed) {
+			this.countMissingLsa(this.graph.idOf(originIp));
+		}
+
+		for (int i = 0; i < this.movedCount; i++) {
+			this.markDirty(this.moved[i]);
+			this.markLinkTargetsDirty(this.moved[i]);
+		}
+		for (RouterId originIp : changed) {
+			this.markLinkTargetsDirty(this.graph.idOf(originIp));
+		}
+		this.changeCount++;
+	}
+
+	/**
+	 * Lists the routers whose paths changed in the last update: everything at
+	 * or below a router that moved. They are marked first and then listed
+	 * down from the top of each marked subtree, so that a router below one
+	 * that moved, but that moved itself, still comes after its parent
+	 */
+	private void findRerouted() {
+		int count = 0;
+		for (int i = 0; i < this.movedCount; i++) {
+			int top = this.moved[i];
+			if (this.distance[top] == UNREACHABLE || (this.marks[top] & REROUTED) != 0) {
+				continue;
+			}
+			this.marks[top] |= REROUTED;
+			int head = count;
+			this.orphans[count++] = top;
+			while (head < count) {
+				for (int c = this.firstChild[this.orphans[head++]]; c != NONE; c = this.nextSibling[c]) {
+					if ((this.marks[c] & REROUTED) == 0) {
+						this.marks[c] |= REROUTED;
+						this.orphans[count++] = c;
+					}
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			int top = this.orphans[i];
+			if ((this.marks[this.parent[top]] & REROUTED) != 0) {
+				continue;
+			}
+			int head = this.reroutedCount;
+			this.rerouted[this.reroutedCount++] = top;
+			while (head < this.reroutedCount) {
+				for (int c = this.firstChild[this.rerouted[head++]]; c != NONE; c = this.nextSibling[c]) {
+					this.rerouted[this.reroutedCount++] = c;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Brings missingCount up to date for a router that may have been reached
+	 * or lost, or had its LSA arrive
+	 */
+	private void countMissingLsa(int v) {
+		boolean missing = this.distance[v] != UNREACHABLE && !this.graph.hasLsa(v);
+		if (missing != ((this.marks[v] & MISSING) != 0)) {
+			this.marks[v] ^= MISSING;
+			this.missingCount += missing ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Empties the lists of what the last rebuild or update changed
+	 */
+	private void clearChanges() {
+		for (int i = 0; i < this.movedCount; i++) {
+			this.marks[this.moved[i]] &= ~MOVED;
+		}
+		for (int i = 0; i < this.reroutedCount; i++) {
+			this.marks[this.rerouted[i]] &= ~REROUTED;
+		}
+		for (int i = 0; i < this.dirtyCount; i++) {
+			this.marks[this.dirty[i]] &= ~DIRTY;
+		}
+		for (int k = 0; k < this.staleLinkCount; k++) {
+			this.staleLinksTo[this.staleLinkTarget[k]] = NONE;
+		}
+		this.movedCount = 0;
+		this.reroutedCount = 0;
+		this.dirtyCount = 0;
+		this.staleLinkCount = -1;
+		this.rebuilt = false;
+	}
+
+	private void markDirty(int v) {
+		if ((this.marks[v] & DIRTY) == 0) {
+			this.marks[v] |= DIRTY;
+			this.dirty[this.dirtyCount++] = v;
+		}
+	}
+
+	private void markLinkTargetsDirty(int u) {
+		int[] targets = this.graph.getTargets();
+		int end = this.graph.getEnd()[u];
+		for (int i = this.graph.getStart()[u]; i < end; i++) {
+			this.markDirty(targets[i]);
+		}
+	}
+
+	private void markMoved(int v) {
+		if ((this.marks[v] & MOVED) == 0) {
+			this.marks[v] |= MOVED;
+			this.moved[this.movedCount++] = v;
+		}
+	}
+
+	/**
+	 * Dijkstra's algorithm, starting from whatever routers are already in the
+	 * heap. A router's distance only changes if the new path beats the one
+	 * already recorded, so this works both for growing a tree from scratch and
+	 * for repairing part of one.
+	 */
+	private void grow() {
+		while (!this.tentative.isEmpty()) {
+			this.relaxLinksOf(this.tentative.poll());
+		}
+	}
+
+	/**
+	 * Finds every shortest path from the root, not just the one the tree
+	 * keeps for each router. A link from u to v is on one exactly when u's
+	 * distance plus the link's weight is v's distance, so this is one pass
+	 * over the links once the distances are known, however the tree got them.
+	 * The results are read with getPredecessorOffsets, getPredecessors and
+	 * getEqualCostOrder, and are only valid until the tree next changes.
+	 */
+	public void findEqualCostPaths() {
+		int n = this.graph.size();
+		int[] offsets = this.predecessorOffsets;
+
+		// count each router's predecessors, then lay out its row
+		Arrays.fill(offsets, 0, n + 1, 0);
+		int[] distance = this.distance;
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		int[] start = this.graph.getStart();
+		int[] end = this.graph.getEnd();
+		int count = 0;
+		for (int u = 0; u < n; u++) {
+			int d = distance[u];
+			if (d == UNREACHABLE) {
+				continue;
+			}
+			for (int i = start[u]; i < end[u]; i++) {
+				int v = targets[i];
+				if (d + weights[i] == distance[v] && v != this.rootId && !this.isRepeated(u, i, start[u])) {
+					offsets[v + 1]++;
+					count++;
+				}
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		if (this.predecessors.length < count) {
+			this.predecessors = new int[Math.max(count, this.predecessors.length + (this.predecessors.length >> 1))];
+		}
+
+		// order the routers so each comes after its predecessors, by taking
+		// them once all their predecessors have been taken, and fill in the
+		// rows as the links out of each router taken are gone through
+		int[] cursor = this.cursor;
+		System.arraycopy(offsets, 0, cursor, 0, n);
+		for (int v = 0; v < n; v++) {
+			this.pending[v] = offsets[v + 1] - offsets[v];
+		}
+		int head = 0;
+		int tail = 0;
+		this.equalCostOrder[tail++] = this.rootId;
+		while (head < tail) {
+			int u = this.equalCostOrder[head++];
+			tail = this.takeShortestLinks(u, cursor, tail);
+		}
+
+		// the routers on a ring of links of weight 0 are never taken, nor is
+		// anything whose shortest paths all run through one, so the links out
+		// of them are gone through now, to finish off the rows
+		if (tail < n) {
+			for (int u = 0; u < n; u++) {
+				int d = distance[u];
+				if (d == UNREACHABLE || this.pending[u] == 0) {
+					continue;
+				}
+				for (int i = start[u]; i < end[u]; i++) {
+					int v = targets[i];
+					if (d + weights[i] == distance[v] && v != this.rootId && !this.isRepeated(u, i, start[u])) {
+						this.predecessors[cursor[v]++] = u;
+					}
+				}
+			}
+		}
+		this.equalCostOrderCount = tail;
+	}
+
+	/**
+	 * Adds u to the row of every router that a link out of it is a shortest
+	 * link to, and takes each of those routers into the order once all of its
+	 * predecessors have been added
+	 *
+	 * @param cursor
+	 *            - where the next predecessor goes in each row
+	 * @param tail
+	 *            - how many routers are in the order so far
+	 * @return how many are in it now
+	 */
+	private int takeShortestLinks(int u, int[] cursor, int tail) {
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		int start = this.graph.getStart()[u];
+		int end = this.graph.getEnd()[u];
+		int d = this.distance[u];
+		for (int i = start; i < end; i++) {
+			int v = targets[i];
+			if (d + weights[i] == this.distance[v] && v != this.rootId && !this.isRepeated(u, i, start)) {
+				this.predecessors[cursor[v]++] = u;
+				if (--this.pending[v] == 0) {
+					this.equalCostOrder[tail++] = v;
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * @return true if an earlier link out of u, between start and link i, goes
+	 *         to the same router as link i and is as short, so that a router
+	 *         with two links to another is only counted once as its
+	 *         predecessor. routers have only a few links, so looking back is
+	 *         cheaper than keeping track
+	 */
+	private boolean isRepeated(int u, int i, int start) {
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		for (int j = start; j < i; j++) {
+			if (targets[j] == targets[i] && weights[j] == weights[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the routers right before one on its shortest paths, the same ones
+	 * findEqualCostPaths would put in its row, but from the links into it
+	 * alone, so it costs only as much as the router has links
+	 *
+	 * @return how many there are, at the front of getRow
+	 */
+	public int findPredecessors(int v) {
+		int d = this.distance[v];
+		if (d == UNREACHABLE || v == this.rootId) {
+			return 0;
+		}
+		int count = 0;
+		if (v < this.graph.getLoadedSize()) {
+			int[] reverseOffsets = this.graph.getReverseOffsets();
+			int[] sources = this.graph.getSources();
+			int[] reverseWeights = this.graph.getReverseWeights();
+			for (int j = reverseOffsets[v]; j < reverseOffsets[v + 1]; j++) {
+				int u = sources[j];
+				if (!this.graph.isStale(u) && this.distance[u] != UNREACHABLE
+						&& this.distance[u] + reverseWeights[j] == d) {
+					count = this.addToRow(u, count);
+				}
+			}
+		}
+		if (this.staleLinkCount < 0) {
+			this.indexStaleLinks();
+		}
+		for (int k = this.staleLinksTo[v]; k != NONE; k = this.staleLinkNext[k]) {
+			int u = this.staleLinkSource[k];
+			if (this.distance[u] != UNREACHABLE && this.distance[u] + this.staleLinkWeight[k] == d) {
+				count = this.addToRow(u, count);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the routers that u is right before on one of their shortest
+	 * paths
+	 *
+	 * @return how many there are, at the front of getRow
+	 */
+	public int findSuccessors(int u) {
+		int d = this.distance[u];
+		if (d == UNREACHABLE) {
+			return 0;
+		}
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		int start = this.graph.getStart()[u];
+		int end = this.graph.getEnd()[u];
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			int v = targets[i];
+			if (d + weights[i] == this.distance[v] && v != this.rootId && !this.isRepeated(u, i, start)) {
+				count = this.addToRow(v, count);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds a router to the row unless it's already there, as a router with
+	 * two links to another that are both shortest is only counted once
+	 *
+	 * @return how many are in the row now
+	 */
+	private int addToRow(int v, int count) {
+		for (int i = 0; i < count; i++) {
+			if (this.row[i] == v) {
+				return count;
+			}
+		}
+		if (count == this.row.length) {
+			this.row = Arrays.copyOf(this.row, count * 2);
+		}
+		this.row[count] = v;
+		return count + 1;
+	}
+
+	/**
+	 * Lists the links of the stale routers by the router they go to
+	 */
+	private void indexStaleLinks() {
+		int[] staleRouters = this.graph.getStaleRouters();
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		int[] start = this.graph.getStart();
+		int[] end = this.graph.getEnd();
+		int count = 0;
+		for (int i = 0; i < this.graph.getStaleCount(); i++) {
+			count += end[staleRouters[i]] - start[staleRouters[i]];
+		}
+		if (this.staleLinkNext.length < count) {
+			int length = Math.max(count, this.staleLinkNext.length * 2);
+			this.staleLinkNext = new int[length];
+			this.staleLinkSource = new int[length];
+			this.staleLinkTarget = new int[length];
+			this.staleLinkWeight = new int[length];
+		}
+		int k = 0;
+		for (int i = 0; i < this.graph.getStaleCount(); i++) {
+			int u = staleRouters[i];
+			for (int j = start[u]; j < end[u]; j++) {
+				int v = targets[j];
+				this.staleLinkSource[k] = u;
+				this.staleLinkTarget[k] = v;
+				this.staleLinkWeight[k] = weights[j];
+				this.staleLinkNext[k] = this.staleLinksTo[v];
+				this.staleLinksTo[v] = k++;
+			}
+		}
+		this.staleLinkCount = k;
+	}
+
+	// helpers for maintaining the tree
+
+	/**
+	 * Relaxes every link out of u. a router we have no LSA for has no links
+	 * here, so nothing is relaxed from it
+	 */
+	private void relaxLinksOf(int u) {
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		int end = this.graph.getEnd()[u];
+		for (int i = this.graph.getStart()[u]; i < end; i++) {
+			this.relax(u, targets[i], weights[i]);
+		}
+	}
+
+	/**
+	 * Moves v under u if the link from u to v gives it a shorter path
+	 */
+	private void relax(int u, int v, int w) {
+		if (this.distance[u] == UNREACHABLE) {
+			return;
+		}
+		int d = this.distance[u] + w;
+		if (d < this.distance[v]) {
+			this.markMoved(v);
+			this.distance[v] = d;
+			this.unlink(v);
+			this.parent[v] = u;
+			this.previousSibling[v] = NONE;
+			this.nextSibling[v] = this.firstChild[u];
+			if (this.firstChild[u] != NONE) {
+				this.previousSibling[this.firstChild[u]] = v;
+			}
+			this.firstChild[u] = v;
+			this.tentative.offer(v, d);
+		}
+	}
+
+	/**
+	 * Takes a router out of its parent's list of children
+	 */
+	private void unlink(int v) {
+		int p = this.parent[v];
+		if (p == NONE) {
+			return;
+		}
+		int prev = this.previousSibling[v];
+		int next = this.nextSibling[v];
+		if (prev == NONE) {
+			this.firstChild[p] = next;
+		} else {
+			this.nextSibling[prev] = next;
+		}
+		if (next != NONE) {
+			this.previousSibling[next] = prev;
+		}
+		this.parent[v] = NONE;
+	}
+
+	/**
+	 * Removes a router and everything below it from the tree
+	 *
+	 * @param top
+	 *            - the router at the top of the subtree
+	 * @param orphanCount
+	 *            - how many routers are already in the orphans array
+	 * @return how many routers are in the orphans array now
+	 */
+	private int detachSubtree(int top, int orphanCount) {
+		this.unlink(top);
+		int start = orphanCount;
+		this.orphans[orphanCount++] = top;
+		for (int i = start; i < orphanCount; i++) {
+			int v = this.orphans[i];
+			for (int c = this.firstChild[v]; c != NONE; c = this.nextSibling[c]) {
+				this.orphans[orphanCount++] = c;
+			}
+			this.markMoved(v);
+			this.distance[v] = UNREACHABLE;
+			this.parent[v] = NONE;
+			this.firstChild[v] = NONE;
+		}
+		return orphanCount;
+	}
+
+	/**
+	 * Grows the arrays to cover every router in the graph, setting up the new
+	 * routers as unreachable
+	 */
+	private void ensureCapacity() {
+		int n = this.graph.size();
+		if (n <= this.capacity) {
+			return;
+		}
+		if (n > this.distance.length) {
+			int length = Math.max(n, this.distance.length + (this.distance.length >> 1));
+			this.distance = Arrays.copyOf(this.distance, length);
+			this.parent = Arrays.copyOf(this.parent, length);
+			this.firstChild = Arrays.copyOf(this.firstChild, length);
+			this.nextSibling = Arrays.copyOf(this.nextSibling, length);
+			this.previousSibling = Arrays.copyOf(this.previousSibling, length);
+			this.orphans = new int[length];
+			this.predecessorOffsets = new int[length + 1];
+			this.equalCostOrder = new int[length];
+			this.pending = new int[length];
+			this.cursor = new int[length];
+			this.moved = Arrays.copyOf(this.moved, length);
+			this.rerouted = Arrays.copyOf(this.rerouted, length);
+			this.dirty = Arrays.copyOf(this.dirty, length);
+			this.marks = Arrays.copyOf(this.marks, length);
+			int old = this.staleLinksTo.length;
+			this.staleLinksTo = Arrays.copyOf(this.staleLinksTo, length);
+			Arrays.fill(this.staleLinksTo, old, length, NONE);
+			this.tentative.ensureCapacity(length);
+		}
+		Arrays.fill(this.distance, this.capacity, n, UNREACHABLE);
+		Arrays.fill(this.parent, this.capacity, n, NONE);
+		Arrays.fill(this.firstChild, this.capacity, n, NONE);
+		this.capacity = n;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Reading the tree
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * @return true if some router we can reach has not sent us its LSA yet, so
+	 *         the tree may be missing part of the network
+	 */
+	public boolean isMissingLsas() {
+		return this.missingCount > 0;
+	}
+
+	/**
+	 * @return the neighbors of the root whose shortest paths include the
+	 *         root's link straight to them, which are the neighbors that
+	 *         shortest paths leave the root through
+	 */
+	public int[] findFirstHops() {
+		int[] targets = this.graph.getTargets();
+		int[] weights = this.graph.getWeights();
+		int start = this.graph.getStart()[this.rootId];
+		int end = this.graph.getEnd()[this.rootId];
+		int[] firstHops = new int[end - start];
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			int v = targets[i];
+			if (weights[i] == this.distance[v] && v != this.rootId && !this.isRepeated(this.rootId, i, start)) {
+				firstHops[count++] = v;
+			}
+		}
+		return Arrays.copyOf(firstHops, count);
+	}
+
+	/**
+	 * @return the number of router ids in use; every id is below this
+	 */
+	public int size() {
+		return this.graph.size();
+	}
+
+	/**
+	 * @return the router's id, or -1 if the tree has never seen it
+	 */
+	public int idOf(RouterId ip) {
+		return this.graph.idOf(ip);
+	}
+
+	public RouterId ipOf(int id) {
+		return this.graph.ipOf(id);
+	}
+
+	/**
+	 * @return the distance from the root to the router, or UNREACHABLE
+	 */
+	public int getDistance(int id) {
+		return this.distance[id];
+	}
+
+	/**
+	 * @return the router before this one on its shortest path, or NONE
+	 */
+	public int getParent(int id) {
+		return this.parent[id];
+	}
+
+	/**
+	 * @return one of the routers whose shortest paths run straight through
+	 *         this one, or NONE. the rest are found with getNextSibling
+	 */
+	public int getFirstChild(int id) {
+		return this.firstChild[id];
+	}
+
+	/**
+	 * @return the next router with the same parent as this one, or NONE
+	 */
+	public int getNextSibling(int id) {
+		return this.nextSibling[id];
+	}
+
+	/**
+	 * @return true if the last change to the tree was a rebuild, after which
+	 *         anything built from it has to be built again too
+	 */
+	public boolean isRebuilt() {
+		return rebuilt;
+	}
+
+	/**
+	 * @return the routers whose distance or parent changed in the last update,
+	 *         including those that can't be reached any more. only the first
+	 *         getMovedCount are in use
+	 */
+	public int[] getMoved() {
+		return moved;
+	}
+
+	public int getMovedCount() {
+		return movedCount;
+	}
+
+	/**
+	 * @return the reachable routers whose path from the root changed in the
+	 *         last update, each after its parent. only the first
+	 *         getReroutedCount are in use
+	 */
+	public int[] getRerouted() {
+		return rerouted;
+	}
+
+	public int getReroutedCount() {
+		return reroutedCount;
+	}
+
+	/**
+	 * @return the routers whose predecessors may have changed in the last
+	 *         update, because they or a router with a link to them moved or
+	 *         the link itself changed. only the first getDirtyCount are in
+	 *         use
+	 */
+	public int[] getDirty() {
+		return dirty;
+	}
+
+	public int getDirtyCount() {
+		return dirtyCount;
+	}
+
+	/**
+	 * @return the routers found by the last findPredecessors or
+	 *         findSuccessors
+	 */
+	public int[] getRow() {
+		return row;
+	}
+
+	/**
+	 * @return how many times the tree has been rebuilt or updated, so that
+	 *         whatever is patched from what an update changed can tell
+	 *         whether it missed one
+	 */
+	public long getChangeCount() {
+		return changeCount;
+	}
+
+	/**
+	 * @return true if the router is in getRerouted
+	 */
+	public boolean isRerouted(int id) {
+		return (this.marks[id] & REROUTED) != 0;
+	}
+
+	/**
+	 * @return where each router's row of predecessors starts in
+	 *         getPredecessors (and, one router on, where it ends), as of the
+	 *         last findEqualCostPaths
+	 */
+	public int[] getPredecessorOffsets() {
+		return predecessorOffsets;
+	}
+
+	/**
+	 * @return the rows of predecessors: every router right before another on
+	 *         one of its shortest paths
+	 */
+	public int[] getPredecessors() {
+		return predecessors;
+	}
+
+	/**
+	 * @return the reachable routers, the root first, each after all of its
+	 *         predecessors. only the first getEqualCostOrderCount are in use
+	 */
+	public int[] getEqualCostOrder() {
+		return equalCostOrder;
+	}
+
+	public int getEqualCostOrderCount() {
+		return equalCostOrderCount;
+	}
+
+	public int getRootId() {
+		return rootId;
+	}
+
+	public RouterId getRoot() {
+		return root;
+	}
+}
@@ -0,0 +1,217 @@
+package socs.network.node;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+/**
+ * A session over a TCP socket, opened to the remote router's server.
+ *
+ * The lock is a ReentrantLock rather than the session's monitor because a
+ * virtual thread blocked on a socket while holding a monitor pins its carrier
+ * thread, and with few carriers the server side of the conversation may then
+ * never get to run.
+ *
+ * close doesn't take the lock. It is called by the handler of a REMOVELINK
+ * while the router is locked, and the lock may be held for as long as an
+ * exchange with the remote router takes, which may in turn be waiting on a
+ * handler of ours. Instead it closes the socket under whatever holds the
+ * lock, which then fails with a ClosedChannelException.
+ *
+ * @author kstricks
+ *
+ */
+public class TcpSession implements Session {
+
+	// the router at the other end of the link
+	private final RouterDescription dest;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// where the messages sent and received are counted
+	private final RouterMetrics metrics;
+
+	// volatile so that close can reach the socket without the lock
+	private volatile Socket socket;
+	private DataOutputStream os;
+	private DataInputStream is;
+
+	// set for good by close, after which no socket is opened again
+	private volatile boolean closed;
+
+	public TcpSession(RouterDescription dest, RouterMetrics metrics) {
+		this.dest = dest;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void open() throws IOException {
+		this.lock.lock();
+		try {
+			if (this.closed) {
+				throw new ClosedChannelException();
+			}
+			if (this.isOpen()) {
+				return;
+			}
+			try {
+				this.socket = new Socket(dest.getProcessIPAddress(), dest.getProcessPortNumber());
+				this.socket.setTcpNoDelay(true);
+				this.os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				this.is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			} catch (IOException e) {
+				this.disconnect();
+				throw e;
+			}
+			// close may have come in while the socket was being opened, and
+			// missed it
+			if (this.closed) {
+				this.disconnect();
+				throw new ClosedChannelException();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public void send(SOSPFPacket packet) throws IOException {
+		this.lock.lock();
+		try {
+			this.open();
+			try {
+				int bytes = WireFormat.write(this.os, packet);
+				this.metrics.of(packet.getMessageType()).recordSent(bytes);
+			} catch (IOException e) {
+				this.metrics.of(packet.getMessageType()).recordFailure();
+				this.disconnect();
+				throw this.closedUnder(e);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public SOSPFPacket receive() throws IOException {
+		this.lock.lock();
+		try {
+			this.open();
+			try {
+				ByteBuffer body = WireFormat.readFrame(this.is);
+				if (body == null) {
+					throw new EOFException("connection closed by " + dest.getSimulatedIPAddress());
+				}
+				int bytes = WireFormat.HEADER_LENGTH + body.remaining();
+				SOSPFPacket packet = WireFormat.decode(body);
+				this.metrics.of(packet.getMessageType()).recordReceived(bytes);
+				return packet;
+			} catch (IOException e) {
+				this.disconnect();
+				throw this.closedUnder(e);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public SOSPFPacket exchange(SOSPFPacket packet) throws IOException {
+		this.lock.lock();
+		try {
+			long start = System.nanoTime();
+			this.send(packet);
+			SOSPFPacket response;
+			try {
+				response = this.receive();
+			} catch (IOException e) {
+				this.metrics.of(packet.getMessageType()).recordFailure();
+				throw e;
+			}
+			this.metrics.of(packet.getMessageType()).recordRoundTrip(System.nanoTime() - start);
+			return response;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		Socket socket = this.socket;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing left to do with it anyway
+			}
+		}
+	}
+
+	/**
+	 * @return a ClosedChannelException in place of e if the session was
+	 *         closed under the message that failed, e otherwise
+	 */
+	private IOException closedUnder(IOException e) {
+		if (!this.closed) {
+			return e;
+		}
+		ClosedChannelException closed = new ClosedChannelException();
+		closed.initCause(e);
+		return closed;
+	}
+
+	/**
+	 * Drops the socket after a failure, leaving the session to open a new one
+	 * for the next message
+	 */
+	private void disconnect() {
+		this.lock.lock();
+		try {
+			if (this.socket != null) {
+				try {
+					// closing the socket closes its streams as well
+					this.socket.close();
+				} catch (IOException e) {
+					// nothing left to do with it anyway
+				}
+			}
+			this.socket = null;
+			this.os = null;
+			this.is = null;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		Socket socket = this.socket;
+		return socket != null && !socket.isClosed();
+	}
+
+	@Override
+	public void lock() {
+		this.lock.lock();
+	}
+
+	@Override
+	public void unlock() {
+		this.lock.unlock();
+	}
+
+	@Override
+	public RouterDescription getDest() {
+		return dest;
+	}
+}
@@ -0,0 +1,55 @@
+package socs.network.node;
+
+import socs.network.util.ThreadMode;
+
+/**
+ * Sends protocol messages over TCP sockets. The server is either a
+ * MasterServerThread, servicing each connection on a thread of its own, or a
+ * SelectorServerThread, servicing every connection from a single event loop
+ * and handling their packets on a pool of threads (or on the loop itself).
+ *
+ * @author kstricks
+ *
+ */
+public class TcpTransport implements Transport {
+
+	private final String serverMode;
+	private final ThreadMode threadMode;
+	private final int handlerThreads;
+
+	/**
+	 * @param serverMode
+	 *            - "blocking" or "selector"
+	 * @param threadMode
+	 *            - the threads a server handles packets on
+	 * @param handlerThreads
+	 *            - how many threads a selector server handles packets on, in
+	 *            PLATFORM mode, or 0 to handle them on its event loop
+	 * @throws IllegalArgumentException
+	 *             if there is no such server mode
+	 */
+	public TcpTransport(String serverMode, ThreadMode threadMode, int handlerThreads) {
+		if (!serverMode.equals("blocking") && !serverMode.equals("selector")) {
+			throw new IllegalArgumentException("unknown server mode '" + serverMode
+					+ "'; socs.network.router.server must be 'blocking' or 'selector'");
+		}
+		this.serverMode = serverMode;
+		this.threadMode = threadMode;
+		this.handlerThreads = handlerThreads;
+	}
+
+	@Override
+	public Server newServer(Router router) {
+		int port = router.getRd().getProcessPortNumber();
+		if (this.serverMode.equals("selector")) {
+			return new SelectorServerThread(router, port, this.handlerThreads == 0 ? null
+					: this.threadMode.newExecutor("ServerHandler", this.handlerThreads));
+		}
+		return new MasterServerThread(router, port, this.threadMode.newThreadFactory("ServerThread", false));
+	}
+
+	@Override
+	public Session newSession(RouterDescription dest, RouterMetrics metrics) {
+		return new TcpSession(dest, metrics);
+	}
+}
@@ -0,0 +1,35 @@
+package socs.network.node;
+
+/**
+ * How a router's protocol messages get to other routers. A transport makes the
+ * server a router listens with, and the sessions it opens to its neighbors;
+ * ClientThread and RequestHandler sit on top of them and don't care which
+ * transport is underneath.
+ *
+ * TcpTransport sends packets over sockets, between routers anywhere.
+ * InMemoryTransport hands them through queues between routers in the same
+ * JVM, without going near the network stack.
+ *
+ * @author kstricks
+ *
+ */
+public interface Transport {
+
+	/**
+	 * @param router
+	 *            - the router whose requests the server should handle
+	 * @return a server for the router, listening at its process ip and port
+	 *         once started
+	 */
+	Server newServer(Router router);
+
+	/**
+	 * @param dest
+	 *            - the router at the other end
+	 * @param metrics
+	 *            - where the session counts the messages it sends and
+	 *            receives
+	 * @return a session to it, which opens the connection when first used
+	 */
+	Session newSession(RouterDescription dest, RouterMetrics metrics);
+}
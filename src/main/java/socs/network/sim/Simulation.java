@@ -0,0 +1,337 @@
+package socs.network.sim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import socs.network.message.RouterId;
+import socs.network.node.Link;
+import socs.network.node.Router;
+import socs.network.util.Configuration;
+
+/**
+ * Runs a whole network of routers in one JVM, to see how long the network
+ * takes to converge: that is, until every router's link state database holds
+ * the latest LSA of every other router. The routers talk to each other over
+ * loopback sockets, or through memory with the memory transport.
+ *
+ * The routers are real Routers, driven through the same commands as the
+ * terminal. Each gets its own port on 127.0.0.1, counting up from a base port.
+ * A simulation goes through its phases in order: launch (create the routers
+ * and wait for their servers to listen), attach (attach every link of the
+ * topology and wait for both ends to have it), start (start every router),
+ * then awaitConvergence, and finally shutdown.
+ *
+ * Every router gets the same settings (any of the socs.network.router.* keys
+ * a config file could have, apart from its ips and port). Unless told
+ * otherwise, routers use the selector server, so that thousands of them fit
+ * in one JVM without a thread for every session, and have as many ports as
+ * the busiest router in the topology needs.
+ *
+ * @author kstricks
+ *
+ */
+public class Simulation {
+
+	// how long to sleep between checks on the network
+	private static final long POLL_INTERVAL_MS = 20;
+
+	private final TopologyDescription topology;
+	private final Map<String, String> settings;
+	private final int basePort;
+
+	// simulated ip => router, in the order the topology declares them
+	private final LinkedHashMap<String, Router> routers = new LinkedHashMap<String, Router>();
+
+	// the routers as a list, in the same order
+	private final ArrayList<Router> routerList = new ArrayList<Router>();
+
+	// for each router, how many of the routers (in order) it is known to have
+	// the latest LSA of. once a router has an LSA it keeps it (or a newer
+	// one), so convergence checks pick up where the last one left off
+	private int[] converged;
+
+	/**
+	 * @param topology
+	 *            - the network to build
+	 * @param settings
+	 *            - the settings to give every router, plus
+	 *            socs.network.sim.base_port for the port of the first router
+	 *            (20000 by default)
+	 */
+	public Simulation(TopologyDescription topology, Map<String, String> settings) {
+		this.topology = topology;
+		this.settings = new HashMap<String, String>(settings);
+		if (!this.settings.containsKey("socs.network.router.server")) {
+			this.settings.put("socs.network.router.server", "selector");
+		}
+		if (!this.settings.containsKey("socs.network.router.ports")) {
+			this.settings.put("socs.network.router.ports", Integer.toString(Math.max(4, topology.getMaxDegree())));
+		}
+		this.basePort = this.settings.containsKey("socs.network.sim.base_port")
+				? Integer.parseInt(this.settings.remove("socs.network.sim.base_port")) : 20000;
+		if (this.basePort + topology.size() - 1 > 65535) {
+			throw new IllegalArgumentException(topology.size() + " routers don't fit in the ports from "
+					+ this.basePort + "; use a lower socs.network.sim.base_port");
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// PHASES
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Creates a router for each one in the topology and waits until they are
+	 * all listening for connections
+	 *
+	 * @throws TimeoutException
+	 *             if they aren't all listening within the timeout
+	 */
+	public void launch(long timeoutMillis) throws TimeoutException, InterruptedException {
+		int port = this.basePort;
+		for (String ip : this.topology.getRouterIps()) {
+			Configuration config = new Configuration();
+			for (Map.Entry<String, String> setting : this.settings.entrySet()) {
+				config.addEntry(setting.getKey(), setting.getValue());
+			}
+			config.addEntry("socs.network.router.actual_ip", "127.0.0.1");
+			config.addEntry("socs.network.router.port", Integer.toString(port++));
+			config.addEntry("socs.network.router.simulated_ip", ip);
+			Router router = new Router(config);
+			this.routers.put(ip, router);
+			this.routerList.add(router);
+		}
+		this.converged = new int[this.routerList.size()];
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Router router : this.routerList) {
+			while (!router.getServer().isListening()) {
+				sleepUntil(deadline, "for routers to start listening");
+			}
+		}
+	}
+
+	/**
+	 * Attaches every link in the topology, and waits until the routers at
+	 * both ends have added it
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a router has more links than ports
+	 * @throws TimeoutException
+	 *             if the links aren't all added within the timeout
+	 */
+	public void attach(long timeoutMillis) throws TimeoutException, InterruptedException {
+		int ports = this.routerList.isEmpty() ? 0 : this.routerList.get(0).getPorts().length;
+		if (this.topology.getMaxDegree() > ports) {
+			throw new IllegalArgumentException("a router in the topology has " + this.topology.getMaxDegree()
+					+ " links, but routers only have " + ports + " ports");
+		}
+
+		for (TopologyDescription.Link link : this.topology.getLinks()) {
+			Router b = this.routers.get(link.getIpB());
+			this.routers.get(link.getIpA()).execute("attach 127.0.0.1 " + b.getRd().getProcessPortNumber() + " "
+					+ link.getIpB() + " " + link.getWeight());
+		}
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (String ip : this.topology.getRouterIps()) {
+			Router router = this.routers.get(ip);
+			int degree = this.topology.getNeighbors(ip).size();
+			while (countLinks(router) < degree) {
+				sleepUntil(deadline, "for links to be attached");
+			}
+		}
+	}
+
+	/**
+	 * Starts every router, which sets off the handshakes and floods that the
+	 * network converges through
+	 */
+	public void start() {
+		for (Router router : this.routerList) {
+			router.execute("start");
+		}
+	}
+
+	/**
+	 * Waits for the network to converge
+	 *
+	 * @return true if it converged within the timeout
+	 */
+	public boolean awaitConvergence(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!this.isConverged()) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			Thread.sleep(POLL_INTERVAL_MS);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if every router has the latest LSA of every router
+	 */
+	public boolean isConverged() {
+		int n = this.routerList.size();
+		// the latest LSA of each router is the one in its own database
+		int[] latest = new int[n];
+		RouterId[] origins = new RouterId[n];
+		for (int j = 0; j < n; j++) {
+			Router origin = this.routerList.get(j);
+			origins[j] = origin.getRd().getSimulatedIPAddress();
+			latest[j] = origin.getLsd().getLsaSeqNumber(origins[j]);
+		}
+		for (int i = 0; i < n; i++) {
+			Router router = this.routerList.get(i);
+			while (this.converged[i] < n) {
+				int j = this.converged[i];
+				if (router.getLsd().getLsaSeqNumber(origins[j]) < latest[j]) {
+					return false;
+				}
+				this.converged[i]++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops every router and closes their sessions. They are all stopped
+	 * before any session is closed, so that no router takes a neighbor's
+	 * closed session for a failure.
+	 */
+	public void shutdown() {
+		for (Router router : this.routerList) {
+			router.stop();
+		}
+		for (Router router : this.routerList) {
+			router.shutdown();
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// HELPERS
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+	private static int countLinks(Router router) {
+		int count = 0;
+		for (Link l : router.getPorts()) {
+			if (l != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void sleepUntil(long deadline, String waitingFor) throws TimeoutException, InterruptedException {
+		if (System.currentTimeMillis() >= deadline) {
+			throw new TimeoutException("timed out waiting " + waitingFor);
+		}
+		Thread.sleep(POLL_INTERVAL_MS);
+	}
+
+	/**
+	 * @return the router with the given simulated ip, or null if there isn't
+	 *         one
+	 */
+	public Router getRouter(String ip) {
+		return this.routers.get(ip);
+	}
+
+	public List<Router> getRouters() {
+		return routerList;
+	}
+
+	/**
+	 * @return how many duplicate LSAs the routers have dropped between them
+	 */
+	public long getSuppressedLsas() {
+		long suppressed = 0;
+		for (Router router : this.routerList) {
+			suppressed += router.getSeenLsas().getSuppressed();
+		}
+		return suppressed;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// COMMAND LINE
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Runs a simulation and reports how long each phase took. The routers'
+	 * own output is discarded, as there is far too much of it to read; errors
+	 * still go to stderr.
+	 *
+	 * usage: topology_file [key=value ...], where each key=value is a setting
+	 * for every router, or socs.network.sim.base_port, or
+	 * socs.network.sim.timeout (the seconds to allow each phase, 300 by
+	 * default)
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.out.println("usage: program topology_file [key=value ...]");
+			System.exit(1);
+		}
+		TopologyDescription topology = TopologyDescription.read(args[0]);
+		HashMap<String, String> settings = new HashMap<String, String>();
+		for (int i = 1; i < args.length; i++) {
+			int equals = args[i].indexOf('=');
+			if (equals < 0) {
+				System.out.println("expected key=value but got '" + args[i] + "'");
+				System.exit(1);
+			}
+			settings.put(args[i].substring(0, equals), args[i].substring(equals + 1));
+		}
+		String timeout = settings.remove("socs.network.sim.timeout");
+		long timeoutMillis = (timeout == null ? 300 : Long.parseLong(timeout)) * 1000L;
+
+		PrintStream report = System.out;
+		report.println(topology.size() + " routers, " + topology.getLinks().size() + " links");
+		Simulation sim = new Simulation(topology, settings);
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+		int status = 0;
+		try {
+			long launched = System.nanoTime();
+			sim.launch(timeoutMillis);
+			long attached = System.nanoTime();
+			report.println("launch:      " + millisBetween(launched, attached) + " ms");
+			sim.attach(timeoutMillis);
+			long started = System.nanoTime();
+			report.println("attach:      " + millisBetween(attached, started) + " ms");
+			sim.start();
+			if (sim.awaitConvergence(timeoutMillis)) {
+				report.println("convergence: " + millisBetween(started, System.nanoTime()) + " ms");
+			} else {
+				report.println("convergence: not reached within " + timeoutMillis / 1000 + " s");
+				status = 2;
+			}
+			report.println("duplicate LSAs suppressed: " + sim.getSuppressedLsas());
+		} catch (TimeoutException e) {
+			report.println(e.getMessage());
+			status = 2;
+		} finally {
+			sim.shutdown();
+			System.setOut(report);
+		}
+		System.exit(status);
+	}
+
+	private static long millisBetween(long startNanos, long endNanos) {
+		return (endNanos - startNanos) / 1000000;
+	}
+}
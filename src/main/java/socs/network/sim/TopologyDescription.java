@@ -0,0 +1,257 @@
+package socs.network.sim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import socs.network.message.RouterId;
+
+/**
+ * The network a simulation builds: its routers, named by simulated ip, and
+ * the weighted links between them. Read from a file of one declaration per
+ * line:
+ *
+ * <pre>
+ * # a comment
+ * router 192.168.1.1
+ * router 192.168.1.2
+ * link 192.168.1.1 192.168.1.2 3
+ * ring 100
+ * grid 30 40
+ * </pre>
+ *
+ * A link's routers must have been declared on an earlier line. "ring n" and
+ * "grid rows cols" add n (or rows * cols) routers at once, at 10.x.y.z
+ * addresses numbered on from the last ones generated, linked in a ring or a
+ * grid with weight 1, for networks too big to write out by hand.
+ *
+ * @author kstricks
+ *
+ */
+public class TopologyDescription {
+
+	// simulated ip => the routers it is linked to, in declaration order
+	private final LinkedHashMap<String, List<String>> routers = new LinkedHashMap<String, List<String>>();
+	private final ArrayList<Link> links = new ArrayList<Link>();
+
+	// how many routers ring and grid have generated so far
+	private int generated;
+
+	/**
+	 * A link between two routers
+	 */
+	public static class Link {
+		private final String ipA;
+		private final String ipB;
+		private final short weight;
+
+		public Link(String ipA, String ipB, short weight) {
+			this.ipA = ipA;
+			this.ipB = ipB;
+			this.weight = weight;
+		}
+
+		public String getIpA() {
+			return ipA;
+		}
+
+		public String getIpB() {
+			return ipB;
+		}
+
+		public short getWeight() {
+			return weight;
+		}
+	}
+
+	/**
+	 * Reads a description from a file
+	 *
+	 * @param path
+	 * @throws IOException
+	 *             if the file can't be read
+	 * @throws IllegalArgumentException
+	 *             if a line isn't a valid declaration
+	 */
+	public static TopologyDescription read(String path) throws IOException {
+		TopologyDescription topology = new TopologyDescription();
+		try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				try {
+					topology.declare(line);
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		return topology;
+	}
+
+	/**
+	 * Adds whatever a line of a description file declares
+	 *
+	 * @param line
+	 *            - e.g. "link 192.168.1.1 192.168.1.2 3"
+	 */
+	public void declare(String line) {
+		int comment = line.indexOf('#');
+		if (comment >= 0) {
+			line = line.substring(0, comment);
+		}
+		String[] words = line.trim().split("\\s+");
+		if (words[0].isEmpty()) {
+			return;
+		}
+		if (words[0].equals("router") && words.length == 2) {
+			this.addRouter(words[1]);
+		} else if (words[0].equals("link") && words.length == 4) {
+			this.addLink(words[1], words[2], parseWeight(words[3]));
+		} else if (words[0].equals("ring") && words.length == 2) {
+			this.addRing(parseCount(words[1]));
+		} else if (words[0].equals("grid") && words.length == 3) {
+			this.addGrid(parseCount(words[1]), parseCount(words[2]));
+		} else {
+			throw new IllegalArgumentException("expected 'router <ip>', 'link <ip> <ip> <weight>', 'ring <n>' or "
+					+ "'grid <rows> <cols>' but got '" + line.trim() + "'");
+		}
+	}
+
+	/**
+	 * @param ip
+	 *            - the new router's simulated ip
+	 */
+	public void addRouter(String ip) {
+		// routers are told their ips as text, but they must parse
+		RouterId.parse(ip);
+		if (this.routers.containsKey(ip)) {
+			throw new IllegalArgumentException("router " + ip + " is declared twice");
+		}
+		this.routers.put(ip, new ArrayList<String>(4));
+	}
+
+	/**
+	 * Links two routers that have already been added
+	 */
+	public void addLink(String ipA, String ipB, short weight) {
+		List<String> neighborsOfA = this.routers.get(ipA);
+		List<String> neighborsOfB = this.routers.get(ipB);
+		if (neighborsOfA == null || neighborsOfB == null) {
+			throw new IllegalArgumentException(
+					"no router " + (neighborsOfA == null ? ipA : ipB) + " has been declared to link to");
+		}
+		if (ipA.equals(ipB)) {
+			throw new IllegalArgumentException("router " + ipA + " can't be linked to itself");
+		}
+		if (neighborsOfA.contains(ipB)) {
+			throw new IllegalArgumentException("routers " + ipA + " and " + ipB + " are linked twice");
+		}
+		neighborsOfA.add(ipB);
+		neighborsOfB.add(ipA);
+		this.links.add(new Link(ipA, ipB, weight));
+	}
+
+	/**
+	 * Adds n new routers, each linked to the next and the last to the first
+	 */
+	public void addRing(int n) {
+		String[] ips = this.generate(n);
+		if (n == 2) {
+			// a ring of two is a single link
+			this.addLink(ips[0], ips[1], (short) 1);
+		} else if (n > 2) {
+			for (int i = 0; i < n; i++) {
+				this.addLink(ips[i], ips[(i + 1) % n], (short) 1);
+			}
+		}
+	}
+
+	/**
+	 * Adds rows * cols new routers, each linked to the ones above, below, left
+	 * and right of it
+	 */
+	public void addGrid(int rows, int cols) {
+		String[] ips = this.generate(rows * cols);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				if (c + 1 < cols) {
+					this.addLink(ips[r * cols + c], ips[r * cols + c + 1], (short) 1);
+				}
+				if (r + 1 < rows) {
+					this.addLink(ips[r * cols + c], ips[(r + 1) * cols + c], (short) 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds n routers at the next generated addresses
+	 */
+	private String[] generate(int n) {
+		String[] ips = new String[n];
+		for (int i = 0; i < n; i++) {
+			int k = this.generated++;
+			ips[i] = "10." + ((k >> 16) & 0xff) + "." + ((k >> 8) & 0xff) + "." + (k & 0xff);
+			this.addRouter(ips[i]);
+		}
+		return ips;
+	}
+
+	private static short parseWeight(String word) {
+		try {
+			return Short.parseShort(word);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("'" + word + "' is not a link weight");
+		}
+	}
+
+	private static int parseCount(String word) {
+		try {
+			int count = Integer.parseInt(word);
+			if (count > 0) {
+				return count;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("'" + word + "' is not a positive number of routers");
+	}
+
+	/**
+	 * @return the simulated ips of the routers, in the order they were added
+	 */
+	public List<String> getRouterIps() {
+		return new ArrayList<String>(this.routers.keySet());
+	}
+
+	/**
+	 * @return the simulated ips of the routers linked to the given one
+	 */
+	public List<String> getNeighbors(String ip) {
+		return this.routers.get(ip);
+	}
+
+	public List<Link> getLinks() {
+		return links;
+	}
+
+	public int size() {
+		return this.routers.size();
+	}
+
+	/**
+	 * @return the most links any one router has
+	 */
+	public int getMaxDegree() {
+		int max = 0;
+		for (List<String> neighbors : this.routers.values()) {
+			max = Math.max(max, neighbors.size());
+		}
+		return max;
+	}
+}
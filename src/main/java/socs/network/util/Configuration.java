@@ -10,6 +10,14 @@ public class Configuration {
 
 	private Config _config = null;
 
+	/**
+	 * An empty configuration, for filling in with addEntry rather than reading
+	 * from a file
+	 */
+	public Configuration() {
+		_config = ConfigFactory.empty();
+	}
+
 	public Configuration(String path) {
 		// create a Config file by parsing the config file
 		_config = ConfigFactory.parseFile(new File(path));
@@ -19,6 +27,10 @@ public class Configuration {
 		return _config.getString(key);
 	}
 
+	public String getString(String key, String defaultValue) {
+		return _config.hasPath(key) ? _config.getString(key) : defaultValue;
+	}
+
 	public Boolean getBoolean(String key) {
 		return _config.getBoolean(key);
 	}
@@ -27,6 +39,10 @@ public class Configuration {
 		return _config.getInt(key);
 	}
 
+	public int getInt(String key, int defaultValue) {
+		return _config.hasPath(key) ? _config.getInt(key) : defaultValue;
+	}
+
 	public short getShort(String key) {
 		return (short) _config.getInt(key);
 	}
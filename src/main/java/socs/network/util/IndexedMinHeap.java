@@ -0,0 +1,140 @@
+package socs.network.util;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the ints 0..capacity-1, each with an int key, that
+ * knows where every element sits so that an element's key can be lowered in
+ * place (decrease-key) rather than by inserting a duplicate. Once allocated it
+ * never allocates again unless it has to grow.
+ *
+ * @author kstricks
+ *
+ */
+public class IndexedMinHeap {
+
+	private int[] heap; // the elements, in heap order
+	private int[] keys; // element => key
+	private int[] positions; // element => index in heap, or -1 if absent
+	private int size;
+
+	public IndexedMinHeap(int capacity) {
+		this.heap = new int[capacity];
+		this.keys = new int[capacity];
+		this.positions = new int[capacity];
+		Arrays.fill(this.positions, -1);
+	}
+
+	/**
+	 * Makes room for the elements 0..capacity-1, keeping what is in the heap
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > this.positions.length) {
+			int old = this.positions.length;
+			int grown = Math.max(capacity, old + (old >> 1));
+			this.heap = Arrays.copyOf(this.heap, grown);
+			this.keys = Arrays.copyOf(this.keys, grown);
+			this.positions = Arrays.copyOf(this.positions, grown);
+			Arrays.fill(this.positions, old, grown, -1);
+		}
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public boolean contains(int element) {
+		return this.positions[element] >= 0;
+	}
+
+	/**
+	 * Adds the element with the given key, or lowers its key if it is already
+	 * in the heap with a higher one
+	 *
+	 * @return true if the heap changed
+	 */
+	public boolean offer(int element, int key) {
+		int i = this.positions[element];
+		if (i < 0) {
+			i = this.size++;
+			this.heap[i] = element;
+			this.positions[element] = i;
+		} else if (key >= this.keys[element]) {
+			return false;
+		}
+		this.keys[element] = key;
+		this.siftUp(i);
+		return true;
+	}
+
+	/**
+	 * @return the key of the element at the top of the heap
+	 */
+	public int peekKey() {
+		return this.keys[this.heap[0]];
+	}
+
+	/**
+	 * Removes the element with the lowest key
+	 *
+	 * @return the element
+	 */
+	public int poll() {
+		int top = this.heap[0];
+		this.positions[top] = -1;
+		int last = this.heap[--this.size];
+		if (this.size > 0) {
+			this.heap[0] = last;
+			this.positions[last] = 0;
+			this.siftDown(0);
+		}
+		return top;
+	}
+
+	public void clear() {
+		for (int i = 0; i < this.size; i++) {
+			this.positions[this.heap[i]] = -1;
+		}
+		this.size = 0;
+	}
+
+	private void siftUp(int i) {
+		int element = this.heap[i];
+		int key = this.keys[element];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			int p = this.heap[parent];
+			if (this.keys[p] <= key) {
+				break;
+			}
+			this.heap[i] = p;
+			this.positions[p] = i;
+			i = parent;
+		}
+		this.heap[i] = element;
+		this.positions[element] = i;
+	}
+
+	private void siftDown(int i) {
+		int element = this.heap[i];
+		int key = this.keys[element];
+		int half = this.size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int c = this.heap[child];
+			int right = child + 1;
+			if (right < this.size && this.keys[this.heap[right]] < this.keys[c]) {
+				child = right;
+				c = this.heap[child];
+			}
+			if (key <= this.keys[c]) {
+				break;
+			}
+			this.heap[i] = c;
+			this.positions[c] = i;
+			i = child;
+		}
+		this.heap[i] = element;
+		this.positions[element] = i;
+	}
+}
@@ -0,0 +1,341 @@
+package socs.network.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable hash map. Adding to it makes a new map that shares all but a
+ * handful of nodes with the old one, so a writer can keep publishing new
+ * versions for readers that never need a lock, without copying the whole map
+ * each time.
+ *
+ * It is a hash array mapped trie: each level of the trie takes the next 5
+ * bits of a key's hash to pick one of 32 slots, and only the slots in use are
+ * stored, packed together in an array and found through a bitmap. Adding a
+ * key copies just the nodes on the way down to it. Keys whose hashes are
+ * equal all the way down end up together in a node that is searched in
+ * order.
+ *
+ * The usual Map methods that would change the map throw
+ * UnsupportedOperationException; use with and without instead.
+ *
+ * @author kstricks
+ *
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	// levels at shifts 0, 5, ..., 30 use the hash, and one more holds
+	// collisions
+	private static final int MAX_DEPTH = 8;
+
+	private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<Object, Object>(
+			new Node(0, new Object[0]), 0);
+
+	private final Node root;
+	private final int size;
+
+	private PersistentHashMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * @return the map with nothing in it
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentHashMap<K, V> empty() {
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+
+	/**
+	 * @return a map with the same entries as this one, except that key maps to
+	 *         value. This map is left as it was.
+	 */
+	public PersistentHashMap<K, V> with(K key, V value) {
+		boolean[] added = new boolean[1];
+		Node root = this.root.with(new SimpleImmutableEntry<K, V>(key, value), hash(key), 0, added);
+		return new PersistentHashMap<K, V>(root, added[0] ? this.size + 1 : this.size);
+	}
+
+	/**
+	 * @return a map with the same entries as this one, except that key isn't
+	 *         in it. This map is left as it was, and is what is returned if
+	 *         key isn't in it either.
+	 */
+	public PersistentHashMap<K, V> without(Object key) {
+		Node root = this.root.without(key, hash(key), 0);
+		if (root == this.root) {
+			return this;
+		}
+		return new PersistentHashMap<K, V>(root == null ? EMPTY.root : root, this.size - 1);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		Map.Entry<K, V> entry = (Map.Entry<K, V>) this.root.find(key, hash(key), 0);
+		return entry == null ? null : entry.getValue();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return this.root.find(key, hash(key), 0) != null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator<K, V>(PersistentHashMap.this.root);
+			}
+
+			@Override
+			public int size() {
+				return PersistentHashMap.this.size;
+			}
+		};
+	}
+
+	private static int hash(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		// mix the high bits in, as the first levels only look at the low ones
+		return h ^ (h >>> 16);
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// THE TRIE
+	/////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * A node of the trie. Each of its slots holds either an entry or the node
+	 * below. Past the last level of the hash, bitmap is unused and the slots
+	 * are just the entries whose hashes collide.
+	 */
+	private static final class Node {
+		private final int bitmap;
+		private final Object[] slots;
+
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		/**
+		 * @return the entry for key, or null if there isn't one
+		 */
+		Map.Entry<?, ?> find(Object key, int hash, int shift) {
+			Node node = this;
+			while (shift < Integer.SIZE) {
+				int bit = 1 << ((hash >>> shift) & MASK);
+				if ((node.bitmap & bit) == 0) {
+					return null;
+				}
+				Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+				if (!(slot instanceof Node)) {
+					Map.Entry<?, ?> entry = (Map.Entry<?, ?>) slot;
+					return eq(key, entry.getKey()) ? entry : null;
+				}
+				node = (Node) slot;
+				shift += BITS;
+			}
+			for (Object slot : node.slots) {
+				if (eq(key, ((Map.Entry<?, ?>) slot).getKey())) {
+					return (Map.Entry<?, ?>) slot;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @param added
+		 *            - set to true if the entry's key wasn't already in the
+		 *            node
+		 * @return a copy of this node with the entry in it
+		 */
+		Node with(Map.Entry<?, ?> entry, int hash, int shift, boolean[] added) {
+			if (shift >= Integer.SIZE) {
+				for (int i = 0; i < this.slots.length; i++) {
+					if (eq(entry.getKey(), ((Map.Entry<?, ?>) this.slots[i]).getKey())) {
+						return new Node(0, replace(this.slots, i, entry));
+					}
+				}
+				added[0] = true;
+				return new Node(0, insert(this.slots, this.slots.length, entry));
+			}
+
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int index = Integer.bitCount(this.bitmap & (bit - 1));
+			if ((this.bitmap & bit) == 0) {
+				added[0] = true;
+				return new Node(this.bitmap | bit, insert(this.slots, index, entry));
+			}
+
+			Object slot = this.slots[index];
+			if (slot instanceof Node) {
+				Node child = ((Node) slot).with(entry, hash, shift + BITS, added);
+				return new Node(this.bitmap, replace(this.slots, index, child));
+			}
+			Map.Entry<?, ?> existing = (Map.Entry<?, ?>) slot;
+			if (eq(entry.getKey(), existing.getKey())) {
+				return new Node(this.bitmap, replace(this.slots, index, entry));
+			}
+			// two keys share this slot now, so they move down a level
+			added[0] = true;
+			Node pair = pair(existing, hash(existing.getKey()), entry, hash, shift + BITS);
+			return new Node(this.bitmap, replace(this.slots, index, pair));
+		}
+
+		/**
+		 * @return a copy of this node without the key's entry, this node if
+		 *         it has no entry for the key, or null if the entry was all it
+		 *         had. A node left with just one entry and nothing below is
+		 *         replaced by that entry in its parent, so that the trie
+		 *         looks the same as if the key had never been added.
+		 */
+		Node without(Object key, int hash, int shift) {
+			if (shift >= Integer.SIZE) {
+				for (int i = 0; i < this.slots.length; i++) {
+					if (eq(key, ((Map.Entry<?, ?>) this.slots[i]).getKey())) {
+						return this.slots.length == 1 ? null : new Node(0, remove(this.slots, i));
+					}
+				}
+				return this;
+			}
+
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((this.bitmap & bit) == 0) {
+				return this;
+			}
+			int index = Integer.bitCount(this.bitmap & (bit - 1));
+			Object slot = this.slots[index];
+			if (slot instanceof Node) {
+				Node child = ((Node) slot).without(key, hash, shift + BITS);
+				if (child == slot) {
+					return this;
+				}
+				if (child == null) {
+					return this.slots.length == 1 ? null : new Node(this.bitmap & ~bit, remove(this.slots, index));
+				}
+				if (child.slots.length == 1 && !(child.slots[0] instanceof Node)) {
+					return new Node(this.bitmap, replace(this.slots, index, child.slots[0]));
+				}
+				return new Node(this.bitmap, replace(this.slots, index, child));
+			}
+			if (!eq(key, ((Map.Entry<?, ?>) slot).getKey())) {
+				return this;
+			}
+			return this.slots.length == 1 ? null : new Node(this.bitmap & ~bit, remove(this.slots, index));
+		}
+
+		/**
+		 * @return a node holding just the two entries, as deep as it takes to
+		 *         tell their hashes apart
+		 */
+		private static Node pair(Map.Entry<?, ?> a, int hashA, Map.Entry<?, ?> b, int hashB, int shift) {
+			if (shift >= Integer.SIZE) {
+				return new Node(0, new Object[] { a, b });
+			}
+			int indexA = (hashA >>> shift) & MASK;
+			int indexB = (hashB >>> shift) & MASK;
+			if (indexA == indexB) {
+				return new Node(1 << indexA, new Object[] { pair(a, hashA, b, hashB, shift + BITS) });
+			}
+			return new Node((1 << indexA) | (1 << indexB), indexA < indexB ? new Object[] { a, b }
+					: new Object[] { b, a });
+		}
+
+		private static Object[] insert(Object[] slots, int index, Object slot) {
+			Object[] copy = new Object[slots.length + 1];
+			System.arraycopy(slots, 0, copy, 0, index);
+			copy[index] = slot;
+			System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+			return copy;
+		}
+
+		private static Object[] remove(Object[] slots, int index) {
+			Object[] copy = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, copy, 0, index);
+			System.arraycopy(slots, index + 1, copy, index, copy.length - index);
+			return copy;
+		}
+
+		private static Object[] replace(Object[] slots, int index, Object slot) {
+			Object[] copy = slots.clone();
+			copy[index] = slot;
+			return copy;
+		}
+
+		private static boolean eq(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	/**
+	 * Walks the trie depth first, keeping its place with a stack of the
+	 * nodes' slots
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+		private final Object[][] slots = new Object[MAX_DEPTH][];
+		private final int[] positions = new int[MAX_DEPTH];
+		private int depth;
+		private Map.Entry<K, V> next;
+
+		EntryIterator(Node root) {
+			this.slots[0] = root.slots;
+			this.advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			this.next = null;
+			while (this.depth >= 0) {
+				if (this.positions[this.depth] == this.slots[this.depth].length) {
+					this.depth--;
+					continue;
+				}
+				Object slot = this.slots[this.depth][this.positions[this.depth]++];
+				if (slot instanceof Node) {
+					this.depth++;
+					this.slots[this.depth] = ((Node) slot).slots;
+					this.positions[this.depth] = 0;
+				} else {
+					this.next = (Map.Entry<K, V>) slot;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (this.next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<K, V> entry = this.next;
+			this.advance();
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package socs.network.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps IPv4 prefixes to int values, for finding the longest prefix that
+ * contains an address.
+ *
+ * It is a binary trie over the bits of the address with the paths
+ * compressed: a node is only made where a prefix ends or where two prefixes
+ * part ways, and each node holds the whole prefix it stands for, so a lookup
+ * visits at most one node per prefix on the way to the answer rather than one
+ * per bit. The nodes are packed one after another in a single int array
+ * rather than being objects, so a lookup allocates nothing, and each node it
+ * visits costs it one cache miss rather than one per field.
+ *
+ * Lookups may run on any number of threads once the trie is filled in and
+ * safely published, but put must not run alongside them.
+ *
+ * @author kstricks
+ *
+ */
+public final class PrefixTrie {
+
+	// what lookup returns when no prefix contains the address
+	public static final int NONE = -1;
+
+	// a node is NODE_SIZE ints starting at its offset in nodes: the prefix
+	// it stands for (BITS and LENGTH), the value of the prefix that was put
+	// there (VALUE, NONE if none was), and its children by the next bit
+	// (CHILD + 0 and CHILD + 1, 0 if there is none; the root is at 0 and is
+	// nobody's child)
+	private static final int BITS = 0;
+	private static final int LENGTH = 1;
+	private static final int VALUE = 2;
+	private static final int CHILD = 3;
+	private static final int NODE_SIZE = 5;
+
+	private int[] nodes = new int[16 * NODE_SIZE];
+	private int used;
+
+	private int size;
+
+	public PrefixTrie() {
+		this.newNode(0, 0, NONE);
+	}
+
+	/**
+	 * Makes a trie with the same prefixes as another, which changing either
+	 * afterwards doesn't affect
+	 */
+	public PrefixTrie(PrefixTrie other) {
+		this.nodes = Arrays.copyOf(other.nodes, other.used);
+		this.used = other.used;
+		this.size = other.size;
+	}
+
+	/**
+	 * Maps a prefix to value, replacing what it was mapped to before
+	 *
+	 * @param address
+	 *            - the prefix's address, most significant byte first. the
+	 *            bits past length are ignored
+	 * @param length
+	 *            - the prefix length, 0 to 32
+	 * @param value
+	 *            - anything but NONE
+	 */
+	public void put(int address, int length, int value) {
+		if (length < 0 || length > 32) {
+			throw new IllegalArgumentException("prefix length must be 0 to 32, not " + length);
+		}
+		if (value == NONE) {
+			throw new IllegalArgumentException("can't map a prefix to NONE");
+		}
+		address &= mask(length);
+		int node = 0;
+		while (true) {
+			// the node's prefix is a prefix of the one being put
+			if (this.nodes[node + LENGTH] == length) {
+				if (this.nodes[node + VALUE] == NONE) {
+					this.size++;
+				}
+				this.nodes[node + VALUE] = value;
+				return;
+			}
+			int slot = node + CHILD + bitAt(address, this.nodes[node + LENGTH]);
+			int child = this.nodes[slot];
+			if (child == 0) {
+				// made before the array is indexed, as it may grow
+				int leaf = this.newNode(address, length, value);
+				this.nodes[slot] = leaf;
+				this.size++;
+				return;
+			}
+			int childLength = this.nodes[child + LENGTH];
+			int common = commonLength(this.nodes[child + BITS], childLength, address, length);
+			if (common == childLength) {
+				node = child;
+				continue;
+			}
+			// the new prefix parts ways with the child's part way down it, so
+			// a node goes in between them where they do
+			int between;
+			if (common == length) {
+				between = this.newNode(address, length, value);
+			} else {
+				between = this.newNode(address & mask(common), common, NONE);
+				int leaf = this.newNode(address, length, value);
+				this.nodes[between + CHILD + bitAt(address, common)] = leaf;
+			}
+			this.nodes[between + CHILD + bitAt(this.nodes[child + BITS], common)] = child;
+			this.nodes[slot] = between;
+			this.size++;
+			return;
+		}
+	}
+
+	/**
+	 * Unmaps a prefix, so that lookups fall back to the longest prefix
+	 * containing it. Its node is kept, just without a value, as one with
+	 * children still has to be passed through and one without costs nothing
+	 * to leave
+	 *
+	 * @param address
+	 *            - the prefix's address. the bits past length are ignored
+	 * @param length
+	 *            - the prefix length, 0 to 32
+	 */
+	public void remove(int address, int length) {
+		if (length < 0 || length > 32) {
+			throw new IllegalArgumentException("prefix length must be 0 to 32, not " + length);
+		}
+		address &= mask(length);
+		int node = 0;
+		while (this.nodes[node + LENGTH] < length) {
+			int child = this.nodes[node + CHILD + bitAt(address, this.nodes[node + LENGTH])];
+			if (child == 0 || commonLength(this.nodes[child + BITS], this.nodes[child + LENGTH], address,
+					length) < this.nodes[child + LENGTH]) {
+				return;
+			}
+			node = child;
+		}
+		if (this.nodes[node + LENGTH] == length && this.nodes[node + VALUE] != NONE) {
+			this.nodes[node + VALUE] = NONE;
+			this.size--;
+		}
+	}
+
+	/**
+	 * @param address
+	 *            - an IPv4 address, most significant byte first
+	 * @return the value of the longest prefix that contains address, or NONE
+	 *         if none does
+	 */
+	public int lookup(int address) {
+		int[] nodes = this.nodes;
+		int best = nodes[VALUE];
+		int length = 0;
+		int node = 0;
+		while (length < 32) {
+			int child = nodes[node + CHILD + ((address >>> (31 - length)) & 1)];
+			if (child == 0) {
+				break;
+			}
+			length = nodes[child + LENGTH];
+			// a child's prefix is never empty, so its mask is never 0
+			if ((address & (-1 << (32 - length))) != nodes[child + BITS]) {
+				break;
+			}
+			node = child;
+			if (nodes[node + VALUE] != NONE) {
+				best = nodes[node + VALUE];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the number of prefixes in the trie
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the offset of the new node
+	 */
+	private int newNode(int bits, int length, int value) {
+		if (this.used == this.nodes.length) {
+			this.nodes = Arrays.copyOf(this.nodes, this.used * 2);
+		}
+		int node = this.used;
+		this.used += NODE_SIZE;
+		this.nodes[node + BITS] = bits;
+		this.nodes[node + LENGTH] = length;
+		this.nodes[node + VALUE] = value;
+		return node;
+	}
+
+	private static int mask(int length) {
+		return length == 0 ? 0 : -1 << (32 - length);
+	}
+
+	/**
+	 * @return bit i of address, counting from the most significant
+	 */
+	private static int bitAt(int address, int i) {
+		return (address >>> (31 - i)) & 1;
+	}
+
+	/**
+	 * @return how many leading bits two prefixes have in common
+	 */
+	private static int commonLength(int a, int lengthA, int b, int lengthB) {
+		int diff = a ^ b;
+		int same = diff == 0 ? 32 : Integer.numberOfLeadingZeros(diff);
+		return Math.min(same, Math.min(lengthA, lengthB));
+	}
+}
@@ -0,0 +1,141 @@
+package socs.network.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What kind of threads a router runs its blocking socket code on: the
+ * handler for each incoming connection, and each message it sends.
+ *
+ * PLATFORM threads are ordinary OS threads, and outbound messages share a
+ * fixed pool of them. VIRTUAL threads are cheap enough that every connection
+ * handler and every outbound message gets one of its own. They need Java 21,
+ * and are looked up reflectively so the router still builds and runs on older
+ * Java in PLATFORM mode; asking for VIRTUAL on older Java fails as the config
+ * is read, rather than once the router is up.
+ *
+ * @author kstricks
+ *
+ */
+public enum ThreadMode {
+	PLATFORM, VIRTUAL;
+
+	/**
+	 * @param name
+	 *            - the mode as written in a config file, e.g. "virtual"
+	 * @throws IllegalArgumentException
+	 *             if there is no such mode, or it is VIRTUAL and this Java is
+	 *             older than 21
+	 */
+	public static ThreadMode fromName(String name) {
+		for (ThreadMode mode : values()) {
+			if (mode.name().equalsIgnoreCase(name)) {
+				if (!mode.isSupported()) {
+					throw new IllegalArgumentException("socs.network.router.threads is '" + name
+							+ "', but virtual threads need Java 21 or later and this is Java "
+							+ System.getProperty("java.version") + "; use 'platform' instead");
+				}
+				return mode;
+			}
+		}
+		throw new IllegalArgumentException(
+				"unknown thread mode '" + name + "'; socs.network.router.threads must be 'platform' or 'virtual'");
+	}
+
+	/**
+	 * @return false for VIRTUAL on Java older than 21 (or Java 19 and 20,
+	 *         where virtual threads are a preview feature, unless previews
+	 *         are enabled)
+	 */
+	public boolean isSupported() {
+		if (this == PLATFORM) {
+			return true;
+		}
+		try {
+			virtualThreadFactory("Probe");
+			Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return true;
+		} catch (UnsupportedOperationException | NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            - the name to give the threads, which are numbered after it
+	 * @param daemon
+	 *            - whether platform threads should be daemons (virtual threads
+	 *            always are)
+	 * @throws UnsupportedOperationException
+	 *             for VIRTUAL mode on Java older than 21
+	 */
+	public ThreadFactory newThreadFactory(final String name, final boolean daemon) {
+		if (this == VIRTUAL) {
+			return virtualThreadFactory(name);
+		}
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + this.count.incrementAndGet());
+				t.setDaemon(daemon);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @param name
+	 *            - the name to give the executor's threads
+	 * @param threads
+	 *            - the size of the pool in PLATFORM mode. in VIRTUAL mode every
+	 *            task gets a new thread, so this is ignored
+	 * @return an executor for tasks that block on sockets
+	 */
+	public ExecutorService newExecutor(String name, int threads) {
+		ThreadFactory factory = this.newThreadFactory(name, true);
+		if (this == VIRTUAL) {
+			return threadPerTaskExecutor(factory);
+		}
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				factory);
+	}
+
+	/**
+	 * Executors.newThreadPerTaskExecutor(factory), without referring to any
+	 * Java 21 API at compile time
+	 */
+	private static ExecutorService threadPerTaskExecutor(ThreadFactory factory) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("virtual threads need Java 21 or later; this is Java "
+					+ System.getProperty("java.version"), e);
+		}
+	}
+
+	/**
+	 * Thread.ofVirtual().name(name + "-", 1).factory(), without referring to
+	 * any Java 21 API at compile time
+	 */
+	private static ThreadFactory virtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("virtual threads need Java 21 or later; this is Java "
+					+ System.getProperty("java.version"), e);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package socs.network.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+import org.junit.Test;
+
+public class PacketCodecTest {
+
+	@Test
+	public void roundTripsEveryField() throws IOException {
+		SOSPFPacket packet = new SOSPFPacket(MessageType.DATA, "h\u00f4te-\u4e2d", 65535, RouterId.of(0x0A000001), -7);
+		packet.setDstIP(RouterId.of(0xC0A80101));
+		packet.setPrecedingNodeIP(RouterId.of(0xFFFFFFFF));
+		packet.setRouterID("router-1");
+		packet.setErrorMsg("");
+		Vector<LSA> lsas = new Vector<LSA>();
+		lsas.add(new LSA(RouterId.of(0x0A000001), Integer.MIN_VALUE,
+				new LinkDescription[] { new LinkDescription(RouterId.of(0x0A000002), -1, 0),
+						new LinkDescription(RouterId.of(0x0A000003), 3, Integer.MAX_VALUE) },
+				new Prefix[] { new Prefix(0x0A000000, 8), new Prefix(0, 0), new Prefix(0xC0A80101, 32) }));
+		lsas.add(new LSA(RouterId.of(0x0A000002), 0));
+		packet.setLsaArray(lsas);
+		Vector<LSAHeader> headers = new Vector<LSAHeader>();
+		headers.add(new LSAHeader(RouterId.of(0x0A000004), Integer.MAX_VALUE));
+		headers.add(new LSAHeader(RouterId.of(0x0A000005), -1));
+		packet.setLsaHeaders(headers);
+		packet.setTtl(200);
+		byte[] payload = new byte[300];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+		packet.setPayload(payload);
+
+		assertSamePacket(packet, roundTrip(packet));
+	}
+
+	@Test
+	public void roundTripsAPacketWithNothingOptional() throws IOException {
+		SOSPFPacket packet = new SOSPFPacket();
+		packet.setMessageType(MessageType.HELLO);
+		SOSPFPacket decoded = roundTrip(packet);
+		assertSamePacket(packet, decoded);
+		assertNull(decoded.getSrcProcessIP());
+		assertNull(decoded.getSrcIP());
+		assertNull(decoded.getLsaArray());
+		assertNull(decoded.getLsaHeaders());
+		assertNull(decoded.getPayload());
+	}
+
+	@Test
+	public void roundTripsEmptyLists() throws IOException {
+		SOSPFPacket packet = new SOSPFPacket(MessageType.LSAUPDATE, "127.0.0.1", 0, RouterId.of(1), new Vector<LSA>());
+		packet.setLsaHeaders(new Vector<LSAHeader>());
+		packet.setPayload(new byte[0]);
+		assertSamePacket(packet, roundTrip(packet));
+	}
+
+	@Test
+	public void rejectsAnotherVersion() {
+		byte[] bytes = encode(new SOSPFPacket(MessageType.HELLO, null, 1, RouterId.of(1)));
+		bytes[0] = PacketCodec.VERSION + 1;
+		assertCorrupt(bytes);
+	}
+
+	@Test
+	public void rejectsAnUnknownMessageType() {
+		byte[] bytes = encode(new SOSPFPacket(MessageType.HELLO, null, 1, RouterId.of(1)));
+		bytes[1] = (byte) MessageType.values().length;
+		assertCorrupt(bytes);
+	}
+
+	@Test
+	public void rejectsATruncatedPacket() {
+		SOSPFPacket packet = new SOSPFPacket(MessageType.LSAUPDATE, "127.0.0.1", 5000, RouterId.of(1),
+				new Vector<LSA>());
+		packet.getLsaArray().add(new LSA(RouterId.of(1), 4, new LinkDescription(RouterId.of(2), 0, 3)));
+		byte[] bytes = encode(packet);
+		for (int length = 0; length < bytes.length; length++) {
+			byte[] truncated = new byte[length];
+			System.arraycopy(bytes, 0, truncated, 0, length);
+			assertCorrupt(truncated);
+		}
+	}
+
+	@Test
+	public void rejectsAPrefixLongerThan32() {
+		Vector<LSA> lsas = new Vector<LSA>();
+		lsas.add(new LSA(RouterId.of(1), 1, new LinkDescription[0], new Prefix[] { new Prefix(0x0A000000, 8) }));
+		byte[] bytes = encode(new SOSPFPacket(MessageType.LSAUPDATE, null, 0, null, lsas));
+		// the prefix length is the last byte of the only LSA, which is last
+		bytes[bytes.length - 1] = 33;
+		assertCorrupt(bytes);
+	}
+
+	/**
+	 * Encodes the packet into a buffer of exactly encodedSize bytes and
+	 * decodes it again, checking that both use every byte
+	 */
+	private static SOSPFPacket roundTrip(SOSPFPacket packet) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(encode(packet));
+		SOSPFPacket decoded = PacketCodec.decode(buf);
+		assertEquals(0, buf.remaining());
+		return decoded;
+	}
+
+	private static byte[] encode(SOSPFPacket packet) {
+		ByteBuffer buf = ByteBuffer.allocate(PacketCodec.encodedSize(packet));
+		PacketCodec.encode(packet, buf);
+		assertEquals(0, buf.remaining());
+		return buf.array();
+	}
+
+	private static void assertCorrupt(byte[] bytes) {
+		try {
+			PacketCodec.decode(ByteBuffer.wrap(bytes));
+			fail("decoded " + bytes.length + " corrupt bytes");
+		} catch (StreamCorruptedException e) {
+			// expected
+		} catch (IOException e) {
+			fail("threw " + e);
+		}
+	}
+
+	private static void assertSamePacket(SOSPFPacket expected, SOSPFPacket actual) {
+		assertEquals(expected.getMessageType(), actual.getMessageType());
+		assertEquals(expected.getSrcProcessIP(), actual.getSrcProcessIP());
+		assertEquals(expected.getSrcProcessPort(), actual.getSrcProcessPort());
+		assertEquals(expected.getSrcIP(), actual.getSrcIP());
+		assertEquals(expected.getDstIP(), actual.getDstIP());
+		assertEquals(expected.getPrecedingNodeIP(), actual.getPrecedingNodeIP());
+		assertEquals(expected.getRouterID(), actual.getRouterID());
+		assertEquals(expected.getErrorMsg(), actual.getErrorMsg());
+		assertEquals(expected.getWeight(), actual.getWeight());
+		if (expected.getLsaArray() == null) {
+			assertNull(actual.getLsaArray());
+		} else {
+			assertEquals(expected.getLsaArray().size(), actual.getLsaArray().size());
+			for (int i = 0; i < expected.getLsaArray().size(); i++) {
+				assertSameLsa(expected.getLsaArray().get(i), actual.getLsaArray().get(i));
+			}
+		}
+		if (expected.getLsaHeaders() == null) {
+			assertNull(actual.getLsaHeaders());
+		} else {
+			assertEquals(expected.getLsaHeaders().size(), actual.getLsaHeaders().size());
+			for (int i = 0; i < expected.getLsaHeaders().size(); i++) {
+				LSAHeader a = expected.getLsaHeaders().get(i);
+				LSAHeader b = actual.getLsaHeaders().get(i);
+				assertEquals(a.getOriginIp(), b.getOriginIp());
+				assertEquals(a.getLsaSeqNumber(), b.getLsaSeqNumber());
+			}
+		}
+		if (expected.getPayload() == null) {
+			assertNull(actual.getPayload());
+		} else {
+			assertEquals(expected.getTtl(), actual.getTtl());
+			assertArrayEquals(expected.getPayload(), actual.getPayload());
+		}
+	}
+
+	private static void assertSameLsa(LSA expected, LSA actual) {
+		assertEquals(expected.getOriginIp(), actual.getOriginIp());
+		assertEquals(expected.getLsaSeqNumber(), actual.getLsaSeqNumber());
+		assertEquals(expected.getLinkCount(), actual.getLinkCount());
+		for (int i = 0; i < expected.getLinkCount(); i++) {
+			LinkDescription a = expected.getLink(i);
+			LinkDescription b = actual.getLink(i);
+			assertEquals(a.getDestinationIp(), b.getDestinationIp());
+			assertEquals(a.getPortNum(), b.getPortNum());
+			assertEquals(a.getDistance(), b.getDistance());
+		}
+		assertEquals(expected.getPrefixCount(), actual.getPrefixCount());
+		for (int i = 0; i < expected.getPrefixCount(); i++) {
+			assertEquals(expected.getPrefix(i), actual.getPrefix(i));
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package socs.network.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+public class RouterIdTest {
+
+	@Test
+	public void equalAddressesMakeEqualIds() {
+		RouterId id = RouterId.parse("192.168.1.1");
+		assertEquals(RouterId.parse("192.168.1.1"), id);
+		assertEquals(RouterId.parse("192.168.1.1").hashCode(), id.hashCode());
+		assertEquals(RouterId.of(0xc0a80101), id);
+		assertNotEquals(RouterId.parse("192.168.1.2"), id);
+	}
+
+	@Test
+	public void printsAsDottedQuad() {
+		assertEquals("192.168.1.1", RouterId.parse("192.168.1.1").toString());
+		assertEquals("255.0.10.0", RouterId.of(0xff000a00).toString());
+		assertEquals(0xff000a00, RouterId.parse("255.0.10.0").toInt());
+	}
+
+	@Test
+	public void comparesUnsigned() {
+		assertTrue(RouterId.parse("10.0.0.1").compareTo(RouterId.parse("192.168.1.1")) < 0);
+		assertTrue(RouterId.parse("255.255.255.255").compareTo(RouterId.parse("127.0.0.1")) > 0);
+	}
+
+	@Test
+	public void rejectsWhatIsntAnAddress() {
+		for (String ip : new String[] { "", "192.168.1", "192.168.1.1.1", "192.168..1", "192.168.1.256",
+				"192.168.1.1000", "192.168.1.a", "192.168.1.1." }) {
+			try {
+				RouterId.parse(ip);
+				fail("parsed " + ip);
+			} catch (IllegalArgumentException e) {
+				// as it should
+			}
+		}
+	}
+
+	@Test
+	public void survivesSerialization() throws Exception {
+		RouterId id = RouterId.parse("192.168.1.1");
+		id.toString();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(id);
+		out.close();
+		RouterId copy = (RouterId) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertEquals(id, copy);
+		assertEquals("192.168.1.1", copy.toString());
+	}
+}
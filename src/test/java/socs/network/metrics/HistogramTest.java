@@ -0,0 +1,53 @@
+package socs.network.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void emptyHistogramIsAllZeros() {
+		HistogramSnapshot snapshot = new Histogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMeanMicros(), 0);
+		assertEquals(0, snapshot.getP99Micros(), 0);
+		assertEquals(0, snapshot.getMaxMicros(), 0);
+	}
+
+	/**
+	 * Percentiles land within a factor of two above the true value; the mean
+	 * and max are exact
+	 */
+	@Test
+	public void percentilesAreWithinAFactorOfTwo() {
+		Histogram histogram = new Histogram();
+		// 1us to 1000us, one of each
+		for (int micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros * 1000L);
+		}
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, snapshot.getMeanMicros(), 0.001);
+		assertEquals(1000, snapshot.getMaxMicros(), 0);
+		checkWithinFactorOfTwo(500, snapshot.getP50Micros());
+		checkWithinFactorOfTwo(900, snapshot.getP90Micros());
+		checkWithinFactorOfTwo(990, snapshot.getP99Micros());
+	}
+
+	@Test
+	public void negativeDurationsCountAsZero() {
+		Histogram histogram = new Histogram();
+		histogram.record(-5);
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1, snapshot.getCount());
+		assertEquals(0, snapshot.getMaxMicros(), 0);
+		assertEquals(0, snapshot.getP50Micros(), 0);
+	}
+
+	private static void checkWithinFactorOfTwo(double expected, double actual) {
+		assertTrue(actual + " for " + expected, actual >= expected && actual <= 2 * expected);
+	}
+}
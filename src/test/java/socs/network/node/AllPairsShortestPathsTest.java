@@ -0,0 +1,155 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import socs.network.message.RouterId;
+
+public class AllPairsShortestPathsTest {
+
+	/**
+	 * Checks every row against Floyd-Warshall: the distance, and as the next
+	 * hop, the lowest ip among the neighbors of the source that a shortest
+	 * path leaves through (and doesn't come back through the source, as it
+	 * could over links of weight 0)
+	 */
+	private void checkRows(TestNetwork network) {
+		AllPairsShortestPaths allPairs = new AllPairsShortestPaths(network.lsas());
+		int n = network.size();
+		assertEquals(n, allPairs.size());
+		// the matrix's own order => the network's
+		int[] router = new int[n];
+		Map<RouterId, Integer> byIp = new HashMap<RouterId, Integer>();
+		for (int r = 0; r < n; r++) {
+			byIp.put(TestNetwork.ip(r), r);
+		}
+		for (int id = 0; id < n; id++) {
+			router[id] = byIp.get(allPairs.ipOf(id));
+		}
+
+		long[][] expected = network.distances();
+		int[] distances = new int[n];
+		int[] nextHops = new int[n];
+		for (int s = 0; s < n; s++) {
+			allPairs.computeRow(s, distances, nextHops);
+			int source = router[s];
+			long[][] avoidingSource = network.distances(source);
+			for (int t = 0; t < n; t++) {
+				int destination = router[t];
+				assertEquals("distance " + source + " => " + destination, expected[source][destination],
+						distances[t]);
+				if (distances[t] == ShortestPathTree.UNREACHABLE) {
+					assertEquals(ShortestPathTree.NONE, nextHops[t]);
+					continue;
+				}
+				RouterId hop = null;
+				if (source == destination) {
+					hop = TestNetwork.ip(source);
+				} else {
+					for (int v = 0; v < n; v++) {
+						int w = network.weight(source, v);
+						if (w != TestNetwork.NO_LINK && w + avoidingSource[v][destination] == expected[source][destination]
+								&& (hop == null || TestNetwork.ip(v).compareTo(hop) < 0)) {
+							hop = TestNetwork.ip(v);
+						}
+					}
+				}
+				assertEquals("next hop " + source + " => " + destination, hop, allPairs.ipOf(nextHops[t]));
+			}
+		}
+	}
+
+	@Test
+	public void rowsMatchFloydWarshall() {
+		Random random = new Random(1);
+		for (int trial = 0; trial < 20; trial++) {
+			this.checkRows(TestNetwork.random(30, 40, 1, 5, random));
+		}
+	}
+
+	@Test
+	public void rowsMatchFloydWarshallWithZeroWeights() {
+		Random random = new Random(2);
+		for (int trial = 0; trial < 50; trial++) {
+			this.checkRows(TestNetwork.random(20, 30, 0, 2, random));
+		}
+	}
+
+	@Test
+	public void unreachableRouters() {
+		TestNetwork network = new TestNetwork(4);
+		network.link(0, 1, 3);
+		network.link(2, 3, 1);
+		this.checkRows(network);
+	}
+
+	@Test
+	public void binaryMatrix() throws IOException {
+		TestNetwork network = TestNetwork.random(25, 30, 1, 4, new Random(3));
+		AllPairsShortestPaths allPairs = new AllPairsShortestPaths(network.lsas());
+		int n = allPairs.size();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		allPairs.write(out, AllPairsShortestPaths.Format.BINARY, 1);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(AllPairsShortestPaths.MAGIC, in.readInt());
+		assertEquals(n, in.readInt());
+		for (int id = 0; id < n; id++) {
+			assertEquals(allPairs.ipOf(id).toInt(), in.readInt());
+		}
+		int[] distances = new int[n];
+		int[] nextHops = new int[n];
+		for (int s = 0; s < n; s++) {
+			allPairs.computeRow(s, distances, nextHops);
+			for (int t = 0; t < n; t++) {
+				assertEquals(distances[t], in.readInt());
+				assertEquals(nextHops[t], in.readInt());
+			}
+		}
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void csvMatrix() throws IOException {
+		TestNetwork network = new TestNetwork(3);
+		network.link(0, 1, 2);
+		network.link(1, 2, 5);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new AllPairsShortestPaths(network.lsas()).write(out, AllPairsShortestPaths.Format.CSV, 1);
+
+		String csv = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+		String[] lines = csv.split("\n");
+		assertEquals("source,destination,distance,next_hop", lines[0]);
+		assertEquals(1 + 9, lines.length);
+		boolean found = false;
+		for (String line : lines) {
+			found |= line.equals("10.0.0.1,10.0.0.3,7,10.0.0.2");
+		}
+		assertTrue(found);
+	}
+
+	@Test
+	public void outputDoesNotDependOnParallelism() throws IOException {
+		TestNetwork network = TestNetwork.random(200, 300, 0, 6, new Random(4));
+		AllPairsShortestPaths allPairs = new AllPairsShortestPaths(network.lsas());
+		for (AllPairsShortestPaths.Format format : AllPairsShortestPaths.Format.values()) {
+			ByteArrayOutputStream one = new ByteArrayOutputStream();
+			allPairs.write(one, format, 1);
+			ByteArrayOutputStream four = new ByteArrayOutputStream();
+			allPairs.write(four, format, 4);
+			assertArrayEquals(one.toByteArray(), four.toByteArray());
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.Prefix;
+import socs.network.message.RouterId;
+
+public class ForwardingTableTest {
+
+	/**
+	 * Router 0's ports are numbered in the order of the routers its links go
+	 * to, so in this network router 1 is on port 0 and router 3 on port 1
+	 *
+	 * <pre>
+	 * 0 -1- 1 -1- 2
+	 *  \          |
+	 *   5         4
+	 *    \        |
+	 *     3 ------+ (weight 1)
+	 * </pre>
+	 */
+	private TestNetwork network() {
+		TestNetwork network = new TestNetwork(4);
+		network.link(0, 1, 1);
+		network.link(1, 2, 1);
+		network.link(0, 3, 5);
+		network.link(2, 3, 1);
+		return network;
+	}
+
+	private ForwardingTable table(TestNetwork network) {
+		ShortestPathTree tree = new ShortestPathTree(TestNetwork.ip(0));
+		tree.rebuild(network.lsas());
+		return new ForwardingTable(new RoutingTable(0, tree), network.lsas(), TestNetwork.ip(0));
+	}
+
+	private static RouterId address(String address) {
+		return RouterId.of(Prefix.parse(address + "/32").getAddress());
+	}
+
+	@Test
+	public void routersGoOutTheirNextHopsPort() {
+		ForwardingTable table = this.table(this.network());
+		RouterId source = TestNetwork.ip(0);
+		assertEquals(0, table.lookup(source, TestNetwork.ip(1)));
+		assertEquals(0, table.lookup(source, TestNetwork.ip(2)));
+		// 0 -1- 1 -1- 2 -1- 3 beats the direct link of weight 5
+		assertEquals(0, table.lookup(source, TestNetwork.ip(3)));
+		assertEquals(3, table.size());
+	}
+
+	@Test
+	public void prefixesGoToTheNearestAdvertiser() {
+		TestNetwork network = this.network();
+		network.link(0, 3, 1);
+		network.advertise(2, Prefix.parse("172.16.0.0/16"));
+		network.advertise(3, Prefix.parse("172.16.0.0/16"));
+		// 3 is nearer than 2, so 172.16/16 goes to it, and so does this
+		network.advertise(3, Prefix.parse("172.16.5.0/24"));
+		network.advertise(1, Prefix.parse("172.16.5.128/25"));
+		ForwardingTable table = this.table(network);
+		RouterId source = TestNetwork.ip(0);
+		assertEquals(1, table.lookup(source, address("172.16.6.9")));
+		assertEquals(1, table.lookup(source, address("172.16.5.9")));
+		assertEquals(0, table.lookup(source, address("172.16.5.200")));
+		assertEquals(ForwardingTable.NO_ROUTE, table.lookup(source, address("172.17.0.1")));
+		assertEquals(3, table.getPrefixCount());
+	}
+
+	@Test
+	public void equallyNearAdvertisersAreSettledByLowestIp() {
+		TestNetwork network = this.network();
+		network.link(0, 3, 2);
+		// 2 and 3 are both 2 away
+		network.advertise(3, Prefix.parse("172.16.0.0/16"));
+		network.advertise(2, Prefix.parse("172.16.0.0/16"));
+		ForwardingTable table = this.table(network);
+		assertEquals(0, table.lookup(TestNetwork.ip(0), address("172.16.0.1")));
+	}
+
+	@Test
+	public void ownPrefixesAreLocal() {
+		TestNetwork network = this.network();
+		network.advertise(0, Prefix.parse("192.168.0.0/24"));
+		network.advertise(2, Prefix.parse("192.168.0.0/16"));
+		ForwardingTable table = this.table(network);
+		RouterId source = TestNetwork.ip(1);
+		assertEquals(ForwardingTable.LOCAL, table.lookup(source, address("192.168.0.7")));
+		assertEquals(0, table.lookup(source, address("192.168.1.7")));
+	}
+
+	@Test
+	public void unreachableAdvertisersAreSkipped() {
+		TestNetwork network = this.network();
+		network.advertise(3, Prefix.parse("0.0.0.0/0"));
+		network.unlink(0, 3);
+		network.unlink(2, 3);
+		ForwardingTable table = this.table(network);
+		assertEquals(ForwardingTable.NO_ROUTE, table.lookup(TestNetwork.ip(0), address("8.8.8.8")));
+		assertEquals(ForwardingTable.NO_ROUTE, table.lookup(TestNetwork.ip(0), TestNetwork.ip(3)));
+	}
+
+	/**
+	 * Makes random changes to the links and prefixes one at a time, and
+	 * checks that the table made from the last one after each forwards
+	 * everything the same way as one built from scratch
+	 */
+	@Test
+	public void patchedTablesMatchRebuiltTables() {
+		Random random = new Random(1);
+		TestNetwork network = TestNetwork.random(40, 40, 1, 3, random);
+		// every router has a prefix of its own, and some share one, or have
+		// one inside another's
+		List<Prefix> prefixes = new ArrayList<Prefix>();
+		for (int r = 0; r < network.size(); r++) {
+			Prefix own = Prefix.parse("192.168." + r + ".0/24");
+			network.advertise(r, own);
+			prefixes.add(own);
+		}
+		prefixes.add(Prefix.parse("172.16.0.0/16"));
+		prefixes.add(Prefix.parse("172.16.5.0/24"));
+		prefixes.add(Prefix.parse("0.0.0.0/0"));
+
+		RouterId self = TestNetwork.ip(0);
+		ShortestPathTree tree = new ShortestPathTree(self);
+		Map<RouterId, LSA> lsas = network.lsas();
+		tree.rebuild(lsas);
+		RoutingTable routes = new RoutingTable(0, tree, null);
+		ForwardingTable table = new ForwardingTable(routes, lsas, self, null, null);
+		int patched = 0;
+		for (int version = 1; version <= 400; version++) {
+			int[] changed;
+			if (random.nextBoolean()) {
+				changed = network.change(random, 1, 3);
+			} else {
+				int r = random.nextInt(network.size());
+				Prefix prefix = prefixes.get(network.size() + random.nextInt(3));
+				if (!network.advertises(r, prefix)) {
+					network.advertise(r, prefix);
+				} else {
+					network.withdraw(r, prefix);
+				}
+				changed = new int[] { r, r };
+			}
+			lsas = network.lsas();
+			List<RouterId> origins = Arrays.asList(TestNetwork.ip(changed[0]), TestNetwork.ip(changed[1]));
+			tree.update(lsas, origins);
+			routes = new RoutingTable(version, tree, routes);
+			if (routes.getChangedDestinations() != null) {
+				patched++;
+			}
+			table = new ForwardingTable(routes, lsas, self, table, origins);
+			ForwardingTable rebuilt = new ForwardingTable(routes, lsas, self);
+
+			assertEquals(rebuilt.getVersion(), table.getVersion());
+			assertEquals(rebuilt.size(), table.size());
+			assertEquals(rebuilt.getPrefixCount(), table.getPrefixCount());
+			for (int r = 0; r < network.size(); r++) {
+				for (int s = 0; s < 4; s++) {
+					RouterId source = TestNetwork.ip(s);
+					RouterId destination = TestNetwork.ip(r);
+					assertEquals(rebuilt.lookup(source, destination), table.lookup(source, destination));
+					destination = RouterId.of(prefixes.get(r).getAddress() | 7);
+					assertEquals(rebuilt.lookup(source, destination), table.lookup(source, destination));
+				}
+			}
+			for (String address : new String[] { "172.16.5.9", "172.16.6.9", "8.8.8.8" }) {
+				RouterId destination = address(address);
+				assertEquals(rebuilt.lookup(self, destination), table.lookup(self, destination));
+			}
+		}
+		assertTrue(patched > 200);
+	}
+}
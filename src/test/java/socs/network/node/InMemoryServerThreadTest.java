@@ -0,0 +1,58 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.message.MessageType;
+import socs.network.message.RouterId;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Configuration;
+
+public class InMemoryServerThreadTest {
+
+	private Router router;
+	private InMemoryServerThread server;
+
+	@Before
+	public void setUp() {
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.actual_ip", "127.0.0.1");
+		config.addEntry("socs.network.router.port", "40001");
+		config.addEntry("socs.network.router.simulated_ip", "192.168.20.1");
+		config.addEntry("socs.network.router.transport", "memory");
+		this.router = new Router(config);
+		this.server = (InMemoryServerThread) this.router.getServer();
+	}
+
+	@After
+	public void tearDown() {
+		this.router.shutdown();
+	}
+
+	@Test
+	public void failedRequestHangsUpOnlyItsConnection() throws Exception {
+		InMemoryServerThread.Connection healthy = this.server.connect();
+		InMemoryServerThread.Connection broken = this.server.connect();
+
+		// a HELLO from a router we have no link to makes the handler throw
+		broken.send(new SOSPFPacket(MessageType.HELLO, "127.0.0.1", 1, RouterId.parse("192.168.20.99")));
+		assertSame(InMemoryServerThread.CLOSED, broken.responses.take());
+		try {
+			broken.send(new SOSPFPacket(MessageType.HELLO, "127.0.0.1", 1, RouterId.parse("192.168.20.99")));
+			fail("sent over a connection the server hung up on");
+		} catch (IOException e) {
+			// as it should
+		}
+
+		// while the other connection is still served
+		healthy.send(new SOSPFPacket(MessageType.ADDLINK, "127.0.0.1", 2, RouterId.parse("192.168.20.2"), 3));
+		assertEquals(MessageType.SUCCESS, healthy.responses.take().getMessageType());
+	}
+}
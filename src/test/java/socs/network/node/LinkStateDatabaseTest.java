@@ -0,0 +1,197 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.LSAHeader;
+import socs.network.message.LinkDescription;
+import socs.network.message.RouterId;
+
+public class LinkStateDatabaseTest {
+
+	private static final RouterId A = RouterId.parse("192.168.1.1");
+	private static final RouterId B = RouterId.parse("192.168.1.2");
+	private static final RouterId C = RouterId.parse("192.168.1.3");
+	private static final RouterId D = RouterId.parse("192.168.1.4");
+
+	private static LinkStateDatabase lsd(RouterId ip) {
+		return new LinkStateDatabase(new RouterDescription("127.0.0.1", 1, ip));
+	}
+
+	/**
+	 * An LSA from origin with a link of weight 1 to each of the neighbors
+	 */
+	private static LSA lsa(RouterId origin, int seq, RouterId... neighbors) {
+		LinkDescription[] links = new LinkDescription[neighbors.length + 1];
+		links[0] = new LinkDescription(origin, -1, 0);
+		for (int i = 0; i < neighbors.length; i++) {
+			links[i + 1] = new LinkDescription(neighbors[i], i, 1);
+		}
+		return new LSA(origin, seq, links);
+	}
+
+	private static Vector<LSA> lsas(LSA... lsas) {
+		return new Vector<LSA>(Arrays.asList(lsas));
+	}
+
+	/**
+	 * @return the sequence number of each LSA, by origin
+	 */
+	private static Map<RouterId, Integer> versions(Iterable<LSA> lsas) {
+		HashMap<RouterId, Integer> versions = new HashMap<RouterId, Integer>();
+		for (LSA lsa : lsas) {
+			versions.put(lsa.getOriginIp(), lsa.getLsaSeqNumber());
+		}
+		return versions;
+	}
+
+	private static Map<RouterId, Integer> versions(LinkStateDatabase lsd) {
+		return versions(lsd.getSnapshot().getLsas().values());
+	}
+
+	/**
+	 * An update floods on only what was new to us, and leaves the LSD as it
+	 * was if nothing was
+	 */
+	@Test
+	public void updateTakesAndReturnsOnlyNewerLsas() {
+		LinkStateDatabase lsd = lsd(A);
+		LSA b1 = lsa(B, 1, C), c1 = lsa(C, 1, B), c2 = lsa(C, 2);
+		assertEquals(lsas(b1, c1), lsd.update(lsas(b1, c1)));
+		long version = lsd.getSnapshot().getVersion();
+
+		assertEquals(lsas(c2), lsd.update(lsas(lsa(B, 1, C), c2)));
+		assertEquals(version + 1, lsd.getSnapshot().getVersion());
+		assertSame(c2, lsd.getSnapshot().get(C));
+
+		assertTrue(lsd.update(lsas(lsa(B, 0), lsa(C, 1))).isEmpty());
+		assertEquals(version + 1, lsd.getSnapshot().getVersion());
+		assertSame(b1, lsd.getSnapshot().get(B));
+	}
+
+	@Test
+	public void localChangesBumpTheLocalSequenceNumber() {
+		LinkStateDatabase lsd = lsd(A);
+		int seq = lsd.getLsaSeqNumber(A);
+		lsd.addLocalLink(new LinkDescription(B, 0, 3));
+		assertEquals(seq + 1, lsd.getLsaSeqNumber(A));
+		lsd.removeLocalLink(B);
+		assertEquals(seq + 2, lsd.getLsaSeqNumber(A));
+		assertEquals(-1, lsd.getLsaSeqNumber(B));
+	}
+
+	/**
+	 * Two neighbors with different views swap summaries, then each sends the
+	 * LSAs the other is missing or behind on, and nothing else
+	 */
+	@Test
+	public void databaseExchangeSendsOnlyWhatIsMissing() {
+		LinkStateDatabase ours = lsd(A);
+		LinkStateDatabase theirs = lsd(D);
+		ours.update(lsas(lsa(B, 1), lsa(C, 2, B)));
+		theirs.update(lsas(lsa(B, 2, C), lsa(C, 1)));
+
+		// they describe their database, and we send what they're behind on
+		Vector<LSAHeader> theirSummary = theirs.summarize();
+		Vector<LSA> toThem = ours.newerThan(theirSummary);
+		assertEquals(versions(lsas(lsa(A, 0), lsa(C, 2))), versions(toThem));
+		// and ask for what we're behind on
+		Vector<LSAHeader> wanted = ours.olderThan(theirSummary);
+		Vector<LSA> toUs = theirs.getLsas(wanted);
+		assertEquals(versions(lsas(lsa(B, 2), lsa(D, 0))), versions(toUs));
+
+		ours.update(toUs);
+		theirs.update(toThem);
+		assertEquals(versions(ours), versions(theirs));
+		assertTrue(ours.newerThan(theirs.summarize()).isEmpty());
+		assertTrue(theirs.olderThan(ours.summarize()).isEmpty());
+	}
+
+	/**
+	 * Path queries between changes reuse one routing table, and the first
+	 * query after a change gets a new one with the change in it
+	 */
+	@Test
+	public void routingTableIsCachedUntilTheLsdChanges() {
+		LinkStateDatabase lsd = lsd(A);
+		lsd.addLocalLink(new LinkDescription(B, 0, 1));
+		lsd.update(lsas(lsa(B, 1, A)));
+		RoutingTable table = lsd.getRoutingTable();
+		assertEquals(lsd.getSnapshot().getVersion(), table.getVersion());
+		assertEquals(1, table.get(B).getCost());
+		assertNull(table.get(C));
+		assertSame(table, lsd.getRoutingTable());
+
+		// nothing new, so nothing to recompute
+		lsd.update(lsas(lsa(B, 1, A)));
+		assertSame(table, lsd.getRoutingTable());
+
+		lsd.update(lsas(lsa(B, 2, A, C), lsa(C, 1, B)));
+		RoutingTable changed = lsd.getRoutingTable();
+		assertNotSame(table, changed);
+		assertEquals(lsd.getSnapshot().getVersion(), changed.getVersion());
+		assertEquals(2, changed.get(C).getCost());
+		assertEquals(B, changed.get(C).getNextHopIp());
+		assertSame(changed, lsd.getRoutingTable());
+		// a table already handed out stays as it was
+		assertNull(table.get(C));
+
+		// the forwarding table follows the same version
+		assertEquals(changed.getVersion(), lsd.getForwardingTable().getVersion());
+	}
+
+	/**
+	 * a -1- b -1- c, as a sees it
+	 */
+	private static LinkStateDatabase line() {
+		LinkStateDatabase lsd = lsd(A);
+		lsd.addLocalLink(new LinkDescription(B, 0, 1));
+		lsd.update(lsas(lsa(B, 1, A, C), lsa(C, 1, B)));
+		return lsd;
+	}
+
+	@Test
+	public void routesAreAnsweredInTheOrderAsked() {
+		LinkStateDatabase lsd = line();
+		List<RoutingTable.RouteEntry> routes = lsd.getRoutes(Arrays.asList(C, D, B));
+		assertEquals(3, routes.size());
+		assertEquals(C, routes.get(0).getDestinationIp());
+		assertEquals(2, routes.get(0).getCost());
+		assertNull(routes.get(1));
+		assertEquals(B, routes.get(2).getDestinationIp());
+		// and from the one table, computed once
+		assertEquals(1, lsd.getSpfRuns().getCount());
+		assertSame(lsd.getRoutingTable().get(C), routes.get(0));
+	}
+
+	@Test
+	public void shortestPathsAreWrittenOnePerLine() throws IOException {
+		LinkStateDatabase lsd = line();
+		StringBuilder out = new StringBuilder();
+		assertEquals(1, lsd.writeShortestPaths(Arrays.asList(C, D), out));
+		assertEquals("192.168.1.3 (cost 2): 192.168.1.1 -> (1) 192.168.1.2 -> (1) 192.168.1.3\n"
+				+ "192.168.1.4: No path found\n", out.toString());
+
+		// every reachable router, lowest ip first
+		out = new StringBuilder();
+		assertEquals(3, lsd.writeShortestPaths(null, out));
+		String[] lines = out.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0], lines[0].startsWith("192.168.1.1 (cost 0): "));
+		assertTrue(lines[1], lines[1].startsWith("192.168.1.2 (cost 1): "));
+		assertTrue(lines[2], lines[2].startsWith("192.168.1.3 (cost 2): "));
+	}
+}
@@ -0,0 +1,220 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.RouterId;
+
+public class OutboundExecutorTest {
+
+	private static final RouterId NEIGHBOR = RouterId.parse("192.168.1.2");
+
+	private OutboundExecutor outbound;
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws InterruptedException {
+		this.outbound = new OutboundExecutor(Executors.newFixedThreadPool(1), 2);
+		// hold the only thread, so that everything after waits in the queue
+		final CountDownLatch started = new CountDownLatch(1);
+		this.outbound.submit(NEIGHBOR, new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void tearDown() {
+		this.release.countDown();
+		this.outbound.shutdown();
+	}
+
+	/**
+	 * Records its name when sent. Any two coalesce, their names joined.
+	 */
+	private class Message implements OutboundExecutor.Coalescable {
+		private String name;
+
+		Message(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void run() {
+			sent.add(this.name);
+		}
+
+		@Override
+		public boolean coalesce(Runnable later) {
+			if (!(later instanceof Message)) {
+				return false;
+			}
+			this.name += "+" + ((Message) later).name;
+			return true;
+		}
+
+		@Override
+		public boolean isDroppable() {
+			return true;
+		}
+	}
+
+	private Runnable plain(final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				sent.add(name);
+			}
+		};
+	}
+
+	@Test
+	public void fullQueueRejectsWithoutWaiting() throws Exception {
+		this.outbound.submit(NEIGHBOR, this.plain("a"));
+		Future<?> b = this.outbound.submit(NEIGHBOR, this.plain("b"));
+		// nothing waiting for it to coalesce with
+		long start = System.nanoTime();
+		Future<?> rejected = this.outbound.submit(NEIGHBOR, new Message("c"));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+		try {
+			rejected.get();
+			fail("queued past the capacity");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		// once there's room again, messages are taken
+		this.release.countDown();
+		b.get(5, TimeUnit.SECONDS);
+		this.outbound.submit(NEIGHBOR, new Message("d")).get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("a", "b", "d"), this.sent);
+	}
+
+	/**
+	 * A REMOVELINK behind a queue full of LSAUPDATEs must still go out, or the
+	 * neighbor keeps a link we have dropped
+	 */
+	@Test(timeout = 10000)
+	public void fullQueueNeverDropsControlMessages() throws Exception {
+		this.outbound.submit(NEIGHBOR, new Message("a"));
+		this.outbound.submit(NEIGHBOR, this.plain("b"));
+		Future<?> removeLink = this.outbound.submit(NEIGHBOR, this.plain("removelink"));
+		assertFalse(removeLink.isDone());
+		this.outbound.submit(NEIGHBOR, this.plain("c"));
+
+		// the room kept for them is full too, so the next one waits for it
+		final CountDownLatch submitted = new CountDownLatch(1);
+		final AtomicReference<Future<?>> last = new AtomicReference<Future<?>>();
+		Thread submitter = new Thread() {
+			@Override
+			public void run() {
+				last.set(outbound.submit(NEIGHBOR, plain("d")));
+				submitted.countDown();
+			}
+		};
+		submitter.start();
+		assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+		this.release.countDown();
+		assertTrue(submitted.await(5, TimeUnit.SECONDS));
+		removeLink.get(5, TimeUnit.SECONDS);
+		last.get().get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("a", "b", "removelink", "c", "d"), this.sent);
+	}
+
+	@Test
+	public void onlyLsaUpdatesAreDroppedFromAFullQueue() throws Exception {
+		this.outbound.submit(NEIGHBOR, this.plain("a"));
+		this.outbound.submit(NEIGHBOR, this.plain("b"));
+		Link link = new Link(new RouterDescription("127.0.0.1", 1, RouterId.parse("192.168.1.1")),
+				new RouterDescription("127.0.0.1", 2, NEIGHBOR), 1, null);
+
+		ClientThread removeLink = new ClientThread(null, Protocol.REMOVELINK, link);
+		assertFalse(this.outbound.submit(NEIGHBOR, removeLink).isDone());
+
+		ClientThread lsaUpdate = new ClientThread(null, Protocol.LSAUPDATE, link);
+		lsaUpdate.setLsaArray(new Vector<LSA>());
+		try {
+			this.outbound.submit(NEIGHBOR, lsaUpdate).get();
+			fail("queued past the capacity");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		// neither is ever sent
+		this.outbound.remove(NEIGHBOR);
+	}
+
+	@Test(timeout = 10000)
+	public void removeReleasesWaitingSubmitters() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			this.outbound.submit(NEIGHBOR, this.plain("filler"));
+		}
+		final AtomicReference<Future<?>> last = new AtomicReference<Future<?>>();
+		Thread submitter = new Thread() {
+			@Override
+			public void run() {
+				last.set(outbound.submit(NEIGHBOR, plain("removelink")));
+			}
+		};
+		submitter.start();
+		Thread.sleep(100);
+		this.outbound.remove(NEIGHBOR);
+		submitter.join();
+		assertTrue(last.get().isCancelled());
+	}
+
+	@Test
+	public void fullQueueCoalesces() throws Exception {
+		this.outbound.submit(NEIGHBOR, this.plain("a"));
+		Future<?> b = this.outbound.submit(NEIGHBOR, new Message("b"));
+		assertSame(b, this.outbound.submit(NEIGHBOR, new Message("c")));
+		assertSame(b, this.outbound.submit(NEIGHBOR, new Message("d")));
+
+		this.release.countDown();
+		b.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("a", "b+c+d"), this.sent);
+	}
+
+	@Test
+	public void removeCancelsWaitingMessages() throws Exception {
+		Future<?> a = this.outbound.submit(NEIGHBOR, this.plain("a"));
+		this.outbound.remove(NEIGHBOR);
+		assertTrue(a.isCancelled());
+
+		// a new link to the same neighbor starts with a new queue
+		this.release.countDown();
+		this.outbound.submit(NEIGHBOR, this.plain("b")).get(5, TimeUnit.SECONDS);
+		assertEquals(Collections.singletonList("b"), this.sent);
+	}
+}
@@ -0,0 +1,83 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Test;
+
+import socs.network.util.Configuration;
+
+public class RouterMetricsTest {
+
+	private static final MBeanServer SERVER = ManagementFactory.getPlatformMBeanServer();
+
+	private Router a;
+	private Router b;
+
+	private static Router router(int port, String simulatedIp) {
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.actual_ip", "127.0.0.1");
+		config.addEntry("socs.network.router.port", Integer.toString(port));
+		config.addEntry("socs.network.router.simulated_ip", simulatedIp);
+		config.addEntry("socs.network.router.transport", "memory");
+		return new Router(config);
+	}
+
+	@After
+	public void tearDown() {
+		for (Router router : new Router[] { this.a, this.b }) {
+			if (router != null) {
+				router.stop();
+			}
+		}
+		for (Router router : new Router[] { this.a, this.b }) {
+			if (router != null) {
+				router.shutdown();
+			}
+		}
+	}
+
+	private static long attribute(ObjectName name, String attribute) throws Exception {
+		return ((Number) SERVER.getAttribute(name, attribute)).longValue();
+	}
+
+	/**
+	 * The counts a router keeps are what jconsole would see, and go away with
+	 * the router
+	 */
+	@Test(timeout = 30000)
+	public void trafficIsVisibleOverJmx() throws Exception {
+		this.a = router(43001, "192.168.40.1");
+		this.b = router(43002, "192.168.40.2");
+		ObjectName routerName = new ObjectName("socs.network:type=Router,name=192.168.40.1");
+		ObjectName helloName = new ObjectName("socs.network:type=Messages,router=192.168.40.1,message=HELLO");
+		assertTrue(SERVER.isRegistered(routerName));
+		assertEquals(1, attribute(routerName, "LsdSize"));
+		assertEquals(-1, attribute(routerName, "MillisSinceTopologyChange"));
+
+		this.a.execute("attach 127.0.0.1 43002 192.168.40.2 1");
+		this.a.execute("start");
+		long deadline = System.currentTimeMillis() + 10000;
+		while (attribute(routerName, "LsdSize") < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, attribute(routerName, "LsdSize"));
+		assertTrue(attribute(routerName, "MillisSinceTopologyChange") >= 0);
+		assertTrue(attribute(helloName, "Sent") >= 1);
+		assertTrue(attribute(helloName, "BytesSent") > 0);
+		CompositeData roundTrip = (CompositeData) SERVER.getAttribute(helloName, "RoundTrip");
+		assertTrue(((Number) roundTrip.get("count")).longValue() >= 1);
+
+		this.a.shutdown();
+		assertFalse(SERVER.isRegistered(routerName));
+		assertFalse(SERVER.isRegistered(helloName));
+	}
+}
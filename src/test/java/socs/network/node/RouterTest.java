@@ -0,0 +1,251 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import socs.network.exceptions.DuplicateLinkException;
+import socs.network.exceptions.NoAvailablePortsException;
+import socs.network.message.MessageType;
+import socs.network.message.RouterId;
+import socs.network.util.Configuration;
+
+public class RouterTest {
+
+	private final List<Router> routers = new ArrayList<Router>();
+
+	private Router router(String transport, int port, String simulatedIp) {
+		return this.router(transport, port, simulatedIp, new Configuration());
+	}
+
+	private Router router(String transport, int port, String simulatedIp, Configuration config) {
+		config.addEntry("socs.network.router.actual_ip", "127.0.0.1");
+		config.addEntry("socs.network.router.port", Integer.toString(port));
+		config.addEntry("socs.network.router.simulated_ip", simulatedIp);
+		config.addEntry("socs.network.router.transport", transport);
+		Router router = new Router(config);
+		this.routers.add(router);
+		return router;
+	}
+
+	@After
+	public void tearDown() {
+		for (Router router : this.routers) {
+			router.stop();
+		}
+		for (Router router : this.routers) {
+			router.shutdown();
+		}
+	}
+
+	private static int countLinks(Router router) {
+		int count = 0;
+		for (Link l : router.getPorts()) {
+			if (l != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void awaitLinks(Router router, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (countLinks(router) != count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(router.getRd().getSimulatedIPAddress() + "'s links", count, countLinks(router));
+	}
+
+	/**
+	 * A link to the given neighbor, whose session is never opened
+	 */
+	private static Link link(Router router, int processPort, String simulatedIp) {
+		RouterDescription rd = new RouterDescription("127.0.0.1", processPort, RouterId.parse(simulatedIp));
+		return new Link(router.getRd(), rd, 1, InMemoryTransport.getShared().newSession(rd, router.getMetrics()));
+	}
+
+	@Test
+	public void portCountIsConfigurable() throws Exception {
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ports", "2");
+		Router a = this.router("memory", 41003, "192.168.30.5", config);
+		assertEquals(2, a.getPorts().length);
+
+		Link first = link(a, 41101, "192.168.31.1");
+		Link second = link(a, 41102, "192.168.31.2");
+		assertEquals(0, a.addLink(first));
+		assertEquals(1, a.addLink(second));
+		try {
+			a.addLink(link(a, 41103, "192.168.31.3"));
+			fail("added a link past the last port");
+		} catch (NoAvailablePortsException e) {
+			// as it should
+		}
+
+		// the lowest free port is reused
+		a.removeLinkAtPort(0);
+		assertNull(a.getPorts()[0]);
+		Link third = link(a, 41103, "192.168.31.3");
+		assertEquals(0, a.addLink(third));
+		assertSame(third, a.getPorts()[0]);
+		assertSame(second, a.getPorts()[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void needsAtLeastOnePort() {
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ports", "0");
+		this.router("memory", 41004, "192.168.30.6", config);
+	}
+
+	/**
+	 * Links are found by neighbor, and a second link to the same neighbor
+	 * (by simulated ip or by process) is refused, however many ports there
+	 * are
+	 */
+	@Test
+	public void linksAreIndexedByNeighbor() throws Exception {
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.ports", "1000");
+		Router a = this.router("memory", 41005, "192.168.30.7", config);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, a.addLink(link(a, 50000 + i, "10.1." + (i / 256) + "." + (i % 256))));
+		}
+		for (Link duplicate : new Link[] { link(a, 49999, "10.1.2.3"), link(a, 50515, "192.168.32.1") }) {
+			try {
+				a.addLink(duplicate);
+				fail("added a second link to " + duplicate.getRouter2().getSimulatedIPAddress());
+			} catch (DuplicateLinkException e) {
+				// as it should
+			}
+		}
+
+		a.updateLinkStatusFromSourceIp(RouterId.parse("10.1.2.3"), RouterStatus.TWO_WAY);
+		assertEquals(RouterStatus.TWO_WAY, a.getPorts()[2 * 256 + 3].getRouter2().getStatus());
+
+		// once removed, neither index has it
+		a.removeLinkAtPort(2 * 256 + 3);
+		assertEquals(2 * 256 + 3, a.addLink(link(a, 50000 + 2 * 256 + 3, "10.1.2.3")));
+	}
+
+	/**
+	 * Each router's server removes its link while the other's REMOVELINK is
+	 * still waiting on it for an answer, which once deadlocked the two
+	 */
+	@Test(timeout = 30000)
+	public void neighborsCanDisconnectEachOtherAtOnce() throws Exception {
+		final Router a = this.router("memory", 41001, "192.168.30.1");
+		final Router b = this.router("memory", 41002, "192.168.30.2");
+		for (int round = 0; round < 20; round++) {
+			a.execute("attach 127.0.0.1 41002 192.168.30.2 1");
+			awaitLinks(a, 1);
+			awaitLinks(b, 1);
+
+			Thread other = new Thread() {
+				@Override
+				public void run() {
+					b.execute("disconnect 0");
+				}
+			};
+			other.start();
+			a.execute("disconnect 0");
+			other.join();
+			awaitLinks(a, 0);
+			awaitLinks(b, 0);
+		}
+	}
+
+	@Test
+	public void unreachableNeighborTakesItsLinkDown() throws Exception {
+		ServerSocket free = new ServerSocket(0);
+		int nobody = free.getLocalPort();
+		free.close();
+		Router a = this.router("tcp", 0, "192.168.30.3");
+		a.execute("attach 127.0.0.1 " + nobody + " 192.168.30.4 1");
+		// the ADDLINK can't be sent, so the link is taken down again rather
+		// than the JVM
+		awaitLinks(a, 0);
+		assertFalse(a.isStopped());
+		a.execute("attach 127.0.0.1 " + nobody + " 192.168.30.4 1");
+		awaitLinks(a, 0);
+	}
+
+	/**
+	 * Starts a line of routers, a -- b -- c, and waits until each has a route
+	 * to the others
+	 */
+	private Router[] line(int basePort, String dataTtl) throws InterruptedException {
+		Router[] line = new Router[3];
+		for (int i = 0; i < line.length; i++) {
+			Configuration config = new Configuration();
+			config.addEntry("socs.network.router.data_ttl", dataTtl);
+			line[i] = this.router("memory", basePort + i, "192.168.33." + (i + 1), config);
+		}
+		line[0].execute("attach 127.0.0.1 " + (basePort + 1) + " 192.168.33.2 1");
+		line[1].execute("attach 127.0.0.1 " + (basePort + 2) + " 192.168.33.3 1");
+		for (Router router : line) {
+			router.execute("start");
+		}
+		long deadline = System.currentTimeMillis() + 10000;
+		for (Router router : line) {
+			for (Router other : line) {
+				RouterId ip = other.getRd().getSimulatedIPAddress();
+				while (router != other && router.getLsd().getRoutingTable().get(ip) == null
+						&& System.currentTimeMillis() < deadline) {
+					Thread.sleep(5);
+				}
+			}
+		}
+		return line;
+	}
+
+	private static void awaitDataCount(Router router, boolean delivered, long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((delivered ? router.getMetrics().getDataDelivered() : router.getMetrics().getDataDropped()) < count
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, delivered ? router.getMetrics().getDataDelivered() : router.getMetrics().getDataDropped());
+	}
+
+	@Test(timeout = 30000)
+	public void dataIsForwardedHopByHop() throws Exception {
+		Router[] line = this.line(41010, "64");
+		RouterId c = line[2].getRd().getSimulatedIPAddress();
+		for (int i = 0; i < 3; i++) {
+			assertTrue(line[0].sendData(c, "hello".getBytes(StandardCharsets.UTF_8)));
+		}
+		awaitDataCount(line[2], true, 3);
+		// through b, which kept none of them
+		assertEquals(3, line[1].getMetrics().of(MessageType.DATA).getReceived());
+		assertEquals(3, line[1].getMetrics().of(MessageType.DATA).getSent());
+		assertEquals(0, line[1].getMetrics().getDataDelivered());
+
+		// and back the other way
+		assertTrue(line[2].sendData(line[0].getRd().getSimulatedIPAddress(), new byte[0]));
+		awaitDataCount(line[0], true, 1);
+
+		// nowhere to go
+		assertFalse(line[0].sendData(RouterId.parse("192.168.34.1"), new byte[0]));
+		assertEquals(1, line[0].getMetrics().getDataDropped());
+	}
+
+	@Test(timeout = 30000)
+	public void dataIsDroppedAtTheHopLimit() throws Exception {
+		Router[] line = this.line(41020, "1");
+		assertTrue(line[0].sendData(line[2].getRd().getSimulatedIPAddress(), new byte[0]));
+		awaitDataCount(line[1], false, 1);
+		assertEquals(0, line[2].getMetrics().getDataDelivered());
+	}
+}
@@ -0,0 +1,174 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import socs.network.message.RouterId;
+
+public class RoutingTableTest {
+
+	@Test
+	public void patchedTablesMatchRebuiltTables() {
+		Random random = new Random(1);
+		this.checkPatches(TestNetwork.random(40, 40, 1, 4, random), random, 1, 4);
+	}
+
+	@Test
+	public void patchedTablesMatchRebuiltTablesWithZeroWeights() {
+		Random random = new Random(2);
+		this.checkPatches(TestNetwork.random(40, 40, 0, 2, random), random, 0, 2);
+	}
+
+	/**
+	 * Checks the next hops and number of paths of every route in the tables
+	 * made from the last one against Floyd-Warshall, as the network changes:
+	 * the next hops are the root's neighbors that a shortest path leaves
+	 * through, and the paths are counted in order of distance, which with no
+	 * links of weight 0 puts every router after the ones before it
+	 */
+	@Test
+	public void nextHopsMatchFloydWarshall() {
+		Random random = new Random(3);
+		TestNetwork network = TestNetwork.random(40, 40, 1, 3, random);
+		ShortestPathTree tree = new ShortestPathTree(TestNetwork.ip(0));
+		tree.rebuild(network.lsas());
+		RoutingTable table = new RoutingTable(0, tree, null);
+		for (int version = 1; version <= 200; version++) {
+			int[] changed = network.change(random, 1, 3);
+			tree.update(network.lsas(), Arrays.asList(TestNetwork.ip(changed[0]), TestNetwork.ip(changed[1])));
+			table = new RoutingTable(version, tree, table);
+
+			int n = network.size();
+			long[][] d = network.distances();
+			long[][] avoidingRoot = network.distances(0);
+			Integer[] byDistance = new Integer[n];
+			for (int r = 0; r < n; r++) {
+				byDistance[r] = r;
+			}
+			final long[] fromRoot = d[0];
+			Arrays.sort(byDistance, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(fromRoot[a], fromRoot[b]);
+				}
+			});
+			long[] pathCounts = new long[n];
+			pathCounts[0] = 1;
+			for (int v : byDistance) {
+				if (v == 0 || fromRoot[v] == ShortestPathTree.UNREACHABLE) {
+					continue;
+				}
+				for (int u = 0; u < n; u++) {
+					int w = network.weight(u, v);
+					if (w != TestNetwork.NO_LINK && fromRoot[u] != ShortestPathTree.UNREACHABLE
+							&& fromRoot[u] + w == fromRoot[v]) {
+						pathCounts[v] += pathCounts[u];
+					}
+				}
+			}
+
+			for (int t = 1; t < n; t++) {
+				RoutingTable.RouteEntry route = table.get(TestNetwork.ip(t));
+				if (fromRoot[t] == ShortestPathTree.UNREACHABLE) {
+					assertNull(route);
+					continue;
+				}
+				List<RouterId> nextHops = new ArrayList<RouterId>();
+				for (int v = 1; v < n; v++) {
+					int w = network.weight(0, v);
+					if (w != TestNetwork.NO_LINK && w + avoidingRoot[v][t] == fromRoot[t]) {
+						nextHops.add(TestNetwork.ip(v));
+					}
+				}
+				assertEquals("next hops to " + t, nextHops, this.nextHops(route));
+				assertEquals("paths to " + t, pathCounts[t], route.getPathCount());
+				assertEquals(Math.min(pathCounts[t], 100), table.getEqualCostPaths(TestNetwork.ip(t), 100).size());
+			}
+		}
+	}
+
+	/**
+	 * Makes random changes to the network one at a time, and checks that the
+	 * table made from the last one after each is the same as one built from
+	 * scratch, and shares every route it says didn't change
+	 */
+	private void checkPatches(TestNetwork network, Random random, int minWeight, int maxWeight) {
+		ShortestPathTree tree = new ShortestPathTree(TestNetwork.ip(0));
+		tree.rebuild(network.lsas());
+		RoutingTable table = new RoutingTable(0, tree, null);
+		int patched = 0;
+		for (int version = 1; version <= 300; version++) {
+			int[] changed = network.change(random, minWeight, maxWeight);
+			tree.update(network.lsas(), Arrays.asList(TestNetwork.ip(changed[0]), TestNetwork.ip(changed[1])));
+			RoutingTable previous = table;
+			table = new RoutingTable(version, tree, previous);
+			this.assertSameRoutes(network, new RoutingTable(version, tree), table);
+
+			if (table.getChangedDestinations() == null) {
+				continue;
+			}
+			patched++;
+			assertEquals(previous.getVersion(), table.getPreviousVersion());
+			HashSet<RouterId> changedDestinations = new HashSet<RouterId>(table.getChangedDestinations());
+			for (int r = 0; r < network.size(); r++) {
+				RouterId ip = TestNetwork.ip(r);
+				if (!changedDestinations.contains(ip)) {
+					assertSame(previous.get(ip), table.get(ip));
+				}
+			}
+		}
+		assertTrue(patched > 150);
+	}
+
+	private void assertSameRoutes(TestNetwork network, RoutingTable expected, RoutingTable actual) {
+		assertEquals(expected.getRoutes().size(), actual.getRoutes().size());
+		assertEquals(expected.isMissingLsas(), actual.isMissingLsas());
+		// the numbers of the sets can differ, but not which routes share one
+		Map<Integer, List<RouterId>> sets = new HashMap<Integer, List<RouterId>>();
+		for (int r = 0; r < network.size(); r++) {
+			RouterId ip = TestNetwork.ip(r);
+			RoutingTable.RouteEntry a = expected.get(ip);
+			RoutingTable.RouteEntry b = actual.get(ip);
+			if (a == null) {
+				assertNull(b);
+				continue;
+			}
+			assertEquals(a.getCost(), b.getCost());
+			assertEquals(a.getNextHopIp(), b.getNextHopIp());
+			assertEquals(a.getPath(), b.getPath());
+			assertEquals(this.nextHops(a), this.nextHops(b));
+			assertEquals(a.getPathCount(), b.getPathCount());
+			assertEquals(expected.getEqualCostPaths(ip, 100), actual.getEqualCostPaths(ip, 100));
+
+			assertTrue(b.getNextHopSet() < actual.getNextHopSetCount());
+			List<RouterId> set = sets.get(b.getNextHopSet());
+			if (set == null) {
+				sets.put(b.getNextHopSet(), this.nextHops(b));
+			} else {
+				assertEquals(set, this.nextHops(b));
+			}
+		}
+		assertEquals(sets.size(), new HashSet<List<RouterId>>(sets.values()).size());
+	}
+
+	private List<RouterId> nextHops(RoutingTable.RouteEntry route) {
+		List<RouterId> nextHops = new ArrayList<RouterId>();
+		for (int i = 0; i < route.getNextHopCount(); i++) {
+			nextHops.add(route.getNextHopIp(i));
+		}
+		return nextHops;
+	}
+}
@@ -0,0 +1,74 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.RouterId;
+
+public class SeenLsaCacheTest {
+
+	private static final RouterId ORIGIN = RouterId.parse("192.168.1.1");
+
+	private static Vector<LSA> lsas(LSA... lsas) {
+		return new Vector<LSA>(Arrays.asList(lsas));
+	}
+
+	@Test
+	public void duplicatesAreSuppressedAndCounted() {
+		SeenLsaCache cache = new SeenLsaCache(16, 60000);
+		LSA lsa = new LSA(ORIGIN, 3);
+		LSA other = new LSA(RouterId.parse("192.168.1.2"), 3);
+		cache.markSeen(lsas(lsa));
+
+		// another copy of the same version, from another neighbor
+		assertEquals(lsas(other), cache.filterUnseen(lsas(new LSA(ORIGIN, 3), other)));
+		assertEquals(0, cache.filterUnseen(lsas(new LSA(ORIGIN, 3))).size());
+		assertEquals(2, cache.getSuppressed());
+	}
+
+	@Test
+	public void newerVersionsGoThrough() {
+		SeenLsaCache cache = new SeenLsaCache(16, 60000);
+		cache.markSeen(lsas(new LSA(ORIGIN, 3)));
+
+		Vector<LSA> newer = lsas(new LSA(ORIGIN, 4));
+		assertSame(newer, cache.filterUnseen(newer));
+		assertEquals(0, cache.getSuppressed());
+
+		// and once seen, are suppressed in turn
+		cache.markSeen(newer);
+		assertEquals(0, cache.filterUnseen(lsas(new LSA(ORIGIN, 4))).size());
+		assertEquals(1, cache.getSuppressed());
+	}
+
+	@Test
+	public void forgetsTheOldestPastItsCapacity() {
+		SeenLsaCache cache = new SeenLsaCache(2, 60000);
+		cache.markSeen(lsas(new LSA(ORIGIN, 1), new LSA(ORIGIN, 2)));
+		cache.markSeen(lsas(new LSA(ORIGIN, 3)));
+		assertEquals(2, cache.size());
+
+		// the first has been forgotten, so it goes through again
+		Vector<LSA> first = lsas(new LSA(ORIGIN, 1));
+		assertSame(first, cache.filterUnseen(first));
+		assertEquals(0, cache.filterUnseen(lsas(new LSA(ORIGIN, 2), new LSA(ORIGIN, 3))).size());
+		assertEquals(2, cache.getSuppressed());
+	}
+
+	@Test
+	public void forgetsLsasPastTheirMaxAge() throws InterruptedException {
+		SeenLsaCache cache = new SeenLsaCache(16, 10);
+		cache.markSeen(lsas(new LSA(ORIGIN, 1)));
+		Thread.sleep(50);
+
+		Vector<LSA> again = lsas(new LSA(ORIGIN, 1));
+		assertSame(again, cache.filterUnseen(again));
+		assertEquals(0, cache.size());
+	}
+}
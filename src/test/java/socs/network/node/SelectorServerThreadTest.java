@@ -0,0 +1,90 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import socs.network.message.MessageType;
+import socs.network.message.RouterId;
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+import socs.network.util.Configuration;
+
+public class SelectorServerThreadTest {
+
+	private Router router;
+	private int port;
+
+	/**
+	 * Starts the router, with handlers on the event loop or on a pool of
+	 * serverThreads threads
+	 */
+	private void start(int serverThreads) throws Exception {
+		ServerSocket free = new ServerSocket(0);
+		this.port = free.getLocalPort();
+		free.close();
+
+		Configuration config = new Configuration();
+		config.addEntry("socs.network.router.actual_ip", "127.0.0.1");
+		config.addEntry("socs.network.router.port", Integer.toString(this.port));
+		config.addEntry("socs.network.router.simulated_ip", "192.168.10.1");
+		config.addEntry("socs.network.router.server", "selector");
+		config.addEntry("socs.network.router.server_threads", Integer.toString(serverThreads));
+		this.router = new Router(config);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!this.router.getServer().isListening() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (this.router != null) {
+			this.router.shutdown();
+		}
+	}
+
+	@Test
+	public void failedRequestClosesOnlyItsConnection() throws Exception {
+		this.start(0);
+		this.checkFailedRequestClosesOnlyItsConnection();
+	}
+
+	@Test
+	public void failedRequestOnPoolClosesOnlyItsConnection() throws Exception {
+		this.start(2);
+		this.checkFailedRequestClosesOnlyItsConnection();
+	}
+
+	private void checkFailedRequestClosesOnlyItsConnection() throws IOException {
+		Socket healthy = new Socket("127.0.0.1", this.port);
+		Socket broken = new Socket("127.0.0.1", this.port);
+		try {
+			healthy.setSoTimeout(5000);
+			broken.setSoTimeout(5000);
+
+			// a HELLO from a router we have no link to makes the handler throw
+			WireFormat.write(new DataOutputStream(broken.getOutputStream()), new SOSPFPacket(MessageType.HELLO,
+					"127.0.0.1", 1, RouterId.parse("192.168.10.99")));
+			assertNull(WireFormat.read(new DataInputStream(broken.getInputStream())));
+
+			// while the other connection is still served
+			SOSPFPacket addLink = new SOSPFPacket(MessageType.ADDLINK, "127.0.0.1", 2, RouterId.parse("192.168.10.2"),
+					3);
+			WireFormat.write(new DataOutputStream(healthy.getOutputStream()), addLink);
+			SOSPFPacket response = WireFormat.read(new DataInputStream(healthy.getInputStream()));
+			assertEquals(MessageType.SUCCESS, response.getMessageType());
+		} finally {
+			healthy.close();
+			broken.close();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.RouterId;
+
+public class ShortestPathTreeTest {
+
+	@Test
+	public void repairsMatchFloydWarshall() {
+		Random random = new Random(1);
+		this.checkRepairs(TestNetwork.random(40, 40, 1, 9, random), random, 1, 9);
+	}
+
+	@Test
+	public void repairsMatchFloydWarshallWithZeroWeights() {
+		Random random = new Random(2);
+		this.checkRepairs(TestNetwork.random(40, 40, 0, 3, random), random, 0, 3);
+	}
+
+	@Test
+	public void rebuildMatchesFloydWarshall() {
+		Random random = new Random(3);
+		TestNetwork network = TestNetwork.random(60, 90, 0, 9, random);
+		ShortestPathTree tree = new ShortestPathTree(TestNetwork.ip(0));
+		tree.rebuild(network.lsas());
+		assertTrue(tree.isRebuilt());
+		this.checkTree(network, tree);
+	}
+
+	@Test
+	public void countsReachableRoutersWithoutLsas() {
+		TestNetwork network = new TestNetwork(3);
+		network.link(0, 1, 1);
+		network.link(1, 2, 1);
+		Map<RouterId, LSA> lsas = network.lsas();
+		lsas.remove(TestNetwork.ip(2));
+		ShortestPathTree tree = new ShortestPathTree(TestNetwork.ip(0));
+		tree.rebuild(lsas);
+		assertTrue(tree.isMissingLsas());
+
+		// out of reach, it doesn't count
+		network.unlink(1, 2);
+		lsas.put(TestNetwork.ip(1), network.lsa(1));
+		tree.update(lsas, Arrays.asList(TestNetwork.ip(1)));
+		assertFalse(tree.isMissingLsas());
+
+		network.link(1, 2, 1);
+		lsas.put(TestNetwork.ip(1), network.lsa(1));
+		tree.update(lsas, Arrays.asList(TestNetwork.ip(1)));
+		assertTrue(tree.isMissingLsas());
+
+		lsas = network.lsas();
+		tree.update(lsas, Arrays.asList(TestNetwork.ip(2)));
+		assertFalse(tree.isMissingLsas());
+	}
+
+	/**
+	 * Makes random changes to the network one at a time, repairing the tree
+	 * after each, and checks the tree and what it says changed against the
+	 * tree before
+	 */
+	private void checkRepairs(TestNetwork network, Random random, int minWeight, int maxWeight) {
+		ShortestPathTree tree = new ShortestPathTree(TestNetwork.ip(0));
+		tree.rebuild(network.lsas());
+		for (int step = 0; step < 300; step++) {
+			int n = tree.size();
+			int[] distances = new int[n];
+			int[] parents = new int[n];
+			List<List<Integer>> paths = new ArrayList<List<Integer>>();
+			for (int v = 0; v < n; v++) {
+				distances[v] = tree.getDistance(v);
+				parents[v] = tree.getParent(v);
+				paths.add(this.path(tree, v));
+			}
+
+			int[] changed = network.change(random, minWeight, maxWeight);
+			tree.update(network.lsas(), Arrays.asList(TestNetwork.ip(changed[0]), TestNetwork.ip(changed[1])));
+			assertFalse(tree.isRebuilt());
+			this.checkTree(network, tree);
+
+			HashSet<Integer> moved = new HashSet<Integer>();
+			for (int i = 0; i < tree.getMovedCount(); i++) {
+				moved.add(tree.getMoved()[i]);
+			}
+			HashSet<Integer> rerouted = new HashSet<Integer>();
+			for (int i = 0; i < tree.getReroutedCount(); i++) {
+				int v = tree.getRerouted()[i];
+				assertTrue("rerouted twice: " + v, rerouted.add(v));
+				assertTrue(tree.isRerouted(v));
+				int p = tree.getParent(v);
+				assertTrue("listed before its parent: " + v, !tree.isRerouted(p) || rerouted.contains(p));
+			}
+			for (int v = 0; v < n; v++) {
+				if (tree.getDistance(v) != distances[v] || tree.getParent(v) != parents[v]) {
+					assertTrue("not listed as moved: " + v, moved.contains(v));
+				}
+				boolean reachable = tree.getDistance(v) != ShortestPathTree.UNREACHABLE;
+				if (reachable && !this.path(tree, v).equals(paths.get(v))) {
+					assertTrue("not listed as rerouted: " + v, rerouted.contains(v));
+				}
+				assertEquals(reachable && rerouted.contains(v), tree.isRerouted(v));
+			}
+		}
+	}
+
+	/**
+	 * Checks the distances against Floyd-Warshall, and that each router's
+	 * parent is on a shortest path to it and has it as a child
+	 */
+	private void checkTree(TestNetwork network, ShortestPathTree tree) {
+		long[] expected = network.distances()[0];
+		for (int r = 0; r < network.size(); r++) {
+			int v = tree.idOf(TestNetwork.ip(r));
+			assertEquals("distance to " + r, expected[r], tree.getDistance(v));
+			int p = tree.getParent(v);
+			if (r == 0 || expected[r] == ShortestPathTree.UNREACHABLE) {
+				assertEquals(ShortestPathTree.NONE, p);
+				continue;
+			}
+			int weight = network.weight(TestNetwork.router(tree.ipOf(p)), r);
+			assertTrue(weight != TestNetwork.NO_LINK);
+			assertEquals(tree.getDistance(v), tree.getDistance(p) + weight);
+			boolean child = false;
+			for (int c = tree.getFirstChild(p); c != ShortestPathTree.NONE; c = tree.getNextSibling(c)) {
+				child |= c == v;
+			}
+			assertTrue(child);
+		}
+	}
+
+	private List<Integer> path(ShortestPathTree tree, int v) {
+		List<Integer> path = new ArrayList<Integer>();
+		for (; v != ShortestPathTree.NONE; v = tree.getParent(v)) {
+			path.add(v);
+		}
+		return path;
+	}
+}
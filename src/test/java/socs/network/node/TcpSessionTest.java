@@ -0,0 +1,120 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.message.MessageType;
+import socs.network.message.RouterId;
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+public class TcpSessionTest {
+
+	private ServerSocket server;
+	private TcpSession session;
+
+	@Before
+	public void setUp() throws IOException {
+		this.server = new ServerSocket(0);
+		this.server.setSoTimeout(500);
+		RouterDescription dest = new RouterDescription("127.0.0.1", this.server.getLocalPort(),
+				RouterId.parse("192.168.1.2"));
+		this.session = new TcpSession(dest, new RouterMetrics(null));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.session.close();
+		this.server.close();
+	}
+
+	private SOSPFPacket hello() {
+		return new SOSPFPacket(MessageType.HELLO, "127.0.0.1", 1, RouterId.parse("192.168.1.1"));
+	}
+
+	@Test
+	public void sendsOverOneConnection() throws IOException {
+		this.session.send(this.hello());
+		this.session.send(this.hello());
+		Socket accepted = this.server.accept();
+		try {
+			DataInputStream in = new DataInputStream(accepted.getInputStream());
+			assertEquals(MessageType.HELLO, WireFormat.decode(WireFormat.readFrame(in)).getMessageType());
+			assertEquals(MessageType.HELLO, WireFormat.decode(WireFormat.readFrame(in)).getMessageType());
+		} finally {
+			accepted.close();
+		}
+	}
+
+	@Test
+	public void neverReopensOnceClosed() throws IOException {
+		this.session.send(this.hello());
+		this.server.accept().close();
+		this.session.close();
+
+		try {
+			this.session.send(this.hello());
+			fail("sent over a closed session");
+		} catch (ClosedChannelException e) {
+			// as it should
+		}
+		try {
+			this.session.receive();
+			fail("received over a closed session");
+		} catch (ClosedChannelException e) {
+			// as it should
+		}
+		assertFalse(this.session.isOpen());
+		try {
+			this.server.accept().close();
+			fail("a closed session connected again");
+		} catch (SocketTimeoutException e) {
+			// nothing tried to
+		}
+	}
+
+	/**
+	 * A REMOVELINK handler closes the session while the router is locked, so
+	 * it mustn't wait for an exchange that may be waiting on the router
+	 */
+	@Test(timeout = 5000)
+	public void closeDoesNotWaitForAnExchangeInFlight() throws Exception {
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		Thread client = new Thread() {
+			@Override
+			public void run() {
+				try {
+					TcpSessionTest.this.session.exchange(TcpSessionTest.this.hello());
+				} catch (IOException e) {
+					failure.set(e);
+				}
+			}
+		};
+		client.start();
+		// the request arrives, and is never answered
+		Socket accepted = this.server.accept();
+		try {
+			WireFormat.readFrame(new DataInputStream(accepted.getInputStream()));
+			this.session.close();
+			client.join();
+		} finally {
+			accepted.close();
+		}
+		assertTrue(String.valueOf(failure.get()), failure.get() instanceof ClosedChannelException);
+		assertFalse(this.session.isOpen());
+	}
+}
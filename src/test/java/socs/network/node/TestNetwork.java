@@ -0,0 +1,188 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.Prefix;
+import socs.network.message.RouterId;
+
+/**
+ * A network for tests to compute paths over: routers 0..size-1 at 10.0.x.y,
+ * and symmetric links between them and the prefixes each advertises, which
+ * can be changed as the test goes
+ */
+final class TestNetwork {
+
+	static final int NO_LINK = -1;
+
+	private final int size;
+	// weights[a][b], or NO_LINK
+	private final int[][] weights;
+	// each router's LSA sequence number, bumped whenever its links or
+	// prefixes change
+	private final int[] seqs;
+	private final List<List<Prefix>> prefixes = new ArrayList<List<Prefix>>();
+
+	TestNetwork(int size) {
+		this.size = size;
+		this.weights = new int[size][size];
+		for (int[] row : this.weights) {
+			Arrays.fill(row, NO_LINK);
+		}
+		this.seqs = new int[size];
+		Arrays.fill(this.seqs, 1);
+		for (int router = 0; router < size; router++) {
+			this.prefixes.add(new ArrayList<Prefix>());
+		}
+	}
+
+	/**
+	 * A ring of all the routers, so every one can reach every other, plus
+	 * extraLinks random chords, with weights from minWeight to maxWeight
+	 */
+	static TestNetwork random(int size, int extraLinks, int minWeight, int maxWeight, Random random) {
+		TestNetwork network = new TestNetwork(size);
+		for (int a = 0; a < size && size > 1; a++) {
+			network.link(a, (a + 1) % size, minWeight + random.nextInt(maxWeight - minWeight + 1));
+		}
+		for (int k = 0; k < extraLinks; k++) {
+			int a = random.nextInt(size);
+			int b = random.nextInt(size);
+			if (a != b) {
+				network.link(a, b, minWeight + random.nextInt(maxWeight - minWeight + 1));
+			}
+		}
+		return network;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	static RouterId ip(int router) {
+		return RouterId.of(0x0A000000 | (router + 1));
+	}
+
+	static int router(RouterId ip) {
+		return (ip.toInt() & 0xFFFFFF) - 1;
+	}
+
+	int weight(int a, int b) {
+		return this.weights[a][b];
+	}
+
+	void link(int a, int b, int weight) {
+		this.weights[a][b] = weight;
+		this.weights[b][a] = weight;
+		this.seqs[a]++;
+		this.seqs[b]++;
+	}
+
+	void unlink(int a, int b) {
+		this.link(a, b, NO_LINK);
+	}
+
+	/**
+	 * Makes one random change: links two routers that aren't linked, or
+	 * changes the weight of the link between two that are, or unlinks them
+	 *
+	 * @return the two routers whose LSAs changed
+	 */
+	int[] change(Random random, int minWeight, int maxWeight) {
+		int a = random.nextInt(this.size);
+		int b = (a + 1 + random.nextInt(this.size - 1)) % this.size;
+		if (this.weights[a][b] != NO_LINK && random.nextInt(3) == 0) {
+			this.unlink(a, b);
+		} else {
+			this.link(a, b, minWeight + random.nextInt(maxWeight - minWeight + 1));
+		}
+		return new int[] { a, b };
+	}
+
+	void advertise(int router, Prefix prefix) {
+		this.prefixes.get(router).add(prefix);
+		this.seqs[router]++;
+	}
+
+	boolean advertises(int router, Prefix prefix) {
+		return this.prefixes.get(router).contains(prefix);
+	}
+
+	void withdraw(int router, Prefix prefix) {
+		this.prefixes.get(router).remove(prefix);
+		this.seqs[router]++;
+	}
+
+	/**
+	 * @return the router's current LSA, its links in the order of the
+	 *         routers they go to, each on a port of its own
+	 */
+	LSA lsa(int router) {
+		List<LinkDescription> links = new ArrayList<LinkDescription>();
+		for (int b = 0; b < this.size; b++) {
+			if (this.weights[router][b] != NO_LINK) {
+				links.add(new LinkDescription(ip(b), links.size(), this.weights[router][b]));
+			}
+		}
+		List<Prefix> prefixes = this.prefixes.get(router);
+		return new LSA(ip(router), this.seqs[router], links.toArray(new LinkDescription[links.size()]),
+				prefixes.toArray(new Prefix[prefixes.size()]));
+	}
+
+	Map<RouterId, LSA> lsas() {
+		Map<RouterId, LSA> lsas = new HashMap<RouterId, LSA>();
+		for (int router = 0; router < this.size; router++) {
+			lsas.put(ip(router), this.lsa(router));
+		}
+		return lsas;
+	}
+
+	/**
+	 * @return the length of the shortest path between every pair of routers,
+	 *         by Floyd-Warshall, or ShortestPathTree.UNREACHABLE
+	 */
+	long[][] distances() {
+		return this.distances(-1);
+	}
+
+	/**
+	 * @param avoiding
+	 *            - a router no path may pass through, or -1
+	 * @return the length of the shortest path between every pair of routers,
+	 *         by Floyd-Warshall, or ShortestPathTree.UNREACHABLE
+	 */
+	long[][] distances(int avoiding) {
+		long[][] d = new long[this.size][this.size];
+		for (int a = 0; a < this.size; a++) {
+			for (int b = 0; b < this.size; b++) {
+				d[a][b] = a == b ? 0 : this.weights[a][b] == NO_LINK ? Long.MAX_VALUE / 4 : this.weights[a][b];
+			}
+		}
+		for (int k = 0; k < this.size; k++) {
+			if (k == avoiding) {
+				continue;
+			}
+			for (int a = 0; a < this.size; a++) {
+				for (int b = 0; b < this.size; b++) {
+					if (d[a][k] + d[k][b] < d[a][b]) {
+						d[a][b] = d[a][k] + d[k][b];
+					}
+				}
+			}
+		}
+		for (long[] row : d) {
+			for (int b = 0; b < row.length; b++) {
+				if (row[b] >= Long.MAX_VALUE / 4) {
+					row[b] = ShortestPathTree.UNREACHABLE;
+				}
+			}
+		}
+		return d;
+	}
+}
@@ -0,0 +1,50 @@
+package socs.network.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import socs.network.message.RouterId;
+import socs.network.node.RoutingTable;
+
+public class SimulationTest {
+
+	private Simulation simulation;
+
+	@After
+	public void tearDown() {
+		if (this.simulation != null) {
+			this.simulation.shutdown();
+		}
+	}
+
+	/**
+	 * A small grid, all in memory, converges to the shortest paths
+	 */
+	@Test(timeout = 60000)
+	public void gridConverges() throws Exception {
+		TopologyDescription topology = new TopologyDescription();
+		topology.addGrid(3, 3);
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put("socs.network.router.transport", "memory");
+		settings.put("socs.network.sim.base_port", "42000");
+		this.simulation = new Simulation(topology, settings);
+
+		this.simulation.launch(10000);
+		this.simulation.attach(10000);
+		this.simulation.start();
+		assertTrue(this.simulation.awaitConvergence(30000));
+		assertTrue(this.simulation.isConverged());
+
+		// corner to corner is four hops
+		RoutingTable.RouteEntry route = this.simulation.getRouter("10.0.0.0").getLsd().getRoutingTable()
+				.get(RouterId.parse("10.0.0.8"));
+		assertEquals(4, route.getCost());
+		assertEquals(6, route.getPathCount());
+	}
+}
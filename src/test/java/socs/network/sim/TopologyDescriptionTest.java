@@ -0,0 +1,74 @@
+package socs.network.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TopologyDescriptionTest {
+
+	@Test
+	public void declaresRoutersAndLinks() {
+		TopologyDescription topology = new TopologyDescription();
+		topology.declare("# a triangle");
+		topology.declare("router 192.168.1.1");
+		topology.declare("router 192.168.1.2   # with a comment");
+		topology.declare("");
+		topology.declare("router 192.168.1.3");
+		topology.declare("link 192.168.1.1 192.168.1.2 3");
+		topology.declare("link 192.168.1.2 192.168.1.3 1");
+		topology.declare("  link 192.168.1.3 192.168.1.1 2");
+
+		assertEquals(Arrays.asList("192.168.1.1", "192.168.1.2", "192.168.1.3"), topology.getRouterIps());
+		assertEquals(Arrays.asList("192.168.1.1", "192.168.1.3"), topology.getNeighbors("192.168.1.2"));
+		assertEquals(3, topology.getLinks().size());
+		assertEquals(3, topology.getLinks().get(0).getWeight());
+		assertEquals("192.168.1.3", topology.getLinks().get(2).getIpA());
+		assertEquals(2, topology.getMaxDegree());
+	}
+
+	@Test
+	public void generatesRingsAndGrids() {
+		TopologyDescription topology = new TopologyDescription();
+		topology.addRing(5);
+		assertEquals(5, topology.size());
+		assertEquals(5, topology.getLinks().size());
+		assertEquals(Arrays.asList("10.0.0.1", "10.0.0.4"), topology.getNeighbors("10.0.0.0"));
+
+		// numbered on from the ring
+		topology.addGrid(3, 4);
+		assertEquals(17, topology.size());
+		assertEquals(5 + 3 * 3 + 2 * 4, topology.getLinks().size());
+		assertEquals("10.0.0.5", topology.getRouterIps().get(5));
+		// an inner router of the grid has four neighbors
+		assertEquals(4, topology.getNeighbors("10.0.0.10").size());
+		assertEquals(4, topology.getMaxDegree());
+
+		// a ring of two is a single link
+		topology.addRing(2);
+		assertEquals(1, topology.getNeighbors("10.0.0.17").size());
+	}
+
+	@Test
+	public void rejectsBadDeclarations() {
+		for (String line : new String[] { "router 192.168.1", "router", "link 192.168.1.1 192.168.1.9 1",
+				"link 192.168.1.1 192.168.1.1 1", "link 192.168.1.1 192.168.1.2 1", "link 192.168.1.1 192.168.1.2 x",
+				"router 192.168.1.1", "ring 0", "grid 3", "mesh 4" }) {
+			TopologyDescription topology = new TopologyDescription();
+			topology.declare("router 192.168.1.1");
+			topology.declare("router 192.168.1.2");
+			if (line.startsWith("link 192.168.1.1 192.168.1.2 1")) {
+				// linked twice
+				topology.declare(line);
+			}
+			try {
+				topology.declare(line);
+				fail("accepted '" + line + "'");
+			} catch (IllegalArgumentException e) {
+				// as it should
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package socs.network.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+
+	/**
+	 * A key with whatever hash the test gives it, so that keys can be made
+	 * to share slots at any level, or to collide all the way down
+	 */
+	private static final class Key {
+		private final int hash;
+		private final int id;
+
+		Key(int hash, int id) {
+			this.hash = hash;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).id == this.id;
+		}
+
+		@Override
+		public String toString() {
+			return this.id + "#" + Integer.toHexString(this.hash);
+		}
+	}
+
+	@Test
+	public void emptyMapHasNothing() {
+		PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+		assertEquals(0, map.size());
+		assertTrue(map.isEmpty());
+		assertNull(map.get("a"));
+		assertFalse(map.containsKey("a"));
+		assertFalse(map.entrySet().iterator().hasNext());
+	}
+
+	@Test
+	public void withLeavesTheOldMapAsItWas() {
+		PersistentHashMap<String, Integer> a = PersistentHashMap.<String, Integer> empty().with("x", 1);
+		PersistentHashMap<String, Integer> b = a.with("x", 2).with("y", 3);
+		assertEquals(1, a.size());
+		assertEquals(Integer.valueOf(1), a.get("x"));
+		assertFalse(a.containsKey("y"));
+		assertEquals(2, b.size());
+		assertEquals(Integer.valueOf(2), b.get("x"));
+		assertEquals(Integer.valueOf(3), b.get("y"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void putIsUnsupported() {
+		PersistentHashMap.<String, Integer> empty().put("x", 1);
+	}
+
+	@Test
+	public void matchesHashMap() {
+		this.checkAgainstHashMap(new Random(1), 0xFFFFFFFF);
+	}
+
+	@Test
+	public void matchesHashMapWhenHashesShareLowBits() {
+		// only the top bits differ, so keys go deep before parting ways
+		this.checkAgainstHashMap(new Random(2), 0xF0000000);
+	}
+
+	@Test
+	public void matchesHashMapWhenHashesCollide() {
+		// a handful of hashes, each shared by many keys
+		this.checkAgainstHashMap(new Random(3), 0x3);
+	}
+
+	@Test
+	public void withoutLeavesTheOldMapAsItWas() {
+		PersistentHashMap<String, Integer> a = PersistentHashMap.<String, Integer> empty().with("x", 1).with("y", 2);
+		PersistentHashMap<String, Integer> b = a.without("x");
+		assertEquals(2, a.size());
+		assertEquals(Integer.valueOf(1), a.get("x"));
+		assertEquals(1, b.size());
+		assertFalse(b.containsKey("x"));
+		assertEquals(Integer.valueOf(2), b.get("y"));
+		assertTrue(b.without("y").isEmpty());
+		assertTrue(b == b.without("z"));
+	}
+
+	/**
+	 * Adds and removes random keys, with hashes limited to the bits in
+	 * hashMask, keeping every version, and checks each version against a
+	 * HashMap of what it should hold
+	 */
+	private void checkAgainstHashMap(Random random, int hashMask) {
+		List<PersistentHashMap<Key, Integer>> versions = new ArrayList<PersistentHashMap<Key, Integer>>();
+		List<Map<Key, Integer>> expected = new ArrayList<Map<Key, Integer>>();
+		List<Key> keys = new ArrayList<Key>();
+		PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+		Map<Key, Integer> reference = new HashMap<Key, Integer>();
+		for (int i = 0; i < 2000; i++) {
+			Key key;
+			if (keys.isEmpty() || random.nextInt(4) != 0) {
+				key = new Key(random.nextInt() & hashMask, keys.size());
+				keys.add(key);
+			} else {
+				key = keys.get(random.nextInt(keys.size()));
+			}
+			// remove about as often as add once there's a fair number in
+			// the map, so it goes up and down
+			if (reference.size() > 50 && random.nextBoolean()) {
+				map = map.without(key);
+				reference.remove(key);
+			} else {
+				map = map.with(key, i);
+				reference.put(key, i);
+			}
+			if (i % 100 == 0) {
+				versions.add(map);
+				expected.add(new HashMap<Key, Integer>(reference));
+			}
+		}
+		versions.add(map);
+		expected.add(reference);
+
+		// taking everything out leaves the empty map
+		for (Key key : keys) {
+			map = map.without(key);
+		}
+		versions.add(map);
+		expected.add(new HashMap<Key, Integer>());
+
+		for (int v = 0; v < versions.size(); v++) {
+			assertSameEntries(expected.get(v), versions.get(v), keys);
+		}
+	}
+
+	static <K, V> void assertSameEntries(Map<K, V> expected, PersistentHashMap<K, V> map, List<K> keys) {
+		assertEquals(expected.size(), map.size());
+		for (K key : keys) {
+			assertEquals(expected.get(key), map.get(key));
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+		}
+		// iterating finds every entry exactly once
+		Map<K, V> iterated = new HashMap<K, V>();
+		for (Map.Entry<K, V> entry : map.entrySet()) {
+			assertNull(iterated.put(entry.getKey(), entry.getValue()));
+		}
+		assertEquals(expected, iterated);
+		assertEquals(expected, map);
+	}
+}
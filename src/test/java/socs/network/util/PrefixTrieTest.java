@@ -0,0 +1,160 @@
+package socs.network.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PrefixTrieTest {
+
+	@Test
+	public void emptyTrieHasNothing() {
+		PrefixTrie trie = new PrefixTrie();
+		assertEquals(0, trie.size());
+		assertEquals(PrefixTrie.NONE, trie.lookup(0x0A000001));
+	}
+
+	@Test
+	public void longestPrefixWins() {
+		PrefixTrie trie = new PrefixTrie();
+		trie.put(0x0A000000, 8, 1); // 10.0.0.0/8
+		trie.put(0x0A010000, 16, 2); // 10.1.0.0/16
+		trie.put(0x0A010100, 24, 3); // 10.1.1.0/24
+		trie.put(0x0A010105, 32, 4); // 10.1.1.5/32
+		assertEquals(4, trie.size());
+		assertEquals(4, trie.lookup(0x0A010105));
+		assertEquals(3, trie.lookup(0x0A010106));
+		assertEquals(2, trie.lookup(0x0A010201));
+		assertEquals(1, trie.lookup(0x0A020201));
+		assertEquals(PrefixTrie.NONE, trie.lookup(0x0B000001));
+	}
+
+	@Test
+	public void defaultRouteCatchesTheRest() {
+		PrefixTrie trie = new PrefixTrie();
+		trie.put(0, 0, 7);
+		trie.put(0xC0A80000, 16, 8); // 192.168.0.0/16
+		assertEquals(7, trie.lookup(0x08080808));
+		assertEquals(8, trie.lookup(0xC0A80101));
+	}
+
+	@Test
+	public void putReplacesAndIgnoresBitsPastLength() {
+		PrefixTrie trie = new PrefixTrie();
+		trie.put(0x0A0000FF, 24, 1); // 10.0.0.255/24 is 10.0.0.0/24
+		trie.put(0x0A000000, 24, 2);
+		assertEquals(1, trie.size());
+		assertEquals(2, trie.lookup(0x0A000001));
+	}
+
+	@Test
+	public void removeFallsBackToShorterPrefixes() {
+		PrefixTrie trie = new PrefixTrie();
+		trie.put(0x0A000000, 8, 1); // 10.0.0.0/8
+		trie.put(0x0A010000, 16, 2); // 10.1.0.0/16
+		trie.put(0x0A010100, 24, 3); // 10.1.1.0/24
+		trie.remove(0x0A010000, 16);
+		assertEquals(2, trie.size());
+		assertEquals(1, trie.lookup(0x0A010201));
+		// still passed through on the way to 10.1.1.0/24
+		assertEquals(3, trie.lookup(0x0A010101));
+		// not in the trie, or only part way down a node
+		trie.remove(0x0A010000, 16);
+		trie.remove(0x0A010100, 20);
+		trie.remove(0x0B000000, 8);
+		assertEquals(2, trie.size());
+		trie.put(0x0A010000, 16, 4);
+		assertEquals(4, trie.lookup(0x0A010201));
+	}
+
+	@Test
+	public void copiesAreIndependent() {
+		PrefixTrie trie = new PrefixTrie();
+		trie.put(0x0A000000, 8, 1);
+		PrefixTrie copy = new PrefixTrie(trie);
+		copy.put(0x0A010000, 16, 2);
+		copy.remove(0x0A000000, 8);
+		trie.put(0x0B000000, 8, 3);
+		assertEquals(2, trie.size());
+		assertEquals(1, trie.lookup(0x0A010101));
+		assertEquals(3, trie.lookup(0x0B010101));
+		assertEquals(1, copy.size());
+		assertEquals(2, copy.lookup(0x0A010101));
+		assertEquals(PrefixTrie.NONE, copy.lookup(0x0A020101));
+		assertEquals(PrefixTrie.NONE, copy.lookup(0x0B010101));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsLongPrefixes() {
+		new PrefixTrie().put(0, 33, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNone() {
+		new PrefixTrie().put(0, 8, PrefixTrie.NONE);
+	}
+
+	/**
+	 * Puts random prefixes, many of them nested or splitting each other
+	 * part way, and checks lookups against trying every prefix
+	 */
+	@Test
+	public void matchesLinearSearch() {
+		Random random = new Random(1);
+		PrefixTrie trie = new PrefixTrie();
+		List<int[]> prefixes = new ArrayList<int[]>();
+		for (int i = 0; i < 500; i++) {
+			// addresses from a small range, so prefixes overlap
+			int address = 0x0A000000 | (random.nextInt(1 << 12) << 12);
+			int length = random.nextInt(33);
+			trie.put(address, length, i);
+			prefixes.add(new int[] { address & mask(length), length, i });
+		}
+		this.checkLookups(random, trie, prefixes);
+
+		// and again with a third of them taken out
+		for (int i = 0; i < prefixes.size(); i++) {
+			if (random.nextInt(3) == 0) {
+				int[] prefix = prefixes.get(i);
+				trie.remove(prefix[0], prefix[1]);
+				for (int j = prefixes.size() - 1; j >= 0; j--) {
+					if (prefixes.get(j)[0] == prefix[0] && prefixes.get(j)[1] == prefix[1]) {
+						prefixes.remove(j);
+					}
+				}
+				i--;
+			}
+		}
+		this.checkLookups(random, trie, prefixes);
+	}
+
+	private void checkLookups(Random random, PrefixTrie trie, List<int[]> prefixes) {
+		for (int k = 0; k < 20000; k++) {
+			int address = random.nextInt(4) == 0 ? random.nextInt() : 0x0A000000 | random.nextInt(1 << 24);
+			assertEquals(linearSearch(prefixes, address), trie.lookup(address));
+		}
+	}
+
+	/**
+	 * @return the value of the longest prefix containing address, the last
+	 *         put if it was put more than once
+	 */
+	static int linearSearch(List<int[]> prefixes, int address) {
+		int best = PrefixTrie.NONE;
+		int bestLength = -1;
+		for (int[] prefix : prefixes) {
+			if ((address & mask(prefix[1])) == prefix[0] && prefix[1] >= bestLength) {
+				best = prefix[2];
+				bestLength = prefix[1];
+			}
+		}
+		return best;
+	}
+
+	static int mask(int length) {
+		return length == 0 ? 0 : -1 << (32 - length);
+	}
+}
@@ -0,0 +1,52 @@
+package socs.network.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ThreadModeTest {
+
+	@Test
+	public void namesAreCaseInsensitive() {
+		assertEquals(ThreadMode.PLATFORM, ThreadMode.fromName("platform"));
+		assertEquals(ThreadMode.PLATFORM, ThreadMode.fromName("PLATFORM"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownModeIsRejected() {
+		ThreadMode.fromName("green");
+	}
+
+	/**
+	 * Either virtual threads work, or the config is refused up front, saying
+	 * why; never an UnsupportedOperationException once the router is running
+	 */
+	@Test
+	public void virtualNeedsJava21() throws Exception {
+		if (ThreadMode.VIRTUAL.isSupported()) {
+			ExecutorService executor = ThreadMode.fromName("virtual").newExecutor("Test", 1);
+			try {
+				assertNull(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+					}
+				}).get(5, TimeUnit.SECONDS));
+			} finally {
+				executor.shutdown();
+			}
+		} else {
+			try {
+				ThreadMode.fromName("virtual");
+				fail("accepted virtual threads on Java " + System.getProperty("java.version"));
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("Java 21"));
+			}
+		}
+	}
+}